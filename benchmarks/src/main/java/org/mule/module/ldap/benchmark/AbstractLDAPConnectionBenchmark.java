@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for every {@link org.mule.module.ldap.api.LDAPConnection} operation used by the
+ * connector processors. Subclasses only define how many threads share the connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public abstract class AbstractLDAPConnectionBenchmark
+{
+    private static final String PERSON_FILTER = "(objectClass=person)";
+    private static final String[] LOOKUP_ATTRIBUTES = new String[] {"cn", "mail"};
+
+    @Benchmark
+    public LDAPEntry lookup(DirectoryState state, ThreadState thread) throws Exception
+    {
+        return state.connection.lookup(EmbeddedDirectory.personDn(thread.nextPerson(state)));
+    }
+
+    @Benchmark
+    public LDAPEntry lookupAttributes(DirectoryState state, ThreadState thread) throws Exception
+    {
+        return state.connection.lookup(EmbeddedDirectory.personDn(thread.nextPerson(state)), LOOKUP_ATTRIBUTES);
+    }
+
+    @Benchmark
+    public List<LDAPEntry> search(DirectoryState state, ThreadState thread) throws Exception
+    {
+        return search(state, thread, 0);
+    }
+
+    @Benchmark
+    public List<LDAPEntry> pagedSearch(DirectoryState state, ThreadState thread) throws Exception
+    {
+        return search(state, thread, 100);
+    }
+
+    @Benchmark
+    public void addEntry(DirectoryState state, ThreadState thread) throws Exception
+    {
+        String dn = state.nextWriteDn();
+        state.connection.addEntry(EmbeddedDirectory.buildPerson(dn, dn.substring(4, dn.indexOf(','))));
+    }
+
+    @Benchmark
+    public void updateEntry(DirectoryState state, ThreadState thread) throws Exception
+    {
+        LDAPEntry entry = new LDAPEntry(EmbeddedDirectory.personDn(thread.nextPerson(state)));
+        entry.addAttribute("description", "Updated " + thread.nextValue());
+        entry.addAttribute("telephoneNumber", "+1 555 " + thread.nextValue());
+        state.connection.updateEntry(entry);
+    }
+
+    @Benchmark
+    public void updateAttribute(DirectoryState state, ThreadState thread) throws Exception
+    {
+        state.connection.updateAttribute(EmbeddedDirectory.personDn(thread.nextPerson(state)), new LDAPSingleValueEntryAttribute("description", "Updated " + thread.nextValue()));
+    }
+
+    /**
+     * Adds a new value to a multi value attribute and then removes it, so the tree doesn't grow
+     * between iterations. Each invocation is two round trips.
+     */
+    @Benchmark
+    public void addAndDeleteAttribute(DirectoryState state, ThreadState thread) throws Exception
+    {
+        String dn = EmbeddedDirectory.personDn(thread.nextPerson(state));
+        LDAPMultiValueEntryAttribute mail = new LDAPMultiValueEntryAttribute("mail", new Object[] {thread.nextValue() + "@benchmark.org"});
+        state.connection.addAttribute(dn, mail);
+        state.connection.deleteAttribute(dn, mail);
+    }
+
+    private List<LDAPEntry> search(DirectoryState state, ThreadState thread, int pageSize) throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        controls.setPageSize(pageSize);
+
+        LDAPResultSet result = state.connection.search(EmbeddedDirectory.unitDn(thread.nextUnit(state)), PERSON_FILTER, controls);
+        try
+        {
+            return result.getAllEntries();
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.jndi.LDAPJNDIUtils;
+import org.mule.module.ldap.api.jndi.LazyLDAPEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of the attributes returned by the LDAP provider into a {@link LDAPEntry}, without any
+ * directory involved. <code>buildEntry</code> is the conversion done by the connector and
+ * <code>buildEntryEnumeratingValues</code> is the conversion as it was done before: default sized
+ * maps and lists, lower case keys built for every attribute and an enumeration for every multi valued
+ * attribute. Compare their <code>gc.alloc.rate.norm</code> (bytes allocated per entry).
+ * <p/>
+ * <code>buildEntryReadingTwoAttributes</code> and <code>buildLazyEntryReadingTwoAttributes</code> read
+ * <i>mail</i> and <i>memberOf</i> from a standard and from a lazy entry, as most flows do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class BuildEntryBenchmark
+{
+    private static final String DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    /**
+     * Amount of values of the memberOf attribute.
+     */
+    @Param({"1", "25"})
+    public int groups;
+
+    private Attributes attributes;
+
+    @Setup
+    public void setUp()
+    {
+        // Attributes from the LDAP provider ignore the case of their names
+        attributes = new BasicAttributes(true);
+        BasicAttribute objectClass = new BasicAttribute("objectClass");
+        objectClass.add("top");
+        objectClass.add("person");
+        objectClass.add("organizationalPerson");
+        objectClass.add("inetOrgPerson");
+        attributes.put(objectClass);
+        attributes.put("uid", "user1");
+        attributes.put("cn", "User 1");
+        attributes.put("sn", "One");
+        attributes.put("givenName", "User");
+        attributes.put("mail", "user1@mulesoft.org");
+        attributes.put("telephoneNumber", "+1 555 0001");
+        attributes.put("title", "Engineer");
+        attributes.put("departmentNumber", "42");
+        attributes.put("employeeNumber", "1");
+        attributes.put("description", "Generated entry");
+        BasicAttribute memberOf = new BasicAttribute("memberOf");
+        for (int i = 0; i < groups; i++)
+        {
+            memberOf.add("cn=group" + i + ",ou=groups,dc=mulesoft,dc=org");
+        }
+        attributes.put(memberOf);
+    }
+
+    @Benchmark
+    public LDAPEntry buildEntry() throws Exception
+    {
+        return LDAPJNDIUtils.buildEntry(DN, attributes);
+    }
+
+    @Benchmark
+    public void buildEntryReadingTwoAttributes(Blackhole blackhole) throws Exception
+    {
+        readTwoAttributes(LDAPJNDIUtils.buildEntry(DN, attributes), blackhole);
+    }
+
+    @Benchmark
+    public void buildLazyEntryReadingTwoAttributes(Blackhole blackhole) throws Exception
+    {
+        // Lazy entries consume the attributes they convert, so each one gets its own copy
+        readTwoAttributes(new LazyLDAPEntry(DN, (Attributes) attributes.clone()), blackhole);
+    }
+
+    @Benchmark
+    public Attributes cloneAttributes()
+    {
+        // Baseline of the copy made for every lazy entry
+        return (Attributes) attributes.clone();
+    }
+
+    private void readTwoAttributes(LDAPEntry entry, Blackhole blackhole)
+    {
+        blackhole.consume(entry.getAttribute("mail").getValue());
+        blackhole.consume(entry.getAttribute("memberOf").getValues());
+    }
+
+    @Benchmark
+    public Map<String, LDAPEntryAttribute> buildEntryEnumeratingValues() throws Exception
+    {
+        // LDAPEntry now sizes its map and caches its keys, so the previous one is reproduced with a plain map
+        Map<String, LDAPEntryAttribute> entry = new HashMap<String, LDAPEntryAttribute>();
+        for (NamingEnumeration<?> attrs = attributes.getAll(); attrs.hasMore();)
+        {
+            Attribute attribute = (Attribute) attrs.nextElement();
+            LDAPEntryAttribute newAttribute;
+            if (attribute.size() > 1)
+            {
+                LDAPMultiValueEntryAttribute multiValued = new LDAPMultiValueEntryAttribute();
+                multiValued.setName(attribute.getID());
+                NamingEnumeration<?> values = attribute.getAll();
+                while (values.hasMore())
+                {
+                    multiValued.addValue(values.next());
+                }
+                newAttribute = multiValued;
+            }
+            else
+            {
+                LDAPSingleValueEntryAttribute singleValued = new LDAPSingleValueEntryAttribute();
+                singleValued.setName(attribute.getID());
+                singleValued.setValue(attribute.get());
+                newAttribute = singleValued;
+            }
+            entry.put(newAttribute.getName().toLowerCase(), newAttribute);
+        }
+        return entry;
+    }
+}
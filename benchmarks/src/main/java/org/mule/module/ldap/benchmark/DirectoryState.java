@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shared benchmark state: an embedded directory seeded with <code>entries</code> person entries and
+ * one {@link LDAPConnection} bound as the directory administrator. The connection is shared by all
+ * the benchmark threads, exactly as a connector config shares it among flows.
+ */
+@State(Scope.Benchmark)
+public class DirectoryState
+{
+    public static final String PORT_PROPERTY = "ldap.benchmark.port";
+    public static final String DEFAULT_PORT = "10390";
+
+    /**
+     * Amount of person entries in the generated tree (10k to 1M).
+     */
+    @Param({"10000"})
+    public int entries;
+
+    /**
+     * Connection implementation under test (see {@link org.mule.module.ldap.Type}).
+     */
+    @Param({"jndi", "nio"})
+    public String type;
+
+    public EmbeddedDirectory directory;
+    public LDAPConnection connection;
+
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        directory = new EmbeddedDirectory(Integer.parseInt(System.getProperty(PORT_PROPERTY, DEFAULT_PORT)), entries);
+        directory.start();
+
+        connection = openConnection();
+        directory.seed(connection);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        try
+        {
+            if (connection != null)
+            {
+                connection.close();
+            }
+        }
+        finally
+        {
+            directory.stop();
+        }
+    }
+
+    public LDAPConnection openConnection() throws LDAPException
+    {
+        LDAPConnection conn = LDAPConnection.getConnection(type, directory.getUrl(), LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 60000L, "ignore");
+        conn.bind(EmbeddedDirectory.ADMIN_DN, EmbeddedDirectory.ADMIN_PASSWORD);
+        return conn;
+    }
+
+    /**
+     * @return A DN under ou=writes that has never been used before.
+     */
+    public String nextWriteDn()
+    {
+        return "uid=write" + writeSequence.incrementAndGet() + "," + EmbeddedDirectory.WRITES_DN;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.directory.server.core.schema.SchemaInterceptor;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.util.FileUtils;
+import org.springframework.security.ldap.server.ApacheDSContainer;
+
+/**
+ * Embedded ApacheDS directory (the same server used by the functional tests) seeded
+ * with a generated tree of person entries:
+ * <pre>
+ * dc=mulesoft,dc=org
+ *   ou=people
+ *     ou=unit0
+ *       uid=user0 ... uid=user999
+ *     ou=unit1
+ *       uid=user1000 ... uid=user1999
+ *     ...
+ *   ou=writes  (scratch area for the add benchmarks)
+ * </pre>
+ * Each organizational unit holds at most {@link #ENTRIES_PER_UNIT} entries, so ONE_LEVEL
+ * searches under a unit return the same number of entries no matter the size of the tree.
+ */
+public class EmbeddedDirectory
+{
+    private static final Log LOGGER = LogFactory.getLog(EmbeddedDirectory.class);
+
+    public static final String ROOT_DN = "dc=mulesoft,dc=org";
+    public static final String PEOPLE_DN = "ou=people," + ROOT_DN;
+    public static final String WRITES_DN = "ou=writes," + ROOT_DN;
+    public static final String ADMIN_DN = "uid=admin,ou=system";
+    public static final String ADMIN_PASSWORD = "secret";
+    public static final int ENTRIES_PER_UNIT = 1000;
+
+    private final int port;
+    private final int entries;
+    private final File workingDirectory;
+    private ApacheDSContainer server;
+
+    public EmbeddedDirectory(int port, int entries)
+    {
+        this.port = port;
+        this.entries = entries;
+        this.workingDirectory = new File(System.getProperty("java.io.tmpdir") + File.separator + "ldap-connector-benchmark-server-" + port);
+    }
+
+    public void start() throws Exception
+    {
+        FileUtils.deleteDirectory(workingDirectory);
+
+        server = new ApacheDSContainer(ROOT_DN, "classpath:benchmark-server.ldif");
+        server.setWorkingDirectory(workingDirectory);
+        server.setPort(port);
+        server.getService().setAllowAnonymousAccess(true);
+        server.getService().setAccessControlEnabled(false);
+        server.getService().setShutdownHookEnabled(true);
+        server.getService().getInterceptors().add(new SchemaInterceptor());
+        server.afterPropertiesSet(); // This method calls start
+    }
+
+    public void stop() throws Exception
+    {
+        if (server != null)
+        {
+            server.stop();
+            server = null;
+        }
+        FileUtils.deleteDirectory(workingDirectory);
+    }
+
+    /**
+     * Adds {@link #getEntries()} person entries (and the organizational units holding them)
+     * using the given connection.
+     */
+    public void seed(LDAPConnection connection) throws LDAPException
+    {
+        long start = System.currentTimeMillis();
+        for (int unit = 0; unit < getUnitCount(); unit++)
+        {
+            connection.addEntry(buildUnit(unit));
+        }
+        for (int i = 0; i < entries; i++)
+        {
+            connection.addEntry(buildPerson(i));
+            if (LOGGER.isInfoEnabled() && (i + 1) % 10000 == 0)
+            {
+                LOGGER.info("Seeded " + (i + 1) + " of " + entries + " entries");
+            }
+        }
+        LOGGER.info("Seeded " + entries + " entries in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public String getUrl()
+    {
+        return "ldap://localhost:" + port + "/";
+    }
+
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    public int getUnitCount()
+    {
+        return (entries + ENTRIES_PER_UNIT - 1) / ENTRIES_PER_UNIT;
+    }
+
+    public static String unitDn(int unit)
+    {
+        return "ou=unit" + unit + "," + PEOPLE_DN;
+    }
+
+    public static String personDn(int index)
+    {
+        return "uid=user" + index + "," + unitDn(index / ENTRIES_PER_UNIT);
+    }
+
+    public static LDAPEntry buildUnit(int unit)
+    {
+        LDAPEntry entry = new LDAPEntry(unitDn(unit));
+        entry.addAttribute("objectclass", objectClasses("top", "organizationalUnit"));
+        entry.addAttribute("ou", "unit" + unit);
+        return entry;
+    }
+
+    public static LDAPEntry buildPerson(int index)
+    {
+        return buildPerson(personDn(index), "user" + index);
+    }
+
+    public static LDAPEntry buildPerson(String dn, String uid)
+    {
+        LDAPEntry entry = new LDAPEntry(dn);
+        entry.addAttribute("objectclass", objectClasses("top", "person", "organizationalPerson", "inetOrgPerson"));
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("cn", "User " + uid);
+        entry.addAttribute("sn", uid);
+        entry.addAttribute("givenName", "Given " + uid);
+        entry.addAttribute("userPassword", uid);
+        entry.addAttribute("telephoneNumber", "+1 555 " + uid.hashCode());
+        entry.addAttribute("description", "Benchmark entry " + uid);
+
+        List<Object> mails = new ArrayList<Object>();
+        mails.add(uid + "@mulesoft.org");
+        mails.add(uid + "@mulesoft.com");
+        entry.addAttribute("mail", mails);
+        return entry;
+    }
+
+    private static List<Object> objectClasses(String... names)
+    {
+        List<Object> values = new ArrayList<Object>(names.length);
+        for (String name : names)
+        {
+            values.add(name);
+        }
+        return values;
+    }
+}
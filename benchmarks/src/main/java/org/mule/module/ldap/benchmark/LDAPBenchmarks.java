@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the same arguments as the JMH command line
+ * (<code>java -jar target/benchmarks.jar -h</code>) and always adds the GC profiler, so that
+ * allocation rates (<code>gc.alloc.rate.norm</code>) are reported next to the throughput.
+ */
+public class LDAPBenchmarks
+{
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+
+        new Runner(options).run();
+    }
+}
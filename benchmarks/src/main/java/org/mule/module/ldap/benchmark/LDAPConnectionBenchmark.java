@@ -0,0 +1,19 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Every {@link org.mule.module.ldap.api.LDAPConnection} operation executed by a single thread.
+ */
+@Threads(1)
+public class LDAPConnectionBenchmark extends AbstractLDAPConnectionBenchmark
+{
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.benchmark;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per thread state used to pick the entries each benchmark invocation works on.
+ */
+@State(Scope.Thread)
+public class ThreadState
+{
+    private final Random random = new Random();
+    private long sequence = 0;
+
+    public int nextPerson(DirectoryState state)
+    {
+        return random.nextInt(state.entries);
+    }
+
+    public int nextUnit(DirectoryState state)
+    {
+        return random.nextInt(state.directory.getUnitCount());
+    }
+
+    public String nextValue()
+    {
+        return Thread.currentThread().getId() + "-" + (++sequence);
+    }
+}
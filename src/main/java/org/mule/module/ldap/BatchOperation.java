@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPBatchExecutor;
+
+public enum BatchOperation
+{
+    /**
+     * Add
+     */
+    ADD(LDAPBatchExecutor.ADD),
+    
+    /**
+     * Modify
+     */
+    MODIFY(LDAPBatchExecutor.MODIFY),
+    
+    /**
+     * Delete
+     */
+    DELETE(LDAPBatchExecutor.DELETE);
+    
+    private int value;
+    
+    private BatchOperation(int value)
+    {
+        this.value = value;
+    }
+    
+    public int getValue()
+    {
+        return this.value;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPChangeSubscription;
+
+public enum ChangeNotificationMode
+{
+    /**
+     * Persistent search if the LDAP server supports it, change log polling otherwise
+     */
+    AUTO(LDAPChangeSubscription.AUTO),
+    
+    /**
+     * Persistent search
+     */
+    PERSISTENT_SEARCH(LDAPChangeSubscription.PERSISTENT_SEARCH),
+    
+    /**
+     * Change log polling
+     */
+    CHANGE_LOG(LDAPChangeSubscription.CHANGE_LOG);
+    
+    private int value;
+    
+    private ChangeNotificationMode(int value)
+    {
+        this.value = value;
+    }
+    
+    public int getValue()
+    {
+        return this.value;
+    }
+}
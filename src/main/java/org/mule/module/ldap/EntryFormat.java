@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public enum EntryFormat
+{
+    /**
+     * Entries that hold every attribute in its own object and can be changed
+     */
+    STANDARD(LDAPSearchControls.STANDARD_ENTRIES),
+    
+    /**
+     * Read only entries that hold their attributes in arrays, taking a fraction of the memory
+     */
+    COMPACT(LDAPSearchControls.COMPACT_ENTRIES),
+    
+    /**
+     * Entries that convert each attribute returned by the LDAP server the first time it is read
+     */
+    LAZY(LDAPSearchControls.LAZY_ENTRIES);
+    
+    private int value;
+    
+    private EntryFormat(int value)
+    {
+        this.value = value;
+    }
+    
+    public int getValue()
+    {
+        return this.value;
+    }
+}
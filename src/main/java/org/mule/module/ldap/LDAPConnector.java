@@ -8,14 +8,16 @@
 
 package org.mule.module.ldap;
 
+import java.io.Serializable;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.log4j.Logger;
 import org.mule.api.ConnectionException;
 import org.mule.api.ConnectionExceptionCode;
+import org.mule.api.MuleContext;
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.Connect;
 import org.mule.api.annotations.ConnectionIdentifier;
@@ -23,6 +25,7 @@ import org.mule.api.annotations.Connector;
 import org.mule.api.annotations.Disconnect;
 import org.mule.api.annotations.InvalidateConnectionOn;
 import org.mule.api.annotations.Processor;
+import org.mule.api.annotations.Source;
 import org.mule.api.annotations.Transformer;
 import org.mule.api.annotations.ValidateConnection;
 import org.mule.api.annotations.display.FriendlyName;
@@ -31,16 +34,28 @@ import org.mule.api.annotations.param.ConnectionKey;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 import org.mule.api.callback.SourceCallback;
+import org.mule.api.config.MuleProperties;
+import org.mule.api.context.MuleContextAware;
+import org.mule.api.store.ObjectStore;
 import org.mule.module.ldap.api.AuthenticationException;
 import org.mule.module.ldap.api.CommunicationException;
 import org.mule.module.ldap.api.ContextNotEmptyException;
+import org.mule.module.ldap.api.LDAPAttributeValueIterator;
+import org.mule.module.ldap.api.LDAPBatchExecutor;
+import org.mule.module.ldap.api.LDAPBatchResult;
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPChangeSubscription;
 import org.mule.module.ldap.api.LDAPConnection;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilter;
+import org.mule.module.ldap.api.LDAPLogger;
 import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
 import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPResultSetIterator;
 import org.mule.module.ldap.api.LDAPSearchControls;
 import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPSyncResult;
 import org.mule.module.ldap.api.NameNotFoundException;
 import org.mule.util.StringUtils;
 
@@ -50,12 +65,17 @@ import org.mule.util.StringUtils;
  * <ul>
  *  <li><a href="#bind"><b>bind</b></a>: Authenticate against the LDAP server. This occurs automatically before each operation but can also be performed on request</li>
  *  <li><a href="#search"><b>search</b></a>: Perform a LDAP search in a base DN with a given filter</li>
+ *  <li><a href="#streaming-search"><b>streaming search</b></a>: Perform a LDAP search returning an iterator that reads the resulting entries on demand</li>
+ *  <li><a href="#sync"><b>sync</b></a>: Retrieve only the LDAP entries that changed since the previous synchronization</li>
  *  <li><a href="#lookup"><b>lookup</b></a>: Retrieve a unique LDAP entry</li>
+ *  <li><a href="#streaming-lookup-attribute"><b>streaming lookup attribute</b></a>: Retrieve the values of an attribute of a LDAP entry in chunks, reading them on demand</li>
  *  <li><a href="#add"><b>add</b></a>: Creates a new LDAP entry</li>
  *  <li><a href="#add-single-value-attribute"><b>add attribute/s</b></a>: Add specific attributes to an existing LDAP entry</li>
  *  <li><a href="#modify"><b>modify</b></a>: Update an existing LDAP entry</li>
  *  <li><a href="#modify-single-value-attribute"><b>modify attribute/s</b></a>: Update specific attributes of an existing LDAP entry</li>
  *  <li><a href="#delete"><b>delete</b></a>: Delete an existing LDAP entry</li>
+ *  <li><a href="#batch"><b>batch</b></a>: Add, update or delete many LDAP entries running several operations at the same time</li>
+ *  <li><a href="#change-listener"><b>change listener</b></a>: Receive the entries added, updated, deleted or renamed under a base DN as they change</li>
  *  <li><a href="#delete-single-value-attribute"><b>delete attribute/s</b></a>: Delete specific attributes of an existing LDAP entry</li>
  * </ul>
  * <p/>
@@ -85,11 +105,14 @@ import org.mule.util.StringUtils;
  *  <tr>
  *  <td><b>Type</b></td>
  *  <td>
- * The implementation of the connection to be used. Right now the only available implementation is JNDI, though any other
+ * The implementation of the connection to be used. Right now the available implementations are JNDI and NIO, though any other
  * implementation can be used (For example using Novell libraries). If you want to create your own implementation you should
  * extend the class {@link LDAPConnection}
  * <ul>
  *    <li><b>JNDI</b>: Implementation that uses the JNDI interfaces provided in the standard JRE.</i>
+ *    <li><b>NIO</b>: Implementation that speaks LDAPv3 directly over a single socket shared by all the operations, which
+ *                    can be outstanding at the same time. It only supports ldap:// URLs and simple or no authentication
+ *                    (see {@link org.mule.module.ldap.api.nio.LDAPNIOConnection}).</i>
  * </ul>
  *  </td>
  *  </tr>
@@ -115,6 +138,20 @@ import org.mule.util.StringUtils;
  *  </td>
  *  </tr>
  *  <tr>
+ *  <td><b>Pool Borrow Timeout</b></td>
+ *  <td>
+ * The string representation of an integer that represents the number of milliseconds an operation waits for a pooled connection when all of
+ * them are in use. If no connection becomes available, the operation fails. A value of 0 (zero) means wait indefinitely.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Pool Validate On Borrow</b></td>
+ *  <td>
+ * Whether pooled connections are validated (by reading the root entry without attributes) before being used by an operation. Connections
+ * that fail validation are closed and replaced by new ones.
+ *  </td>
+ *  </tr>
+ *  <tr>
  *  <td><b>Referral</b></td>
  *  <td>
  * Constant that holds the name of the environment property for specifying how referrals encountered by the service provider are to be processed.
@@ -127,6 +164,180 @@ import org.mule.util.StringUtils;
  *  </td>
  *  </tr>
  *  <tr>
+ *  <td><b>Lookup Cache Max Entries</b></td>
+ *  <td>
+ * Maximum number of entries kept in the cache of looked up entries. Entries written through this connector are removed from the
+ * cache. To disable the cache, just set this value to 0 (zero), which is the default.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Lookup Cache Max Bytes</b></td>
+ *  <td>
+ * Maximum estimated size in bytes of the cached entries. The least recently used entries are evicted when it is exceeded. A value of
+ * 0 (zero) means no size limit.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Lookup Cache TTL</b></td>
+ *  <td>
+ * Number of milliseconds a looked up entry stays in the cache. Changes made by other clients of the LDAP server are not seen until
+ * then. Defaults to 60000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Negative Cache Max Entries</b></td>
+ *  <td>
+ * Maximum number of DNs, found not to exist, kept in the cache used by the exists operation. To disable the cache, just set this
+ * value to 0 (zero), which is the default.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Negative Cache TTL</b></td>
+ *  <td>
+ * Number of milliseconds a missing DN stays in the cache. Entries added by other clients of the LDAP server are reported as missing
+ * until then. Defaults to 5000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Negative Cache Bloom Filter</b></td>
+ *  <td>
+ * Whether a Bloom filter is checked before the cache of missing DNs, so that DNs that were never cached are answered without locking.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Search Cache Max Bytes</b></td>
+ *  <td>
+ * Maximum estimated size in bytes of the cached search results. Searches are invalidated when an entry under (or above) their base DN
+ * is written through this connector. To disable the cache, just set this value to 0 (zero), which is the default.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Search Cache TTL</b></td>
+ *  <td>
+ * Number of milliseconds the results of a search stay in the cache. Defaults to 60000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Load Balancing Policy</b></td>
+ *  <td>
+ * How operations are spread among the servers listed in the URL when it holds more than one (only for the JNDI type): <b>NONE</b>
+ * (the default), <b>FAILOVER</b>, <b>ROUND_ROBIN</b>, <b>LEAST_OUTSTANDING_REQUESTS</b> or <b>FEWEST_FAILURES</b>. Unless it is NONE,
+ * writes and synchronizations always run on the first available server and each server has its own pool of connections.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Circuit Breaker Failure Threshold</b></td>
+ *  <td>
+ * Number of consecutive failures (lost connections, connections that cannot be opened and slow operations) after which a server
+ * stops receiving operations. Defaults to 3. To disable circuit breaking, just set this value to 0 (zero).
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Circuit Breaker Open Time</b></td>
+ *  <td>
+ * Number of milliseconds a server stops receiving operations after its circuit breaker opens. Then a single operation is sent to it,
+ * and if it succeeds the server receives operations again. Defaults to 30000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Circuit Breaker Slow Operation Threshold</b></td>
+ *  <td>
+ * Number of milliseconds after which an operation counts as a failure of its server. A value of 0 (zero), which is the default, means
+ * that slow operations are not failures.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Verify Initial Pool Size</b></td>
+ *  <td>
+ * Number of connections opened by the first verify-credentials operation (only for the JNDI type). Credentials are verified binding
+ * over these connections, which are kept open afterwards. Defaults to 1.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Verify Max Pool Size</b></td>
+ *  <td>
+ * Maximum number of connections used to verify credentials at the same time. Defaults to 10.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Verify Cache Max Entries</b></td>
+ *  <td>
+ * Maximum number of successfully verified credentials remembered, as a salted hash of the DN and password, so that repeated
+ * verifications don't contact the LDAP server. To disable the credentials cache, just set this value to 0 (zero), which is the default.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Verify Cache TTL</b></td>
+ *  <td>
+ * Number of milliseconds verified credentials are remembered. Passwords changed by other LDAP clients are accepted until then.
+ * Defaults to 10000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Connect Timeout</b></td>
+ *  <td>
+ * Number of milliseconds to wait for a connection to the LDAP server to be established. A value of 0 (zero), which is the default,
+ * means waiting as long as the operating system allows.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Read Timeout</b></td>
+ *  <td>
+ * Number of milliseconds to wait for each response of the LDAP server. Operations that time out fail with a communication error, so
+ * that the connection is created again. A value of 0 (zero), which is the default, means waiting indefinitely.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Operation Timeout</b></td>
+ *  <td>
+ * Number of milliseconds an operation may wait for the LDAP server, after which it is abandoned and fails with a communication error.
+ * For searches, only the time until the first results are returned counts. With the JNDI type, the connection of the abandoned operation
+ * is closed. A value of 0 (zero), which is the default, means no deadline.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Metrics Enabled</b></td>
+ *  <td>
+ * If true, the latency, errors and entries returned of every operation, the paging round trips of searches and the use of the pooled
+ * connections are recorded and published as JMX MBeans under the <i>org.mule.module.ldap</i> domain. Defaults to false.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Metrics Reporter</b></td>
+ *  <td>
+ * Class name of an implementation of <i>org.mule.module.ldap.api.LDAPMetricsReporter</i> that periodically receives the metrics, such
+ * as <i>org.mule.module.ldap.api.LDAPLoggingMetricsReporter</i>. If not set, metrics are only published with JMX.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Metrics Report Interval</b></td>
+ *  <td>
+ * Number of milliseconds between reports of the metrics to the metrics reporter. Defaults to 60000.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Slow Query Threshold</b></td>
+ *  <td>
+ * Searches that wait for the LDAP server longer than this number of milliseconds are logged with WARN level, with the fingerprint of
+ * their filter (the filter with its values replaced by <i>?</i>). Only supported by the JNDI type. To disable the slow query log, just
+ * set this value to 0 (zero), which is the default.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Slow Query Top Fingerprints</b></td>
+ *  <td>
+ * Number of filter fingerprints with the highest total time that are published by the slow query log and logged when the connection
+ * is closed. Defaults to 10.
+ *  </td>
+ *  </tr>
+ *  <tr>
+ *  <td><b>Debug Log Sample Rate</b></td>
+ *  <td>
+ * With DEBUG level enabled, the paged result search only logs one of every this many entries and pages it processes, so that
+ * debugging a flow doesn't multiply its cost. With TRACE level, sampled entries are logged with their attributes. Defaults to 100.
+ *  </td>
+ *  </tr>
+ *  <tr>
  *  <td><b>Extended Configuration</b></td>
  *  <td>
  * This is a {@link Map} instance holding extended configuration attributes that will be used in the Context environment.
@@ -150,6 +361,9 @@ import org.mule.util.StringUtils;
  *    <li><b>com.sun.jndi.ldap.connect.pool.prefsize</b>: The string representation of an integer that represents the preferred number of
  *                connections per connection identity that should be maintained concurrently.</li>
  *    <li><b>com.sun.jndi.ldap.connect.pool.protocol</b>: A list of space-separated protocol types of connections that may be pooled. Valid types are "plain" and "ssl".</li>
+ *    <li><b>sortMaxInMemoryEntries</b>: The string representation of an integer that represents the maximum number of entries held in memory
+ *                when the results of a search are sorted by the connector because the LDAP server doesn't support server side sorting. Additional
+ *                entries are sorted in temporary files. Defaults to 10000.</li>
  * </ul>
  *  </td>
  *  </tr>
@@ -160,17 +374,38 @@ import org.mule.util.StringUtils;
  * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-2}
  * <p/>
  * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-3}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-4}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-5}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-6}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-7}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-8}
  *
  * @author Mariano Capurro (MuleSoft, Inc.)
  */
 @Connector(name = "ldap", schemaVersion = "3.3", friendlyName="LDAP", minMuleVersion="3.2.0", description="LDAP Connector that allows you to connect to any LDAP server and perform every LDAP operation")
 //:TODO: New in DevKit Version 3.3.x -> Move component from CC Category. For example -> @Category(name = "org.mule.tooling.category.security", description = "Security")
-public class LDAPConnector
+public class LDAPConnector implements MuleContextAware
 {
-    private static final Logger LOGGER = Logger.getLogger(LDAPConnector.class);
+    private static final LDAPLogger LOGGER = LDAPLogger.getLogger(LDAPConnector.class);
+    
+    /**
+     * Milliseconds the change listener waits for a change before checking whether it was stopped.
+     */
+    private static final long CHANGE_POLL_TIMEOUT = 1000L;
+    
+    /**
+     * Prefix of the keys of the synchronization states in the object store.
+     */
+    private static final String SYNC_COOKIE_KEY_PREFIX = "ldap-sync:";
     
     /**
-     * The connection URL to the LDAP server with the following syntax: <code>ldap[s]://hostname:port/base_dn</code>.
+     * The connection URL to the LDAP server with the following syntax: <code>ldap[s]://hostname:port/base_dn</code>. Several replicas
+     * can be listed separated by spaces. Unless a load balancing policy is set, the first one that is reachable is used.
      */
     @Configurable
     @Placement(group = "Connection", order = 0)
@@ -187,7 +422,8 @@ public class LDAPConnector
 
     /**
      * The string representation of an integer that represents the number of connections per connection identity to create when initially
-     * creating a connection for the identity. To disable pooling, just set this value to 0 (zero).
+     * creating a connection for the identity. To disable pooling, just set this value to 0 (zero). Pooled connections are used concurrently
+     * by the operations executed with the same connection identity.
      */
     @Configurable
     @Optional
@@ -215,6 +451,294 @@ public class LDAPConnector
     @Placement(group = "Pooling Configuration", order = 3)
     private long poolTimeout;
 
+    /**
+     * The string representation of an integer that represents the number of milliseconds an operation waits for a pooled connection when all
+     * of them are in use. A value of 0 (zero) means wait indefinitely.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "30000")
+    @Placement(group = "Pooling Configuration", order = 4)
+    private long poolBorrowTimeout;
+
+    /**
+     * Whether pooled connections are validated before being used by an operation.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "false")
+    @Placement(group = "Pooling Configuration", order = 5)
+    private boolean poolValidateOnBorrow;
+
+    /**
+     * The maximum number of entries returned by lookup operations that are cached per connection identity. Entries are cached by DN and
+     * requested attributes, and the least recently used ones are evicted when the cache is full. To disable the cache, just set this value
+     * to 0 (zero). Changes made by other LDAP clients are not seen until the cached entry expires.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Caching", order = 1)
+    private int lookupCacheMaxEntries;
+
+    /**
+     * The maximum estimated size in bytes of the entries held by the lookup cache. A value of 0 (zero) means that only the number of entries
+     * is limited.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Caching", order = 2)
+    private long lookupCacheMaxBytes;
+
+    /**
+     * The number of milliseconds an entry remains in the lookup cache. Add, modify, delete, rename and attribute operations executed by
+     * this connector remove the affected entries from the cache before they expire.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "60000")
+    @Placement(group = "Caching", order = 3)
+    private long lookupCacheTtl;
+
+    /**
+     * The maximum number of DNs, found not to exist by exists operations, that are remembered per connection identity. Repeated checks for
+     * those DNs are answered without contacting the LDAP server. To disable the negative cache, just set this value to 0 (zero).
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Caching", order = 4)
+    private int negativeCacheMaxEntries;
+
+    /**
+     * The number of milliseconds a missing DN is remembered. Entries added or renamed by this connector are removed from the negative
+     * cache immediately, but entries added by other LDAP clients are reported as missing until the DN expires, so keep this value short.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "5000")
+    @Placement(group = "Caching", order = 5)
+    private long negativeCacheTtl;
+
+    /**
+     * Whether a Bloom filter of the missing DNs is checked before the negative cache. It makes checking DNs that are not in the
+     * negative cache cheaper when most of the checked DNs are different.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "false")
+    @Placement(group = "Caching", order = 6)
+    private boolean negativeCacheBloomFilter;
+
+    /**
+     * The maximum estimated size in bytes of the search results cached per connection identity. Results of search and search-one operations
+     * are cached by base DN, filter, scope, returned attributes, limits and sort order, and the least recently used ones are evicted when the
+     * cache is full. To disable the search cache, just set this value to 0 (zero).
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Caching", order = 7)
+    private long searchCacheMaxBytes;
+
+    /**
+     * The number of milliseconds the results of a search remain in the search cache. Writing an entry through this connector removes
+     * the cached searches whose base DN is the entry, one of its ancestors or one of its descendants. Changes made by other LDAP clients are
+     * not seen until the cached results expire.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "60000")
+    @Placement(group = "Caching", order = 8)
+    private long searchCacheTtl;
+
+    /**
+     * How operations are spread among the servers listed in the URL when it holds more than one (only for the JNDI type):
+     * <ul>
+     *    <li><b>NONE</b>: All the operations run on the first server that is reachable.</li>
+     *    <li><b>FAILOVER</b>: All the operations run on the first available server, skipping the servers whose circuit breaker is open.</li>
+     *    <li><b>ROUND_ROBIN</b>: Reads run on every available server in turn.</li>
+     *    <li><b>LEAST_OUTSTANDING_REQUESTS</b>: Reads run on the available server with the fewest operations in progress.</li>
+     *    <li><b>FEWEST_FAILURES</b>: Reads run on the available server with the fewest recent failures.</li>
+     * </ul>
+     * Unless it is NONE, writes and synchronizations always run on the first available server (the preferred primary), and each server
+     * has its own pool of connections sized with the pooling configuration.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "NONE")
+    @Placement(group = "Load Balancing", order = 1)
+    private LoadBalancingPolicy loadBalancingPolicy;
+
+    /**
+     * The number of consecutive failures (lost connections, connections that cannot be opened and slow operations) after which a server
+     * stops receiving operations. To disable circuit breaking, just set this value to 0 (zero).
+     */
+    @Configurable
+    @Optional
+    @Default(value = "3")
+    @Placement(group = "Load Balancing", order = 2)
+    private int circuitBreakerFailureThreshold;
+
+    /**
+     * The number of milliseconds a server stops receiving operations after its circuit breaker opens. Then a single operation is sent to
+     * it, and if it succeeds the server receives operations again.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "30000")
+    @Placement(group = "Load Balancing", order = 3)
+    private long circuitBreakerOpenTime;
+
+    /**
+     * The number of milliseconds after which an operation counts as a failure of its server, so that a slow replica stops receiving
+     * operations. A value of 0 (zero) means that slow operations are not failures.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Load Balancing", order = 4)
+    private long circuitBreakerSlowOperationThreshold;
+
+    /**
+     * The number of connections opened by the first verify-credentials operation (only for the JNDI type). Credentials are verified
+     * binding over these connections, which are kept open afterwards, so that each verification doesn't open a new connection.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "1")
+    @Placement(group = "Credentials Verification", order = 1)
+    private int verifyInitialPoolSize;
+
+    /**
+     * The maximum number of connections used to verify credentials at the same time. Verifications wait for an available
+     * connection for up to <i>poolBorrowTimeout</i> milliseconds, and idle connections are closed after <i>poolTimeout</i> milliseconds.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "10")
+    @Placement(group = "Credentials Verification", order = 2)
+    private int verifyMaxPoolSize;
+
+    /**
+     * The maximum number of successfully verified credentials that are remembered, as a salted hash of the DN and password. Repeated
+     * verifications of the same credentials are answered without contacting the LDAP server. To disable the credentials cache, just set
+     * this value to 0 (zero).
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Credentials Verification", order = 3)
+    private int verifyCacheMaxEntries;
+
+    /**
+     * The number of milliseconds verified credentials are remembered. Entries modified by this connector are removed from the
+     * credentials cache immediately, but old passwords changed by other LDAP clients are accepted until they expire, so keep this
+     * value short.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "10000")
+    @Placement(group = "Credentials Verification", order = 4)
+    private long verifyCacheTtl;
+
+    /**
+     * The number of milliseconds to wait for a connection to the LDAP server to be established. A value of 0 (zero) means waiting as long
+     * as the operating system allows.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Timeouts", order = 1)
+    private int connectTimeout;
+
+    /**
+     * The number of milliseconds to wait for each response of the LDAP server. Operations that time out fail with a communication error,
+     * so that the connection is created again. A value of 0 (zero) means waiting indefinitely.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Timeouts", order = 2)
+    private long readTimeout;
+
+    /**
+     * The number of milliseconds an operation may wait for the LDAP server, after which it is abandoned and fails with a communication error.
+     * For searches, only the time until the first results are returned counts (reading the rest is bounded by <i>readTimeout</i>). Unlike the
+     * <i>timeout</i> of searches, which the LDAP server enforces, this deadline also protects from servers that stop responding. With the JNDI
+     * type, the connection of the abandoned operation is closed and, if pooling is disabled, so are the operations running at the same time. A
+     * value of 0 (zero) means no deadline.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Timeouts", order = 3)
+    private long operationTimeout;
+
+    /**
+     * If true, the latency, errors and entries returned of every operation, the paging round trips of searches and the use of the pooled
+     * connections are recorded and published as JMX MBeans under the <i>org.mule.module.ldap</i> domain. Operations answered by the caches
+     * are not recorded. When false, no metrics are recorded at all.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "false")
+    @Placement(group = "Metrics", order = 1)
+    private boolean metricsEnabled;
+
+    /**
+     * Class name of an implementation of <i>org.mule.module.ldap.api.LDAPMetricsReporter</i> that periodically receives the metrics, such
+     * as <i>org.mule.module.ldap.api.LDAPLoggingMetricsReporter</i>, which logs them. If not set, metrics are only published with JMX.
+     */
+    @Configurable
+    @Optional
+    @Placement(group = "Metrics", order = 2)
+    private String metricsReporter;
+
+    /**
+     * The number of milliseconds between reports of the metrics to the <i>metricsReporter</i>.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "60000")
+    @Placement(group = "Metrics", order = 3)
+    private long metricsReportInterval;
+
+    /**
+     * Searches that wait for the LDAP server longer than this number of milliseconds are logged with WARN level, with their base DN,
+     * scope, requested attributes, entries returned, pages and the fingerprint of their filter (the filter with its values replaced by
+     * <i>?</i>). The waiting time includes reading all the pages but not processing the entries in the flow. The fingerprints with the
+     * highest total time are published as a JMX MBean under the <i>org.mule.module.ldap</i> domain. Only supported by the <i>jndi</i>
+     * connection type. 0 disables the slow query log.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "0")
+    @Placement(group = "Slow Queries", order = 1)
+    private long slowQueryThreshold;
+
+    /**
+     * The number of filter fingerprints with the highest total time that are published by the slow query log and logged when the
+     * connection is closed.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "10")
+    @Placement(group = "Slow Queries", order = 2)
+    private int slowQueryTopFingerprints;
+
+    /**
+     * With DEBUG level enabled, the paged result search only logs one of every <i>debugLogSampleRate</i> entries and pages it
+     * processes, so that debugging a flow doesn't multiply its cost. With TRACE level, sampled entries are logged with their attributes.
+     * 1 logs every entry and page.
+     */
+    @Configurable
+    @Optional
+    @Default(value = "100")
+    @Placement(group = "Advanced")
+    private int debugLogSampleRate;
+
     /**
      * Constant that holds the name of the environment property for specifying how referrals encountered by the service provider are to be processed (follow, ignore, throw).
      */
@@ -237,6 +761,8 @@ public class LDAPConnector
      */
     private LDAPConnection connection = null;
     
+    private MuleContext muleContext;
+    
     // Connection Management
     /**
      * Establish the connection to the LDAP server and use connection management to handle different
@@ -270,7 +796,7 @@ public class LDAPConnector
         {
             if(this.connection == null)
             {
-                this.connection = LDAPConnection.getConnection(type.toString(), getUrl(), authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), getExtendedConfiguration());
+                this.connection = LDAPConnection.getConnection(type.toString(), getUrl(), authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), buildConnectionConfiguration());
             }
             
             if(LDAPConnection.NO_AUTHENTICATION.equals(authentication))
@@ -313,6 +839,41 @@ public class LDAPConnector
         }
     }
 
+    private Map<String, String> buildConnectionConfiguration()
+    {
+        Map<String, String> conf = getExtendedConfiguration() != null ? new HashMap<String, String>(getExtendedConfiguration()) : new HashMap<String, String>();
+        conf.put(LDAPConnection.POOL_BORROW_TIMEOUT_ATTR, String.valueOf(getPoolBorrowTimeout()));
+        conf.put(LDAPConnection.POOL_VALIDATE_ON_BORROW_ATTR, String.valueOf(isPoolValidateOnBorrow()));
+        conf.put(LDAPConnection.LOOKUP_CACHE_MAX_ENTRIES_ATTR, String.valueOf(getLookupCacheMaxEntries()));
+        conf.put(LDAPConnection.LOOKUP_CACHE_MAX_BYTES_ATTR, String.valueOf(getLookupCacheMaxBytes()));
+        conf.put(LDAPConnection.LOOKUP_CACHE_TTL_ATTR, String.valueOf(getLookupCacheTtl()));
+        conf.put(LDAPConnection.NEGATIVE_CACHE_MAX_ENTRIES_ATTR, String.valueOf(getNegativeCacheMaxEntries()));
+        conf.put(LDAPConnection.NEGATIVE_CACHE_TTL_ATTR, String.valueOf(getNegativeCacheTtl()));
+        conf.put(LDAPConnection.NEGATIVE_CACHE_BLOOM_FILTER_ATTR, String.valueOf(isNegativeCacheBloomFilter()));
+        conf.put(LDAPConnection.SEARCH_CACHE_MAX_BYTES_ATTR, String.valueOf(getSearchCacheMaxBytes()));
+        conf.put(LDAPConnection.SEARCH_CACHE_TTL_ATTR, String.valueOf(getSearchCacheTtl()));
+        conf.put(LDAPConnection.LOAD_BALANCING_POLICY_ATTR, getLoadBalancingPolicy().toString());
+        conf.put(LDAPConnection.CIRCUIT_BREAKER_FAILURE_THRESHOLD_ATTR, String.valueOf(getCircuitBreakerFailureThreshold()));
+        conf.put(LDAPConnection.CIRCUIT_BREAKER_OPEN_TIME_ATTR, String.valueOf(getCircuitBreakerOpenTime()));
+        conf.put(LDAPConnection.CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD_ATTR, String.valueOf(getCircuitBreakerSlowOperationThreshold()));
+        conf.put(LDAPConnection.VERIFY_INITIAL_POOL_SIZE_ATTR, String.valueOf(getVerifyInitialPoolSize()));
+        conf.put(LDAPConnection.VERIFY_MAX_POOL_SIZE_ATTR, String.valueOf(getVerifyMaxPoolSize()));
+        conf.put(LDAPConnection.VERIFY_CACHE_MAX_ENTRIES_ATTR, String.valueOf(getVerifyCacheMaxEntries()));
+        conf.put(LDAPConnection.VERIFY_CACHE_TTL_ATTR, String.valueOf(getVerifyCacheTtl()));
+        conf.put(LDAPConnection.CONNECT_TIMEOUT_ATTR, String.valueOf(getConnectTimeout()));
+        conf.put(LDAPConnection.READ_TIMEOUT_ATTR, String.valueOf(getReadTimeout()));
+        conf.put(LDAPConnection.OPERATION_TIMEOUT_ATTR, String.valueOf(getOperationTimeout()));
+        conf.put(LDAPConnection.METRICS_ENABLED_ATTR, String.valueOf(isMetricsEnabled()));
+        if (getMetricsReporter() != null)
+        {
+            conf.put(LDAPConnection.METRICS_REPORTER_ATTR, getMetricsReporter());
+        }
+        conf.put(LDAPConnection.METRICS_REPORT_INTERVAL_ATTR, String.valueOf(getMetricsReportInterval()));
+        conf.put(LDAPConnection.SLOW_QUERY_THRESHOLD_ATTR, String.valueOf(getSlowQueryThreshold()));
+        conf.put(LDAPConnection.SLOW_QUERY_TOP_FINGERPRINTS_ATTR, String.valueOf(getSlowQueryTopFingerprints()));
+        return conf;
+    }
+
     /**
      * Disconnect the current connection
      */
@@ -435,14 +996,71 @@ public class LDAPConnector
         return entry;
     }
     
+    /**
+     * Verifies the password of a user by binding as that user. Unlike {@link LDAPConnector#bind()}, the connection used by the other
+     * operations is neither closed nor re-binded: the bind is performed over a dedicated pool of open connections (see
+     * <i>verifyInitialPoolSize</i> and <i>verifyMaxPoolSize</i>), and the entry of the user is only retrieved if requested. If
+     * <i>verifyCacheMaxEntries</i> is greater than 0 (zero), successful verifications are remembered for <i>verifyCacheTtl</i> milliseconds.
+     * <p/>
+     * Empty passwords are always rejected, as LDAP servers accept them as an anonymous bind.
+     * <p/>
+     * <h4>Verifying the credentials of a login form</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:verify-credentials-1}
+     * <h4>Verifying the credentials and returning some attributes of the user entry</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:verify-credentials-2}
+     * 
+     * @param dn The DN of the user.
+     * @param password The password to verify.
+     * @param lookup Whether the entry of the user is retrieved, using the credentials of the <i>config</i> element, after the
+     *        credentials are verified.
+     * @param attributes A list of the attributes that should be returned when <i>lookup</i> is true. If the attributes list is empty or
+     *        null, then by default all LDAP entry attributes are returned.
+     * @return If <i>lookup</i> is false, a Boolean that is true if the credentials are valid. Otherwise, the {@link LDAPEntry} of the user
+     *         if the credentials are valid, or null if they are not.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the <i>config</i> user has no permissions to perform the lookup of the user entry.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems.
+     * @throws Exception In case there is any other error verifying the credentials.
+     */
+    @Processor
+    @InvalidateConnectionOn(exception = CommunicationException.class)
+    public Object verifyCredentials(@FriendlyName("DN") String dn, String password, @Optional @Default("false") boolean lookup, @Optional List<String> attributes) throws Exception
+    {
+        boolean valid = this.connection.verifyCredentials(dn, password);
+        
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Credentials of user " + dn + " are " + (valid ? "valid" : "invalid"));
+        }
+        
+        if (!lookup)
+        {
+            return Boolean.valueOf(valid);
+        }
+        else if (!valid)
+        {
+            return null;
+        }
+        else if (attributes != null && attributes.size() > 0)
+        {
+            return this.connection.lookup(dn, attributes.toArray(new String[0]));
+        }
+        else
+        {
+            return this.connection.lookup(dn);
+        }
+    }
+    
     /**
      * Retrieves an entry from the LDAP server base on its distinguished name (DN). DNs are the unique identifiers
      * of an LDAP entry, so this method will perform a search based on this ID and so return a single entry as result
      * or throw an exception if the DN is invalid or inexistent.
      * <p/>
-     * Use this operation over {@link LDAPConnector#searchOne(String, String, List, SearchScope, int, long, boolean)} when you know the DN of the object you want to
+     * Use this operation over {@link LDAPConnector#searchOne(String, String, List, List, SearchScope, int, long, boolean, EntryFormat)} when you know the DN of the object you want to
      * retrieve.
      * <p/>
+     * Attributes that the LDAP server returns in ranges (as Active Directory does for attributes with more than 1500 values, such as the members of a
+     * large group) are returned with all their values. Use {@link LDAPConnector#streamingLookupAttribute(String, String, int)} to read them in chunks instead.
+     * <p/>
      * <h4>Lookup returning all attributes for the entry</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:lookup-1}
      * <h4>Lookup returning the attributes in the list obtained by expression</h4>
@@ -487,7 +1105,39 @@ public class LDAPConnector
     }
 
     /**
-     * Checks whether a LDAP entry exists in the LDAP server or not.
+     * Retrieves the values of an attribute of an entry in chunks, so that attributes with a huge amount of values (such as the members of a large
+     * group) can be processed without holding all their values in memory. Values are requested to the LDAP server with range retrieval
+     * (<code>member;range=0-1499</code>), one chunk at a time as the flow consumes them. If the LDAP server doesn't support range retrieval, then all
+     * the values are read at once and returned in chunks.
+     * <p/>
+     * <h4>Process the members of a group 1000 at a time</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:streaming-lookup-attribute-1}
+     * 
+     * @param dn The DN of the LDAP entry.
+     * @param attributeName The name of the attribute whose values will be retrieved.
+     * @param chunkSize The amount of values requested to the LDAP server at a time. The LDAP server may return less values (Active Directory returns at
+     *                  most 1500 by default), in which case the chunks are smaller.
+     * @return An {@link java.util.Iterator} over lists with the values of the attribute. If the entry doesn't have the attribute, then it returns no lists.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the lookup for the given DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If the DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the lookup.
+     */
+    @Processor
+    @InvalidateConnectionOn(exception = CommunicationException.class)
+    public LDAPAttributeValueIterator streamingLookupAttribute(@FriendlyName("DN") String dn, String attributeName, @Optional @Default("1500") int chunkSize) throws Exception
+    {
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("About to retrieve the values of " + attributeName + " of LDAP entry " + dn + " in chunks of " + chunkSize + " values.");
+        }
+
+        return this.connection.readAttributeValues(dn, attributeName, chunkSize);
+    }
+
+    /**
+     * Checks whether a LDAP entry exists in the LDAP server or not. No attributes of the entry are retrieved. If the negative cache is
+     * enabled, DNs recently found not to exist are reported as missing without contacting the LDAP server.
      * <h4>Check if LDAP entry exists</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:exists-1}
      * @param dn The DN of the LDAP entry that will be retrieved.
@@ -501,14 +1151,7 @@ public class LDAPConnector
     @InvalidateConnectionOn(exception = CommunicationException.class)
     public boolean exists(@FriendlyName("DN") String dn) throws Exception
     {
-        try
-        {
-            return lookup(dn, null) != null;
-        }
-        catch(NameNotFoundException nnfe)
-        {
-            return false;
-        }
+        return this.connection.exists(dn);
     }
     
     /**
@@ -519,6 +1162,9 @@ public class LDAPConnector
      * Sizelimit Exceeded exception then you should check that the authenticated user has enough privileges or the LDAP server is not
      * limited by configuration.
      * <p/>
+     * If the search cache is enabled (see <i>searchCacheMaxBytes</i>), the results of a search are reused by identical searches until
+     * they expire or an entry they may include is written through this connector.
+     * <p/>
      * <h4>Returning all attributes for all persons that have Doe as surname</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-1}
      * <p/>
@@ -527,6 +1173,18 @@ public class LDAPConnector
      * <p/>
      * <h4>Search that receives all configuration attributes using Mule Expressions</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-3}
+     * <p/>
+     * <h4>Search returning read only compact entries, which take less memory</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-4}
+     * <p/>
+     * <h4>Search returning entries that only convert the attributes that are read</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-5}
+     * <p/>
+     * <h4>Search split into concurrent searches, one for each organizational unit under the base DN</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-6}
+     * <p/>
+     * <h4>Search with a filter whose values are taken from the message and escaped</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-7}
      * 
      * @param baseDn The base DN of the LDAP search.
      * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
@@ -536,6 +1194,9 @@ public class LDAPConnector
      *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
      *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
      *               </ul>
+     * @param filterArgs Values of the <i>{n}</i> references in the filter, such as <i>(&(objectClass=person)(mail={0}))</i>. Values are escaped
+     *                   (RFC 4515), so they are always matched as they are: a <b>*</b> or a parenthesis in a value never changes the filter.
+     *                   Filters with arguments are validated and compiled once, and reused by every search with the same filter.
      * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
      *        LDAP entry attributes are returned.
      * @param scope The scope of the search. Valid attributes are:
@@ -551,6 +1212,17 @@ public class LDAPConnector
      * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
      *                     If enabled, the object will be returned. 
      * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page. If the pageSize is less or equals than 0, then paging will be disabled.
+     * @param orderBy Comma separated list of the LDAP attributes used to sort results. Prefix an attribute with <b>-</b> to sort in descending order
+     *                and append <b>:</b> and a matching rule OID to use a specific ordering rule (for example <code>sn, -createTimestamp, cn:2.5.13.3</code>).
+     *                Sorting is requested to the LDAP server (RFC 2891 server side sort control) and if the server doesn't support it, then results are sorted
+     *                by the connector.
+     * @param entryFormat How the returned entries hold their attributes. <b>STANDARD</b> entries can be changed. <b>COMPACT</b> entries are read only
+     *                    (changing one turns it into a standard entry first) and take a fraction of the memory, so use them when many entries are kept in memory.
+     *                    <b>LAZY</b> entries only convert the attributes that are read, so use them when the flow reads a few of the returned attributes.
+     * @param parallelism Maximum amount of concurrent searches a <b>SUB_TREE</b> search is split into. If greater than 1, then there is one search for
+     *                    each entry right under the base DN, run on different connections of the pool, and their results are merged, so they are returned
+     *                    in no particular order unless <i>orderBy</i> is set. It is limited by the connection pool size, so searches are not split if
+     *                    pooling is disabled.
      * 
      * @return A {@link java.util.List} of {@link LDAPEntry} objects with the results of the search. If the search throws no results, then this is an empty list.
      * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
@@ -560,45 +1232,35 @@ public class LDAPConnector
      */
     @Processor
     @InvalidateConnectionOn(exception = CommunicationException.class)
-    public List<LDAPEntry> search(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("0") @Placement(group = "Search Controls") int pageSize) throws Exception
+    public List<LDAPEntry> search(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> filterArgs, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("0") @Placement(group = "Search Controls") int pageSize, @Optional @Placement(group = "Search Controls") String orderBy, @Optional @Default("STANDARD") @Placement(group = "Search Controls") EntryFormat entryFormat, @Optional @Default("1") @Placement(group = "Search Controls") int parallelism) throws Exception
     {
-        LDAPResultSet result = null;
-        try
+        if(LOGGER.isDebugEnabled())
         {
-            if(LOGGER.isDebugEnabled())
-            {
-                LOGGER.debug("About to search LDAP entries matching " + filter + " under: " + baseDn);
-            }
-            
-            LDAPSearchControls controls = new LDAPSearchControls();
-            if(attributes != null && attributes.size() > 0)
-            {
-                controls.setAttributesToReturn(attributes.toArray(new String[0]));
-            }
-            controls.setMaxResults(maxResults);
-            controls.setTimeout(timeout);
-            controls.setScope(scope.getValue());
-            controls.setReturnObject(returnObject);
-            controls.setPageSize(pageSize);
-            
-            result = this.connection.search(baseDn, filter, controls);
-            
-            List<LDAPEntry> allEntries = result.getAllEntries();
-            
-            if(LOGGER.isDebugEnabled())
-            {
-                LOGGER.debug("Retrieved " + allEntries.size() + " entries");
-            }
-            
-            return allEntries;        
+            LOGGER.debug("About to search LDAP entries matching " + filter + " under: " + baseDn);
         }
-        finally
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
         {
-            if(result != null)
-            {
-                result.close();
-            }
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setReturnObject(returnObject);
+        controls.setPageSize(pageSize);
+        controls.setOrderBy(orderBy);
+        controls.setEntryFormat(entryFormat.getValue());
+        controls.setParallelism(parallelism);
+        
+        List<LDAPEntry> allEntries = this.connection.searchAll(baseDn, bindFilter(filter, filterArgs), controls);
+        
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("Retrieved " + allEntries.size() + " entries");
         }
+        
+        return allEntries;        
     }
     
     /**
@@ -616,6 +1278,15 @@ public class LDAPConnector
      * <p/>
      * <h4>Returning all persons in lists of 100 LDAP entries</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:paged-result-search-2}
+     * <p/>
+     * <h4>Returning all persons sorted by surname and then by most recently created</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:paged-result-search-3}
+     * <p/>
+     * <h4>Returning the fifth page of 100 persons sorted by surname, letting the LDAP server skip the first four pages</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:paged-result-search-4}
+     * <p/>
+     * <h4>Returning the members of a department taken from the message, one LDAP entry at a time</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:paged-result-search-5}
      * 
      * @param baseDn The base DN of the LDAP search.
      * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
@@ -625,6 +1296,9 @@ public class LDAPConnector
      *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
      *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
      *               </ul>
+     * @param filterArgs Values of the <i>{n}</i> references in the filter, such as <i>(&(objectClass=person)(mail={0}))</i>. Values are escaped
+     *                   (RFC 4515), so they are always matched as they are: a <b>*</b> or a parenthesis in a value never changes the filter.
+     *                   Filters with arguments are validated and compiled once, and reused by every search with the same filter.
      * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
      *        LDAP entry attributes are returned.
      * @param scope The scope of the search. Valid attributes are:
@@ -643,7 +1317,17 @@ public class LDAPConnector
      * @param resultPageSize The size of the list this operation streams. If this value is less than 1, then it will be considered that the page size is 1.
      * @param resultOffset Considering the results are paged in resultPageSize pages, then this is the first page that should be retrieved.
      * @param resultPageCount How many pages of size <i>resultPageSize</i> starting at <i>resultOffset</i> should be returned/processed. If zero (0) or less or if <i>resultPageCount</i> is greater than the total amount of pages, then all pages are returned.
-     * @param orderBy Name of the LDAP attribute used to sort results.
+     * @param orderBy Comma separated list of the LDAP attributes used to sort results. Prefix an attribute with <b>-</b> to sort in descending order
+     *                and append <b>:</b> and a matching rule OID to use a specific ordering rule (for example <code>sn, -createTimestamp, cn:2.5.13.3</code>).
+     *                Sorting is requested to the LDAP server (RFC 2891 server side sort control) and if the server doesn't support it, then results are sorted
+     *                by the connector.
+     * @param virtualListView If true and <i>orderBy</i> is set, then the LDAP server is asked to return the results starting at <i>resultOffset</i>
+     *                        using the virtual list view control, so that the entries before the offset are never transferred. Results are then
+     *                        requested in windows of <i>pageSize</i> entries (100 if paging is disabled). If the LDAP server doesn't support virtual list view,
+     *                        then all the results are retrieved and the ones before the offset are skipped by the connector.
+     * @param entryFormat How the returned entries hold their attributes. <b>STANDARD</b> entries can be changed. <b>COMPACT</b> entries are read only
+     *                    (changing one turns it into a standard entry first) and take a fraction of the memory, so use them when many entries are kept in memory.
+     *                    <b>LAZY</b> entries only convert the attributes that are read, so use them when the flow reads a few of the returned attributes.
      * @param callback Used to stream results
      * @return A list with individual results of executing the rest of flow with each results page.
      * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
@@ -653,7 +1337,7 @@ public class LDAPConnector
      */
     @Processor(intercepting=true)
     @InvalidateConnectionOn(exception = CommunicationException.class)
-    public List<Object> pagedResultSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("0") @Placement(group = "Search Controls") int pageSize, @Optional @Default("1") @Placement(group = "Results Paging") int resultPageSize, @Optional @Default("0") @Placement(group = "Results Paging") int resultOffset, @Optional @Default("0") @Placement(group = "Results Paging") int resultPageCount, @Optional @Default("") @Placement(group = "Search Controls") String orderBy, SourceCallback callback) throws Exception
+    public List<Object> pagedResultSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> filterArgs, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("0") @Placement(group = "Search Controls") int pageSize, @Optional @Default("1") @Placement(group = "Results Paging") int resultPageSize, @Optional @Default("0") @Placement(group = "Results Paging") int resultOffset, @Optional @Default("0") @Placement(group = "Results Paging") int resultPageCount, @Optional @Default("") @Placement(group = "Search Controls") String orderBy, @Optional @Default("false") @Placement(group = "Results Paging") boolean virtualListView, @Optional @Default("STANDARD") @Placement(group = "Search Controls") EntryFormat entryFormat, SourceCallback callback) throws Exception
     {
         LDAPResultSet result = null;
         List<Object> flowResults = new ArrayList<Object>();
@@ -679,29 +1363,33 @@ public class LDAPConnector
             controls.setReturnObject(returnObject);
             controls.setPageSize(pageSize);
             controls.setOrderBy(orderBy);
+            controls.setOffset(resultPageSize * resultOffset);
+            controls.setVirtualListView(virtualListView);
+            controls.setEntryFormat(entryFormat.getValue());
             
-            result = this.connection.search(baseDn, filter, controls);
+            if(LOGGER.isDebugEnabled())
+            {
+                LOGGER.debug("Offest is " + resultOffset + ". Skipping the first " + resultOffset + " pages of size " + resultPageSize);
+            }
+            result = this.connection.search(baseDn, bindFilter(filter, filterArgs), controls);
             
             LDAPEntry anEntry = null;
             int entryCount = 0, pageCount = 0;
             Object flowResult;
+            LDAPLogger.Sampler sampler = LOGGER.sampler(debugLogSampleRate);
+            boolean sampled;
             
             if(resultPageSize == 1)
             {
-                if(LOGGER.isDebugEnabled())
-                {
-                    LOGGER.debug("Offest is " + resultOffset + ". Skipping the first " + resultOffset + " entries");
-                }
-                skipEntries(result, resultOffset);
-                
                 while(result.hasNext() && (resultPageCount == 0 || entryCount < resultPageCount))
                 {
                     entryCount++;
                     anEntry = result.next();
 
-                    if(LOGGER.isDebugEnabled())
+                    sampled = sampler.isDebugEnabled();
+                    if(sampled)
                     {
-                        LOGGER.debug("Entry " + entryCount + " -> " + anEntry);
+                        logEntry(entryCount, anEntry);
                     }
                     
                     flowResult = callback.process(anEntry);
@@ -711,9 +1399,9 @@ public class LDAPConnector
                         flowResults.add(flowResult);
                     }
                     
-                    if(LOGGER.isDebugEnabled())
+                    if(sampled)
                     {
-                        LOGGER.debug("Processed entry " + entryCount);
+                        LOGGER.debug("Processed entry {}", entryCount);
                     }
                 }
             }
@@ -721,12 +1409,6 @@ public class LDAPConnector
             {
                 List<LDAPEntry> page;
                 
-                if(LOGGER.isDebugEnabled())
-                {
-                    LOGGER.debug("Offest is " + resultOffset + ". Skipping the first " + resultOffset + " pages of size " + resultPageSize);
-                }
-                skipEntries(result, resultPageSize * resultOffset);
-                
                 while(result.hasNext() && (resultPageCount == 0 || pageCount < resultPageCount))
                 {
                     page = new ArrayList<LDAPEntry>(resultPageSize);
@@ -736,18 +1418,14 @@ public class LDAPConnector
                     {
                         entryCount++;
                         anEntry = result.next();
-                        
-                        if(LOGGER.isDebugEnabled())
-                        {
-                            LOGGER.debug("Page " + pageCount + " / Entry " + entryCount + " -> " + anEntry);
-                        }
-                        
                         page.add(anEntry);
                     }
 
-                    if(LOGGER.isDebugEnabled())
+                    sampled = sampler.isDebugEnabled();
+                    if(sampled)
                     {
-                        LOGGER.debug("Page " + pageCount + " -> " + page);
+                        LOGGER.debug("Page {} with {} entries", pageCount, page.size());
+                        logEntry(entryCount - page.size() + 1, page.get(0));
                     }
                     
                     flowResult = callback.process(page);
@@ -757,48 +1435,268 @@ public class LDAPConnector
                         flowResults.add(flowResult);
                     }
                     
-                    if(LOGGER.isDebugEnabled())
+                    if(sampled)
                     {
-                        LOGGER.debug("Processed page " + pageCount);
+                        LOGGER.debug("Processed page {}", pageCount);
                     }
                 }
             }
             return flowResults;
         }
-        finally
+        finally
+        {
+            if(result != null)
+            {
+                result.close();
+            }
+        }        
+    }
+
+    /*
+     * Only the DN is logged with DEBUG level, as LDAPEntry.toString renders every attribute.
+     */
+    private void logEntry(int entryCount, LDAPEntry entry)
+    {
+        if(LOGGER.isTraceEnabled())
+        {
+            LOGGER.trace("Entry {} -> {}", entryCount, entry);
+        }
+        else
+        {
+            LOGGER.debug("Entry {} -> {}", entryCount, entry.getDn());
+        }
+    }
+
+    /*
+     * Filters without arguments are sent as they are, as before filter arguments were supported.
+     */
+    private static String bindFilter(String filter, List<String> filterArgs) throws LDAPException
+    {
+        if(filterArgs == null || filterArgs.isEmpty())
+        {
+            return filter;
+        }
+        return LDAPFilter.compile(filter).format(filterArgs.toArray());
+    }
+
+    /**
+     * Performs a LDAP search returning an {@link java.util.Iterator} over the resulting LDAP entries instead of a list. Entries are read from the
+     * LDAP server as the iterator is consumed (for example by a <i>foreach</i> scope or a collection splitter), so the memory used by this
+     * operation doesn't depend on the amount of entries returned by the search.
+     * <p/>
+     * Results are retrieved from the LDAP server in pages of <i>pageSize</i> entries. The connection used by the search is released when the
+     * last entry is read or when an error occurs. If the flow stops consuming the iterator before reaching the end, then it should call
+     * {@link LDAPResultSetIterator#close()} to release the connection (as a last resort it is released when the iterator is garbage collected).
+     * <p/>
+     * <h4>Processing all persons one LDAP entry at a time</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:streaming-search-1}
+     *
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
+     *               <ul>
+     *                  <li>(objectClass=*): All objects.</li>
+     *                  <li>(&(objectClass=person)(!cn=andy)): All persons except for the one with common name (cn) "andy".</li>
+     *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
+     *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
+     *               </ul>
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Search timeout in milliseconds. If the value is 0, this means to wait indefinitely.
+     * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned.
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned.
+     * @param pageSize The size of the pages requested to the LDAP server. At most one page of entries is held in memory at any time. If the
+     *                 pageSize is less or equals than 0, then paging will be disabled and entries are read one at a time from the search response.
+     * @param orderBy Comma separated list of the LDAP attributes used to sort results. Prefix an attribute with <b>-</b> to sort in descending order
+     *                and append <b>:</b> and a matching rule OID to use a specific ordering rule (for example <code>sn, -createTimestamp, cn:2.5.13.3</code>).
+     *                Sorting is requested to the LDAP server (RFC 2891 server side sort control) and if the server doesn't support it, then results are sorted
+     *                by the connector (holding a bounded amount of entries in memory).
+     * @param entryFormat How the returned entries hold their attributes. <b>STANDARD</b> entries can be changed. <b>COMPACT</b> entries are read only
+     *                    (changing one turns it into a standard entry first) and take a fraction of the memory, so use them when many entries are kept in memory.
+     *                    <b>LAZY</b> entries only convert the attributes that are read, so use them when the flow reads a few of the returned attributes.
+     * @param parallelism Maximum amount of concurrent searches a <b>SUB_TREE</b> search is split into. If greater than 1, then there is one search for
+     *                    each entry right under the base DN, run on different connections of the pool, and their entries are returned as they arrive
+     *                    (up to 100 entries per search are read ahead). If <i>orderBy</i> is set, then all the results are read and sorted before returning
+     *                    the first one. It is limited by the connection pool size, so searches are not split if pooling is disabled.
+     *
+     * @return A {@link LDAPResultSetIterator} over the {@link LDAPEntry} objects resulting from the search.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     */
+    @Processor
+    @InvalidateConnectionOn(exception = CommunicationException.class)
+    public LDAPResultSetIterator streamingSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("100") @Placement(group = "Search Controls") int pageSize, @Optional @Placement(group = "Search Controls") String orderBy, @Optional @Default("STANDARD") @Placement(group = "Search Controls") EntryFormat entryFormat, @Optional @Default("1") @Placement(group = "Search Controls") int parallelism) throws Exception
+    {
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("About to stream LDAP entries matching " + filter + " under: " + baseDn + " in pages of " + pageSize + " entries.");
+        }
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setReturnObject(returnObject);
+        controls.setPageSize(pageSize);
+        controls.setOrderBy(orderBy);
+        controls.setEntryFormat(entryFormat.getValue());
+        controls.setParallelism(parallelism);
+
+        return new LDAPResultSetIterator(this.connection.search(baseDn, filter, controls));
+    }
+
+    /**
+     * Returns the entries under a base DN that changed since the previous execution with the same <i>syncId</i>, instead of searching all of
+     * them. The first execution returns all the entries. The synchronization state (the cookie returned by the LDAP server or the greatest
+     * modification time returned) is kept in an object store under the <i>syncId</i>.
+     * <p/>
+     * By default (<i>commit</i> set to true) the state is stored as soon as the changes are read, before the rest of the flow processes them,
+     * so changes are delivered at most once: if the flow fails, the changes it didn't process are not returned again. To get them delivered
+     * at least once, set <i>commit</i> to false and call {@link LDAPConnector#commitSync(String, String, ObjectStore)} with the cookie of the
+     * result once the changes have been processed. If the flow fails before that, the next execution returns the same changes again.
+     * <p/>
+     * Changes are retrieved using one of the following modes:
+     * <ul>
+     *    <li><b>CONTENT_SYNC</b>: LDAP content synchronization (RFC 4533) supported, for example, by OpenLDAP. Only the deleted entries that
+     *    the LDAP server returns one by one with the delete state are reported. Servers may instead return the unchanged entries (present phase,
+     *    logged as a warning) or the identifiers of the deleted ones in intermediate responses (as OpenLDAP does from its session log), which
+     *    JNDI does not expose. In both cases those deletions are lost, so the result is never complete regarding deleted entries.</li>
+     *    <li><b>DIR_SYNC</b>: Active Directory DirSync control. The base DN must be the root of a naming context, the scope must be <b>SUB_TREE</b>
+     *    and the entries only hold their changed attributes. Deleted entries are reported.</li>
+     *    <li><b>HIGH_WATER_MARK</b>: Search of the entries whose <i>highWaterMarkAttributes</i> are greater than or equal to the greatest value
+     *    returned by the previous execution. Deleted entries are not reported and the entries changed at that greatest value are returned again.</li>
+     *    <li><b>AUTO</b>: Uses CONTENT_SYNC or DIR_SYNC if the LDAP server supports them or HIGH_WATER_MARK otherwise.</li>
+     * </ul>
+     * When {@link LDAPSyncResult#isDeletedDnsComplete()} is false, entries may have been deleted without being reported, and the flow
+     * must find them by comparing the entries it knows with a full search, as after a full synchronization.
+     * 
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:sync-1}
+     * <p/>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:sync-2}
+     * 
+     * @param syncId Identifier of the synchronization, used as the key of its state in the object store.
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. Only changes to entries matching this filter are returned.
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search: <b>OBJECT</b>, <b>ONE_LEVEL</b> or <b>SUB_TREE</b>.
+     * @param mode How the changes are retrieved: <b>AUTO</b>, <b>CONTENT_SYNC</b>, <b>DIR_SYNC</b> or <b>HIGH_WATER_MARK</b>.
+     * @param highWaterMarkAttributes Comma separated list of the attributes holding the time (or update sequence number) of the last change of each entry.
+     *        Only used in <b>HIGH_WATER_MARK</b> mode. For Active Directory use <code>uSNChanged</code>.
+     * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page. Only used in <b>HIGH_WATER_MARK</b> mode.
+     * @param objectStore The object store holding the synchronization state. If not set, the default persistent object store is used.
+     * @param commit Whether the new synchronization state is stored by this operation (at-most-once delivery) or later by
+     *        {@link LDAPConnector#commitSync(String, String, ObjectStore)} (at-least-once delivery).
+     * @return A {@link LDAPSyncResult} holding the added or modified entries, the DNs of the deleted entries, whether all the entries were returned and
+     *         whether all the deleted entries were reported.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the synchronization.
+     * @throws org.mule.module.ldap.api.LDAPException If the LDAP server doesn't support the mode or there is any other exception, mainly related to
+     *         connectivity problems or referrals.
+     * @throws Exception In case there is any other error reading or storing the synchronization state.
+     */
+    @Processor
+    @InvalidateConnectionOn(exception = CommunicationException.class)
+    public LDAPSyncResult sync(@FriendlyName("Sync ID") String syncId, @FriendlyName("Base DN") String baseDn, @Optional @Default("(objectClass=*)") String filter, @Optional List<String> attributes, @Optional @Default("SUB_TREE") SearchScope scope, @Optional @Default("AUTO") SyncMode mode, @Optional @Default("modifyTimestamp,createTimestamp") @Placement(group = "High-water Mark") String highWaterMarkAttributes, @Optional @Default("0") @Placement(group = "High-water Mark") int pageSize, @Optional ObjectStore<Serializable> objectStore, @Optional @Default("true") boolean commit) throws Exception
+    {
+        ObjectStore<Serializable> store = objectStore != null ? objectStore : getDefaultObjectStore();
+        String key = SYNC_COOKIE_KEY_PREFIX + syncId;
+        String cookie = store.contains(key) ? (String) store.retrieve(key) : null;
+        
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("About to synchronize LDAP entries matching " + filter + " under " + baseDn + (cookie != null ? " from the state of " + syncId : ""));
+        }
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
         {
-            if(result != null)
-            {
-                result.close();
-            }
-        }        
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setScope(scope.getValue());
+        controls.setPageSize(pageSize);
+        
+        LDAPSyncResult result = this.connection.sync(baseDn, filter, controls, mode.getValue(), StringUtils.split(highWaterMarkAttributes, ", "), cookie);
+        
+        if(commit)
+        {
+            storeSyncCookie(store, key, result.getCookie());
+        }
+        
+        if(LOGGER.isInfoEnabled())
+        {
+            LOGGER.info("Synchronized " + syncId + ": " + result.getEntries().size() + " changed and " + result.getDeletedDns().size() + " deleted entries" + (result.isFullSync() ? " (full synchronization)" : result.isDeletedDnsComplete() ? "" : " (other deletions not reported)"));
+        }
+        
+        return result;
     }
-
-    /*
-     * LDAP doesn't support paging, so all results are always returned. In order to skip
-     * pages, the results should be ignored.
+    
+    /**
+     * Stores the synchronization state returned by a {@link LDAPConnector#sync(String, String, String, List, SearchScope, SyncMode, String, int, ObjectStore, boolean)}
+     * executed with <i>commit</i> set to false, once its changes have been processed. Until then, the following synchronizations with the
+     * same <i>syncId</i> return those changes again.
+     * 
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:commit-sync-1}
+     * 
+     * @param syncId Identifier of the synchronization, used as the key of its state in the object store.
+     * @param cookie The cookie of the {@link LDAPSyncResult} whose changes have been processed.
+     * @param objectStore The object store holding the synchronization state. If not set, the default persistent object store is used.
+     * @throws Exception In case there is any error storing the synchronization state.
      */
-    private void skipEntries(LDAPResultSet result, int totalEntriesToSkip) throws LDAPException
+    @Processor
+    public void commitSync(@FriendlyName("Sync ID") String syncId, @Optional String cookie, @Optional ObjectStore<Serializable> objectStore) throws Exception
     {
-        if(result != null && totalEntriesToSkip > 0)
+        ObjectStore<Serializable> store = objectStore != null ? objectStore : getDefaultObjectStore();
+        storeSyncCookie(store, SYNC_COOKIE_KEY_PREFIX + syncId, cookie);
+        LOGGER.debug("Committed the synchronization state of {}", syncId);
+    }
+    
+    private void storeSyncCookie(ObjectStore<Serializable> store, String key, String cookie) throws Exception
+    {
+        if(cookie != null)
         {
-            int count = 0;
-            while(result.hasNext() && count < totalEntriesToSkip)
+            if(store.contains(key))
             {
-                count++;
-                result.next(); // skip
+                store.remove(key);
             }
+            store.store(key, cookie);
         }
     }
     
+    private ObjectStore<Serializable> getDefaultObjectStore()
+    {
+        if(this.muleContext == null)
+        {
+            throw new IllegalStateException("No object store configured for the synchronization state");
+        }
+        return this.muleContext.getRegistry().lookupObject(MuleProperties.OBJECT_STORE_DEFAULT_PERSISTENT_NAME);
+    }
+
     /**
      * Performs a LDAP search that is supposed to return a unique result. If the search returns more than one result, then a
      * warn log message is generated and the first element of the result is returned.
      * <p/>
      * Use this operation over {@link LDAPConnector#lookup(String, List)} when you know don't know the DN of the entry you need
      * to retrieve but you have a set of attributes that you know should return a single entry (for example an email address)
+     * <p/>
+     * Results are taken from the search cache, if it is enabled, as with {@link LDAPConnector#search(String, String, List, List, SearchScope, int, long, boolean, int, String, EntryFormat, int)}.
      * 
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-one-1}
+     * <p/>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:search-one-2}
      * 
      * @param baseDn The base DN of the LDAP search.
      * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
@@ -808,6 +1706,9 @@ public class LDAPConnector
      *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
      *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
      *               </ul>
+     * @param filterArgs Values of the <i>{n}</i> references in the filter, such as <i>(&(objectClass=person)(mail={0}))</i>. Values are escaped
+     *                   (RFC 4515), so they are always matched as they are: a <b>*</b> or a parenthesis in a value never changes the filter.
+     *                   Filters with arguments are validated and compiled once, and reused by every search with the same filter.
      * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
      *        LDAP entry attributes are returned.
      * @param scope The scope of the search. Valid attributes are:
@@ -822,6 +1723,9 @@ public class LDAPConnector
      * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned. 
      * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
      *                     If enabled, the object will be returned. 
+     * @param entryFormat How the returned entries hold their attributes. <b>STANDARD</b> entries can be changed. <b>COMPACT</b> entries are read only
+     *                    (changing one turns it into a standard entry first) and take a fraction of the memory, so use them when many entries are kept in memory.
+     *                    <b>LAZY</b> entries only convert the attributes that are read, so use them when the flow reads a few of the returned attributes.
      * @return A {@link LDAPEntry} with the first element of the search result or null if there are no results.
      * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
      * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
@@ -830,14 +1734,14 @@ public class LDAPConnector
      */
     @Processor
     @InvalidateConnectionOn(exception = CommunicationException.class)
-    public LDAPEntry searchOne(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject) throws Exception
+    public LDAPEntry searchOne(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> filterArgs, @Optional List<String> attributes, @Optional @Default("ONE_LEVEL") SearchScope scope, @Optional @Default("0") @Placement(group = "Search Controls") int timeout, @Optional @Default("0") @Placement(group = "Search Controls") long maxResults, @Optional @Default("false") @Placement(group = "Search Controls") boolean returnObject, @Optional @Default("STANDARD") @Placement(group = "Search Controls") EntryFormat entryFormat) throws Exception
     {
         if(LOGGER.isDebugEnabled())
         {
             LOGGER.debug("Searching entries under " + baseDn + " with filter " + filter);
         }
         
-        List<LDAPEntry> results = search(baseDn, filter, attributes, scope, timeout, maxResults, returnObject, 0);
+        List<LDAPEntry> results = search(baseDn, filter, filterArgs, attributes, scope, timeout, maxResults, returnObject, 0, null, entryFormat, 1);
         
         if(results != null && results.size() > 1)
         {
@@ -1151,6 +2055,113 @@ public class LDAPConnector
         }        
     }
     
+    /**
+     * Adds, updates or deletes a list of LDAP entries. Instead of waiting for each operation to complete before sending the next one, up to
+     * <i>maxInFlight</i> operations are sent to the LDAP server at the same time using different pooled connections, so this operation should be
+     * used along with connection pooling (if pooling is disabled, then operations are sent one at a time).
+     * <p/>
+     * A failing entry doesn't make the whole batch fail. The result is a list of {@link LDAPBatchResult} objects, one per entry and in the same order,
+     * holding the exception that the single entry operation would have thrown (for example {@link org.mule.module.ldap.api.NameAlreadyBoundException}
+     * when adding an entry that already exists). If the connection to the LDAP server is lost, then the remaining entries are not sent and
+     * their result holds the {@link CommunicationException}.
+     * <p/>
+     * Entries can be {@link LDAPEntry} objects, {@link Map} representations of the entries (see <a href="#add-from-map"><b>add from map</b></a>)
+     * or, when deleting, the DN of the entries.
+     * 
+     * <h4>Add the entries in the payload with up to 20 concurrent requests</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:batch-1}
+     * <h4>Delete the DNs in the payload</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:batch-2}
+     * 
+     * @param operation The operation applied to every entry: <b>ADD</b>, <b>MODIFY</b> or <b>DELETE</b>.
+     * @param entries The list of entries.
+     * @param maxInFlight Maximum amount of operations sent to the LDAP server at the same time. It is also limited by the maximum size of the connection pool.
+     * @return A list with the result of each entry.
+     * @throws Exception In case there is any error creating the batch.
+     */
+    @Processor
+    public List<LDAPBatchResult> batch(BatchOperation operation, @Optional @Default("#[payload:]") List<Object> entries, @Optional @Default("10") int maxInFlight) throws Exception
+    {
+        if(LOGGER.isDebugEnabled())
+        {
+            LOGGER.debug("About to " + operation + " " + entries.size() + " entries with up to " + maxInFlight + " concurrent requests");
+        }
+        
+        List<LDAPBatchResult> results = new LDAPBatchExecutor(this.connection, maxInFlight).execute(operation.getValue(), entries);
+        
+        if(LOGGER.isInfoEnabled())
+        {
+            int failed = 0;
+            for(LDAPBatchResult result : results)
+            {
+                failed += result.isSuccess() ? 0 : 1;
+            }
+            LOGGER.info("Batch " + operation + " of " + results.size() + " entries completed with " + failed + " failures");
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Message source that receives the changes made to the entries under a base DN. Each change is processed as a
+     * {@link LDAPChangeEvent} holding the change type (add, modify, delete or rename), the DN of the entry, its previous
+     * DN (only for renames) and the changed entry (not for deletions).
+     * <p/>
+     * Changes are received using one of the following modes:
+     * <ul>
+     *    <li><b>PERSISTENT_SEARCH</b>: The LDAP server pushes the changes as they happen. Once the connection to the LDAP server is
+     *    established again, the entries matching the filter that were added or modified while it was lost are received as additions or
+     *    modifications (some of them may be received twice). Deletions made while the connection is lost are missed.</li>
+     *    <li><b>CHANGE_LOG</b>: The change log of the LDAP server is read every <i>retryDelay</i> milliseconds. Changes made while the
+     *    connection is lost are received once it is established again. The base DN must be absolute.</li>
+     *    <li><b>AUTO</b>: Uses persistent search if the LDAP server supports it or the change log otherwise.</li>
+     * </ul>
+     * Up to <i>bufferSize</i> changes are read from the LDAP server ahead of the flow. Once the buffer is full, no more changes are read
+     * until the flow processes the buffered ones.
+     * <p/>
+     * The source uses its own connection to the LDAP server (not a pooled one). If that connection is lost, the source connects again
+     * after <i>retryDelay</i> milliseconds.
+     * 
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:change-listener-1}
+     * 
+     * @param baseDn The base DN of the entries whose changes are received.
+     * @param filter Only changes to entries matching this filter are received. Deletions are always received when polling the change log.
+     * @param scope The scope of the changes: <b>OBJECT</b>, <b>ONE_LEVEL</b> or <b>SUB_TREE</b>.
+     * @param mode How the changes are received: <b>AUTO</b>, <b>PERSISTENT_SEARCH</b> or <b>CHANGE_LOG</b>.
+     * @param bufferSize Maximum amount of changes read from the LDAP server and not yet processed.
+     * @param retryDelay Milliseconds to wait before connecting again after losing the connection. When polling the change log, it is also the
+     *        time between polls.
+     * @param callback The callback that processes each change.
+     * @throws Exception If the LDAP server doesn't support the mode or the changes cannot be received for any reason other than a lost connection.
+     */
+    @Source
+    public void changeListener(@FriendlyName("Base DN") String baseDn, @Optional @Default("(objectClass=*)") String filter, @Optional @Default("SUB_TREE") SearchScope scope, @Optional @Default("AUTO") ChangeNotificationMode mode, @Optional @Default("1000") int bufferSize, @Optional @Default("5000") long retryDelay, SourceCallback callback) throws Exception
+    {
+        LDAPChangeSubscription subscription = this.connection.subscribe(baseDn, filter, scope.getValue(), mode.getValue(), bufferSize, retryDelay);
+        
+        try
+        {
+            while(!Thread.currentThread().isInterrupted())
+            {
+                LDAPChangeEvent event = subscription.poll(CHANGE_POLL_TIMEOUT);
+                if(event != null)
+                {
+                    LOGGER.debug("Received change {}", event);
+                    callback.process(event);
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            LOGGER.debug("Stopped receiving changes under {}", baseDn);
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            subscription.close();
+        }
+    }
+    
     /**
      * Renames and existing LDAP entry (moves and entry from a DN to another one).
      * 
@@ -1509,6 +2520,276 @@ public class LDAPConnector
         this.poolTimeout = poolTimeout;
     }
 
+    public long getPoolBorrowTimeout()
+    {
+        return poolBorrowTimeout;
+    }
+
+    public void setPoolBorrowTimeout(long poolBorrowTimeout)
+    {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    public boolean isPoolValidateOnBorrow()
+    {
+        return poolValidateOnBorrow;
+    }
+
+    public void setPoolValidateOnBorrow(boolean poolValidateOnBorrow)
+    {
+        this.poolValidateOnBorrow = poolValidateOnBorrow;
+    }
+
+    public int getLookupCacheMaxEntries()
+    {
+        return lookupCacheMaxEntries;
+    }
+
+    public void setLookupCacheMaxEntries(int lookupCacheMaxEntries)
+    {
+        this.lookupCacheMaxEntries = lookupCacheMaxEntries;
+    }
+
+    public long getLookupCacheMaxBytes()
+    {
+        return lookupCacheMaxBytes;
+    }
+
+    public void setLookupCacheMaxBytes(long lookupCacheMaxBytes)
+    {
+        this.lookupCacheMaxBytes = lookupCacheMaxBytes;
+    }
+
+    public long getLookupCacheTtl()
+    {
+        return lookupCacheTtl;
+    }
+
+    public void setLookupCacheTtl(long lookupCacheTtl)
+    {
+        this.lookupCacheTtl = lookupCacheTtl;
+    }
+
+    public int getNegativeCacheMaxEntries()
+    {
+        return negativeCacheMaxEntries;
+    }
+
+    public void setNegativeCacheMaxEntries(int negativeCacheMaxEntries)
+    {
+        this.negativeCacheMaxEntries = negativeCacheMaxEntries;
+    }
+
+    public long getNegativeCacheTtl()
+    {
+        return negativeCacheTtl;
+    }
+
+    public void setNegativeCacheTtl(long negativeCacheTtl)
+    {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    public boolean isNegativeCacheBloomFilter()
+    {
+        return negativeCacheBloomFilter;
+    }
+
+    public void setNegativeCacheBloomFilter(boolean negativeCacheBloomFilter)
+    {
+        this.negativeCacheBloomFilter = negativeCacheBloomFilter;
+    }
+
+    public long getSearchCacheMaxBytes()
+    {
+        return searchCacheMaxBytes;
+    }
+
+    public void setSearchCacheMaxBytes(long searchCacheMaxBytes)
+    {
+        this.searchCacheMaxBytes = searchCacheMaxBytes;
+    }
+
+    public long getSearchCacheTtl()
+    {
+        return searchCacheTtl;
+    }
+
+    public void setSearchCacheTtl(long searchCacheTtl)
+    {
+        this.searchCacheTtl = searchCacheTtl;
+    }
+
+    public LoadBalancingPolicy getLoadBalancingPolicy()
+    {
+        return loadBalancingPolicy;
+    }
+
+    public void setLoadBalancingPolicy(LoadBalancingPolicy loadBalancingPolicy)
+    {
+        this.loadBalancingPolicy = loadBalancingPolicy;
+    }
+
+    public int getCircuitBreakerFailureThreshold()
+    {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold)
+    {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenTime()
+    {
+        return circuitBreakerOpenTime;
+    }
+
+    public void setCircuitBreakerOpenTime(long circuitBreakerOpenTime)
+    {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    public long getCircuitBreakerSlowOperationThreshold()
+    {
+        return circuitBreakerSlowOperationThreshold;
+    }
+
+    public void setCircuitBreakerSlowOperationThreshold(long circuitBreakerSlowOperationThreshold)
+    {
+        this.circuitBreakerSlowOperationThreshold = circuitBreakerSlowOperationThreshold;
+    }
+
+    public int getVerifyInitialPoolSize()
+    {
+        return verifyInitialPoolSize;
+    }
+
+    public void setVerifyInitialPoolSize(int verifyInitialPoolSize)
+    {
+        this.verifyInitialPoolSize = verifyInitialPoolSize;
+    }
+
+    public int getVerifyMaxPoolSize()
+    {
+        return verifyMaxPoolSize;
+    }
+
+    public void setVerifyMaxPoolSize(int verifyMaxPoolSize)
+    {
+        this.verifyMaxPoolSize = verifyMaxPoolSize;
+    }
+
+    public int getVerifyCacheMaxEntries()
+    {
+        return verifyCacheMaxEntries;
+    }
+
+    public void setVerifyCacheMaxEntries(int verifyCacheMaxEntries)
+    {
+        this.verifyCacheMaxEntries = verifyCacheMaxEntries;
+    }
+
+    public long getVerifyCacheTtl()
+    {
+        return verifyCacheTtl;
+    }
+
+    public void setVerifyCacheTtl(long verifyCacheTtl)
+    {
+        this.verifyCacheTtl = verifyCacheTtl;
+    }
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getOperationTimeout()
+    {
+        return operationTimeout;
+    }
+
+    public void setOperationTimeout(long operationTimeout)
+    {
+        this.operationTimeout = operationTimeout;
+    }
+
+    public boolean isMetricsEnabled()
+    {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled)
+    {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public String getMetricsReporter()
+    {
+        return metricsReporter;
+    }
+
+    public void setMetricsReporter(String metricsReporter)
+    {
+        this.metricsReporter = metricsReporter;
+    }
+
+    public long getMetricsReportInterval()
+    {
+        return metricsReportInterval;
+    }
+
+    public void setMetricsReportInterval(long metricsReportInterval)
+    {
+        this.metricsReportInterval = metricsReportInterval;
+    }
+
+    public long getSlowQueryThreshold()
+    {
+        return slowQueryThreshold;
+    }
+
+    public void setSlowQueryThreshold(long slowQueryThreshold)
+    {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    public int getSlowQueryTopFingerprints()
+    {
+        return slowQueryTopFingerprints;
+    }
+
+    public void setSlowQueryTopFingerprints(int slowQueryTopFingerprints)
+    {
+        this.slowQueryTopFingerprints = slowQueryTopFingerprints;
+    }
+
+    public int getDebugLogSampleRate()
+    {
+        return debugLogSampleRate;
+    }
+
+    public void setDebugLogSampleRate(int debugLogSampleRate)
+    {
+        this.debugLogSampleRate = debugLogSampleRate;
+    }
+
     public Referral getReferral()
     {
         return referral;
@@ -1529,4 +2810,10 @@ public class LDAPConnector
         this.extendedConfiguration = extendedConfiguration;
     }
 
+    @Override
+    public void setMuleContext(MuleContext muleContext)
+    {
+        this.muleContext = muleContext;
+    }
+
 }
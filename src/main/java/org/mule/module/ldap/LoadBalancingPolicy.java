@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.jndi.LDAPJNDIServerPool;
+
+public enum LoadBalancingPolicy
+{
+    NONE(LDAPConnection.NO_LOAD_BALANCING),
+    FAILOVER(LDAPJNDIServerPool.FAILOVER_POLICY),
+    ROUND_ROBIN(LDAPJNDIServerPool.ROUND_ROBIN_POLICY),
+    LEAST_OUTSTANDING_REQUESTS(LDAPJNDIServerPool.LEAST_OUTSTANDING_REQUESTS_POLICY),
+    FEWEST_FAILURES(LDAPJNDIServerPool.FEWEST_FAILURES_POLICY);
+
+    private String policy;
+
+    private LoadBalancingPolicy(String policy)
+    {
+        this.policy = policy;
+    }
+
+    public String toString()
+    {
+        return this.policy;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPSyncResult;
+
+public enum SyncMode
+{
+    /**
+     * Content synchronization or DirSync if the LDAP server supports them, high-water mark otherwise
+     */
+    AUTO(LDAPSyncResult.AUTO),
+    
+    /**
+     * LDAP content synchronization (RFC 4533)
+     */
+    CONTENT_SYNC(LDAPSyncResult.CONTENT_SYNC),
+    
+    /**
+     * Active Directory DirSync
+     */
+    DIR_SYNC(LDAPSyncResult.DIR_SYNC),
+    
+    /**
+     * Search of the entries changed after the greatest modification time (or update sequence number) returned before
+     */
+    HIGH_WATER_MARK(LDAPSyncResult.HIGH_WATER_MARK);
+    
+    private int value;
+    
+    private SyncMode(int value)
+    {
+        this.value = value;
+    }
+    
+    public int getValue()
+    {
+        return this.value;
+    }
+}
@@ -10,7 +10,8 @@ package org.mule.module.ldap;
 
 public enum Type
 {
-    JNDI("jndi");
+    JNDI("jndi"),
+    NIO("nio");
     
     private String type;
     
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared instances of the attribute names and of their lower case keys. Attribute names come from the
+ * schema, so there are few of them, and entries can share them instead of holding their own copies.
+ * At most MAX_CACHED_NAMES names are cached, so names that are not in the cache are just not shared.
+ */
+final class AttributeNames
+{
+    private static final int MAX_CACHED_NAMES = 1024;
+
+    private static final ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentMap<String, String> KEYS = new ConcurrentHashMap<String, String>();
+
+    private AttributeNames()
+    {
+    }
+
+    /**
+     * @param name
+     * @return The shared instance of the name.
+     */
+    static String intern(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        String shared = NAMES.get(name);
+        if (shared == null)
+        {
+            shared = name;
+            if (NAMES.size() < MAX_CACHED_NAMES)
+            {
+                String previous = NAMES.putIfAbsent(name, name);
+                shared = previous != null ? previous : name;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param name
+     * @return The shared instance of the key used to look up the attribute ignoring case.
+     */
+    static String toKey(String name)
+    {
+        String key = KEYS.get(name);
+        if (key == null)
+        {
+            key = name.toLowerCase();
+            if (KEYS.size() < MAX_CACHED_NAMES)
+            {
+                String previous = KEYS.putIfAbsent(name, key);
+                key = previous != null ? previous : key;
+            }
+        }
+        return key;
+    }
+}
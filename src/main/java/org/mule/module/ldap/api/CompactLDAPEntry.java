@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only {@link LDAPEntry} that holds its attributes in two arrays: the attribute names, which are
+ * shared with the other entries, and their values. A {@link LDAPEntry} holds every attribute in its own
+ * object inside a map, which takes several hundred bytes per entry before counting the values, so this is
+ * the representation to use when many entries are kept in memory.
+ * <p/>
+ * The attributes returned by {@link #getAttribute(String)} and {@link #attributes()} are built when they are
+ * requested, so changing them doesn't change the entry. Changing the entry itself (adding or replacing its
+ * attributes) first copies its attributes into a {@link LDAPEntryAttributes}, after which the entry behaves
+ * as a regular {@link LDAPEntry}.
+ */
+public class CompactLDAPEntry extends LDAPEntry
+{
+    private static final long serialVersionUID = -3150931785372610183L;
+
+    /*
+     * Both are null once the attributes have been copied into a LDAPEntryAttributes.
+     */
+    private String[] names;
+    private Object[] values;
+
+    /**
+     * @param dn
+     * @param names Names of the attributes.
+     * @param values The value of each attribute or, if it is multi valued, an Object[] with its values
+     *        (as in {@link #addAttribute(String, Object)}). The arrays are held by the entry, not copied,
+     *        so they must not be changed afterwards.
+     */
+    public CompactLDAPEntry(String dn, String[] names, Object[] values)
+    {
+        super(dn, (LDAPEntryAttributes) null);
+        if (names == null || values == null || names.length != values.length)
+        {
+            throw new IllegalArgumentException("There must be a value for every attribute name.");
+        }
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = AttributeNames.intern(names[i]);
+        }
+        this.names = names;
+        this.values = values;
+    }
+
+    /*
+     * Shares the arrays of a compact entry, which are never changed.
+     */
+    private CompactLDAPEntry(CompactLDAPEntry entry)
+    {
+        super(entry.getDn(), (LDAPEntryAttributes) null);
+        this.names = entry.names;
+        this.values = entry.values;
+    }
+
+    /**
+     * @param entry
+     * @return A compact entry with the attributes of the given entry. If the entry is already compact, then
+     *         the returned entry shares its attributes.
+     */
+    public static CompactLDAPEntry compact(LDAPEntry entry)
+    {
+        if (entry instanceof CompactLDAPEntry && ((CompactLDAPEntry) entry).isCompact())
+        {
+            return new CompactLDAPEntry((CompactLDAPEntry) entry);
+        }
+
+        String[] names = new String[entry.getAttributeCount()];
+        Object[] values = new Object[names.length];
+        int i = 0;
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext() && i < names.length; i++)
+        {
+            LDAPEntryAttribute attribute = it.next();
+            names[i] = attribute.getName();
+            values[i] = attribute.isMultiValued() ? attribute.getValues().toArray() : attribute.getValue();
+        }
+        return new CompactLDAPEntry(entry.getDn(), names, values);
+    }
+
+    /**
+     * @return true if the attributes are still held in the compact form, that is, if the entry was never changed.
+     */
+    public boolean isCompact()
+    {
+        return names != null;
+    }
+
+    @Override
+    public void addAttribute(LDAPEntryAttribute attribute)
+    {
+        expand();
+        super.addAttribute(attribute);
+    }
+
+    @Override
+    public LDAPEntryAttribute getAttribute(String name)
+    {
+        if (names == null)
+        {
+            return super.getAttribute(name);
+        }
+        if (name != null)
+        {
+            for (int i = 0; i < names.length; i++)
+            {
+                if (names[i].equalsIgnoreCase(name))
+                {
+                    return buildAttribute(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void resetAttributes()
+    {
+        setAttributes(new LDAPEntryAttributes());
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        return names != null ? names.length : super.getAttributeCount();
+    }
+
+    @Override
+    public Iterator<LDAPEntryAttribute> attributes()
+    {
+        if (names == null)
+        {
+            return super.attributes();
+        }
+
+        final String[] currentNames = names;
+        final Object[] currentValues = values;
+        return new Iterator<LDAPEntryAttribute>()
+        {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < currentNames.length;
+            }
+
+            @Override
+            public LDAPEntryAttribute next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return buildAttribute(currentNames, currentValues, next++);
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("Compact entries are read only.");
+            }
+        };
+    }
+
+    /**
+     * The returned attributes can be changed, so the entry stops being compact.
+     *
+     * @return
+     * @see org.mule.module.ldap.api.LDAPEntry#getAttributes()
+     */
+    @Override
+    public LDAPEntryAttributes getAttributes()
+    {
+        expand();
+        return super.getAttributes();
+    }
+
+    @Override
+    public void setAttributes(LDAPEntryAttributes attributes)
+    {
+        this.names = null;
+        this.values = null;
+        super.setAttributes(attributes);
+    }
+
+    private void expand()
+    {
+        if (names != null)
+        {
+            LDAPEntryAttributes attributes = new LDAPEntryAttributes(names.length);
+            for (int i = 0; i < names.length; i++)
+            {
+                attributes.addAttribute(buildAttribute(i));
+            }
+            setAttributes(attributes);
+        }
+    }
+
+    private LDAPEntryAttribute buildAttribute(int index)
+    {
+        return buildAttribute(names, values, index);
+    }
+
+    private static LDAPEntryAttribute buildAttribute(String[] names, Object[] values, int index)
+    {
+        Object value = values[index];
+        if (value instanceof Object[])
+        {
+            Object[] attributeValues = (Object[]) value;
+            LDAPMultiValueEntryAttribute attribute = new LDAPMultiValueEntryAttribute(names[index], attributeValues.length);
+            attribute.addValues(attributeValues);
+            return attribute;
+        }
+        return new LDAPSingleValueEntryAttribute(names[index], value);
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Executes operations of a {@link LDAPConnection} without blocking the calling thread. Operations run on
+ * a dedicated pool with one thread for each operation the connection can run at the same time (see
+ * {@link LDAPConnection#getMaxConcurrentOperations()}), so they never wait for a pooled connection, and
+ * at most <i>maxQueuedOperations</i> more operations wait in a queue for a thread. Operations submitted
+ * while the queue is full fail right away instead of blocking the caller.
+ * <p/>
+ * Each operation returns a {@link Future} and, if given, notifies a {@link LDAPCallback} when it completes.
+ * The cause of a failed {@link Future} is always a {@link LDAPException}.
+ */
+public class LDAPAsyncExecutor
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger();
+    private static final long IDLE_THREAD_TIMEOUT = 60000;
+
+    private final LDAPConnection connection;
+    private final int maxQueuedOperations;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param connection Connection used to run the operations.
+     * @param maxQueuedOperations Maximum amount of operations waiting for a thread. If it is less than 1, then 1 is used.
+     */
+    public LDAPAsyncExecutor(LDAPConnection connection, int maxQueuedOperations)
+    {
+        this.connection = connection;
+        this.maxQueuedOperations = Math.max(maxQueuedOperations, 1);
+
+        int threads = Math.max(connection.getMaxConcurrentOperations(), 1);
+        final String threadName = "ldap-async-" + EXECUTOR_COUNT.incrementAndGet() + "-";
+        this.executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(this.maxQueuedOperations), new ThreadFactory()
+        {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, threadName + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Threads are only kept while there are operations to run
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @param callback Notified when the search completes. It can be null.
+     * @return All the entries returned by the search (see {@link LDAPConnection#searchAll(String, String, LDAPSearchControls)}).
+     */
+    public Future<List<LDAPEntry>> searchAll(final String baseDn, final String filter, final LDAPSearchControls controls, LDAPCallback<List<LDAPEntry>> callback)
+    {
+        return submit(new Callable<List<LDAPEntry>>()
+        {
+            @Override
+            public List<LDAPEntry> call() throws LDAPException
+            {
+                return connection.searchAll(baseDn, filter, controls);
+            }
+        }, callback);
+    }
+
+    /**
+     * @param dn
+     * @param attributes Attributes to return or null to return all of them.
+     * @param callback Notified when the lookup completes. It can be null.
+     * @return The entry.
+     */
+    public Future<LDAPEntry> lookup(final String dn, final String[] attributes, LDAPCallback<LDAPEntry> callback)
+    {
+        return submit(new Callable<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry call() throws LDAPException
+            {
+                return attributes != null ? connection.lookup(dn, attributes) : connection.lookup(dn);
+            }
+        }, callback);
+    }
+
+    /**
+     * @param entry
+     * @param callback Notified when the entry is added. It can be null.
+     * @return Completes when the entry is added.
+     */
+    public Future<Void> addEntry(final LDAPEntry entry, LDAPCallback<Void> callback)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws LDAPException
+            {
+                connection.addEntry(entry);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * @param entry
+     * @param callback Notified when the entry is updated. It can be null.
+     * @return Completes when the entry is updated.
+     */
+    public Future<Void> updateEntry(final LDAPEntry entry, LDAPCallback<Void> callback)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws LDAPException
+            {
+                connection.updateEntry(entry);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * @param dn
+     * @param callback Notified when the entry is deleted. It can be null.
+     * @return Completes when the entry is deleted.
+     */
+    public Future<Void> deleteEntry(final String dn, LDAPCallback<Void> callback)
+    {
+        return submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws LDAPException
+            {
+                connection.deleteEntry(dn);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * @return Amount of operations waiting for a thread.
+     */
+    public int getQueuedOperations()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops the threads. Operations that did not start are cancelled, so they fail.
+     */
+    public void shutdown()
+    {
+        for (Runnable pending : executor.shutdownNow())
+        {
+            ((Operation<?>) pending).cancel(false);
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> callable, LDAPCallback<T> callback)
+    {
+        Operation<T> operation = new Operation<T>(callable, callback);
+        try
+        {
+            executor.execute(operation);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            operation.reject(executor.isShutdown() ? new LDAPException("Connection is closed", ex) : new LDAPException("Too many pending asynchronous operations (" + maxQueuedOperations + ")", ex));
+        }
+        return operation;
+    }
+
+    /**
+     * Notifies the callback, if any, once the operation completes.
+     */
+    private class Operation<T> extends FutureTask<T>
+    {
+        private final LDAPCallback<T> callback;
+
+        Operation(Callable<T> callable, LDAPCallback<T> callback)
+        {
+            super(callable);
+            this.callback = callback;
+        }
+
+        void reject(LDAPException ex)
+        {
+            setException(ex);
+        }
+
+        @Override
+        protected void setException(Throwable ex)
+        {
+            super.setException(ex instanceof LDAPException ? ex : new LDAPException("Asynchronous operation failed: " + ex.getMessage(), ex));
+        }
+
+        @Override
+        protected void done()
+        {
+            if (callback == null)
+            {
+                return;
+            }
+            try
+            {
+                T result;
+                try
+                {
+                    result = get();
+                }
+                catch (CancellationException ex)
+                {
+                    callback.onFailure(new LDAPException("Asynchronous operation cancelled", ex));
+                    return;
+                }
+                catch (ExecutionException ex)
+                {
+                    callback.onFailure((LDAPException) ex.getCause());
+                    return;
+                }
+                callback.onSuccess(result);
+            }
+            catch (InterruptedException ex)
+            {
+                // The operation is done, so get() doesn't wait
+                Thread.currentThread().interrupt();
+            }
+            catch (RuntimeException ex)
+            {
+                logger.warn("Callback of asynchronous LDAP operation failed", ex);
+            }
+        }
+    }
+}
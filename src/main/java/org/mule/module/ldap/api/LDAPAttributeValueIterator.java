@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Iterator} over the values of an attribute in chunks (lists of values), so that the values of an attribute
+ * with a huge amount of them (such as the members of a large group) are processed without holding all of them in
+ * memory. Each chunk is read only when it is requested.
+ * <p/>
+ * Since {@link Iterator} methods cannot throw checked exceptions, any {@link LDAPException} thrown while reading
+ * the values is wrapped in an {@link IllegalStateException}.
+ */
+public abstract class LDAPAttributeValueIterator implements Iterator<List<Object>>
+{
+    private final String dn;
+    private final String attributeName;
+    private List<Object> nextChunk = null;
+    private boolean finished = false;
+
+    /**
+     * @param dn DN of the entry.
+     * @param attributeName Name of the attribute whose values are returned.
+     */
+    protected LDAPAttributeValueIterator(String dn, String attributeName)
+    {
+        this.dn = dn;
+        this.attributeName = attributeName;
+    }
+
+    /**
+     * Iterator over values that were already read.
+     *
+     * @param dn DN of the entry.
+     * @param attributeName Name of the attribute.
+     * @param values The values of the attribute.
+     * @param chunkSize Maximum amount of values of each chunk.
+     * @return An iterator that returns the values in chunks of at most <i>chunkSize</i> values.
+     */
+    public static LDAPAttributeValueIterator of(String dn, String attributeName, final List<Object> values, final int chunkSize)
+    {
+        return new LDAPAttributeValueIterator(dn, attributeName)
+        {
+            private int next = 0;
+
+            @Override
+            protected List<Object> readNextChunk()
+            {
+                if (next >= values.size())
+                {
+                    return null;
+                }
+                int end = Math.min(next + Math.max(chunkSize, 1), values.size());
+                List<Object> chunk = new ArrayList<Object>(values.subList(next, end));
+                next = end;
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * @return The next values of the attribute or null (or an empty list) if there are no more values.
+     * @throws LDAPException If the values could not be read.
+     */
+    protected abstract List<Object> readNextChunk() throws LDAPException;
+
+    /**
+     * Same as {@link #hasNext()} but throwing the {@link LDAPException} instead of wrapping it.
+     *
+     * @return true if there are more values.
+     * @throws LDAPException If the values could not be read.
+     */
+    public synchronized boolean hasMoreChunks() throws LDAPException
+    {
+        if (nextChunk != null)
+        {
+            return true;
+        }
+        if (finished)
+        {
+            return false;
+        }
+        List<Object> chunk = readNextChunk();
+        if (chunk == null || chunk.isEmpty())
+        {
+            finished = true;
+            return false;
+        }
+        nextChunk = chunk;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean hasNext()
+    {
+        try
+        {
+            return hasMoreChunks();
+        }
+        catch (LDAPException ex)
+        {
+            finished = true;
+            throw new IllegalStateException("Error reading values of attribute " + attributeName + " of LDAP entry " + dn + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public synchronized List<Object> next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        List<Object> chunk = nextChunk;
+        nextChunk = null;
+        return chunk;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Attribute values cannot be removed while iterating them.");
+    }
+
+    /**
+     * @return DN of the entry.
+     */
+    public String getDn()
+    {
+        return dn;
+    }
+
+    /**
+     * @return Name of the attribute.
+     */
+    public String getAttributeName()
+    {
+        return attributeName;
+    }
+}
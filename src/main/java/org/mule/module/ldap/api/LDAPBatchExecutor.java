@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Applies the same operation (add, modify or delete) to a list of entries, keeping up to
+ * <i>maxInFlight</i> operations running at the same time on different connections of the
+ * {@link LDAPConnection} pool (see {@link LDAPConnection#getMaxConcurrentOperations()}).
+ * <p/>
+ * A failing item doesn't stop the batch: each item gets its own {@link LDAPBatchResult}. The only
+ * exception is a {@link CommunicationException}, after which no more items are sent to the LDAP server
+ * and the remaining ones are reported as failed with that error.
+ * <p/>
+ * Items can be {@link LDAPEntry} objects, {@link Map} representations of an entry (holding the DN under the
+ * key {@link LDAPEntry#MAP_DN_KEY}) or, for deletes, the DN as a {@link String}.
+ */
+public class LDAPBatchExecutor
+{
+    public final static int ADD = 0;
+    public final static int MODIFY = 1;
+    public final static int DELETE = 2;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final AtomicInteger BATCH_COUNT = new AtomicInteger();
+
+    private final LDAPConnection connection;
+    private final int maxInFlight;
+
+    /**
+     * @param connection Connection used to run the operations.
+     * @param maxInFlight Maximum amount of concurrent operations. It is further limited by the amount of
+     *                    concurrent operations the connection supports.
+     */
+    public LDAPBatchExecutor(LDAPConnection connection, int maxInFlight)
+    {
+        this.connection = connection;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param operation One of {@link #ADD}, {@link #MODIFY} or {@link #DELETE}.
+     * @param items The entries the operation is applied to.
+     * @return One result per item, in the same order as <i>items</i>.
+     */
+    public List<LDAPBatchResult> execute(int operation, List<?> items)
+    {
+        if (operation != ADD && operation != MODIFY && operation != DELETE)
+        {
+            throw new IllegalArgumentException("Invalid batch operation: " + operation);
+        }
+
+        Batch batch = new Batch(operation, items);
+        int workers = Math.max(Math.min(Math.min(maxInFlight, connection.getMaxConcurrentOperations()), items.size()), 1);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Executing batch of " + items.size() + " items with " + workers + " concurrent operations");
+        }
+
+        if (workers == 1)
+        {
+            batch.run();
+        }
+        else
+        {
+            runConcurrently(batch, workers);
+        }
+        return batch.getResults();
+    }
+
+    private void runConcurrently(Batch batch, int workers)
+    {
+        final String threadName = "ldap-batch-" + BATCH_COUNT.incrementAndGet() + "-";
+        ExecutorService executor = Executors.newFixedThreadPool(workers - 1, new ThreadFactory()
+        {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, threadName + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>(workers - 1);
+            for (int i = 1; i < workers; i++)
+            {
+                futures.add(executor.submit(batch));
+            }
+
+            // The calling thread is one of the workers
+            batch.run();
+
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    batch.abort(new LDAPException("Batch interrupted", ex));
+                    break;
+                }
+                catch (ExecutionException ex)
+                {
+                    // Items never throw, so this should not happen
+                    batch.abort(new LDAPException("Batch worker failed", ex.getCause()));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Shared by all the workers. Each worker takes the next pending item until there are no more
+     * items or the batch is aborted.
+     */
+    private class Batch implements Runnable
+    {
+        private final int operation;
+        private final List<?> items;
+        private final LDAPBatchResult[] results;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile LDAPException abortCause = null;
+
+        Batch(int operation, List<?> items)
+        {
+            this.operation = operation;
+            this.items = items;
+            this.results = new LDAPBatchResult[items.size()];
+        }
+
+        @Override
+        public void run()
+        {
+            int index;
+            while (abortCause == null && (index = next.getAndIncrement()) < items.size())
+            {
+                results[index] = executeItem(index, items.get(index));
+            }
+        }
+
+        void abort(LDAPException cause)
+        {
+            if (abortCause == null)
+            {
+                abortCause = cause;
+            }
+        }
+
+        List<LDAPBatchResult> getResults()
+        {
+            for (int i = 0; i < results.length; i++)
+            {
+                if (results[i] == null)
+                {
+                    results[i] = new LDAPBatchResult(i, getDn(items.get(i)), abortCause);
+                }
+            }
+            return Arrays.asList(results);
+        }
+
+        private LDAPBatchResult executeItem(int index, Object item)
+        {
+            String dn = getDn(item);
+            try
+            {
+                LDAPEntry entry = toEntry(item);
+                switch (operation)
+                {
+                    case ADD :
+                        connection.addEntry(entry);
+                        break;
+                    case MODIFY :
+                        connection.updateEntry(entry);
+                        break;
+                    default :
+                        connection.deleteEntry(entry.getDn());
+                }
+                return new LDAPBatchResult(index, dn, null);
+            }
+            catch (CommunicationException ex)
+            {
+                logger.warn("Communication error in batch item " + index + " (" + dn + "). Not executing the remaining items.", ex);
+                abort(ex);
+                return new LDAPBatchResult(index, dn, ex);
+            }
+            catch (LDAPException ex)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Batch item " + index + " (" + dn + ") failed: " + ex.getMessage());
+                }
+                return new LDAPBatchResult(index, dn, ex);
+            }
+            catch (RuntimeException ex)
+            {
+                return new LDAPBatchResult(index, dn, new LDAPException("Batch item " + index + " (" + dn + ") failed: " + ex.getMessage(), ex));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private LDAPEntry toEntry(Object item) throws LDAPException
+        {
+            if (item instanceof LDAPEntry)
+            {
+                return (LDAPEntry) item;
+            }
+            else if (item instanceof Map)
+            {
+                // Copy the map as the LDAPEntry constructor removes the DN from it
+                return new LDAPEntry(new HashMap<String, Object>((Map<String, Object>) item));
+            }
+            else if (item instanceof String && operation == DELETE)
+            {
+                return new LDAPEntry((String) item);
+            }
+            else
+            {
+                throw new LDAPException("Invalid batch item " + item + ". Items should be LDAP entries, maps or, in order to delete entries, DNs.");
+            }
+        }
+
+        private String getDn(Object item)
+        {
+            if (item instanceof LDAPEntry)
+            {
+                return ((LDAPEntry) item).getDn();
+            }
+            else if (item instanceof Map)
+            {
+                Object dn = ((Map<?, ?>) item).get(LDAPEntry.MAP_DN_KEY);
+                return dn instanceof String ? (String) dn : null;
+            }
+            else if (item instanceof String)
+            {
+                return (String) item;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one of the items of a batch executed by {@link LDAPBatchExecutor}. If the
+ * item failed, then {@link #getException()} holds the {@link LDAPException} (or the more
+ * specific subclass like {@link NameAlreadyBoundException}) that the single item operation
+ * would have thrown.
+ */
+public class LDAPBatchResult implements Serializable
+{
+    private static final long serialVersionUID = 2203829612453405236L;
+
+    private int index;
+    private String dn;
+    private LDAPException exception;
+
+    /**
+     * @param index Position of the item in the batch.
+     * @param dn DN of the entry or null if the item has no DN.
+     * @param exception The error or null if the item succeeded.
+     */
+    public LDAPBatchResult(int index, String dn, LDAPException exception)
+    {
+        this.index = index;
+        this.dn = dn;
+        this.exception = exception;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public String getDn()
+    {
+        return dn;
+    }
+
+    public boolean isSuccess()
+    {
+        return exception == null;
+    }
+
+    public LDAPException getException()
+    {
+        return exception;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + index + "] " + dn + ": " + (isSuccess() ? "OK" : exception.getClass().getSimpleName() + " - " + exception.getMessage());
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Receives the outcome of an operation executed with {@link LDAPAsyncExecutor}. Methods are called by the
+ * thread that executed the operation, so they should not block.
+ *
+ * @param <T> Type of the result of the operation.
+ */
+public interface LDAPCallback<T>
+{
+    /**
+     * @param result Result of the operation (null for operations that return nothing).
+     */
+    void onSuccess(T result);
+
+    /**
+     * @param ex Cause of the failure. Operations that could not be queued, or that were cancelled because
+     *           the connection was closed, fail too.
+     */
+    void onFailure(LDAPException ex);
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.Serializable;
+
+/**
+ * A change made to an entry of the LDAP server, as notified by a {@link LDAPChangeSubscription}.
+ */
+public class LDAPChangeEvent implements Serializable
+{
+    private static final long serialVersionUID = -6408232905262419766L;
+
+    public static final String ADD = "add";
+    public static final String MODIFY = "modify";
+    public static final String DELETE = "delete";
+    public static final String RENAME = "rename";
+
+    private String changeType;
+    private String dn;
+    private String previousDn;
+    private LDAPEntry entry;
+    private long changeNumber;
+
+    /**
+     * @param changeType One of {@link #ADD}, {@link #MODIFY}, {@link #DELETE} or {@link #RENAME}.
+     * @param dn DN of the entry (the new DN if it was renamed).
+     * @param previousDn DN of the entry before it was renamed or null.
+     * @param entry The entry after the change or null if it was deleted or it is not known.
+     * @param changeNumber Number of the change in the LDAP server change log or -1 if it is not known.
+     */
+    public LDAPChangeEvent(String changeType, String dn, String previousDn, LDAPEntry entry, long changeNumber)
+    {
+        this.changeType = changeType;
+        this.dn = dn;
+        this.previousDn = previousDn;
+        this.entry = entry;
+        this.changeNumber = changeNumber;
+    }
+
+    public String getChangeType()
+    {
+        return changeType;
+    }
+
+    public String getDn()
+    {
+        return dn;
+    }
+
+    public String getPreviousDn()
+    {
+        return previousDn;
+    }
+
+    public LDAPEntry getEntry()
+    {
+        return entry;
+    }
+
+    public long getChangeNumber()
+    {
+        return changeNumber;
+    }
+
+    @Override
+    public String toString()
+    {
+        return changeType + " " + (previousDn != null ? previousDn + " -> " : "") + dn + (changeNumber >= 0 ? " (change " + changeNumber + ")" : "");
+    }
+}
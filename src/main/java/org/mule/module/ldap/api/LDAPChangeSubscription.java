@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Stream of the changes made to the entries under a base DN, created with
+ * {@link LDAPConnection#subscribe(String, String, int, int, int, long)}.
+ * <p/>
+ * At most <i>bufferSize</i> changes are buffered. Once the buffer is full, no more changes are
+ * read from the LDAP server until {@link #poll(long)} is called. If the connection to the LDAP
+ * server is lost, the subscription keeps trying to connect again.
+ */
+public interface LDAPChangeSubscription
+{
+    /**
+     * Use persistent search if the LDAP server supports it or the change log otherwise.
+     */
+    int AUTO = 0;
+
+    /**
+     * Register a persistent search (draft-ietf-ldapext-psearch). Entries added or modified while the
+     * connection to the LDAP server is lost are notified once it is restored, but deletions are not.
+     */
+    int PERSISTENT_SEARCH = 1;
+
+    /**
+     * Poll the change log of the LDAP server (draft-good-ldap-changelog). Changes made while the
+     * connection to the LDAP server is lost are notified once it is restored.
+     */
+    int CHANGE_LOG = 2;
+
+    /**
+     * @param timeout Milliseconds to wait for a change.
+     * @return The next change or null if there was no change before the timeout.
+     * @throws LDAPException If the subscription failed for a reason other than a lost connection.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    LDAPChangeEvent poll(long timeout) throws LDAPException, InterruptedException;
+
+    /**
+     * Stops receiving changes and releases the connection to the LDAP server.
+     */
+    void close();
+}
@@ -8,12 +8,15 @@
 
 package org.mule.module.ldap.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.mule.module.ldap.api.jndi.LDAPJNDIConnection;
+import org.mule.module.ldap.api.nio.LDAPNIOConnection;
 
 /**
  * This class is the abstraction
@@ -23,15 +26,20 @@ import org.mule.module.ldap.api.jndi.LDAPJNDIConnection;
 public abstract class LDAPConnection
 {
 
-    protected final Log logger = LogFactory.getLog(getClass());
+    protected final LDAPLogger logger = LDAPLogger.getLogger(getClass());
 
     private String name = null;
+    private int asyncMaxQueuedOperations = DEFAULT_ASYNC_MAX_QUEUED_OPERATIONS;
+    private LDAPAsyncExecutor asyncExecutor = null;
+    private LDAPMetrics metrics = LDAPMetrics.DISABLED;
+    private LDAPSlowQueryLog slowQueryLog = LDAPSlowQueryLog.DISABLED;
 
     protected static final Map<String, Class<?>> CONNECTION_IMPLEMENTATIONS = new HashMap<String, Class<?>>();
 
     static
     {
         CONNECTION_IMPLEMENTATIONS.put("jndi", LDAPJNDIConnection.class);
+        CONNECTION_IMPLEMENTATIONS.put("nio", LDAPNIOConnection.class);
     }
 
     public static final String NO_AUTHENTICATION = "none";
@@ -42,7 +50,47 @@ public abstract class LDAPConnection
     public static final String INITIAL_POOL_CONNECTIONS_ATTR = "initialPoolSize";
     public static final String MAX_POOL_CONNECTIONS_ATTR = "maxPoolSize";
     public static final String POOL_TIMEOUT_ATTR = "poolTimeout";
+    public static final String POOL_BORROW_TIMEOUT_ATTR = "poolBorrowTimeout";
+    public static final String POOL_VALIDATE_ON_BORROW_ATTR = "poolValidateOnBorrow";
     public static final String REFERRAL_ATTR = "referral";
+    public static final String SORT_MAX_IN_MEMORY_ENTRIES_ATTR = "sortMaxInMemoryEntries";
+    public static final String LOOKUP_CACHE_MAX_ENTRIES_ATTR = "lookupCacheMaxEntries";
+    public static final String LOOKUP_CACHE_MAX_BYTES_ATTR = "lookupCacheMaxBytes";
+    public static final String LOOKUP_CACHE_TTL_ATTR = "lookupCacheTtl";
+    public static final String NEGATIVE_CACHE_MAX_ENTRIES_ATTR = "negativeCacheMaxEntries";
+    public static final String NEGATIVE_CACHE_TTL_ATTR = "negativeCacheTtl";
+    public static final String NEGATIVE_CACHE_BLOOM_FILTER_ATTR = "negativeCacheBloomFilter";
+    public static final String SEARCH_CACHE_MAX_BYTES_ATTR = "searchCacheMaxBytes";
+    public static final String SEARCH_CACHE_TTL_ATTR = "searchCacheTtl";
+    public static final String ASYNC_MAX_QUEUED_OPERATIONS_ATTR = "asyncMaxQueuedOperations";
+    public static final String LOAD_BALANCING_POLICY_ATTR = "loadBalancingPolicy";
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD_ATTR = "circuitBreakerFailureThreshold";
+    public static final String CIRCUIT_BREAKER_OPEN_TIME_ATTR = "circuitBreakerOpenTime";
+    public static final String CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD_ATTR = "circuitBreakerSlowOperationThreshold";
+    public static final String VERIFY_INITIAL_POOL_SIZE_ATTR = "verifyInitialPoolSize";
+    public static final String VERIFY_MAX_POOL_SIZE_ATTR = "verifyMaxPoolSize";
+    public static final String VERIFY_CACHE_MAX_ENTRIES_ATTR = "verifyCacheMaxEntries";
+    public static final String VERIFY_CACHE_TTL_ATTR = "verifyCacheTtl";
+    public static final String CONNECT_TIMEOUT_ATTR = "connectTimeout";
+    public static final String READ_TIMEOUT_ATTR = "readTimeout";
+    public static final String OPERATION_TIMEOUT_ATTR = "operationTimeout";
+    public static final String METRICS_ENABLED_ATTR = "metricsEnabled";
+    public static final String METRICS_REPORTER_ATTR = "metricsReporter";
+    public static final String METRICS_REPORT_INTERVAL_ATTR = "metricsReportInterval";
+    public static final String SLOW_QUERY_THRESHOLD_ATTR = "slowQueryThreshold";
+    public static final String SLOW_QUERY_TOP_FINGERPRINTS_ATTR = "slowQueryTopFingerprints";
+
+    public static final String NO_LOAD_BALANCING = "none";
+
+    public static final int DEFAULT_ASYNC_MAX_QUEUED_OPERATIONS = 1000;
+    public static final long DEFAULT_METRICS_REPORT_INTERVAL = 60000L;
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD = 0L;
+    public static final int DEFAULT_SLOW_QUERY_TOP_FINGERPRINTS = 10;
+    
+    /**
+     * Prefix of the cookies of the high-water mark synchronization, which hold the greatest value returned.
+     */
+    protected static final String HIGH_WATER_MARK_COOKIE_PREFIX = "hwm:";
     
     /**
 	 * 
@@ -169,6 +217,28 @@ public abstract class LDAPConnection
     public abstract LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls)
         throws LDAPException;
 
+    /**
+     * Performs a search and reads all its results.
+     * 
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @return All the entries returned by the search.
+     * @throws LDAPException
+     */
+    public List<LDAPEntry> searchAll(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPResultSet result = search(baseDn, filter, controls);
+        try
+        {
+            return result.getAllEntries();
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
     /**
      * @param dn
      * @return
@@ -195,6 +265,150 @@ public abstract class LDAPConnection
      */
     public abstract LDAPEntry lookup(String dn, String attributes[]) throws LDAPException;
 
+    /**
+     * Performs a search and reads all its results without blocking the calling thread (see {@link LDAPAsyncExecutor}).
+     * 
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @param callback Notified when the search completes. It can be null.
+     * @return All the entries returned by the search.
+     */
+    public Future<List<LDAPEntry>> searchAllAsync(String baseDn, String filter, LDAPSearchControls controls, LDAPCallback<List<LDAPEntry>> callback)
+    {
+        return getAsyncExecutor().searchAll(baseDn, filter, controls, callback);
+    }
+
+    /**
+     * Returns the LDAP entry matching the given dn without blocking the calling thread (see {@link LDAPAsyncExecutor}).
+     * 
+     * @param dn
+     * @param attributes Attributes names to fetch or null to fetch all of them.
+     * @param callback Notified when the lookup completes. It can be null.
+     * @return The entry.
+     */
+    public Future<LDAPEntry> lookupAsync(String dn, String[] attributes, LDAPCallback<LDAPEntry> callback)
+    {
+        return getAsyncExecutor().lookup(dn, attributes, callback);
+    }
+
+    /**
+     * Adds the entry without blocking the calling thread (see {@link LDAPAsyncExecutor}).
+     * 
+     * @param entry
+     * @param callback Notified when the entry is added. It can be null.
+     * @return Completes when the entry is added.
+     */
+    public Future<Void> addEntryAsync(LDAPEntry entry, LDAPCallback<Void> callback)
+    {
+        return getAsyncExecutor().addEntry(entry, callback);
+    }
+
+    /**
+     * Updates the entry without blocking the calling thread (see {@link LDAPAsyncExecutor}).
+     * 
+     * @param entry
+     * @param callback Notified when the entry is updated. It can be null.
+     * @return Completes when the entry is updated.
+     */
+    public Future<Void> updateEntryAsync(LDAPEntry entry, LDAPCallback<Void> callback)
+    {
+        return getAsyncExecutor().updateEntry(entry, callback);
+    }
+
+    /**
+     * Deletes the entry without blocking the calling thread (see {@link LDAPAsyncExecutor}).
+     * 
+     * @param dn
+     * @param callback Notified when the entry is deleted. It can be null.
+     * @return Completes when the entry is deleted.
+     */
+    public Future<Void> deleteEntryAsync(String dn, LDAPCallback<Void> callback)
+    {
+        return getAsyncExecutor().deleteEntry(dn, callback);
+    }
+
+    /**
+     * @return The executor of the asynchronous operations, which is created by the first of them.
+     */
+    protected synchronized LDAPAsyncExecutor getAsyncExecutor()
+    {
+        if (asyncExecutor == null)
+        {
+            asyncExecutor = new LDAPAsyncExecutor(this, asyncMaxQueuedOperations);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Stops the executor of the asynchronous operations, if it was created. Pending operations fail.
+     */
+    protected synchronized void shutdownAsyncExecutor()
+    {
+        if (asyncExecutor != null)
+        {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    /**
+     * @return Maximum amount of asynchronous operations waiting for a thread.
+     */
+    public int getAsyncMaxQueuedOperations()
+    {
+        return asyncMaxQueuedOperations;
+    }
+
+    /**
+     * @param asyncMaxQueuedOperations Applies to the asynchronous operations executed after the next {@link #close()}
+     *                                 if any was already executed.
+     */
+    public void setAsyncMaxQueuedOperations(int asyncMaxQueuedOperations)
+    {
+        this.asyncMaxQueuedOperations = asyncMaxQueuedOperations;
+    }
+
+    /**
+     * Reads the values of an attribute in chunks. This implementation reads the whole attribute with
+     * {@link #lookup(String, String[])} and returns its values in chunks, so implementations should override
+     * it if the LDAP server can return a range of values.
+     * 
+     * @param dn DN of the entry.
+     * @param attributeName Name of the attribute.
+     * @param chunkSize Maximum amount of values of each chunk.
+     * @return An iterator over chunks of values of the attribute. It returns no chunks if the entry doesn't
+     *         have the attribute.
+     * @throws LDAPException If the entry doesn't exist or its attribute could not be read.
+     */
+    public LDAPAttributeValueIterator readAttributeValues(String dn, String attributeName, int chunkSize) throws LDAPException
+    {
+        LDAPEntry entry = lookup(dn, new String[] {attributeName});
+        LDAPEntryAttribute attribute = entry != null ? entry.getAttribute(attributeName) : null;
+        List<Object> values = attribute != null ? attribute.getValues() : new ArrayList<Object>(0);
+        return LDAPAttributeValueIterator.of(dn, attributeName, values, chunkSize);
+    }
+
+    /**
+     * Checks whether the entry exists without retrieving any of its attributes.
+     * 
+     * @param dn
+     * @return true if the entry exists, false if it does not.
+     * @throws LDAPException
+     */
+    public boolean exists(String dn) throws LDAPException
+    {
+        try
+        {
+            // The special attribute 1.1 means no attributes (RFC 4511)
+            return lookup(dn, new String[] {"1.1"}) != null;
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            return false;
+        }
+    }
+
     /**
      * @param entry
      * @throws LDAPException
@@ -242,6 +456,273 @@ public abstract class LDAPConnection
      */
     public abstract void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException;
 
+    /**
+     * Starts receiving the changes made to the entries under <i>baseDn</i>.
+     * 
+     * @param baseDn
+     * @param filter Only changes to entries matching this filter are notified.
+     * @param scope One of the scopes defined in {@link LDAPSearchControls}.
+     * @param mode One of {@link LDAPChangeSubscription#AUTO}, {@link LDAPChangeSubscription#PERSISTENT_SEARCH} or {@link LDAPChangeSubscription#CHANGE_LOG}.
+     * @param bufferSize Maximum amount of changes read from the LDAP server and not yet polled.
+     * @param retryDelay Milliseconds to wait before connecting again if the connection to the LDAP server is lost. When
+     *        polling the change log, it is also the time between polls.
+     * @return
+     * @throws LDAPException If the subscription could not be started, for example because the LDAP server doesn't support the mode.
+     */
+    public LDAPChangeSubscription subscribe(String baseDn, String filter, int scope, int mode, int bufferSize, long retryDelay) throws LDAPException
+    {
+        throw new LDAPException("Change notifications are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Checks whether <i>password</i> is the password of the user with the given DN by binding as that user, without
+     * changing the user this connection is binded as.
+     * <p/>
+     * Empty passwords are always rejected, as LDAP servers accept them as an unauthenticated (anonymous) bind.
+     * 
+     * @param dn DN of the user.
+     * @param password Password to verify.
+     * @return true if the bind succeeded or false if the credentials are invalid.
+     * @throws LDAPException If the credentials could not be verified, for example because the LDAP server is unreachable.
+     */
+    public boolean verifyCredentials(String dn, String password) throws LDAPException
+    {
+        throw new LDAPException("Credential verification is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns the entries under <i>baseDn</i> that changed since the state represented by <i>cookie</i>, or all of them if
+     * <i>cookie</i> is null.
+     * <p/>
+     * This implementation only supports {@link LDAPSyncResult#HIGH_WATER_MARK}, which is also used for
+     * {@link LDAPSyncResult#AUTO}.
+     * 
+     * @param baseDn
+     * @param filter Only changes to entries matching this filter are returned.
+     * @param controls Scope, attributes and limits of the search.
+     * @param mode One of {@link LDAPSyncResult#AUTO}, {@link LDAPSyncResult#CONTENT_SYNC}, {@link LDAPSyncResult#DIR_SYNC} or {@link LDAPSyncResult#HIGH_WATER_MARK}.
+     * @param highWaterMarkAttributes Attributes holding the time (or update sequence number) of the last change of each entry, such as
+     *        modifyTimestamp and createTimestamp. Only used by {@link LDAPSyncResult#HIGH_WATER_MARK}.
+     * @param cookie The cookie of the result of the previous synchronization or null.
+     * @return
+     * @throws LDAPException If the LDAP server doesn't support the mode or the search fails.
+     */
+    public LDAPSyncResult sync(String baseDn, String filter, LDAPSearchControls controls, int mode, String[] highWaterMarkAttributes, String cookie) throws LDAPException
+    {
+        if (mode != LDAPSyncResult.AUTO && mode != LDAPSyncResult.HIGH_WATER_MARK)
+        {
+            throw new LDAPException("Synchronization mode " + mode + " is not supported by " + getClass().getName());
+        }
+        return highWaterMarkSync(baseDn, filter, controls, highWaterMarkAttributes, cookie);
+    }
+
+    /**
+     * Searches the entries whose high-water mark attributes are greater than or equal to the value in the cookie. The
+     * cookie of the result holds the greatest value returned.
+     * 
+     * @see LDAPSyncResult#HIGH_WATER_MARK
+     */
+    protected LDAPSyncResult highWaterMarkSync(String baseDn, String filter, LDAPSearchControls controls, String[] highWaterMarkAttributes, String cookie) throws LDAPException
+    {
+        if (highWaterMarkAttributes == null || highWaterMarkAttributes.length == 0)
+        {
+            throw new LDAPException("At least one high-water mark attribute is required");
+        }
+
+        String highWaterMark = null;
+        if (cookie != null)
+        {
+            if (cookie.startsWith(HIGH_WATER_MARK_COOKIE_PREFIX))
+            {
+                highWaterMark = cookie.substring(HIGH_WATER_MARK_COOKIE_PREFIX.length());
+            }
+            else
+            {
+                logger.warn("Cookie was not created by a high-water mark synchronization. Returning all the entries.");
+            }
+        }
+
+        String syncFilter = filter;
+        if (highWaterMark != null)
+        {
+            StringBuilder changed = new StringBuilder("(&").append(filter.trim().startsWith("(") ? filter.trim() : "(" + filter.trim() + ")").append("(|");
+            for (String attribute : highWaterMarkAttributes)
+            {
+                changed.append('(').append(attribute).append(">=").append(LDAPFilter.escape(highWaterMark)).append(')');
+            }
+            syncFilter = changed.append("))").toString();
+        }
+
+        // The high-water mark attributes are usually operational, so they are only returned if requested
+        String[] requested = controls.getAttributesToReturn() != null ? controls.getAttributesToReturn() : new String[] {"*"};
+        List<String> attributes = new ArrayList<String>(Arrays.asList(requested));
+        for (String attribute : highWaterMarkAttributes)
+        {
+            if (!containsIgnoreCase(attributes, attribute))
+            {
+                attributes.add(attribute);
+            }
+        }
+        LDAPSearchControls syncControls = new LDAPSearchControls();
+        syncControls.setScope(controls.getScope());
+        syncControls.setTimeout(controls.getTimeout());
+        syncControls.setMaxResults(controls.getMaxResults());
+        syncControls.setPageSize(controls.getPageSize());
+        syncControls.setReturnObject(controls.isReturnObject());
+        syncControls.setAttributesToReturn(attributes.toArray(new String[attributes.size()]));
+
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        String newHighWaterMark = highWaterMark;
+        LDAPResultSet result = search(baseDn, syncFilter, syncControls);
+        try
+        {
+            while (result.hasNext())
+            {
+                LDAPEntry entry = result.next();
+                for (String attribute : highWaterMarkAttributes)
+                {
+                    LDAPEntryAttribute value = entry.getAttribute(attribute);
+                    if (value != null && value.getValue() != null && compareHighWaterMarks(value.getValue().toString(), newHighWaterMark) > 0)
+                    {
+                        newHighWaterMark = value.getValue().toString();
+                    }
+                }
+                entries.add(entry);
+            }
+        }
+        finally
+        {
+            result.close();
+        }
+
+        return new LDAPSyncResult(entries, new ArrayList<String>(0), newHighWaterMark != null ? HIGH_WATER_MARK_COOKIE_PREFIX + newHighWaterMark : null, highWaterMark == null, false);
+    }
+
+    /*
+     * Update sequence numbers are compared as numbers and generalized times as strings.
+     */
+    private static int compareHighWaterMarks(String value1, String value2)
+    {
+        if (value2 == null)
+        {
+            return 1;
+        }
+        try
+        {
+            long number1 = Long.parseLong(value1.trim());
+            long number2 = Long.parseLong(value2.trim());
+            return number1 < number2 ? -1 : (number1 == number2 ? 0 : 1);
+        }
+        catch (NumberFormatException ex)
+        {
+            return value1.compareTo(value2);
+        }
+    }
+
+    private static boolean containsIgnoreCase(List<String> values, String value)
+    {
+        for (String candidate : values)
+        {
+            if (candidate.equalsIgnoreCase(value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The metrics of the operations of this connection, or {@link LDAPMetrics#DISABLED} if they are not
+     *         recorded.
+     */
+    public LDAPMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Starts recording the metrics of the operations of this connection. They are published with JMX while the
+     * connection is binded.
+     * 
+     * @param reporterClass Class name of a {@link LDAPMetricsReporter} or null to only publish them with JMX.
+     * @param reportInterval Milliseconds between reports.
+     * @throws LDAPException If the reporter cannot be instantiated.
+     */
+    protected void enableMetrics(String reporterClass, long reportInterval) throws LDAPException
+    {
+        LDAPMetricsReporter reporter = null;
+        if (reporterClass != null && reporterClass.trim().length() > 0)
+        {
+            try
+            {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader() != null ? Thread.currentThread().getContextClassLoader() : getClass().getClassLoader();
+                reporter = (LDAPMetricsReporter) Class.forName(reporterClass.trim(), true, classLoader).newInstance();
+            }
+            catch (Exception ex)
+            {
+                throw new LDAPException("Could not instantiate metrics reporter " + reporterClass, ex);
+            }
+        }
+        this.metrics = new LDAPMetrics(this, reporter, reportInterval);
+    }
+
+    /**
+     * @return The log of the searches of this connection that exceed the slow query threshold, or
+     *         {@link LDAPSlowQueryLog#DISABLED} if there is no threshold.
+     */
+    public LDAPSlowQueryLog getSlowQueryLog()
+    {
+        return slowQueryLog;
+    }
+
+    /**
+     * Starts logging the searches of this connection that wait for the LDAP server longer than the threshold. The
+     * slowest filter fingerprints are published with JMX while the connection is binded.
+     * 
+     * @param threshold Milliseconds. 0 or less keeps the log disabled.
+     * @param topFingerprints Amount of filter fingerprints with the highest total time that are published.
+     */
+    protected void enableSlowQueryLog(long threshold, int topFingerprints)
+    {
+        this.slowQueryLog = threshold > 0 ? new LDAPSlowQueryLog(this, threshold, topFingerprints) : LDAPSlowQueryLog.DISABLED;
+    }
+
+    /**
+     * @return Amount of connections to the LDAP server that are open. Connections that don't pool them return 1
+     *         while binded.
+     */
+    public int getOpenConnections()
+    {
+        try
+        {
+            return isClosed() ? 0 : 1;
+        }
+        catch (LDAPException ex)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * @return Amount of connections to the LDAP server that are being used by an operation. Connections that don't
+     *         pool them return 0.
+     */
+    public int getBorrowedConnections()
+    {
+        return 0;
+    }
+
+    /**
+     * Maximum amount of operations that can run at the same time on this connection from different threads.
+     * Connections that don't pool the underlying LDAP connections return 1.
+     * 
+     * @return
+     */
+    public int getMaxConcurrentOperations()
+    {
+        return 1;
+    }
+
     /**
      * @throws LDAPException
      */
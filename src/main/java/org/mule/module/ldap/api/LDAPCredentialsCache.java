@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the credentials that were recently verified, so that repeated logins of the same user are
+ * answered without binding to the LDAP server. Credentials expire <i>ttl</i> milliseconds after being
+ * verified and, once the cache holds <i>maxEntries</i> credentials, the oldest ones are evicted.
+ * <p/>
+ * Passwords are never held by the cache. Each credential is stored as the SHA-256 hash of a random salt,
+ * generated when the cache is created, the normalized DN and the password. Only successful verifications
+ * are cached, so a wrong password is always checked against the LDAP server.
+ * <p/>
+ * Credentials of entries modified through the same {@link LDAPConnection} must be removed with
+ * {@link #invalidate(String)} or {@link #invalidateSubtree(String)}. Passwords changed by other clients
+ * keep being accepted for up to <i>ttl</i> milliseconds. Credentials verified while an entry was modified
+ * are not cached: get the {@link #getGeneration() generation} before the bind and pass it to
+ * {@link #put(String, String, long)}.
+ */
+public class LDAPCredentialsCache
+{
+    private static final int SALT_LENGTH = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final int maxEntries;
+    private final long ttl;
+    private final byte[] salt = new byte[SALT_LENGTH];
+
+    /*
+     * Salted hash -> verified credential, oldest first
+     */
+    private final LinkedHashMap<String, Verified> verified = new LinkedHashMap<String, Verified>();
+    private long generation = 0;
+    private long hits = 0;
+
+    /**
+     * @param maxEntries Maximum amount of cached credentials. Must be greater than 0.
+     * @param ttl Milliseconds a credential stays in the cache. Must be greater than 0.
+     */
+    public LDAPCredentialsCache(int maxEntries, long ttl)
+    {
+        if (maxEntries <= 0)
+        {
+            throw new IllegalArgumentException("Max entries must be greater than 0");
+        }
+        if (ttl <= 0)
+        {
+            throw new IllegalArgumentException("TTL must be greater than 0");
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @param dn DN of the user.
+     * @param password Password of the user.
+     * @return true if the same DN and password were recently verified.
+     */
+    public boolean isVerified(String dn, String password)
+    {
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        String key = hash(normalized, password);
+        synchronized (this)
+        {
+            Verified credential = verified.get(key);
+            if (credential == null)
+            {
+                return false;
+            }
+            if (System.currentTimeMillis() >= credential.expiresAt)
+            {
+                verified.remove(key);
+                return false;
+            }
+            hits++;
+            return true;
+        }
+    }
+
+    /**
+     * @param dn DN of the user.
+     * @param password Password that was successfully verified.
+     */
+    public void put(String dn, String password)
+    {
+        put(dn, password, getGeneration());
+    }
+
+    /**
+     * @param dn DN of the user.
+     * @param password Password that was successfully verified.
+     * @param generation The {@link #getGeneration() generation} of the cache when the verification started.
+     */
+    public void put(String dn, String password, long generation)
+    {
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        String key = hash(normalized, password);
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                // The password may have been changed after the LDAP server accepted it
+                return;
+            }
+            // Re-inserting moves the credential to the end of the eviction order
+            verified.remove(key);
+            verified.put(key, new Verified(normalized, System.currentTimeMillis() + ttl));
+            evict();
+        }
+    }
+
+    /**
+     * @param dn DN of an entry that was modified or deleted, and whose password may have changed.
+     */
+    public synchronized void invalidate(String dn)
+    {
+        generation++;
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        for (Iterator<Verified> it = verified.values().iterator(); it.hasNext();)
+        {
+            if (it.next().dn.equals(normalized))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param dn DN of the root of a subtree that was moved or deleted.
+     */
+    public synchronized void invalidateSubtree(String dn)
+    {
+        generation++;
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        String suffix = "," + normalized;
+        for (Iterator<Verified> it = verified.values().iterator(); it.hasNext();)
+        {
+            String cachedDn = it.next().dn;
+            if (cachedDn.equals(normalized) || cachedDn.endsWith(suffix))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        verified.clear();
+    }
+
+    /**
+     * @return A counter that changes whenever cached credentials are invalidated.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return verified.size();
+    }
+
+    /**
+     * @return Amount of verifications answered by the cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    private void evict()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Verified>> it = verified.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Verified> eldest = it.next();
+            // All credentials have the same TTL, so they expire in insertion order
+            if (verified.size() > maxEntries || now >= eldest.getValue().expiresAt)
+            {
+                it.remove();
+            }
+            else
+            {
+                break;
+            }
+        }
+    }
+
+    private String hash(String normalizedDn, String password)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(normalizedDn.getBytes("UTF-8"));
+            // The DN cannot hold a NUL character, so DN and password cannot be shifted into each other
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(password.getBytes("UTF-8"));
+
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++)
+            {
+                hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+                hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0F];
+            }
+            return new String(hex);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException("UTF-8 is not available", ex);
+        }
+    }
+
+    private static class Verified
+    {
+        private final String dn;
+        private final long expiresAt;
+
+        Verified(String dn, long expiresAt)
+        {
+            this.dn = dn;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
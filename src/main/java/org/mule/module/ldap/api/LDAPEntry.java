@@ -38,7 +38,7 @@ public class LDAPEntry implements Serializable
     private static final long serialVersionUID = 194192089581212405L;
 
     private String dn = null;
-    private LDAPEntryAttributes attributes = new LDAPEntryAttributes();
+    private LDAPEntryAttributes attributes;
 
     /**
 	 * 
@@ -52,9 +52,29 @@ public class LDAPEntry implements Serializable
      * @param dn
      */
     public LDAPEntry(String dn)
+    {
+        this(dn, 0);
+    }
+
+    /**
+     * @param dn
+     * @param expectedAttributeCount Amount of attributes that will be added to the entry.
+     */
+    public LDAPEntry(String dn, int expectedAttributeCount)
+    {
+        this(dn, new LDAPEntryAttributes(expectedAttributeCount));
+    }
+
+    /**
+     * @param dn
+     * @param attributes The attributes of the entry. Only subclasses that hold their attributes in some other
+     *        way may pass null.
+     */
+    protected LDAPEntry(String dn, LDAPEntryAttributes attributes)
     {
         super();
         setDn(dn);
+        this.attributes = attributes;
     }
     
     /**
@@ -69,6 +89,7 @@ public class LDAPEntry implements Serializable
         
         Map<String, Object> entry = new HashMap<String, Object>(attributes);
         entry.put(MAP_DN_KEY, dn);
+        this.attributes = new LDAPEntryAttributes(attributes.size());
         try
         {
             fromMap(attributes);
@@ -86,6 +107,7 @@ public class LDAPEntry implements Serializable
      */
     public LDAPEntry(Map<String, Object> entry) throws LDAPException
     {
+        this.attributes = new LDAPEntryAttributes(entry.size());
         fromMap(entry);
     }
 
@@ -37,14 +37,23 @@ public class LDAPEntryAttributes implements Serializable
     /**
 	 * 
 	 */
-    private Map<String, LDAPEntryAttribute> attributes = new HashMap<String, LDAPEntryAttribute>();
+    private Map<String, LDAPEntryAttribute> attributes;
 
     /**
 	 * 
 	 */
     public LDAPEntryAttributes()
+    {
+        this(0);
+    }
+
+    /**
+     * @param expectedCount Amount of attributes that will be added, so that the map holding them is not resized.
+     */
+    public LDAPEntryAttributes(int expectedCount)
     {
         super();
+        this.attributes = expectedCount > 0 ? new HashMap<String, LDAPEntryAttribute>((int) (expectedCount / 0.75f) + 1) : new HashMap<String, LDAPEntryAttribute>();
     }
 
     /**
@@ -52,7 +61,7 @@ public class LDAPEntryAttributes implements Serializable
      */
     public void addAttribute(LDAPEntryAttribute attribute)
     {
-        this.attributes.put(attribute.getName().toLowerCase(), attribute);
+        this.attributes.put(AttributeNames.toKey(attribute.getName()), attribute);
     }
 
     /**
@@ -86,6 +95,6 @@ public class LDAPEntryAttributes implements Serializable
      */
     public LDAPEntryAttribute getAttribute(String name)
     {
-        return (LDAPEntryAttribute) this.attributes.get(name.toLowerCase());
+        return this.attributes.get(AttributeNames.toKey(name));
     }
 }
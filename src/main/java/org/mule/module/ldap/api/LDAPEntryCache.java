@@ -0,0 +1,471 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of the entries returned by lookups, keyed by the normalized DN of the entry and the
+ * set of requested attributes. Entries expire <i>ttl</i> milliseconds after being cached and,
+ * once the cache holds <i>maxEntries</i> entries or <i>maxBytes</i> (estimated) bytes, the
+ * least recently used ones are evicted.
+ * <p/>
+ * Entries are cached as {@link CompactLDAPEntry compact entries} and copied when they are returned,
+ * so changes made by the caller to a returned entry are never seen by other callers.
+ * <p/>
+ * The cache knows nothing about the changes made by other clients of the LDAP server, so a
+ * cached entry may be up to <i>ttl</i> milliseconds stale. Changes made through the same
+ * {@link LDAPConnection} invalidate the affected DN with {@link #invalidate(String)} or
+ * {@link #invalidateSubtree(String)}. Entries read by lookups that were running while an entry was
+ * written are not cached: get the {@link #getGeneration() generation} before the lookup and pass it to
+ * {@link #put(String, String[], LDAPEntry, long)}.
+ */
+public class LDAPEntryCache
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final String ALL_ATTRIBUTES = "*";
+
+    /*
+     * Rough per object overheads used to estimate the memory held by a cached entry.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int ATTRIBUTE_OVERHEAD = 64;
+    private static final int VALUE_OVERHEAD = 24;
+    private static final int COMPACT_ENTRY_OVERHEAD = 64;
+    private static final int COMPACT_ATTRIBUTE_OVERHEAD = 16;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl;
+
+    private final LinkedHashMap<Key, CachedEntry> entries = new LinkedHashMap<Key, CachedEntry>(16, 0.75f, true);
+    private final Map<String, Set<Key>> keysByDn = new HashMap<String, Set<Key>>();
+    private long bytes = 0;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries Maximum amount of cached entries. Must be greater than 0.
+     * @param maxBytes Maximum estimated size in bytes of the cached entries. 0 means no limit.
+     * @param ttl Milliseconds an entry stays in the cache. 0 means entries only leave the cache when evicted or invalidated.
+     */
+    public LDAPEntryCache(int maxEntries, long maxBytes, long ttl)
+    {
+        if (maxEntries <= 0)
+        {
+            throw new IllegalArgumentException("Max entries must be greater than 0");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param dn DN of the entry.
+     * @param attributes The requested attributes or null if all attributes were requested.
+     * @return A copy of the cached entry or null if it is not cached or it expired.
+     */
+    public LDAPEntry get(String dn, String[] attributes)
+    {
+        Key key = new Key(normalizeDn(dn), attributes);
+        synchronized (this)
+        {
+            CachedEntry cached = entries.get(key);
+            if (cached != null && cached.isExpired(System.currentTimeMillis()))
+            {
+                remove(key);
+                cached = null;
+            }
+
+            if (cached == null)
+            {
+                misses++;
+                return null;
+            }
+            hits++;
+            LDAPEntry entry = copy(cached.entry);
+            // Same DN as a lookup that doesn't hit the cache
+            entry.setDn(dn);
+            return entry;
+        }
+    }
+
+    /**
+     * @param dn DN of an entry.
+     * @return true if any version of the entry (with any requested attributes) is cached and not expired, so the
+     *         entry is known to exist.
+     */
+    public synchronized boolean contains(String dn)
+    {
+        Set<Key> keys = keysByDn.get(normalizeDn(dn));
+        if (keys != null)
+        {
+            long now = System.currentTimeMillis();
+            for (Key key : keys)
+            {
+                if (!entries.get(key).isExpired(now))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Caches an entry that was read while no entry could be written through the same connection.
+     *
+     * @param dn DN used to look up the entry.
+     * @param attributes The requested attributes or null if all attributes were requested.
+     * @param entry The entry returned by the LDAP server.
+     */
+    public void put(String dn, String[] attributes, LDAPEntry entry)
+    {
+        put(dn, attributes, entry, getGeneration());
+    }
+
+    /**
+     * @param dn DN used to look up the entry.
+     * @param attributes The requested attributes or null if all attributes were requested.
+     * @param entry The entry returned by the LDAP server.
+     * @param generation The {@link #getGeneration() generation} of the cache when the lookup started.
+     */
+    public void put(String dn, String[] attributes, LDAPEntry entry, long generation)
+    {
+        Key key = new Key(normalizeDn(dn), attributes);
+        CompactLDAPEntry compactEntry = CompactLDAPEntry.compact(entry);
+        CachedEntry cached = new CachedEntry(compactEntry, estimateSize(compactEntry), ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE);
+
+        if (maxBytes > 0 && cached.size > maxBytes)
+        {
+            // It would evict everything else and still not fit
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Not caching entry " + dn + " as entries were written while it was looked up");
+                }
+                return;
+            }
+            remove(key);
+            entries.put(key, cached);
+            Set<Key> keys = keysByDn.get(key.dn);
+            if (keys == null)
+            {
+                keys = new HashSet<Key>(2);
+                keysByDn.put(key.dn, keys);
+            }
+            keys.add(key);
+            bytes += cached.size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes all the cached versions (with different requested attributes) of an entry.
+     *
+     * @param dn DN of the entry that changed.
+     */
+    public synchronized void invalidate(String dn)
+    {
+        generation++;
+        Set<Key> keys = keysByDn.get(normalizeDn(dn));
+        if (keys != null)
+        {
+            for (Key key : keys.toArray(new Key[keys.size()]))
+            {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry and all the entries under it (for example when the entry is renamed).
+     *
+     * @param dn DN of the root of the subtree that changed.
+     */
+    public synchronized void invalidateSubtree(String dn)
+    {
+        generation++;
+        String normalized = normalizeDn(dn);
+        String suffix = "," + normalized;
+        for (String cachedDn : keysByDn.keySet().toArray(new String[keysByDn.size()]))
+        {
+            if (cachedDn.equals(normalized) || cachedDn.endsWith(suffix))
+            {
+                for (Key key : keysByDn.get(cachedDn).toArray(new Key[0]))
+                {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+        keysByDn.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return A counter that changes whenever cached entries are invalidated.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated size in bytes of the cached entries.
+     */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<Key, CachedEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > maxEntries || (maxBytes > 0 && bytes > maxBytes)))
+        {
+            // Least recently used first
+            Map.Entry<Key, CachedEntry> eldest = it.next();
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Evicting cached entry " + eldest.getKey().dn);
+            }
+            it.remove();
+            removeFromIndex(eldest.getKey());
+            bytes -= eldest.getValue().size;
+        }
+    }
+
+    private void remove(Key key)
+    {
+        CachedEntry removed = entries.remove(key);
+        if (removed != null)
+        {
+            removeFromIndex(key);
+            bytes -= removed.size;
+        }
+    }
+
+    private void removeFromIndex(Key key)
+    {
+        Set<Key> keys = keysByDn.get(key.dn);
+        if (keys != null)
+        {
+            keys.remove(key);
+            if (keys.isEmpty())
+            {
+                keysByDn.remove(key.dn);
+            }
+        }
+    }
+
+    /**
+     * @param dn A distinguished name.
+     * @return The DN in a canonical form: attribute types and values in lower case and no spaces
+     *         between RDNs. If the DN is not valid, then the trimmed lower case string is returned.
+     */
+    public static String normalizeDn(String dn)
+    {
+        if (dn == null)
+        {
+            return "";
+        }
+        try
+        {
+            List<Rdn> rdns = new LdapName(dn).getRdns();
+            StringBuilder normalized = new StringBuilder(dn.length());
+            // LdapName holds the RDNs from right to left
+            for (int i = rdns.size() - 1; i >= 0; i--)
+            {
+                if (normalized.length() > 0)
+                {
+                    normalized.append(',');
+                }
+                // Rdn keeps its type and value pairs sorted and escapes them consistently
+                normalized.append(rdns.get(i).toString().toLowerCase(Locale.ENGLISH));
+            }
+            return normalized.toString();
+        }
+        catch (InvalidNameException ex)
+        {
+            return dn.trim().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * @param attributes Attribute names or null for all attributes.
+     * @return The attribute names in lower case and sorted, so that the same set of attributes always has the same key.
+     */
+    static String normalizeAttributes(String[] attributes)
+    {
+        if (attributes == null || attributes.length == 0)
+        {
+            return ALL_ATTRIBUTES;
+        }
+        String[] sorted = new String[attributes.length];
+        for (int i = 0; i < attributes.length; i++)
+        {
+            sorted[i] = attributes[i] != null ? attributes[i].trim().toLowerCase(Locale.ENGLISH) : "";
+        }
+        Arrays.sort(sorted);
+        StringBuilder normalized = new StringBuilder();
+        for (String attribute : sorted)
+        {
+            normalized.append(attribute).append(',');
+        }
+        return normalized.toString();
+    }
+
+    static LDAPEntry copy(LDAPEntry entry)
+    {
+        LDAPEntry copy = new LDAPEntry(entry.getDn(), entry.getAttributeCount());
+        // Compact entries build new attributes every time they are iterated
+        boolean compact = entry instanceof CompactLDAPEntry && ((CompactLDAPEntry) entry).isCompact();
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            LDAPEntryAttribute attribute = it.next();
+            if (compact)
+            {
+                copy.addAttribute(attribute);
+            }
+            else if (attribute.isMultiValued())
+            {
+                copy.addAttribute(new LDAPMultiValueEntryAttribute(attribute.getName(), attribute.getValues()));
+            }
+            else
+            {
+                copy.addAttribute(new LDAPSingleValueEntryAttribute(attribute.getName(), attribute.getValue()));
+            }
+        }
+        return copy;
+    }
+
+    static long estimateSize(LDAPEntry entry)
+    {
+        // Compact entries share the attribute names and don't have an object per attribute
+        boolean compact = entry instanceof CompactLDAPEntry && ((CompactLDAPEntry) entry).isCompact();
+        long size = (compact ? COMPACT_ENTRY_OVERHEAD : ENTRY_OVERHEAD) + 2L * (entry.getDn() != null ? entry.getDn().length() : 0);
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            LDAPEntryAttribute attribute = it.next();
+            if (compact)
+            {
+                size += COMPACT_ATTRIBUTE_OVERHEAD;
+            }
+            else
+            {
+                size += ATTRIBUTE_OVERHEAD + 2L * (attribute.getName() != null ? attribute.getName().length() : 0);
+            }
+            for (Object value : attribute.getValues())
+            {
+                size += VALUE_OVERHEAD;
+                if (value instanceof byte[])
+                {
+                    size += ((byte[]) value).length;
+                }
+                else if (value != null)
+                {
+                    size += 2L * value.toString().length();
+                }
+            }
+        }
+        return size;
+    }
+
+    private static class Key
+    {
+        private final String dn;
+        private final String attributes;
+
+        Key(String dn, String[] attributes)
+        {
+            this.dn = dn;
+            this.attributes = normalizeAttributes(attributes);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dn.equals(other.dn) && attributes.equals(other.attributes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * dn.hashCode() + attributes.hashCode();
+        }
+    }
+
+    private static class CachedEntry
+    {
+        private final LDAPEntry entry;
+        private final long size;
+        private final long expiresAt;
+
+        CachedEntry(LDAPEntry entry, long size, long expiresAt)
+        {
+            this.entry = entry;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now)
+        {
+            return now >= expiresAt;
+        }
+    }
+}
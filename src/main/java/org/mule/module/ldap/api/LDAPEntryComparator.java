@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders {@link LDAPEntry} objects following a list of {@link LDAPSortKey}s, as close as possible
+ * to the way a LDAP server applies the server side sort control (RFC 2891):
+ * <ul>
+ *    <li>Strings are compared ignoring case and binary values are compared byte by byte. Matching rules are not
+ *        evaluated on the client side.</li>
+ *    <li>For multi-valued attributes the smallest value is used for ascending keys and the largest one for
+ *        descending keys.</li>
+ *    <li>Entries without the attribute are considered larger than any other entry.</li>
+ * </ul>
+ */
+public class LDAPEntryComparator implements Comparator<LDAPEntry>
+{
+    private final List<LDAPSortKey> sortKeys;
+
+    public LDAPEntryComparator(List<LDAPSortKey> sortKeys)
+    {
+        this.sortKeys = sortKeys;
+    }
+
+    @Override
+    public int compare(LDAPEntry entry1, LDAPEntry entry2)
+    {
+        for (LDAPSortKey key : sortKeys)
+        {
+            Object value1 = sortValue(entry1, key);
+            Object value2 = sortValue(entry2, key);
+
+            int result;
+            if (value1 == null || value2 == null)
+            {
+                result = value1 == null ? (value2 == null ? 0 : 1) : -1;
+            }
+            else
+            {
+                result = compareValues(value1, value2);
+            }
+
+            if (result != 0)
+            {
+                return key.isAscending() ? result : -result;
+            }
+        }
+        return 0;
+    }
+
+    private Object sortValue(LDAPEntry entry, LDAPSortKey key)
+    {
+        LDAPEntryAttribute attribute = entry.getAttribute(key.getAttributeName());
+        if (attribute == null)
+        {
+            return null;
+        }
+
+        Object selected = null;
+        for (Object value : attribute.getValues())
+        {
+            if (value != null && (selected == null || (compareValues(value, selected) < 0) == key.isAscending()))
+            {
+                selected = value;
+            }
+        }
+        return selected;
+    }
+
+    private static int compareValues(Object value1, Object value2)
+    {
+        if (value1 instanceof byte[] && value2 instanceof byte[])
+        {
+            byte[] bytes1 = (byte[]) value1;
+            byte[] bytes2 = (byte[]) value2;
+            for (int i = 0; i < bytes1.length && i < bytes2.length; i++)
+            {
+                int diff = (bytes1[i] & 0xff) - (bytes2[i] & 0xff);
+                if (diff != 0)
+                {
+                    return diff;
+                }
+            }
+            return bytes1.length - bytes2.length;
+        }
+        return String.valueOf(value1).compareToIgnoreCase(String.valueOf(value2));
+    }
+}
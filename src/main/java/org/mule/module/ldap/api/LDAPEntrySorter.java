@@ -0,0 +1,346 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * External merge sort of {@link LDAPEntry} objects that keeps at most <i>maxInMemoryEntries</i>
+ * entries in memory. Whenever that amount of entries has been added, they are sorted and written
+ * to a temporary file (a sorted run). The sorted result is read by merging all the runs.
+ * <p/>
+ * Usage: {@link #add(LDAPEntry)} all the entries and then call {@link #sort()} once. Temporary files
+ * are deleted when the returned {@link LDAPResultSet} is closed.
+ */
+public class LDAPEntrySorter
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final String RUN_FILE_PREFIX = "ldap-sort-";
+    private static final int RESET_STREAM_EVERY = 1000;
+
+    private final Comparator<LDAPEntry> comparator;
+    private final int maxInMemoryEntries;
+    private List<LDAPEntry> chunk;
+    private final List<File> runs = new ArrayList<File>();
+    private boolean sorted = false;
+
+    /**
+     * @param comparator Order of the entries.
+     * @param maxInMemoryEntries Maximum amount of entries held in memory. If it is less than 1, then 1 is used.
+     */
+    public LDAPEntrySorter(Comparator<LDAPEntry> comparator, int maxInMemoryEntries)
+    {
+        this.comparator = comparator;
+        this.maxInMemoryEntries = Math.max(maxInMemoryEntries, 1);
+        this.chunk = new ArrayList<LDAPEntry>(Math.min(this.maxInMemoryEntries, 1024));
+    }
+
+    /**
+     * @param entry The entry to sort.
+     * @throws LDAPException If the in memory entries could not be written to a temporary file.
+     */
+    public void add(LDAPEntry entry) throws LDAPException
+    {
+        if (sorted)
+        {
+            throw new IllegalStateException("Entries cannot be added once they have been sorted");
+        }
+
+        chunk.add(entry);
+        if (chunk.size() >= maxInMemoryEntries)
+        {
+            spill();
+        }
+    }
+
+    /**
+     * @return A result set that returns all the added entries in order.
+     * @throws LDAPException If the sorted runs could not be read.
+     */
+    public LDAPResultSet sort() throws LDAPException
+    {
+        sorted = true;
+        Collections.sort(chunk, comparator);
+
+        if (runs.isEmpty())
+        {
+            return new MergeResultSet(Collections.<RunReader>emptyList(), chunk, runs);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Merging " + runs.size() + " sorted runs of " + maxInMemoryEntries + " entries and " + chunk.size() + " entries in memory");
+        }
+
+        List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+        try
+        {
+            for (File run : runs)
+            {
+                readers.add(new RunReader(run));
+            }
+        }
+        catch (IOException ex)
+        {
+            for (RunReader reader : readers)
+            {
+                reader.close();
+            }
+            deleteRuns(runs);
+            throw new LDAPException("Could not read sorted entries from temporary file", ex);
+        }
+        return new MergeResultSet(readers, chunk, runs);
+    }
+
+    /**
+     * Deletes the temporary files if {@link #sort()} was never called.
+     */
+    public void discard()
+    {
+        chunk.clear();
+        if (!sorted)
+        {
+            deleteRuns(runs);
+        }
+    }
+
+    /**
+     * @return Amount of sorted runs written to temporary files.
+     */
+    public int getRunCount()
+    {
+        return runs.size();
+    }
+
+    private void spill() throws LDAPException
+    {
+        Collections.sort(chunk, comparator);
+        File run = null;
+        ObjectOutputStream out = null;
+        try
+        {
+            run = File.createTempFile(RUN_FILE_PREFIX, ".run");
+            run.deleteOnExit();
+            runs.add(run);
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+            int written = 0;
+            for (LDAPEntry entry : chunk)
+            {
+                out.writeObject(entry);
+                if (++written % RESET_STREAM_EVERY == 0)
+                {
+                    // Avoid the stream keeping a reference to every written entry
+                    out.reset();
+                }
+            }
+            out.writeObject(null);
+        }
+        catch (IOException ex)
+        {
+            deleteRuns(runs);
+            throw new LDAPException("Could not write sorted entries to temporary file " + run, ex);
+        }
+        finally
+        {
+            closeQuietly(out);
+        }
+        chunk = new ArrayList<LDAPEntry>(Math.min(maxInMemoryEntries, 1024));
+    }
+
+    private void deleteRuns(List<File> files)
+    {
+        for (File run : files)
+        {
+            if (!run.delete())
+            {
+                logger.debug("Could not delete temporary file " + run);
+            }
+        }
+        files.clear();
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Reads back the entries of a sorted run.
+     */
+    private static class RunReader
+    {
+        private final ObjectInputStream in;
+        private LDAPEntry current;
+
+        RunReader(File run) throws IOException
+        {
+            this.in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(run)));
+        }
+
+        boolean advance() throws IOException
+        {
+            try
+            {
+                current = (LDAPEntry) in.readObject();
+            }
+            catch (ClassNotFoundException ex)
+            {
+                throw new IOException("Invalid sorted run: " + ex.getMessage());
+            }
+            catch (EOFException ex)
+            {
+                current = null;
+            }
+            return current != null;
+        }
+
+        void close()
+        {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Merges the sorted runs and the sorted in memory entries.
+     */
+    private class MergeResultSet implements LDAPResultSet
+    {
+        private final PriorityQueue<RunReader> queue;
+        private final List<RunReader> readers;
+        private final List<LDAPEntry> memory;
+        private final List<File> files;
+        private int memoryIndex = 0;
+
+        MergeResultSet(List<RunReader> readers, List<LDAPEntry> memory, List<File> files) throws LDAPException
+        {
+            this.readers = readers;
+            this.memory = memory;
+            this.files = files;
+            this.queue = new PriorityQueue<RunReader>(Math.max(readers.size(), 1), new Comparator<RunReader>()
+            {
+                @Override
+                public int compare(RunReader reader1, RunReader reader2)
+                {
+                    return comparator.compare(reader1.current, reader2.current);
+                }
+            });
+
+            try
+            {
+                for (RunReader reader : readers)
+                {
+                    if (reader.advance())
+                    {
+                        queue.add(reader);
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                close();
+                throw new LDAPException("Could not read sorted entries from temporary file", ex);
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            return memoryIndex < memory.size() || !queue.isEmpty();
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            RunReader reader = queue.peek();
+            boolean fromMemory = memoryIndex < memory.size();
+
+            if (reader == null && !fromMemory)
+            {
+                throw new NoSuchElementException();
+            }
+
+            if (reader == null || (fromMemory && comparator.compare(memory.get(memoryIndex), reader.current) <= 0))
+            {
+                // Release the reference as soon as possible
+                return memory.set(memoryIndex++, null);
+            }
+
+            queue.poll();
+            LDAPEntry entry = reader.current;
+            try
+            {
+                if (reader.advance())
+                {
+                    queue.add(reader);
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new LDAPException("Could not read sorted entries from temporary file", ex);
+            }
+            return entry;
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+            while (hasNext())
+            {
+                allEntries.add(next());
+            }
+            return allEntries;
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            for (RunReader reader : readers)
+            {
+                reader.close();
+            }
+            queue.clear();
+            memory.clear();
+            deleteRuns(files);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search filter template in its string representation (RFC 4515), such as <i>(&(objectClass=person)(cn={0}*))</i>,
+ * whose assertion values may hold <i>{n}</i> references to arguments. The template is parsed and validated once by
+ * {@link #compile(String)}, and {@link #format(Object...)} writes the filter with each argument escaped as RFC 4515
+ * requires, so arguments are always matched as they are: a <i>*</i> or a parenthesis in an argument is never
+ * interpreted as a wildcard or as part of the filter.
+ * <p/>
+ * Compiled templates are cached by their text, so flows that search with the same template on every message only
+ * parse it the first time. Instances are immutable and can be shared by any amount of threads.
+ */
+public final class LDAPFilter
+{
+    /**
+     * Maximum amount of cached templates. When full, the least recently used template is evicted.
+     */
+    public static final int MAX_CACHED_TEMPLATES = 1000;
+
+    private static final String DEFAULT_FILTER = "(objectClass=*)";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Map<String, LDAPFilter> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, LDAPFilter>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LDAPFilter> eldest)
+        {
+            return size() > MAX_CACHED_TEMPLATES;
+        }
+    });
+
+    private final String template;
+    private final Node root;
+    private final int argumentCount;
+
+    private LDAPFilter(String template, Node root, int argumentCount)
+    {
+        this.template = template;
+        this.root = root;
+        this.argumentCount = argumentCount;
+    }
+
+    /**
+     * @param template Filter such as <i>(&(objectClass=person)(cn={0}))</i>. The enclosing parentheses are optional
+     *            and an empty filter matches every entry. <i>{n}</i> references are only allowed in assertion values.
+     * @return The compiled template, which may have been compiled before.
+     * @throws LDAPException If the template is not a valid filter.
+     */
+    public static LDAPFilter compile(String template) throws LDAPException
+    {
+        String key = template != null ? template : "";
+        LDAPFilter filter = CACHE.get(key);
+        if (filter == null)
+        {
+            filter = new Parser(key).parse();
+            CACHE.put(key, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * @param args Values of the <i>{n}</i> references. byte[] values are written as binary values and the rest as
+     *            their string representation.
+     * @return The filter with the escaped arguments in place of their references.
+     * @throws LDAPException If an argument referenced by the template is missing or null.
+     */
+    public String format(Object... args) throws LDAPException
+    {
+        int given = args != null ? args.length : 0;
+        if (given < argumentCount)
+        {
+            throw new LDAPException("Search filter " + template + " needs " + argumentCount + " arguments but " + given + " were given");
+        }
+        StringBuilder filter = new StringBuilder(template.length() + 16 * given);
+        root.write(filter, args);
+        return filter.toString();
+    }
+
+    /**
+     * @return The number of arguments referenced by the template (the highest <i>n</i> of its <i>{n}</i> references
+     *         plus one).
+     */
+    public int getArgumentCount()
+    {
+        return argumentCount;
+    }
+
+    public String getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * @param value Assertion value. byte[] values are escaped byte by byte.
+     * @return The value with the characters that have a meaning in a filter (<i>*</i>, parentheses, backslash and
+     *         NUL) escaped as RFC 4515 requires.
+     */
+    public static String escape(Object value)
+    {
+        StringBuilder escaped = new StringBuilder();
+        escape(escaped, value);
+        return escaped.toString();
+    }
+
+    private static void escape(StringBuilder escaped, Object value)
+    {
+        if (value instanceof byte[])
+        {
+            for (byte b : (byte[]) value)
+            {
+                escaped.append('\\').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+            }
+            return;
+        }
+        String text = String.valueOf(value);
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+                case '*' :
+                    escaped.append("\\2a");
+                    break;
+                case '(' :
+                    escaped.append("\\28");
+                    break;
+                case ')' :
+                    escaped.append("\\29");
+                    break;
+                case '\\' :
+                    escaped.append("\\5c");
+                    break;
+                case '\u0000' :
+                    escaped.append("\\00");
+                    break;
+                default :
+                    escaped.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return template;
+    }
+
+    /*
+     * Syntax tree of the template.
+     */
+    private abstract static class Node
+    {
+        abstract void write(StringBuilder filter, Object[] args) throws LDAPException;
+    }
+
+    /*
+     * AND (&), OR (|) or NOT (!) of other filters.
+     */
+    private static final class Composite extends Node
+    {
+        private final char operator;
+        private final List<Node> children;
+
+        Composite(char operator, List<Node> children)
+        {
+            this.operator = operator;
+            this.children = children;
+        }
+
+        @Override
+        void write(StringBuilder filter, Object[] args) throws LDAPException
+        {
+            filter.append('(').append(operator);
+            for (Node child : children)
+            {
+                child.write(filter, args);
+            }
+            filter.append(')');
+        }
+    }
+
+    /*
+     * An assertion on an attribute. Its value is a list of literal strings, written as they are in the template,
+     * and argument indexes.
+     */
+    private static final class Item extends Node
+    {
+        private final String description;
+        private final String operator;
+        private final List<Object> value;
+
+        Item(String description, String operator, List<Object> value)
+        {
+            this.description = description;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        void write(StringBuilder filter, Object[] args) throws LDAPException
+        {
+            filter.append('(').append(description).append(operator);
+            for (Object part : value)
+            {
+                if (part instanceof Integer)
+                {
+                    int index = (Integer) part;
+                    if (args[index] == null)
+                    {
+                        throw new LDAPException("Argument " + index + " of search filter is null");
+                    }
+                    escape(filter, args[index]);
+                }
+                else
+                {
+                    filter.append((String) part);
+                }
+            }
+            filter.append(')');
+        }
+    }
+
+    private static final class Parser
+    {
+        private final String template;
+        private final String filter;
+        private int position = 0;
+        private int argumentCount = 0;
+
+        Parser(String template)
+        {
+            this.template = template;
+            String trimmed = template.trim();
+            if (trimmed.length() == 0)
+            {
+                trimmed = DEFAULT_FILTER;
+            }
+            else if (trimmed.charAt(0) != '(')
+            {
+                trimmed = "(" + trimmed + ")";
+            }
+            this.filter = trimmed;
+        }
+
+        LDAPFilter parse() throws LDAPException
+        {
+            Node root = readFilter();
+            skipSpaces();
+            if (position < filter.length())
+            {
+                throw invalid("unexpected characters after the end of the filter");
+            }
+            return new LDAPFilter(template, root, argumentCount);
+        }
+
+        private Node readFilter() throws LDAPException
+        {
+            skipSpaces();
+            expect('(');
+            skipSpaces();
+            Node node;
+            char c = current();
+            if (c == '&' || c == '|')
+            {
+                position++;
+                node = new Composite(c, readFilterList(false));
+            }
+            else if (c == '!')
+            {
+                position++;
+                node = new Composite(c, readFilterList(true));
+            }
+            else
+            {
+                node = readItem();
+            }
+            skipSpaces();
+            expect(')');
+            return node;
+        }
+
+        private List<Node> readFilterList(boolean single) throws LDAPException
+        {
+            List<Node> children = new ArrayList<Node>();
+            skipSpaces();
+            while (position < filter.length() && filter.charAt(position) == '(')
+            {
+                children.add(readFilter());
+                skipSpaces();
+            }
+            if (single && children.size() != 1)
+            {
+                throw invalid("a negation must hold one filter");
+            }
+            return children;
+        }
+
+        private Node readItem() throws LDAPException
+        {
+            int start = position;
+            while (position < filter.length() && "=~<>()".indexOf(filter.charAt(position)) < 0)
+            {
+                position++;
+            }
+            if (position >= filter.length() || filter.charAt(position) == '(' || filter.charAt(position) == ')')
+            {
+                throw invalid("missing operator");
+            }
+
+            String description = filter.substring(start, position).trim();
+            String operator;
+            char c = filter.charAt(position);
+            if (c == '=')
+            {
+                operator = "=";
+                position++;
+            }
+            else if (position + 1 < filter.length() && filter.charAt(position + 1) == '=')
+            {
+                operator = filter.substring(position, position + 2);
+                position += 2;
+            }
+            else
+            {
+                throw invalid("invalid operator " + c);
+            }
+
+            validateDescription(description, "=".equals(operator));
+            List<Object> value = new ArrayList<Object>(3);
+            boolean wildcards = readValue(value);
+            if (wildcards && (!"=".equals(operator) || description.endsWith(":")))
+            {
+                throw invalid("wildcards are only allowed in equality assertions");
+            }
+            return new Item(description, operator, value);
+        }
+
+        private void validateDescription(String description, boolean equality) throws LDAPException
+        {
+            if (description.length() == 0 || (description.endsWith(":") && (!equality || description.length() == 1)))
+            {
+                throw invalid("missing attribute description");
+            }
+            for (int i = 0; i < description.length(); i++)
+            {
+                char c = description.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '-' || c == '.' || c == ';' || c == ':' || c == '_'))
+                {
+                    throw invalid("invalid attribute description " + description);
+                }
+            }
+        }
+
+        /*
+         * Reads the assertion value up to the closing parenthesis. Returns whether it holds wildcards.
+         */
+        private boolean readValue(List<Object> value) throws LDAPException
+        {
+            StringBuilder literal = new StringBuilder();
+            boolean wildcards = false;
+            while (position < filter.length())
+            {
+                char c = filter.charAt(position);
+                if (c == ')')
+                {
+                    break;
+                }
+                else if (c == '(')
+                {
+                    throw invalid("unescaped parenthesis in value");
+                }
+                else if (c == '\\')
+                {
+                    readEscape(literal);
+                }
+                else if (c == '{' && isArgument())
+                {
+                    if (literal.length() > 0)
+                    {
+                        value.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    value.add(readArgument());
+                }
+                else
+                {
+                    wildcards |= c == '*';
+                    literal.append(c);
+                    position++;
+                }
+            }
+            if (literal.length() > 0)
+            {
+                value.add(literal.toString());
+            }
+            return wildcards;
+        }
+
+        /*
+         * \XX (RFC 4515) or, as accepted by JNDI, a backslash followed by the escaped character (RFC 1960), which
+         * is written as \XX.
+         */
+        private void readEscape(StringBuilder literal) throws LDAPException
+        {
+            if (position + 2 < filter.length() && isHexDigit(filter.charAt(position + 1)) && isHexDigit(filter.charAt(position + 2)))
+            {
+                literal.append(filter, position, position + 3);
+                position += 3;
+            }
+            else if (position + 1 < filter.length())
+            {
+                int codePoint = filter.codePointAt(position + 1);
+                int length = Character.charCount(codePoint);
+                for (byte b : filter.substring(position + 1, position + 1 + length).getBytes(UTF_8))
+                {
+                    literal.append('\\').append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+                }
+                position += 1 + length;
+            }
+            else
+            {
+                throw invalid("incomplete escape sequence");
+            }
+        }
+
+        /*
+         * A { followed by digits and }. Any other { is part of the value.
+         */
+        private boolean isArgument()
+        {
+            int i = position + 1;
+            while (i < filter.length() && Character.isDigit(filter.charAt(i)))
+            {
+                i++;
+            }
+            return i > position + 1 && i < filter.length() && filter.charAt(i) == '}';
+        }
+
+        private Integer readArgument() throws LDAPException
+        {
+            int end = filter.indexOf('}', position);
+            int index;
+            try
+            {
+                index = Integer.parseInt(filter.substring(position + 1, end));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw invalid("invalid argument reference " + filter.substring(position, end + 1));
+            }
+            argumentCount = Math.max(argumentCount, index + 1);
+            position = end + 1;
+            return index;
+        }
+
+        private static boolean isHexDigit(char c)
+        {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        private char current() throws LDAPException
+        {
+            if (position >= filter.length())
+            {
+                throw invalid("unexpected end of filter");
+            }
+            return filter.charAt(position);
+        }
+
+        private void expect(char c) throws LDAPException
+        {
+            if (current() != c)
+            {
+                throw invalid("expected " + c + " at position " + position);
+            }
+            position++;
+        }
+
+        private void skipSpaces()
+        {
+            while (position < filter.length() && filter.charAt(position) == ' ')
+            {
+                position++;
+            }
+        }
+
+        private LDAPException invalid(String reason)
+        {
+            return new LDAPException("Invalid search filter " + template + ": " + reason);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non negative values with logarithmic buckets, in the style of HdrHistogram. Values below 128
+ * are counted exactly and bigger values are counted in buckets whose width is at most 1/64 of the values they
+ * hold, so percentiles have a relative error below 1.6% whatever the magnitude of the values. Values above
+ * {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ * <p/>
+ * Recording a value never locks nor allocates, so any amount of threads can record values at the same time.
+ * Readings taken while values are recorded may not include the latest values.
+ */
+public class LDAPHistogram
+{
+    /**
+     * Highest value that is counted in its own bucket (about 12.7 days when counting microseconds).
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0L);
+
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Value must not be negative: " + value);
+        }
+        long bounded = Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(bounded));
+        count.incrementAndGet();
+        total.addAndGet(bounded);
+
+        long current;
+        while (bounded < (current = min.get()) && !min.compareAndSet(current, bounded))
+        {
+            // Another thread changed the minimum, so it is compared again
+        }
+        while (bounded > (current = max.get()) && !max.compareAndSet(current, bounded))
+        {
+            // Another thread changed the maximum, so it is compared again
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return Sum of all the recorded values.
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+    /**
+     * @return Lowest recorded value, or 0 if no value was recorded.
+     */
+    public long getMin()
+    {
+        long current = min.get();
+        return current != Long.MAX_VALUE ? current : 0L;
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return Average of the recorded values, or 0 if no value was recorded.
+     */
+    public double getMean()
+    {
+        long currentCount = count.get();
+        return currentCount > 0 ? (double) total.get() / currentCount : 0d;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The highest value of the bucket that holds the given percentile of the recorded values, but never
+     *         more than the maximum recorded value. 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long currentCount = count.get();
+        if (currentCount == 0)
+        {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100d * currentCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        min.set(Long.MAX_VALUE);
+        max.set(0L);
+    }
+
+    /*
+     * Values below SUB_BUCKETS have their own bucket. Bigger values are shifted right until they are between
+     * HALF_SUB_BUCKETS and SUB_BUCKETS, and each shift adds HALF_SUB_BUCKETS buckets.
+     */
+    private static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Logger whose messages are patterns with a <i>{}</i> for each argument, such as
+ * <code>logger.debug("Binded to {} as {}", url, dn)</code>. Messages are only built if their level is enabled, and
+ * the overloads with up to three arguments don't allocate an array, so a disabled log line costs a level check.
+ * Arguments of primitive types are boxed by the caller, so log lines in loops should still check the level first
+ * (or use a {@link Sampler}).
+ * <p/>
+ * Log lines written once per entry would multiply the cost of a search when debugging is enabled. Those lines
+ * are guarded by a {@link Sampler}, which lets one of every <i>rate</i> of them through.
+ * <p/>
+ * Messages are written to the commons-logging log of the given class.
+ */
+public final class LDAPLogger
+{
+    private final Log log;
+
+    LDAPLogger(Log log)
+    {
+        this.log = log;
+    }
+
+    public static LDAPLogger getLogger(Class<?> type)
+    {
+        return new LDAPLogger(LogFactory.getLog(type));
+    }
+
+    public boolean isTraceEnabled()
+    {
+        return log.isTraceEnabled();
+    }
+
+    public boolean isDebugEnabled()
+    {
+        return log.isDebugEnabled();
+    }
+
+    public boolean isInfoEnabled()
+    {
+        return log.isInfoEnabled();
+    }
+
+    public boolean isWarnEnabled()
+    {
+        return log.isWarnEnabled();
+    }
+
+    public void trace(String message)
+    {
+        log.trace(message);
+    }
+
+    public void trace(String pattern, Object arg)
+    {
+        if (log.isTraceEnabled())
+        {
+            log.trace(format(pattern, arg, null, null, 1));
+        }
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2)
+    {
+        if (log.isTraceEnabled())
+        {
+            log.trace(format(pattern, arg1, arg2, null, 2));
+        }
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2, Object arg3)
+    {
+        if (log.isTraceEnabled())
+        {
+            log.trace(format(pattern, arg1, arg2, arg3, 3));
+        }
+    }
+
+    public void debug(String message)
+    {
+        log.debug(message);
+    }
+
+    public void debug(String message, Throwable error)
+    {
+        log.debug(message, error);
+    }
+
+    public void debug(String pattern, Object arg)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug(format(pattern, arg, null, null, 1));
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug(format(pattern, arg1, arg2, null, 2));
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2, Object arg3)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug(format(pattern, arg1, arg2, arg3, 3));
+        }
+    }
+
+    public void debug(String pattern, Object... args)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug(format(pattern, args));
+        }
+    }
+
+    public void info(String message)
+    {
+        log.info(message);
+    }
+
+    public void info(String pattern, Object arg)
+    {
+        if (log.isInfoEnabled())
+        {
+            log.info(format(pattern, arg, null, null, 1));
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2)
+    {
+        if (log.isInfoEnabled())
+        {
+            log.info(format(pattern, arg1, arg2, null, 2));
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2, Object arg3)
+    {
+        if (log.isInfoEnabled())
+        {
+            log.info(format(pattern, arg1, arg2, arg3, 3));
+        }
+    }
+
+    public void info(String pattern, Object... args)
+    {
+        if (log.isInfoEnabled())
+        {
+            log.info(format(pattern, args));
+        }
+    }
+
+    public void warn(String message)
+    {
+        log.warn(message);
+    }
+
+    public void warn(String message, Throwable error)
+    {
+        log.warn(message, error);
+    }
+
+    public void warn(String pattern, Object arg)
+    {
+        if (log.isWarnEnabled())
+        {
+            log.warn(format(pattern, arg, null, null, 1));
+        }
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2)
+    {
+        if (log.isWarnEnabled())
+        {
+            log.warn(format(pattern, arg1, arg2, null, 2));
+        }
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2, Object arg3)
+    {
+        if (log.isWarnEnabled())
+        {
+            log.warn(format(pattern, arg1, arg2, arg3, 3));
+        }
+    }
+
+    public void error(String message)
+    {
+        log.error(message);
+    }
+
+    public void error(String message, Throwable error)
+    {
+        log.error(message, error);
+    }
+
+    public void error(String pattern, Object arg1, Object arg2)
+    {
+        if (log.isErrorEnabled())
+        {
+            log.error(format(pattern, arg1, arg2, null, 2));
+        }
+    }
+
+    /**
+     * @param rate One of every <i>rate</i> sampled log lines is written. 1 or less writes all of them.
+     * @return A sampler of log lines written with DEBUG level (or TRACE, checking it once sampled), or a shared
+     *         sampler that lets nothing through if DEBUG is disabled.
+     */
+    public Sampler sampler(long rate)
+    {
+        return log.isDebugEnabled() ? new Sampler(this, rate) : Sampler.DISABLED;
+    }
+
+    private static String format(String pattern, Object arg1, Object arg2, Object arg3, int count)
+    {
+        StringBuilder message = new StringBuilder(pattern.length() + 32 * count);
+        int start = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0)
+            {
+                break;
+            }
+            message.append(pattern, start, placeholder);
+            appendArgument(message, i == 0 ? arg1 : (i == 1 ? arg2 : arg3));
+            start = placeholder + 2;
+        }
+        return message.append(pattern, start, pattern.length()).toString();
+    }
+
+    private static String format(String pattern, Object[] args)
+    {
+        StringBuilder message = new StringBuilder(pattern.length() + 32 * args.length);
+        int start = 0;
+        for (Object arg : args)
+        {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0)
+            {
+                break;
+            }
+            message.append(pattern, start, placeholder);
+            appendArgument(message, arg);
+            start = placeholder + 2;
+        }
+        return message.append(pattern, start, pattern.length()).toString();
+    }
+
+    private static void appendArgument(StringBuilder message, Object arg)
+    {
+        if (arg instanceof Object[])
+        {
+            message.append(Arrays.toString((Object[]) arg));
+        }
+        else
+        {
+            message.append(arg);
+        }
+    }
+
+    /**
+     * Lets one of every <i>rate</i> log lines through, starting with the first one. Used by a single operation,
+     * such as a search, to guard the log lines it writes for each entry.
+     */
+    public static final class Sampler
+    {
+        /**
+         * Sampler of a logger whose DEBUG level is disabled. It lets nothing through.
+         */
+        public static final Sampler DISABLED = new Sampler(null, 1);
+
+        private final LDAPLogger logger;
+        private final long rate;
+        private final AtomicLong calls = new AtomicLong();
+
+        private Sampler(LDAPLogger logger, long rate)
+        {
+            this.logger = logger;
+            this.rate = rate > 1 ? rate : 1;
+        }
+
+        /**
+         * @return true if DEBUG is enabled and this is one of the sampled calls.
+         */
+        public boolean isDebugEnabled()
+        {
+            return logger != null && logger.isDebugEnabled() && calls.getAndIncrement() % rate == 0;
+        }
+
+        public long getRate()
+        {
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Logs the metrics of the operations that were executed at least once, with INFO level.
+ */
+public class LDAPLoggingMetricsReporter implements LDAPMetricsReporter
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    @Override
+    public void report(LDAPMetrics metrics)
+    {
+        if (!logger.isInfoEnabled())
+        {
+            return;
+        }
+        StringBuilder report = new StringBuilder("LDAP metrics of ").append(metrics.getConnectionName()).append(": connections=").append(metrics.getOpenConnections());
+        report.append(", borrowed=").append(metrics.getBorrowedConnections());
+        report.append(", bytesDecoded=").append(metrics.getBytesDecoded());
+        report.append(", pagedSearches=").append(metrics.getPagedSearches());
+        report.append(", errors=").append(Arrays.toString(metrics.getErrorCounts()));
+        for (LDAPOperationMetrics operation : metrics.getOperationMetrics())
+        {
+            if (operation.getCount() > 0)
+            {
+                report.append("\n  ").append(operation);
+            }
+        }
+        logger.info(report);
+    }
+}
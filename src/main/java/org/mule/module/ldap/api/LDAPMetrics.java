@@ -0,0 +1,586 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Metrics of the operations executed by a {@link LDAPConnection}:
+ * <ul>
+ * <li>Latency histograms, error counts and entries returned by type of operation, for all the LDAP servers and,
+ * when the operations are load balanced, for each of them (see {@link LDAPOperationMetrics}). The latency of a
+ * search is the time until the server returns the first results, and its entries are counted when its result set
+ * is closed.</li>
+ * <li>Failed operations by class of {@link LDAPException}.</li>
+ * <li>Round trips of each paged search.</li>
+ * <li>Bytes of the search result entries decoded by the connector. JNDI decodes them itself, so only the
+ * <i>nio</i> connection type counts them.</li>
+ * <li>Open and borrowed connections, read from {@link LDAPConnection#getOpenConnections()} and
+ * {@link LDAPConnection#getBorrowedConnections()} when requested.</li>
+ * </ul>
+ * Operations answered by the lookup, negative or search caches don't reach the LDAP server and are not recorded.
+ * <p/>
+ * Connections use {@link #DISABLED} unless metrics are enabled. Its samples are a shared instance that records
+ * nothing, so disabled metrics cost neither allocations nor synchronization.
+ * <p/>
+ * Once {@link #register() registered}, the metrics are published as MBeans of the platform MBean server under the
+ * <i>org.mule.module.ldap</i> domain and, if a {@link LDAPMetricsReporter} was given, reported every
+ * <i>reportInterval</i> milliseconds.
+ */
+public class LDAPMetrics implements LDAPMetricsMBean
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final String BIND = "bind";
+    public static final String SEARCH = "search";
+    public static final String LOOKUP = "lookup";
+    public static final String EXISTS = "exists";
+    public static final String ADD = "add";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    public static final String RENAME = "rename";
+    public static final String ADD_ATTRIBUTE = "addAttribute";
+    public static final String UPDATE_ATTRIBUTE = "updateAttribute";
+    public static final String DELETE_ATTRIBUTE = "deleteAttribute";
+    public static final String VERIFY_CREDENTIALS = "verifyCredentials";
+    public static final String SYNC = "sync";
+
+    public static final String JMX_DOMAIN = "org.mule.module.ldap";
+
+    /**
+     * Metrics of connections that don't record them.
+     */
+    public static final LDAPMetrics DISABLED = new LDAPMetrics();
+
+    private static final ScheduledExecutorService REPORTER_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ldap-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final LDAPConnection connection;
+    private final LDAPMetricsReporter reporter;
+    private final long reportInterval;
+
+    private final ConcurrentMap<String, LDAPOperationMetrics> operations = new ConcurrentHashMap<String, LDAPOperationMetrics>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong bytesDecoded = new AtomicLong();
+    private final LDAPHistogram pagesPerSearch = new LDAPHistogram();
+
+    // Guarded by this
+    private ObjectName objectName = null;
+    private ScheduledFuture<?> reporting = null;
+
+    private LDAPMetrics()
+    {
+        this.connection = null;
+        this.reporter = null;
+        this.reportInterval = 0L;
+    }
+
+    /**
+     * @param connection Connection whose operations are recorded.
+     * @param reporter Reporter of the metrics or null to only publish them with JMX.
+     * @param reportInterval Milliseconds between reports.
+     */
+    public LDAPMetrics(LDAPConnection connection, LDAPMetricsReporter reporter, long reportInterval)
+    {
+        if (connection == null)
+        {
+            throw new IllegalArgumentException("Connection cannot be null");
+        }
+        if (reporter != null && reportInterval <= 0)
+        {
+            throw new IllegalArgumentException("Report interval must be greater than 0");
+        }
+        this.connection = connection;
+        this.reporter = reporter;
+        this.reportInterval = reportInterval;
+    }
+
+    public boolean isEnabled()
+    {
+        return connection != null;
+    }
+
+    /**
+     * Starts timing an operation. The returned sample must be stopped once the operation completes, usually in
+     * a finally block.
+     *
+     * @param operation Name of the operation, such as {@link #SEARCH}.
+     */
+    public Sample start(String operation)
+    {
+        return connection != null ? new Sample(this, operation, System.nanoTime()) : Sample.NONE;
+    }
+
+    /**
+     * @param pages Round trips of a paged search, recorded once its result set is closed.
+     */
+    public void recordPages(int pages)
+    {
+        if (connection != null)
+        {
+            pagesPerSearch.record(pages);
+        }
+    }
+
+    /**
+     * @param bytes Bytes of an entry decoded by the connector.
+     */
+    public void recordBytesDecoded(long bytes)
+    {
+        if (connection != null)
+        {
+            bytesDecoded.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @return The metrics of all the operations, including the metrics by server.
+     */
+    public Collection<LDAPOperationMetrics> getOperationMetrics()
+    {
+        return new TreeMap<String, LDAPOperationMetrics>(operations).values();
+    }
+
+    /**
+     * @param operation Name of the operation.
+     * @param server URL of the LDAP server or null for all of them.
+     * @return The metrics of the operation or null if it was never executed.
+     */
+    public LDAPOperationMetrics getOperationMetrics(String operation, String server)
+    {
+        return operations.get(key(operation, server));
+    }
+
+    /**
+     * @return Amount of failed operations by simple name of the class of {@link LDAPException}.
+     */
+    public Map<String, Long> getErrors()
+    {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet())
+        {
+            counts.put(error.getKey(), error.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public String[] getErrorCounts()
+    {
+        List<String> counts = new ArrayList<String>();
+        for (Map.Entry<String, Long> error : getErrors().entrySet())
+        {
+            counts.add(error.getKey() + ": " + error.getValue());
+        }
+        return counts.toArray(new String[counts.size()]);
+    }
+
+    /**
+     * @return Round trips of the paged searches.
+     */
+    public LDAPHistogram getPagesPerSearch()
+    {
+        return pagesPerSearch;
+    }
+
+    @Override
+    public long getPagedSearches()
+    {
+        return pagesPerSearch.getCount();
+    }
+
+    @Override
+    public double getMeanPagesPerSearch()
+    {
+        return pagesPerSearch.getMean();
+    }
+
+    @Override
+    public long getMaxPagesPerSearch()
+    {
+        return pagesPerSearch.getMax();
+    }
+
+    @Override
+    public long getBytesDecoded()
+    {
+        return bytesDecoded.get();
+    }
+
+    @Override
+    public int getOpenConnections()
+    {
+        return connection != null ? connection.getOpenConnections() : 0;
+    }
+
+    @Override
+    public int getBorrowedConnections()
+    {
+        return connection != null ? connection.getBorrowedConnections() : 0;
+    }
+
+    @Override
+    public void reset()
+    {
+        for (LDAPOperationMetrics operation : operations.values())
+        {
+            operation.reset();
+        }
+        errors.clear();
+        bytesDecoded.set(0L);
+        pagesPerSearch.reset();
+    }
+
+    /**
+     * @return Name of the connection in the JMX object names and in the reports.
+     */
+    public String getConnectionName()
+    {
+        return connection != null ? getConnectionName(connection) : "disabled";
+    }
+
+    /*
+     * Also names the connection in the MBeans of the slow query log.
+     */
+    static String getConnectionName(LDAPConnection connection)
+    {
+        String name = connection.getName() != null ? connection.getName() : connection.getClass().getSimpleName();
+        return name + "@" + Integer.toHexString(System.identityHashCode(connection));
+    }
+
+    /**
+     * Publishes the metrics with JMX and starts reporting them. Does nothing if they are disabled or already
+     * registered.
+     */
+    public synchronized void register()
+    {
+        if (connection == null || objectName != null)
+        {
+            return;
+        }
+        try
+        {
+            objectName = new ObjectName(JMX_DOMAIN + ":type=Metrics,connection=" + ObjectName.quote(getConnectionName()));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            for (LDAPOperationMetrics operation : operations.values())
+            {
+                registerOperation(server, operation);
+            }
+        }
+        catch (JMException ex)
+        {
+            logger.warn("Could not register LDAP metrics of " + getConnectionName() + " with JMX. They will not be published.", ex);
+        }
+
+        if (reporter != null)
+        {
+            reporting = REPORTER_TIMER.scheduleAtFixedRate(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    report();
+                }
+            }, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes the MBeans, stops reporting and sends a last report.
+     */
+    public synchronized void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            for (ObjectName name : server.queryNames(new ObjectName(JMX_DOMAIN + ":type=OperationMetrics,connection=" + ObjectName.quote(getConnectionName()) + ",*"), null))
+            {
+                server.unregisterMBean(name);
+            }
+            if (server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+        }
+        catch (JMException ex)
+        {
+            logger.debug("Error unregistering LDAP metrics of " + getConnectionName() + ". Ignoring it.", ex);
+        }
+        objectName = null;
+
+        if (reporting != null)
+        {
+            reporting.cancel(false);
+            reporting = null;
+            report();
+        }
+    }
+
+    public synchronized boolean isRegistered()
+    {
+        return objectName != null;
+    }
+
+    private void report()
+    {
+        try
+        {
+            reporter.report(this);
+        }
+        catch (RuntimeException ex)
+        {
+            logger.warn("Could not report LDAP metrics of " + getConnectionName(), ex);
+        }
+    }
+
+    private void record(Sample sample, long elapsedNanos)
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        getOrCreate(sample.operation, null).record(micros, sample.error != null);
+        if (sample.server != null)
+        {
+            getOrCreate(sample.operation, sample.server).record(micros, sample.error != null);
+        }
+        if (sample.error != null)
+        {
+            String errorClass = sample.error.getClass().getSimpleName();
+            AtomicLong count = errors.get(errorClass);
+            if (count == null)
+            {
+                AtomicLong newCount = new AtomicLong();
+                count = errors.putIfAbsent(errorClass, newCount);
+                if (count == null)
+                {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    private void recordEntries(String operation, String server, long entries)
+    {
+        getOrCreate(operation, null).recordEntries(entries);
+        if (server != null)
+        {
+            getOrCreate(operation, server).recordEntries(entries);
+        }
+    }
+
+    private LDAPOperationMetrics getOrCreate(String operation, String server)
+    {
+        String key = key(operation, server);
+        LDAPOperationMetrics metrics = operations.get(key);
+        if (metrics == null)
+        {
+            LDAPOperationMetrics newMetrics = new LDAPOperationMetrics(operation, server);
+            metrics = operations.putIfAbsent(key, newMetrics);
+            if (metrics == null)
+            {
+                metrics = newMetrics;
+                synchronized (this)
+                {
+                    if (objectName != null)
+                    {
+                        try
+                        {
+                            registerOperation(ManagementFactory.getPlatformMBeanServer(), metrics);
+                        }
+                        catch (JMException ex)
+                        {
+                            logger.warn("Could not register LDAP metrics of operation " + key + " with JMX.", ex);
+                        }
+                    }
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private void registerOperation(MBeanServer server, LDAPOperationMetrics operation) throws JMException
+    {
+        StringBuilder name = new StringBuilder(JMX_DOMAIN).append(":type=OperationMetrics,connection=").append(ObjectName.quote(getConnectionName()));
+        name.append(",operation=").append(operation.getOperation());
+        if (operation.getServer() != null)
+        {
+            name.append(",server=").append(ObjectName.quote(operation.getServer()));
+        }
+        server.registerMBean(operation, new ObjectName(name.toString()));
+    }
+
+    private static String key(String operation, String server)
+    {
+        return server != null ? operation + "@" + server : operation;
+    }
+
+    /**
+     * Timing of a single operation, used by the thread that executes it.
+     */
+    public static final class Sample
+    {
+        /**
+         * Sample of disabled metrics. It records nothing.
+         */
+        public static final Sample NONE = new Sample(null, null, 0L);
+
+        private final LDAPMetrics metrics;
+        private final String operation;
+        private final long start;
+        private String server = null;
+        private LDAPException error = null;
+        private boolean stopped = false;
+
+        private Sample(LDAPMetrics metrics, String operation, long start)
+        {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.start = start;
+        }
+
+        public boolean isRecording()
+        {
+            return metrics != null;
+        }
+
+        /**
+         * @param server URL of the LDAP server that executes the operation, if known.
+         */
+        public void setServer(String server)
+        {
+            this.server = server;
+        }
+
+        /**
+         * Marks the operation as failed.
+         *
+         * @return The given exception, so that it can be thrown.
+         */
+        public <E extends LDAPException> E failed(E ex)
+        {
+            if (metrics != null)
+            {
+                this.error = ex;
+            }
+            return ex;
+        }
+
+        /**
+         * Records the latency of the operation. Only the first call records it.
+         */
+        public void stop()
+        {
+            if (metrics == null || stopped)
+            {
+                return;
+            }
+            stopped = true;
+            metrics.record(this, System.nanoTime() - start);
+        }
+
+        /**
+         * @return A result set that counts the entries read from the given one, which are recorded once all of
+         *         them are read or it is closed. The given result set itself if metrics are disabled.
+         */
+        public LDAPResultSet countEntries(LDAPResultSet result)
+        {
+            return metrics != null ? new CountingResultSet(result, this) : result;
+        }
+    }
+
+    private static final class CountingResultSet implements LDAPResultSet
+    {
+        private final LDAPResultSet result;
+        private final Sample sample;
+        private long entries = 0;
+        private boolean recorded = false;
+
+        CountingResultSet(LDAPResultSet result, Sample sample)
+        {
+            this.result = result;
+            this.sample = sample;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            if (result.hasNext())
+            {
+                return true;
+            }
+            recordEntries();
+            return false;
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            LDAPEntry entry = result.next();
+            entries++;
+            return entry;
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = result.getAllEntries();
+            entries += allEntries.size();
+            recordEntries();
+            return allEntries;
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            recordEntries();
+            result.close();
+        }
+
+        private void recordEntries()
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                sample.metrics.recordEntries(sample.operation, sample.server, entries);
+            }
+        }
+    }
+}
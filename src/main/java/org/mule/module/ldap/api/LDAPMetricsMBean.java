@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * JMX view of the metrics of a {@link LDAPConnection} that are not specific to a type of operation.
+ */
+public interface LDAPMetricsMBean
+{
+    int getOpenConnections();
+
+    int getBorrowedConnections();
+
+    long getBytesDecoded();
+
+    long getPagedSearches();
+
+    double getMeanPagesPerSearch();
+
+    long getMaxPagesPerSearch();
+
+    /**
+     * @return Amount of failed operations by class of {@link LDAPException}, as <i>class: count</i>.
+     */
+    String[] getErrorCounts();
+
+    void reset();
+}
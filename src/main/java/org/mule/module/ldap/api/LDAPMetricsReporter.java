@@ -0,0 +1,23 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Publishes the metrics of a {@link LDAPConnection} to a monitoring system. Reporters are called periodically
+ * from a single thread and once more when the connection is closed, so they should not block for long.
+ * Implementations must have a public constructor without arguments to be configured by class name.
+ */
+public interface LDAPMetricsReporter
+{
+    /**
+     * @param metrics Metrics of the connection. Counters are cumulative since the connection was created, or
+     *            since they were reset.
+     */
+    void report(LDAPMetrics metrics);
+}
@@ -71,6 +71,16 @@ public class LDAPMultiValueEntryAttribute extends LDAPEntryAttribute
         super(name);
     }
 
+    /**
+     * @param name
+     * @param expectedValueCount Amount of values that will be added to the attribute.
+     */
+    public LDAPMultiValueEntryAttribute(String name, int expectedValueCount)
+    {
+        super(name);
+        this.values = new ArrayList<Object>(Math.max(expectedValueCount, 0));
+    }
+
     /**
      * @return
      * @see leonards.common.ldap.LDAPEntryAttribute#getValue()
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache of the DNs that were found not to exist, so that repeated existence checks for the same
+ * missing entry are answered without contacting the LDAP server. DNs expire <i>ttl</i> milliseconds
+ * after being cached and, once the cache holds <i>maxEntries</i> DNs, the oldest ones are evicted.
+ * <p/>
+ * Optionally, a Bloom filter of the cached DNs is checked first. It answers, without any locking,
+ * that a DN is not cached, which is the common case when most of the checked DNs are new. The filter
+ * may have false positives (which are then checked against the cache) but never false negatives.
+ * <p/>
+ * Entries created through the same {@link LDAPConnection} must be removed with {@link #invalidate(String)}
+ * or {@link #invalidateSubtree(String)}. Entries created by other clients are reported as missing for up
+ * to <i>ttl</i> milliseconds. DNs checked while an entry was created are not cached: get the
+ * {@link #getGeneration() generation} before the check and pass it to {@link #put(String, long)}.
+ */
+public class LDAPNegativeCache
+{
+    /*
+     * About 1% of false positives when the filter holds maxEntries DNs.
+     */
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final int maxEntries;
+    private final long ttl;
+    private final boolean bloomFilterEnabled;
+
+    /*
+     * DN -> expiration time, oldest first
+     */
+    private final LinkedHashMap<String, Long> missing = new LinkedHashMap<String, Long>();
+    private volatile BloomFilter bloomFilter;
+    private int bloomFilterInsertions = 0;
+    private long generation = 0;
+    private long hits = 0;
+
+    /**
+     * @param maxEntries Maximum amount of cached DNs. Must be greater than 0.
+     * @param ttl Milliseconds a DN stays in the cache. Must be greater than 0.
+     * @param bloomFilterEnabled Whether to check a Bloom filter of the cached DNs before the cache.
+     */
+    public LDAPNegativeCache(int maxEntries, long ttl, boolean bloomFilterEnabled)
+    {
+        if (maxEntries <= 0)
+        {
+            throw new IllegalArgumentException("Max entries must be greater than 0");
+        }
+        if (ttl <= 0)
+        {
+            throw new IllegalArgumentException("TTL must be greater than 0");
+        }
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.bloomFilterEnabled = bloomFilterEnabled;
+        this.bloomFilter = bloomFilterEnabled ? new BloomFilter(maxEntries) : null;
+    }
+
+    /**
+     * @param dn DN of the entry.
+     * @return true if the entry was recently found not to exist.
+     */
+    public boolean isMissing(String dn)
+    {
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        BloomFilter filter = this.bloomFilter;
+        if (filter != null && !filter.mightContain(normalized))
+        {
+            return false;
+        }
+
+        synchronized (this)
+        {
+            Long expiresAt = missing.get(normalized);
+            if (expiresAt == null)
+            {
+                return false;
+            }
+            if (System.currentTimeMillis() >= expiresAt.longValue())
+            {
+                missing.remove(normalized);
+                return false;
+            }
+            hits++;
+            return true;
+        }
+    }
+
+    /**
+     * Caches a DN that was checked while no entry could be created through the same connection.
+     *
+     * @param dn DN of an entry that does not exist.
+     */
+    public void put(String dn)
+    {
+        put(dn, getGeneration());
+    }
+
+    /**
+     * @param dn DN of an entry that does not exist.
+     * @param generation The {@link #getGeneration() generation} of the cache when the check started.
+     */
+    public void put(String dn, long generation)
+    {
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                // The entry may have been created after the LDAP server answered
+                return;
+            }
+            // Re-inserting moves the DN to the end of the eviction order
+            missing.remove(normalized);
+            missing.put(normalized, Long.valueOf(System.currentTimeMillis() + ttl));
+            evict();
+
+            if (bloomFilterEnabled)
+            {
+                if (++bloomFilterInsertions > 2 * maxEntries)
+                {
+                    rebuildBloomFilter();
+                }
+                else
+                {
+                    bloomFilter.add(normalized);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dn DN of an entry that was created.
+     */
+    public synchronized void invalidate(String dn)
+    {
+        generation++;
+        // The Bloom filter cannot remove DNs. It just has one more false positive until it is rebuilt.
+        missing.remove(LDAPEntryCache.normalizeDn(dn));
+    }
+
+    /**
+     * @param dn DN of the root of a subtree that was created (for example, by renaming an entry).
+     */
+    public synchronized void invalidateSubtree(String dn)
+    {
+        generation++;
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        String suffix = "," + normalized;
+        for (Iterator<String> it = missing.keySet().iterator(); it.hasNext();)
+        {
+            String cachedDn = it.next();
+            if (cachedDn.equals(normalized) || cachedDn.endsWith(suffix))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        missing.clear();
+        if (bloomFilterEnabled)
+        {
+            rebuildBloomFilter();
+        }
+    }
+
+    /**
+     * @return A counter that changes whenever cached DNs are invalidated.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return missing.size();
+    }
+
+    /**
+     * @return Amount of existence checks answered by the cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    private void evict()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = missing.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, Long> eldest = it.next();
+            // All DNs have the same TTL, so they expire in insertion order
+            if (missing.size() > maxEntries || now >= eldest.getValue().longValue())
+            {
+                it.remove();
+            }
+            else
+            {
+                break;
+            }
+        }
+    }
+
+    private void rebuildBloomFilter()
+    {
+        // Evicted and invalidated DNs are only dropped from the filter when it is rebuilt
+        BloomFilter filter = new BloomFilter(maxEntries);
+        for (String dn : missing.keySet())
+        {
+            filter.add(dn);
+        }
+        bloomFilterInsertions = missing.size();
+        this.bloomFilter = filter;
+    }
+
+    /**
+     * Bloom filter that can be read concurrently with the (synchronized) additions.
+     */
+    private static class BloomFilter
+    {
+        private final AtomicLongArray words;
+        private final int bits;
+
+        BloomFilter(int expectedEntries)
+        {
+            int words = (int) Math.min(((long) expectedEntries * BLOOM_BITS_PER_ENTRY + 63) / 64, Integer.MAX_VALUE / 64);
+            this.words = new AtomicLongArray(words);
+            this.bits = words * 64;
+        }
+
+        void add(String dn)
+        {
+            int hash1 = dn.hashCode();
+            int hash2 = secondHash(dn);
+            for (int i = 0; i < BLOOM_HASHES; i++)
+            {
+                int bit = index(hash1 + i * hash2);
+                int word = bit >>> 6;
+                long mask = 1L << (bit & 63);
+                long value;
+                do
+                {
+                    value = words.get(word);
+                }
+                while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+            }
+        }
+
+        boolean mightContain(String dn)
+        {
+            int hash1 = dn.hashCode();
+            int hash2 = secondHash(dn);
+            for (int i = 0; i < BLOOM_HASHES; i++)
+            {
+                int bit = index(hash1 + i * hash2);
+                if ((words.get(bit >>> 6) & (1L << (bit & 63))) == 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int index(int hash)
+        {
+            return (hash & Integer.MAX_VALUE) % bits;
+        }
+
+        /*
+         * FNV-1a, independent enough from String.hashCode for double hashing.
+         */
+        private static int secondHash(String dn)
+        {
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < dn.length(); i++)
+            {
+                hash ^= dn.charAt(i);
+                hash *= 0x01000193;
+            }
+            // Odd, so that the probed bits are different
+            return hash | 1;
+        }
+    }
+}
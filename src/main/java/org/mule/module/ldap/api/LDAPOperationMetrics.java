@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a type of operation, either on all the LDAP servers or on a single one. Latencies are recorded
+ * in microseconds by {@link #getLatency()} and reported in milliseconds by the JMX attributes.
+ */
+public class LDAPOperationMetrics implements LDAPOperationMetricsMBean
+{
+    private final String operation;
+    private final String server;
+    private final LDAPHistogram latency = new LDAPHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong entriesReturned = new AtomicLong();
+
+    /**
+     * @param operation Name of the operation, such as {@link LDAPMetrics#SEARCH}.
+     * @param server URL of the LDAP server or null for all of them.
+     */
+    public LDAPOperationMetrics(String operation, String server)
+    {
+        this.operation = operation;
+        this.server = server;
+    }
+
+    void record(long latencyMicros, boolean failed)
+    {
+        latency.record(latencyMicros);
+        if (failed)
+        {
+            errors.incrementAndGet();
+        }
+    }
+
+    void recordEntries(long entries)
+    {
+        entriesReturned.addAndGet(entries);
+    }
+
+    @Override
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    @Override
+    public String getServer()
+    {
+        return server;
+    }
+
+    /**
+     * @return Latencies of the operations in microseconds, including the failed ones.
+     */
+    public LDAPHistogram getLatency()
+    {
+        return latency;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    @Override
+    public long getEntriesReturned()
+    {
+        return entriesReturned.get();
+    }
+
+    @Override
+    public double getMeanLatency()
+    {
+        return latency.getMean() / 1000d;
+    }
+
+    @Override
+    public double getMinLatency()
+    {
+        return toMillis(latency.getMin());
+    }
+
+    @Override
+    public double getMaxLatency()
+    {
+        return toMillis(latency.getMax());
+    }
+
+    @Override
+    public double getMedianLatency()
+    {
+        return toMillis(latency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double get95thPercentileLatency()
+    {
+        return toMillis(latency.getValueAtPercentile(95));
+    }
+
+    @Override
+    public double get99thPercentileLatency()
+    {
+        return toMillis(latency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double get999thPercentileLatency()
+    {
+        return toMillis(latency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public void reset()
+    {
+        latency.reset();
+        errors.set(0L);
+        entriesReturned.set(0L);
+    }
+
+    private static double toMillis(long micros)
+    {
+        return micros / 1000d;
+    }
+
+    @Override
+    public String toString()
+    {
+        return operation + (server != null ? "@" + server : "") + ": count=" + getCount() + ", errors=" + getErrors() + ", entries=" + getEntriesReturned() + ", mean="
+               + String.format("%.3f", getMeanLatency()) + " ms, p50=" + getMedianLatency() + " ms, p99=" + get99thPercentileLatency() + " ms, max=" + getMaxLatency() + " ms";
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * JMX view of the metrics of a type of operation. Latencies are in milliseconds.
+ */
+public interface LDAPOperationMetricsMBean
+{
+    String getOperation();
+
+    String getServer();
+
+    long getCount();
+
+    long getErrors();
+
+    long getEntriesReturned();
+
+    double getMeanLatency();
+
+    double getMinLatency();
+
+    double getMaxLatency();
+
+    double getMedianLatency();
+
+    double get95thPercentileLatency();
+
+    double get99thPercentileLatency();
+
+    double get999thPercentileLatency();
+
+    void reset();
+}
@@ -0,0 +1,506 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Subtree search split into one subtree search for each entry right under the base DN (plus a search of
+ * the base entry itself), keeping up to <i>parallelism</i> of them running at the same time on different
+ * connections of the {@link LDAPConnection} pool (see {@link LDAPConnection#getMaxConcurrentOperations()}).
+ * Large directories are usually spread across a few containers (for example one per country or organizational
+ * unit), so this reads them in a fraction of the time of a single search.
+ * <p/>
+ * The results of all the searches are merged into one {@link LDAPResultSet} as they arrive, holding at most
+ * {@link #ENTRIES_PER_WORKER} entries per search in memory, so they are returned in no particular order. If
+ * the controls define an order, then all the results are read and sorted with {@link LDAPEntrySorter} before
+ * the first one is returned. The offset and the max results apply to the merged results.
+ * <p/>
+ * If the search cannot be split (the connection supports a single operation at a time or the base entry
+ * has no children), then it is done as a single search.
+ */
+public class LDAPParallelSearch
+{
+    /**
+     * Amount of entries each search reads ahead of the consumer of the results.
+     */
+    public final static int ENTRIES_PER_WORKER = 100;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final AtomicInteger SEARCH_COUNT = new AtomicInteger();
+    private static final String ALL_ENTRIES_FILTER = "(objectClass=*)";
+    // RFC 4511: a list with only "1.1" requests no attributes
+    private static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+    private static final long POLL_INTERVAL = 100;
+    // Put in the queue by the last worker to finish
+    private static final LDAPEntry END = new LDAPEntry("");
+
+    private final LDAPConnection connection;
+    private final int parallelism;
+    private final int sortMaxInMemoryEntries;
+
+    /**
+     * @param connection Connection used to run the searches.
+     * @param parallelism Maximum amount of concurrent searches. It is further limited by the amount of
+     *                    concurrent operations the connection supports.
+     * @param sortMaxInMemoryEntries Maximum amount of entries held in memory when sorting the results.
+     */
+    public LDAPParallelSearch(LDAPConnection connection, int parallelism, int sortMaxInMemoryEntries)
+    {
+        this.connection = connection;
+        this.parallelism = parallelism;
+        this.sortMaxInMemoryEntries = sortMaxInMemoryEntries;
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param filterArgs Arguments of the filter or null if the filter has none.
+     * @param controls Controls of the search. The scope is always {@link LDAPSearchControls#SUBTREE_SCOPE}.
+     * @return The merged results of all the searches.
+     * @throws LDAPException If the children of the base DN could not be read or, when the results are ordered,
+     *         if any of the searches failed.
+     */
+    public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        int maxWorkers = Math.min(parallelism, connection.getMaxConcurrentOperations());
+        List<String> children = maxWorkers > 1 ? findChildren(baseDn, controls) : new ArrayList<String>(0);
+        int workers = Math.min(maxWorkers, children.size() + 1);
+
+        if (workers <= 1 || children.isEmpty())
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Search under " + baseDn + " cannot be split. Searching with a single connection.");
+            }
+            LDAPSearchControls singleControls = new LDAPSearchControls(controls);
+            singleControls.setParallelism(0);
+            return search(baseDn, filter, filterArgs, singleControls, false);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Splitting search under " + baseDn + " into " + (children.size() + 1) + " searches with " + workers + " concurrent searches");
+        }
+
+        List<SearchTask> tasks = new ArrayList<SearchTask>(children.size() + 1);
+        tasks.add(new SearchTask(baseDn, buildControls(controls, LDAPSearchControls.OBJECT_SCOPE), false));
+        LDAPSearchControls subtreeControls = buildControls(controls, LDAPSearchControls.SUBTREE_SCOPE);
+        for (String child : children)
+        {
+            // Children deleted after being listed are ignored
+            tasks.add(new SearchTask(child, subtreeControls, true));
+        }
+
+        LDAPResultSet result = new MergeResultSet(tasks, filter, filterArgs, workers);
+        try
+        {
+            if (controls.isOrderBySet())
+            {
+                result = sort(result, controls.getSortKeys());
+            }
+            for (int skipped = 0; skipped < controls.getOffset() && result.hasNext(); skipped++)
+            {
+                result.next();
+            }
+        }
+        catch (LDAPException ex)
+        {
+            result.close();
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            result.close();
+            throw ex;
+        }
+        return controls.getMaxResults() > 0 ? new LimitedResultSet(result, controls.getMaxResults()) : result;
+    }
+
+    private List<String> findChildren(String baseDn, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPSearchControls childrenControls = new LDAPSearchControls();
+        childrenControls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        childrenControls.setAttributesToReturn(NO_ATTRIBUTES);
+        childrenControls.setTimeout(controls.getTimeout());
+        childrenControls.setPageSize(controls.getPageSize());
+
+        List<String> children = new ArrayList<String>();
+        LDAPResultSet result = connection.search(baseDn, ALL_ENTRIES_FILTER, childrenControls);
+        try
+        {
+            while (result.hasNext())
+            {
+                children.add(result.next().getDn());
+            }
+        }
+        finally
+        {
+            result.close();
+        }
+        return children;
+    }
+
+    private LDAPSearchControls buildControls(LDAPSearchControls controls, int scope)
+    {
+        LDAPSearchControls searchControls = new LDAPSearchControls(controls);
+        searchControls.setScope(scope);
+        searchControls.setParallelism(0);
+        searchControls.setOffset(0);
+        searchControls.setVirtualListView(false);
+        if (controls.getMaxResults() > 0)
+        {
+            // The offset is skipped once the results are merged
+            searchControls.setMaxResults(controls.getMaxResults() + controls.getOffset());
+        }
+        else
+        {
+            // Results are sorted once merged. If there is a limit, each search must return its first entries in order.
+            searchControls.setOrderBy(null);
+        }
+        return searchControls;
+    }
+
+    private LDAPResultSet sort(LDAPResultSet result, List<LDAPSortKey> sortKeys) throws LDAPException
+    {
+        LDAPEntrySorter sorter = new LDAPEntrySorter(new LDAPEntryComparator(sortKeys), sortMaxInMemoryEntries);
+        try
+        {
+            while (result.hasNext())
+            {
+                sorter.add(result.next());
+            }
+            result.close();
+            return sorter.sort();
+        }
+        catch (LDAPException ex)
+        {
+            sorter.discard();
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            sorter.discard();
+            throw ex;
+        }
+    }
+
+    private LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, boolean ignoreMissingBaseDn) throws LDAPException
+    {
+        try
+        {
+            if (filterArgs != null && filterArgs.length > 0)
+            {
+                return connection.search(baseDn, filter, filterArgs, controls);
+            }
+            return connection.search(baseDn, filter, controls);
+        }
+        catch (NameNotFoundException ex)
+        {
+            if (!ignoreMissingBaseDn)
+            {
+                throw ex;
+            }
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Entry " + baseDn + " was deleted during the search. Ignoring it.");
+            }
+            return null;
+        }
+    }
+
+    private static void closeQuietly(LDAPResultSet result, Log logger)
+    {
+        if (result != null)
+        {
+            try
+            {
+                result.close();
+            }
+            catch (LDAPException ex)
+            {
+                logger.debug("Could not close search result", ex);
+            }
+        }
+    }
+
+    /**
+     * Search of one of the entries under the base DN.
+     */
+    private static class SearchTask
+    {
+        final String baseDn;
+        final LDAPSearchControls controls;
+        final boolean ignoreMissingBaseDn;
+
+        SearchTask(String baseDn, LDAPSearchControls controls, boolean ignoreMissingBaseDn)
+        {
+            this.baseDn = baseDn;
+            this.controls = controls;
+            this.ignoreMissingBaseDn = ignoreMissingBaseDn;
+        }
+    }
+
+    /**
+     * Result set fed by the workers. Each worker takes the next pending search and puts its entries in a
+     * bounded queue until there are no more searches, the result set is closed or any of the searches fails.
+     * The last worker to finish puts {@link #END} in the queue.
+     */
+    private class MergeResultSet implements LDAPResultSet, Runnable
+    {
+        private final List<SearchTask> tasks;
+        private final String filter;
+        private final Object[] filterArgs;
+        private final AtomicInteger nextTask = new AtomicInteger();
+        private final AtomicInteger runningWorkers;
+        private final BlockingQueue<LDAPEntry> queue;
+        private final ExecutorService executor;
+        private volatile LDAPException failure = null;
+        private volatile boolean closed = false;
+        private boolean finished = false;
+        private LDAPEntry nextEntry = null;
+
+        MergeResultSet(List<SearchTask> tasks, String filter, Object[] filterArgs, int workers)
+        {
+            this.tasks = tasks;
+            this.filter = filter;
+            this.filterArgs = filterArgs;
+            this.runningWorkers = new AtomicInteger(workers);
+            this.queue = new ArrayBlockingQueue<LDAPEntry>(workers * ENTRIES_PER_WORKER);
+
+            final String threadName = "ldap-search-" + SEARCH_COUNT.incrementAndGet() + "-";
+            this.executor = Executors.newFixedThreadPool(workers, new ThreadFactory()
+            {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, threadName + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            for (int i = 0; i < workers; i++)
+            {
+                executor.submit(this);
+            }
+            // Threads end once every worker is done
+            executor.shutdown();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                int index;
+                while (failure == null && !closed && (index = nextTask.getAndIncrement()) < tasks.size())
+                {
+                    execute(tasks.get(index));
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                // The result set was closed
+            }
+            catch (LDAPException ex)
+            {
+                fail(ex);
+            }
+            catch (RuntimeException ex)
+            {
+                fail(new LDAPException("Search failed: " + ex.getMessage(), ex));
+            }
+            finally
+            {
+                if (runningWorkers.decrementAndGet() == 0)
+                {
+                    try
+                    {
+                        put(END);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        // The result set was closed
+                    }
+                }
+            }
+        }
+
+        private void execute(SearchTask task) throws LDAPException, InterruptedException
+        {
+            LDAPResultSet result = search(task.baseDn, filter, filterArgs, task.controls, task.ignoreMissingBaseDn);
+            try
+            {
+                while (result != null && failure == null && !closed && result.hasNext())
+                {
+                    put(result.next());
+                }
+            }
+            finally
+            {
+                closeQuietly(result, logger);
+            }
+        }
+
+        private void put(LDAPEntry entry) throws InterruptedException
+        {
+            // Waits for the consumer to take some entries, unless it closed the result set
+            while (!closed)
+            {
+                if (queue.offer(entry, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+                {
+                    return;
+                }
+            }
+        }
+
+        private void fail(LDAPException ex)
+        {
+            if (failure == null)
+            {
+                failure = ex;
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            if (nextEntry != null)
+            {
+                return true;
+            }
+            if (!finished)
+            {
+                try
+                {
+                    LDAPEntry entry = failure == null ? queue.take() : END;
+                    if (entry == END)
+                    {
+                        finished = true;
+                    }
+                    else
+                    {
+                        nextEntry = entry;
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new LDAPException("Search interrupted", ex);
+                }
+            }
+            if (failure != null)
+            {
+                LDAPException cause = failure;
+                close();
+                throw cause;
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            LDAPEntry entry = nextEntry;
+            nextEntry = null;
+            return entry;
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+            while (hasNext())
+            {
+                allEntries.add(next());
+            }
+            return allEntries;
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            closed = true;
+            finished = true;
+            nextEntry = null;
+            executor.shutdownNow();
+            queue.clear();
+        }
+    }
+
+    /**
+     * Returns at most <i>maxResults</i> entries of another result set.
+     */
+    private static class LimitedResultSet implements LDAPResultSet
+    {
+        private final LDAPResultSet delegate;
+        private final long maxResults;
+        private long count = 0;
+
+        LimitedResultSet(LDAPResultSet delegate, long maxResults)
+        {
+            this.delegate = delegate;
+            this.maxResults = maxResults;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            return count < maxResults && delegate.hasNext();
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            count++;
+            return delegate.next();
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+            while (hasNext())
+            {
+                allEntries.add(next());
+            }
+            return allEntries;
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            delegate.close();
+        }
+    }
+}
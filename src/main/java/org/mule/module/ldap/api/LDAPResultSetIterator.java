@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link Iterator} over the entries of a {@link LDAPResultSet}. Entries are read from the result set only when requested,
+ * so at most one page of results (if paging is enabled) is held in memory regardless of the size of the search result.
+ * <p/>
+ * The underlying result set is closed as soon as the last entry is consumed or an error occurs. If the iteration is
+ * abandoned before reaching the end, {@link #close()} should be called to release the connection held by the result set.
+ * As a last resort the result set is also closed when this iterator is garbage collected.
+ * <p/>
+ * Since {@link Iterator} methods cannot throw checked exceptions, any {@link LDAPException} thrown while reading
+ * the result set is wrapped in an {@link IllegalStateException}.
+ */
+public class LDAPResultSetIterator implements Iterator<LDAPEntry>
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private LDAPResultSet resultSet;
+    private LDAPEntry nextEntry = null;
+
+    public LDAPResultSetIterator(LDAPResultSet resultSet)
+    {
+        this.resultSet = resultSet;
+    }
+
+    @Override
+    public synchronized boolean hasNext()
+    {
+        if (nextEntry != null)
+        {
+            return true;
+        }
+        if (resultSet == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            if (resultSet.hasNext())
+            {
+                nextEntry = resultSet.next();
+                return true;
+            }
+            else
+            {
+                close();
+                return false;
+            }
+        }
+        catch (LDAPException ex)
+        {
+            silentClose();
+            throw new IllegalStateException("Error reading LDAP search results: " + ex.getMessage(), ex);
+        }
+        catch (RuntimeException ex)
+        {
+            silentClose();
+            throw ex;
+        }
+    }
+
+    @Override
+    public synchronized LDAPEntry next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        LDAPEntry entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+
+    /**
+     * LDAP search results are read only.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("LDAP search results cannot be removed from the iterator");
+    }
+
+    /**
+     * Closes the underlying result set. Further calls to {@link #hasNext()} return false.
+     *
+     * @throws LDAPException If the result set could not be closed.
+     */
+    public synchronized void close() throws LDAPException
+    {
+        if (resultSet != null)
+        {
+            LDAPResultSet toClose = resultSet;
+            resultSet = null;
+            nextEntry = null;
+            toClose.close();
+        }
+    }
+
+    /**
+     * @return true if the underlying result set has already been closed.
+     */
+    public synchronized boolean isClosed()
+    {
+        return resultSet == null;
+    }
+
+    private void silentClose()
+    {
+        try
+        {
+            close();
+        }
+        catch (LDAPException ex)
+        {
+            logger.debug("Error closing LDAP result set. Ignoring it.", ex);
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable
+    {
+        try
+        {
+            if (resultSet != null)
+            {
+                logger.warn("LDAP search results iterator was abandoned before reaching the end. Closing it.");
+                silentClose();
+            }
+        }
+        finally
+        {
+            super.finalize();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of the results of searches, keyed by the normalized base DN, filter, scope, returned
+ * attributes, limits and sort order. Results expire <i>ttl</i> milliseconds after being cached and,
+ * once they take more than <i>maxBytes</i> (estimated) bytes, the least recently used ones are evicted.
+ * <p/>
+ * When an entry is written, every cached search whose base DN is the entry itself, one of its ancestors
+ * or one of its descendants is invalidated with {@link #invalidate(String)}. Searches that were running
+ * while an entry was written are not cached: get the {@link #getGeneration() generation} before running
+ * the search and pass it to {@link #put(String, String, LDAPSearchControls, List, long)}.
+ * <p/>
+ * Changes made by other clients of the LDAP server are not seen until the cached results expire.
+ */
+public class LDAPSearchCache
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final int QUERY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private final long ttl;
+
+    private final LinkedHashMap<Key, CachedResult> results = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxBytes Maximum estimated size in bytes of the cached results. Must be greater than 0.
+     * @param ttl Milliseconds a result stays in the cache. 0 means results only leave the cache when evicted or invalidated.
+     */
+    public LDAPSearchCache(long maxBytes, long ttl)
+    {
+        if (maxBytes <= 0)
+        {
+            throw new IllegalArgumentException("Max bytes must be greater than 0");
+        }
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @return Copies of the cached entries or null if the search is not cached or it expired. If the controls
+     *         request {@link LDAPSearchControls#COMPACT_ENTRIES compact entries}, then they share the attributes
+     *         of the cached entries instead of copying them.
+     */
+    public List<LDAPEntry> get(String baseDn, String filter, LDAPSearchControls controls)
+    {
+        Key key = new Key(baseDn, filter, controls);
+        List<LDAPEntry> entries;
+        synchronized (this)
+        {
+            CachedResult cached = results.get(key);
+            if (cached != null && cached.isExpired(System.currentTimeMillis()))
+            {
+                remove(key);
+                cached = null;
+            }
+
+            if (cached == null)
+            {
+                misses++;
+                return null;
+            }
+            hits++;
+            entries = cached.entries;
+        }
+
+        // Cached entries are never modified, so they can be copied outside the lock
+        boolean compact = controls.getEntryFormat() == LDAPSearchControls.COMPACT_ENTRIES;
+        List<LDAPEntry> copies = new ArrayList<LDAPEntry>(entries.size());
+        for (LDAPEntry entry : entries)
+        {
+            copies.add(compact ? CompactLDAPEntry.compact(entry) : LDAPEntryCache.copy(entry));
+        }
+        return copies;
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @param entries All the entries returned by the search.
+     * @param generation The {@link #getGeneration() generation} of the cache when the search started.
+     */
+    public void put(String baseDn, String filter, LDAPSearchControls controls, List<LDAPEntry> entries, long generation)
+    {
+        Key key = new Key(baseDn, filter, controls);
+        long size = QUERY_OVERHEAD;
+        List<LDAPEntry> copies = new ArrayList<LDAPEntry>(entries.size());
+        for (LDAPEntry entry : entries)
+        {
+            CompactLDAPEntry compactEntry = CompactLDAPEntry.compact(entry);
+            size += LDAPEntryCache.estimateSize(compactEntry);
+            if (size > maxBytes)
+            {
+                // It would evict everything else and still not fit
+                return;
+            }
+            copies.add(compactEntry);
+        }
+
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Not caching search of " + filter + " under " + baseDn + " as entries were written while it was running");
+                }
+                return;
+            }
+            remove(key);
+            results.put(key, new CachedResult(copies, size, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE));
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes the cached searches that may include, or be affected by, the written entry.
+     *
+     * @param dn DN of the entry that was added, changed, deleted or renamed.
+     */
+    public synchronized void invalidate(String dn)
+    {
+        generation++;
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        for (Iterator<Map.Entry<Key, CachedResult>> it = results.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Key, CachedResult> cached = it.next();
+            String baseDn = cached.getKey().baseDn;
+            if (isAncestorOrSelf(baseDn, normalized) || isAncestorOrSelf(normalized, baseDn))
+            {
+                it.remove();
+                bytes -= cached.getValue().size;
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        results.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return A counter that changes whenever cached searches are invalidated.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return results.size();
+    }
+
+    /**
+     * @return The estimated size in bytes of the cached results.
+     */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<Key, CachedResult>> it = results.entrySet().iterator();
+        while (it.hasNext() && bytes > maxBytes)
+        {
+            // Least recently used first
+            Map.Entry<Key, CachedResult> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue().size;
+        }
+    }
+
+    private void remove(Key key)
+    {
+        CachedResult removed = results.remove(key);
+        if (removed != null)
+        {
+            bytes -= removed.size;
+        }
+    }
+
+    private static boolean isAncestorOrSelf(String ancestor, String dn)
+    {
+        // The root DSE is everybody's ancestor
+        return ancestor.length() == 0 || dn.equals(ancestor) || dn.endsWith("," + ancestor);
+    }
+
+    /**
+     * @param filter A LDAP filter.
+     * @return The filter enclosed in parentheses, without the spaces around its components and with
+     *         attribute descriptions in lower case. Assertion values are not changed, as whether they
+     *         are case sensitive depends on the matching rule of each attribute.
+     */
+    public static String normalizeFilter(String filter)
+    {
+        if (filter == null)
+        {
+            return "";
+        }
+        String trimmed = filter.trim();
+        if (!trimmed.startsWith("("))
+        {
+            trimmed = "(" + trimmed + ")";
+        }
+
+        StringBuilder normalized = new StringBuilder(trimmed.length());
+        boolean inValue = false;
+        boolean inDescription = false;
+        for (int i = 0; i < trimmed.length(); i++)
+        {
+            char c = trimmed.charAt(i);
+            if (inValue)
+            {
+                // Parentheses in values are escaped (\28 and \29), so a ')' always ends the value
+                if (c == ')')
+                {
+                    inValue = false;
+                }
+                normalized.append(c);
+            }
+            else if (c == '(')
+            {
+                normalized.append(c);
+                inDescription = true;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                // Not significant outside values
+            }
+            else if (c == '&' || c == '|' || c == '!' || c == ')')
+            {
+                normalized.append(c);
+                inDescription = false;
+            }
+            else if (c == '=')
+            {
+                normalized.append(c);
+                inDescription = false;
+                inValue = true;
+            }
+            else
+            {
+                normalized.append(inDescription ? Character.toLowerCase(c) : c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static class Key
+    {
+        private final String baseDn;
+        private final String query;
+
+        Key(String baseDn, String filter, LDAPSearchControls controls)
+        {
+            this.baseDn = LDAPEntryCache.normalizeDn(baseDn);
+            this.query = normalizeFilter(filter) + '\u0000' + controls.getScope() + '\u0000' + LDAPEntryCache.normalizeAttributes(controls.getAttributesToReturn()) + '\u0000'
+                         + controls.getMaxResults() + '\u0000' + controls.isReturnObject() + '\u0000' + controls.getOffset() + '\u0000'
+                         + (controls.getOrderBy() != null ? controls.getOrderBy().trim().toLowerCase(Locale.ENGLISH) : "");
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return baseDn.equals(other.baseDn) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * baseDn.hashCode() + query.hashCode();
+        }
+    }
+
+    private static class CachedResult
+    {
+        private final List<LDAPEntry> entries;
+        private final long size;
+        private final long expiresAt;
+
+        CachedResult(List<LDAPEntry> entries, long size, long expiresAt)
+        {
+            this.entries = entries;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now)
+        {
+            return now >= expiresAt;
+        }
+    }
+}
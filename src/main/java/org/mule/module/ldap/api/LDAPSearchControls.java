@@ -18,6 +18,7 @@
 package org.mule.module.ldap.api;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * This class is the abstraction
@@ -35,6 +36,10 @@ public class LDAPSearchControls implements Serializable
     public final static int ONELEVEL_SCOPE = 1;
     public final static int SUBTREE_SCOPE = 2;
 
+    public final static int STANDARD_ENTRIES = 0;
+    public final static int COMPACT_ENTRIES = 1;
+    public final static int LAZY_ENTRIES = 2;
+
     private int scope = ONELEVEL_SCOPE;
 
     /**
@@ -63,9 +68,29 @@ public class LDAPSearchControls implements Serializable
     private int pageSize = 0;
 
     /**
-     * Order by attribute name
+     * Comma separated list of sort keys (see {@link LDAPSortKey})
      */
     private String orderBy = null;
+
+    /**
+     * Amount of entries to skip from the beginning of the results (0 means none)
+     */
+    private int offset = 0;
+
+    /**
+     * Whether the offset should be resolved by the LDAP server using the virtual list view control
+     */
+    private boolean virtualListView = false;
+
+    /**
+     * How the returned entries hold their attributes (STANDARD_ENTRIES, COMPACT_ENTRIES or LAZY_ENTRIES)
+     */
+    private int entryFormat = STANDARD_ENTRIES;
+
+    /**
+     * Maximum amount of concurrent searches a subtree search is split into (0 or 1 means it is not split)
+     */
+    private int parallelism = 0;
     
     /**
 	 * 
@@ -75,6 +100,25 @@ public class LDAPSearchControls implements Serializable
         super();
     }
 
+    /**
+     * @param controls Controls to copy.
+     */
+    public LDAPSearchControls(LDAPSearchControls controls)
+    {
+        super();
+        this.scope = controls.scope;
+        this.timeout = controls.timeout;
+        this.maxResults = controls.maxResults;
+        this.attributesToReturn = controls.attributesToReturn;
+        this.returnObject = controls.returnObject;
+        this.pageSize = controls.pageSize;
+        this.orderBy = controls.orderBy;
+        this.offset = controls.offset;
+        this.virtualListView = controls.virtualListView;
+        this.entryFormat = controls.entryFormat;
+        this.parallelism = controls.parallelism;
+    }
+
     /**
      * @return Returns the attributesToReturn.
      */
@@ -206,6 +250,101 @@ public class LDAPSearchControls implements Serializable
      */
     public boolean isOrderBySet()
     {
-        return getOrderBy() != null;
+        return getOrderBy() != null && getOrderBy().trim().length() > 0;
+    }
+    
+    /**
+     * 
+     * @return The sort keys defined by the order by expression.
+     */
+    public List<LDAPSortKey> getSortKeys()
+    {
+        return LDAPSortKey.parse(getOrderBy());
+    }
+
+    /**
+     * 
+     * @return The amount of entries to skip from the beginning of the results.
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * 
+     * @param offset
+     */
+    public void setOffset(int offset)
+    {
+        this.offset = offset;
+    }
+
+    /**
+     * 
+     * @return Whether the search should request the results by offset using the virtual list view control. The
+     *         virtual list view control requires an order so it is only used if {@link #isOrderBySet()}.
+     */
+    public boolean isVirtualListView()
+    {
+        return virtualListView;
+    }
+
+    /**
+     * 
+     * @param virtualListView
+     */
+    public void setVirtualListView(boolean virtualListView)
+    {
+        this.virtualListView = virtualListView;
+    }
+
+    /**
+     * 
+     * @return {@link #COMPACT_ENTRIES} if the search should return read only {@link CompactLDAPEntry} entries,
+     *         {@link #LAZY_ENTRIES} if it should return entries that convert their attributes when they are read
+     *         or {@link #STANDARD_ENTRIES} (the default) if it should return {@link LDAPEntry} entries.
+     */
+    public int getEntryFormat()
+    {
+        return entryFormat;
+    }
+
+    /**
+     * 
+     * @param entryFormat
+     */
+    public void setEntryFormat(int entryFormat)
+    {
+        this.entryFormat = entryFormat;
+    }
+
+    /**
+     * 
+     * @return Maximum amount of concurrent searches a {@link #SUBTREE_SCOPE} search is split into, one for each
+     *         entry right under the base DN (see {@link LDAPParallelSearch}). If it is less than 2, then the
+     *         search is not split.
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * 
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 
+     * @return Whether a {@link #SUBTREE_SCOPE} search should be split into concurrent searches.
+     */
+    public boolean isParallel()
+    {
+        return scope == SUBTREE_SCOPE && parallelism > 1;
     }
 }
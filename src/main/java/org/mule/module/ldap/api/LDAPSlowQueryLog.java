@@ -0,0 +1,637 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Log of the searches that wait for the LDAP server longer than <i>threshold</i> milliseconds. Each slow search
+ * is logged with WARN level with its base DN, scope, filter fingerprint, requested attributes, entries returned
+ * and pages requested. The time of a search is the time waiting for the LDAP server: sending the search and
+ * reading its entries, including the next pages, but not the time the caller spends processing them. A search
+ * is recorded once all its entries are read, it is closed or it fails.
+ * <p/>
+ * The {@link #fingerprint(String) fingerprint} of a filter replaces its values with placeholders, so that all the
+ * searches that need the same indexes are grouped together no matter the values they look for. The slow
+ * searches are aggregated by fingerprint, and the <i>topFingerprints</i> with the highest total time are
+ * published with JMX while the connection is binded and logged with INFO level when it is closed. Filter values
+ * are never logged, as they may hold personal data.
+ * <p/>
+ * Connections use {@link #DISABLED} unless a threshold is set. Its searches are a shared instance that records
+ * nothing, and result sets are not wrapped.
+ */
+public class LDAPSlowQueryLog implements LDAPSlowQueryLogMBean
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    /**
+     * Slow query log of the connections without threshold. It records nothing.
+     */
+    public static final LDAPSlowQueryLog DISABLED = new LDAPSlowQueryLog();
+
+    /**
+     * Most fingerprints that are aggregated. Once reached, the fingerprint with the lowest total time is
+     * forgotten to make room for a new one.
+     */
+    public static final int MAX_FINGERPRINTS = 1000;
+
+    private static final String[] SCOPES = {"object", "onelevel", "subtree"};
+
+    private static final Comparator<Fingerprint> BY_TOTAL_TIME = new Comparator<Fingerprint>()
+    {
+        @Override
+        public int compare(Fingerprint fingerprint1, Fingerprint fingerprint2)
+        {
+            long total1 = fingerprint1.totalMicros.get();
+            long total2 = fingerprint2.totalMicros.get();
+            return total1 > total2 ? -1 : (total1 < total2 ? 1 : 0);
+        }
+    };
+
+    private final LDAPConnection connection;
+    private final long threshold;
+    private final long thresholdNanos;
+    private final int topFingerprints;
+    private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+    private final AtomicLong slowSearches = new AtomicLong();
+
+    // Guarded by this
+    private ObjectName objectName = null;
+
+    private LDAPSlowQueryLog()
+    {
+        this.connection = null;
+        this.threshold = 0L;
+        this.thresholdNanos = Long.MAX_VALUE;
+        this.topFingerprints = 0;
+    }
+
+    /**
+     * @param connection Connection whose searches are recorded.
+     * @param threshold Milliseconds a search must wait for the LDAP server to be logged. Must be greater than 0.
+     * @param topFingerprints Amount of fingerprints with the highest total time that are published.
+     */
+    public LDAPSlowQueryLog(LDAPConnection connection, long threshold, int topFingerprints)
+    {
+        if (connection == null)
+        {
+            throw new IllegalArgumentException("Connection cannot be null");
+        }
+        if (threshold <= 0)
+        {
+            throw new IllegalArgumentException("Threshold must be greater than 0");
+        }
+        if (topFingerprints <= 0)
+        {
+            throw new IllegalArgumentException("Top fingerprints must be greater than 0");
+        }
+        this.connection = connection;
+        this.threshold = threshold;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        this.topFingerprints = topFingerprints;
+    }
+
+    public boolean isEnabled()
+    {
+        return connection != null;
+    }
+
+    /**
+     * Starts timing a search, right before it is sent to the LDAP server.
+     *
+     * @return {@link Search#NONE} if the log is disabled.
+     */
+    public Search start(String baseDn, String filter, LDAPSearchControls controls)
+    {
+        return connection != null ? new Search(this, baseDn, filter, controls, System.nanoTime()) : Search.NONE;
+    }
+
+    @Override
+    public long getThreshold()
+    {
+        return threshold;
+    }
+
+    @Override
+    public long getSlowSearches()
+    {
+        return slowSearches.get();
+    }
+
+    /**
+     * @return The <i>topFingerprints</i> fingerprints of the slow searches with the highest total time, slowest
+     *         first.
+     */
+    public List<Fingerprint> getFingerprints()
+    {
+        List<Fingerprint> sorted = new ArrayList<Fingerprint>(fingerprints.values());
+        Collections.sort(sorted, BY_TOTAL_TIME);
+        return sorted.size() > topFingerprints ? new ArrayList<Fingerprint>(sorted.subList(0, topFingerprints)) : sorted;
+    }
+
+    @Override
+    public String[] getTopFingerprints()
+    {
+        List<Fingerprint> top = getFingerprints();
+        String[] descriptions = new String[top.size()];
+        for (int i = 0; i < descriptions.length; i++)
+        {
+            descriptions[i] = top.get(i).toString();
+        }
+        return descriptions;
+    }
+
+    @Override
+    public void reset()
+    {
+        fingerprints.clear();
+        slowSearches.set(0L);
+    }
+
+    /**
+     * Publishes the top fingerprints with JMX. Does nothing if the log is disabled or already registered.
+     */
+    public synchronized void register()
+    {
+        if (connection == null || objectName != null)
+        {
+            return;
+        }
+        try
+        {
+            objectName = new ObjectName(LDAPMetrics.JMX_DOMAIN + ":type=SlowQueryLog,connection=" + ObjectName.quote(LDAPMetrics.getConnectionName(connection)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        }
+        catch (JMException ex)
+        {
+            logger.warn("Could not register LDAP slow query log of " + LDAPMetrics.getConnectionName(connection) + " with JMX. It will not be published.", ex);
+        }
+    }
+
+    /**
+     * Removes the MBean and logs the top fingerprints.
+     */
+    public synchronized void unregister()
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if (server.isRegistered(objectName))
+            {
+                server.unregisterMBean(objectName);
+            }
+        }
+        catch (JMException ex)
+        {
+            logger.debug("Error unregistering LDAP slow query log of " + LDAPMetrics.getConnectionName(connection) + ". Ignoring it.", ex);
+        }
+        objectName = null;
+
+        if (slowSearches.get() > 0 && logger.isInfoEnabled())
+        {
+            StringBuilder report = new StringBuilder("Slowest LDAP search filters of ").append(LDAPMetrics.getConnectionName(connection)).append(" (");
+            report.append(slowSearches.get()).append(" searches over ").append(threshold).append(" ms):");
+            for (Fingerprint fingerprint : getFingerprints())
+            {
+                report.append("\n  ").append(fingerprint);
+            }
+            logger.info(report);
+        }
+    }
+
+    public synchronized boolean isRegistered()
+    {
+        return objectName != null;
+    }
+
+    /**
+     * Replaces the values of a filter with <i>?</i>, keeping its structure, attribute names and the position of
+     * the wildcards of substring assertions. For example, <i>(&amp;(objectClass=person)(|(cn=John*)(mail=*@example.com)))</i>
+     * becomes <i>(&amp;(objectclass=?)(|(cn=?*)(mail=*?)))</i>. Presence assertions (<i>attr=*</i>) are kept as
+     * they are, and <i>{0}</i> style arguments are values like any other. Attribute names are lower cased and
+     * spaces between the components of the filter are removed.
+     *
+     * @return The fingerprint, or null if the filter is null.
+     */
+    public static String fingerprint(String filter)
+    {
+        if (filter == null)
+        {
+            return null;
+        }
+        String trimmed = filter.trim();
+        StringBuilder fingerprint = new StringBuilder(trimmed.length());
+        int i = 0;
+        while (i < trimmed.length())
+        {
+            char c = trimmed.charAt(i);
+            if (c == '(' || c == ')' || c == '&' || c == '|' || c == '!')
+            {
+                fingerprint.append(c);
+                i++;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                i++;
+            }
+            else
+            {
+                // Parentheses in values are escaped, so the assertion ends with the next one
+                int end = trimmed.indexOf(')', i);
+                if (end < 0)
+                {
+                    end = trimmed.length();
+                }
+                appendAssertion(fingerprint, trimmed.substring(i, end));
+                i = end;
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    private static void appendAssertion(StringBuilder fingerprint, String assertion)
+    {
+        int equals = assertion.indexOf('=');
+        if (equals < 0)
+        {
+            fingerprint.append('?');
+            return;
+        }
+        int operator = equals > 0 && "~<>:".indexOf(assertion.charAt(equals - 1)) >= 0 ? equals - 1 : equals;
+        fingerprint.append(assertion.substring(0, operator).trim().toLowerCase(Locale.ENGLISH));
+        fingerprint.append(assertion, operator, equals + 1);
+
+        String value = assertion.substring(equals + 1);
+        if (operator != equals || value.indexOf('*') < 0)
+        {
+            fingerprint.append('?');
+        }
+        else if (value.trim().equals("*"))
+        {
+            fingerprint.append('*');
+        }
+        else
+        {
+            // Substring assertion: initial, any and final parts
+            int first = value.indexOf('*');
+            int last = value.lastIndexOf('*');
+            if (first > 0)
+            {
+                fingerprint.append('?');
+            }
+            fingerprint.append('*');
+            if (last > first + 1)
+            {
+                fingerprint.append("?*");
+            }
+            if (last < value.length() - 1)
+            {
+                fingerprint.append('?');
+            }
+        }
+    }
+
+    private void record(Search search)
+    {
+        if (search.elapsedNanos < thresholdNanos)
+        {
+            return;
+        }
+        slowSearches.incrementAndGet();
+        String fingerprint = fingerprint(search.filter);
+        long micros = TimeUnit.NANOSECONDS.toMicros(search.elapsedNanos);
+        if (logger.isWarnEnabled())
+        {
+            StringBuilder message = new StringBuilder("Slow LDAP search waited ").append(String.format("%.3f", micros / 1000d)).append(" ms for the server: baseDn=");
+            message.append(search.baseDn).append(", scope=").append(search.getScope()).append(", filter=").append(fingerprint);
+            String[] attributes = search.controls.getAttributesToReturn();
+            message.append(", attributes=").append(attributes != null ? Arrays.toString(attributes) : "all");
+            message.append(", entries=").append(search.entries).append(", pages=").append(search.pages);
+            if (search.error != null)
+            {
+                message.append(", failed: ").append(search.error.getMessage());
+            }
+            logger.warn(message);
+        }
+
+        Fingerprint aggregated = fingerprints.get(fingerprint);
+        if (aggregated == null)
+        {
+            synchronized (fingerprints)
+            {
+                aggregated = fingerprints.get(fingerprint);
+                if (aggregated == null)
+                {
+                    if (fingerprints.size() >= MAX_FINGERPRINTS)
+                    {
+                        // The comparator sorts the slowest first, so its maximum has the lowest total time
+                        fingerprints.remove(Collections.max(fingerprints.values(), BY_TOTAL_TIME).fingerprint);
+                    }
+                    aggregated = new Fingerprint(fingerprint);
+                    fingerprints.put(fingerprint, aggregated);
+                }
+            }
+        }
+        aggregated.record(search, micros);
+    }
+
+    /**
+     * Slow searches with the same filter fingerprint. Times are reported in milliseconds.
+     */
+    public static final class Fingerprint
+    {
+        private final String fingerprint;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong pages = new AtomicLong();
+        private volatile String lastBaseDn = null;
+        private volatile String lastScope = null;
+
+        private Fingerprint(String fingerprint)
+        {
+            this.fingerprint = fingerprint;
+        }
+
+        private void record(Search search, long micros)
+        {
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long current;
+            while (micros > (current = maxMicros.get()) && !maxMicros.compareAndSet(current, micros))
+            {
+                // Another thread changed the maximum, so it is compared again
+            }
+            entries.addAndGet(search.entries);
+            pages.addAndGet(search.pages);
+            lastBaseDn = search.baseDn;
+            lastScope = search.getScope();
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        public double getTotalTime()
+        {
+            return totalMicros.get() / 1000d;
+        }
+
+        public double getMeanTime()
+        {
+            long currentCount = count.get();
+            return currentCount > 0 ? getTotalTime() / currentCount : 0d;
+        }
+
+        public double getMaxTime()
+        {
+            return maxMicros.get() / 1000d;
+        }
+
+        public long getEntriesReturned()
+        {
+            return entries.get();
+        }
+
+        public long getPages()
+        {
+            return pages.get();
+        }
+
+        /**
+         * @return Base DN of the last slow search with this fingerprint.
+         */
+        public String getLastBaseDn()
+        {
+            return lastBaseDn;
+        }
+
+        /**
+         * @return Scope of the last slow search with this fingerprint.
+         */
+        public String getLastScope()
+        {
+            return lastScope;
+        }
+
+        @Override
+        public String toString()
+        {
+            return fingerprint + ": count=" + getCount() + ", total=" + String.format("%.3f", getTotalTime()) + " ms, mean=" + String.format("%.3f", getMeanTime()) + " ms, max="
+                   + getMaxTime() + " ms, entries=" + getEntriesReturned() + ", pages=" + getPages() + ", last baseDn=" + lastBaseDn + ", scope=" + lastScope;
+        }
+    }
+
+    /**
+     * Timing of a single search, used by the thread that executes it and then by the one that reads its entries.
+     */
+    public static final class Search
+    {
+        /**
+         * Search of a disabled log. It records nothing.
+         */
+        public static final Search NONE = new Search(null, null, null, null, 0L);
+
+        private final LDAPSlowQueryLog log;
+        private final String baseDn;
+        private final String filter;
+        private final LDAPSearchControls controls;
+        private final long start;
+        private long elapsedNanos = 0L;
+        private long entries = 0L;
+        private int pages = 1;
+        private LDAPException error = null;
+        private boolean recorded = false;
+
+        private Search(LDAPSlowQueryLog log, String baseDn, String filter, LDAPSearchControls controls, long start)
+        {
+            this.log = log;
+            this.baseDn = baseDn;
+            this.filter = filter;
+            this.controls = controls;
+            this.start = start;
+        }
+
+        public boolean isRecording()
+        {
+            return log != null;
+        }
+
+        /**
+         * @param pages Pages requested to the LDAP server so far.
+         */
+        public void setPages(int pages)
+        {
+            this.pages = pages;
+        }
+
+        /**
+         * Records the search as failed, if it wasn't recorded yet.
+         *
+         * @return The given exception, so that it can be thrown.
+         */
+        public <E extends LDAPException> E failed(E ex)
+        {
+            if (log != null && !recorded)
+            {
+                elapsedNanos = System.nanoTime() - start;
+                error = ex;
+                finish();
+            }
+            return ex;
+        }
+
+        /**
+         * Ends the timing of the search request and keeps timing the reads of the entries.
+         *
+         * @return A result set that times the reads of the given one. The given result set itself if the log is
+         *         disabled.
+         */
+        public LDAPResultSet track(LDAPResultSet result)
+        {
+            if (log == null)
+            {
+                return result;
+            }
+            elapsedNanos = System.nanoTime() - start;
+            return new TimedResultSet(result, this);
+        }
+
+        private String getScope()
+        {
+            int scope = controls.getScope();
+            return scope >= 0 && scope < SCOPES.length ? SCOPES[scope] : String.valueOf(scope);
+        }
+
+        private void finish()
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                log.record(this);
+            }
+        }
+    }
+
+    private static final class TimedResultSet implements LDAPResultSet
+    {
+        private final LDAPResultSet result;
+        private final Search search;
+
+        TimedResultSet(LDAPResultSet result, Search search)
+        {
+            this.result = result;
+            this.search = search;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            long start = System.nanoTime();
+            boolean hasNext = false;
+            try
+            {
+                hasNext = result.hasNext();
+                return hasNext;
+            }
+            catch (LDAPException ex)
+            {
+                search.error = ex;
+                throw ex;
+            }
+            finally
+            {
+                search.elapsedNanos += System.nanoTime() - start;
+                if (!hasNext)
+                {
+                    search.finish();
+                }
+            }
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            long start = System.nanoTime();
+            try
+            {
+                LDAPEntry entry = result.next();
+                search.entries++;
+                return entry;
+            }
+            finally
+            {
+                search.elapsedNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            long start = System.nanoTime();
+            try
+            {
+                List<LDAPEntry> allEntries = result.getAllEntries();
+                search.entries += allEntries.size();
+                return allEntries;
+            }
+            catch (LDAPException ex)
+            {
+                search.error = ex;
+                throw ex;
+            }
+            finally
+            {
+                search.elapsedNanos += System.nanoTime() - start;
+                search.finish();
+            }
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            try
+            {
+                result.close();
+            }
+            finally
+            {
+                search.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * JMX view of the {@link LDAPSlowQueryLog} of a {@link LDAPConnection}.
+ */
+public interface LDAPSlowQueryLogMBean
+{
+    long getThreshold();
+
+    long getSlowSearches();
+
+    /**
+     * @return The filter fingerprints of the slow searches that took more time altogether, slowest first.
+     */
+    String[] getTopFingerprints();
+
+    void reset();
+}
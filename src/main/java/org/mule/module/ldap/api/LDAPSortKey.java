@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort key used to order the results of a search (RFC 2891). A list of sort keys is parsed from
+ * the <i>orderBy</i> expression of {@link LDAPSearchControls}, which is a comma separated list of
+ * keys with the following syntax:
+ * <pre>
+ * [-]attributeName[:matchingRuleOID]
+ * </pre>
+ * A leading <b>-</b> means descending order (a leading <b>+</b> is also accepted for ascending
+ * order, which is the default). For example <code>sn, -createTimestamp, cn:2.5.13.3</code>.
+ */
+public class LDAPSortKey implements Serializable
+{
+    private static final long serialVersionUID = -2406016311419106045L;
+
+    private String attributeName;
+    private boolean ascending;
+    private String matchingRule;
+
+    /**
+     * @param attributeName Name of the attribute to sort by.
+     * @param ascending Whether values are sorted in ascending or descending order.
+     * @param matchingRule OID of the ordering matching rule, or null to use the attribute default ordering rule.
+     */
+    public LDAPSortKey(String attributeName, boolean ascending, String matchingRule)
+    {
+        this.attributeName = attributeName;
+        this.ascending = ascending;
+        this.matchingRule = matchingRule;
+    }
+
+    /**
+     * @param orderBy The comma separated list of sort keys.
+     * @return The sort keys in <i>orderBy</i> or an empty list if it is blank.
+     * @throws IllegalArgumentException If any of the keys has no attribute name.
+     */
+    public static List<LDAPSortKey> parse(String orderBy)
+    {
+        List<LDAPSortKey> keys = new ArrayList<LDAPSortKey>();
+        if (orderBy == null)
+        {
+            return keys;
+        }
+
+        for (String token : orderBy.split(","))
+        {
+            String key = token.trim();
+            if (key.length() == 0)
+            {
+                continue;
+            }
+
+            boolean ascending = true;
+            if (key.charAt(0) == '-' || key.charAt(0) == '+')
+            {
+                ascending = key.charAt(0) == '+';
+                key = key.substring(1).trim();
+            }
+
+            String matchingRule = null;
+            int ruleIndex = key.indexOf(':');
+            if (ruleIndex >= 0)
+            {
+                matchingRule = key.substring(ruleIndex + 1).trim();
+                matchingRule = matchingRule.length() > 0 ? matchingRule : null;
+                key = key.substring(0, ruleIndex).trim();
+            }
+
+            if (key.length() == 0)
+            {
+                throw new IllegalArgumentException("Invalid sort key '" + token.trim() + "' in order by expression: " + orderBy);
+            }
+            keys.add(new LDAPSortKey(key, ascending, matchingRule));
+        }
+        return keys;
+    }
+
+    public String getAttributeName()
+    {
+        return attributeName;
+    }
+
+    public boolean isAscending()
+    {
+        return ascending;
+    }
+
+    public String getMatchingRule()
+    {
+        return matchingRule;
+    }
+
+    @Override
+    public String toString()
+    {
+        return (ascending ? "" : "-") + attributeName + (matchingRule != null ? ":" + matchingRule : "");
+    }
+}
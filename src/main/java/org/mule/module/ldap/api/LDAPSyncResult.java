@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The entries changed under a base DN since the state represented by a cookie, as returned by
+ * {@link LDAPConnection#sync(String, String, LDAPSearchControls, int, String[], String)}. The
+ * cookie of the result must be passed to the next synchronization.
+ */
+public class LDAPSyncResult implements Serializable
+{
+    private static final long serialVersionUID = 2964312081946630583L;
+
+    /**
+     * Use content synchronization or DirSync if the LDAP server supports them or the high-water mark otherwise.
+     * When a cookie is provided, the mechanism that created it is used.
+     */
+    public static final int AUTO = 0;
+
+    /**
+     * LDAP content synchronization (RFC 4533) in refresh only mode.
+     */
+    public static final int CONTENT_SYNC = 1;
+
+    /**
+     * Active Directory DirSync control. The base DN must be the root of a naming context and entries only
+     * hold their changed attributes.
+     */
+    public static final int DIR_SYNC = 2;
+
+    /**
+     * Search of the entries whose high-water mark attributes (such as modifyTimestamp) are greater than or equal to
+     * the greatest value returned by the previous synchronization. Deleted entries are not reported and the entries
+     * changed at the greatest value are returned again in the next synchronization.
+     */
+    public static final int HIGH_WATER_MARK = 3;
+
+    private List<LDAPEntry> entries;
+    private List<String> deletedDns;
+    private String cookie;
+    private boolean fullSync;
+    private boolean deletedDnsComplete;
+
+    /**
+     * @param entries The entries added or modified.
+     * @param deletedDns The DNs of the deleted entries.
+     * @param cookie The cookie representing the state after this synchronization.
+     * @param fullSync Whether all the entries were returned, because there was no cookie or the LDAP server could not use it.
+     */
+    public LDAPSyncResult(List<LDAPEntry> entries, List<String> deletedDns, String cookie, boolean fullSync)
+    {
+        this(entries, deletedDns, cookie, fullSync, !fullSync);
+    }
+
+    /**
+     * @param entries The entries added or modified.
+     * @param deletedDns The DNs of the deleted entries.
+     * @param cookie The cookie representing the state after this synchronization.
+     * @param fullSync Whether all the entries were returned, because there was no cookie or the LDAP server could not use it.
+     * @param deletedDnsComplete Whether all the entries deleted since the previous synchronization are in <i>deletedDns</i>.
+     */
+    public LDAPSyncResult(List<LDAPEntry> entries, List<String> deletedDns, String cookie, boolean fullSync, boolean deletedDnsComplete)
+    {
+        this.entries = entries;
+        this.deletedDns = deletedDns;
+        this.cookie = cookie;
+        this.fullSync = fullSync;
+        this.deletedDnsComplete = deletedDnsComplete;
+    }
+
+    public List<LDAPEntry> getEntries()
+    {
+        return entries;
+    }
+
+    public List<String> getDeletedDns()
+    {
+        return deletedDns;
+    }
+
+    public String getCookie()
+    {
+        return cookie;
+    }
+
+    /**
+     * @return true if all the entries were returned instead of only the changed ones. Entries that were deleted
+     *         since the previous synchronization are not reported in that case.
+     */
+    public boolean isFullSync()
+    {
+        return fullSync;
+    }
+
+    /**
+     * @return true if all the entries deleted since the previous synchronization are reported. When false, entries may
+     *         have been deleted without being in {@link #getDeletedDns()}, so the caller must compare the entries it
+     *         knows with a full search to find them (as after a full synchronization).
+     */
+    public boolean isDeletedDnsComplete()
+    {
+        return deletedDnsComplete;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LDAPSyncResult[entries=" + (entries != null ? entries.size() : 0) + ", deleted=" + (deletedDns != null ? deletedDns.size() : 0) + ", fullSync=" + fullSync + ", deletedDnsComplete=" + deletedDnsComplete + "]";
+    }
+}
@@ -35,6 +35,11 @@ public class LDAPUtils
         }
             
     }    
+
+    public static byte[] decodeBase64(String value)
+    {
+        return Base64.decode(value);
+    }
 }
 
 
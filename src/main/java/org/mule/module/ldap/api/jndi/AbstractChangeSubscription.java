@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.Hashtable;
+
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPChangeSubscription;
+import org.mule.module.ldap.api.LDAPEntryCache;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+/**
+ * Base class of the subscriptions that hold their own connection to the LDAP server, so that
+ * they don't take a connection from the pool for as long as they run. If that connection is
+ * lost, the subscription connects again after <i>retryDelay</i> milliseconds.
+ */
+public abstract class AbstractChangeSubscription implements LDAPChangeSubscription
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    protected final Hashtable<String, Object> environment;
+    protected final String baseDn;
+    protected final String filter;
+    protected final int scope;
+    protected final int bufferSize;
+    protected final long retryDelay;
+
+    private final String normalizedBaseDn;
+    private long nextRetry = 0;
+    protected volatile boolean closed = false;
+
+    /**
+     * @param environment Environment used to create the connection of the subscription.
+     * @param baseDn
+     * @param filter
+     * @param scope One of the scopes defined in {@link LDAPSearchControls}.
+     * @param bufferSize Maximum amount of buffered changes. If it is less than 1, then 1 is used.
+     * @param retryDelay Milliseconds to wait before connecting again.
+     */
+    protected AbstractChangeSubscription(Hashtable<String, Object> environment, String baseDn, String filter, int scope, int bufferSize, long retryDelay)
+    {
+        this.environment = environment;
+        this.baseDn = baseDn;
+        this.filter = filter != null && filter.trim().length() > 0 ? filter : "(objectClass=*)";
+        this.scope = scope;
+        this.bufferSize = Math.max(bufferSize, 1);
+        this.retryDelay = Math.max(retryDelay, 0);
+        this.normalizedBaseDn = LDAPEntryCache.normalizeDn(baseDn);
+    }
+
+    /**
+     * Connects to the LDAP server. If the connection fails because the LDAP server cannot be reached, then
+     * the subscription tries again later.
+     *
+     * @throws LDAPException If the subscription cannot be started for any other reason.
+     */
+    public void start() throws LDAPException
+    {
+        try
+        {
+            connect();
+        }
+        catch (NamingException nex)
+        {
+            handleFailure(nex);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        disconnect();
+    }
+
+    /**
+     * Opens the connection to the LDAP server and starts receiving changes.
+     */
+    protected abstract void connect() throws NamingException;
+
+    /**
+     * Closes the connection to the LDAP server. It must not fail.
+     */
+    protected abstract void disconnect();
+
+    protected abstract boolean isConnected();
+
+    /**
+     * Disconnects and, if the connection was lost, schedules a new connection attempt.
+     *
+     * @throws LDAPException If the failure was not caused by a lost connection.
+     */
+    protected void handleFailure(NamingException nex) throws LDAPException
+    {
+        disconnect();
+        if (!LDAPJNDIUtils.isConnectionFailure(nex))
+        {
+            throw LDAPException.create(nex);
+        }
+        logger.warn("Lost connection receiving changes under " + baseDn + ". Connecting again in " + retryDelay + " ms.", nex);
+        nextRetry = System.currentTimeMillis() + retryDelay;
+    }
+
+    /**
+     * @param timeout Maximum milliseconds to wait for the next connection attempt.
+     * @return true if the subscription is connected.
+     */
+    protected boolean ensureConnected(long timeout) throws LDAPException, InterruptedException
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (isConnected())
+        {
+            return true;
+        }
+
+        long wait = nextRetry - System.currentTimeMillis();
+        if (wait > 0)
+        {
+            Thread.sleep(Math.min(wait, Math.max(timeout, 1)));
+            if (wait > timeout)
+            {
+                return false;
+            }
+        }
+
+        try
+        {
+            connect();
+            logger.info("Receiving changes under " + baseDn + " again");
+            return true;
+        }
+        catch (NamingException nex)
+        {
+            handleFailure(nex);
+            return false;
+        }
+    }
+
+    /**
+     * @param dn DN of a changed entry.
+     * @return true if the entry is under the base DN, according to the scope of the subscription.
+     */
+    protected boolean isInScope(String dn)
+    {
+        String normalized = LDAPEntryCache.normalizeDn(dn);
+        switch (scope)
+        {
+            case LDAPSearchControls.OBJECT_SCOPE :
+                return normalized.equals(normalizedBaseDn);
+            case LDAPSearchControls.ONELEVEL_SCOPE :
+                return !normalized.equals(normalizedBaseDn) && LDAPEntryCache.normalizeDn(getParentDn(dn)).equals(normalizedBaseDn);
+            default :
+                return normalizedBaseDn.length() == 0 || normalized.equals(normalizedBaseDn) || normalized.endsWith("," + normalizedBaseDn);
+        }
+    }
+
+    /**
+     * @param dn
+     * @return The DN without its first RDN.
+     */
+    protected static String getParentDn(String dn)
+    {
+        try
+        {
+            LdapName name = new LdapName(dn);
+            if (name.size() == 0)
+            {
+                return "";
+            }
+            // LdapName holds the RDNs from right to left
+            name.remove(name.size() - 1);
+            return name.toString();
+        }
+        catch (InvalidNameException ex)
+        {
+            int comma = dn.indexOf(',');
+            return comma >= 0 ? dn.substring(comma + 1) : "";
+        }
+    }
+
+    protected void closeQuietly(Context ctx)
+    {
+        if (ctx != null)
+        {
+            try
+            {
+                ctx.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Error closing LDAP context. Ignoring it.", nex);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+/**
+ * Range of values of a multi valued attribute, as requested and returned with range retrieval
+ * (<i>member;range=0-1499</i>). Active Directory returns at most MaxValRange values (1500 by default)
+ * of an attribute in a response, and the last range of values is returned as <i>member;range=1500-*</i>.
+ */
+final class AttributeRange
+{
+    static final String RANGE_OPTION = ";range=";
+
+    private static final String LAST = "*";
+
+    private final String name;
+    private final int low;
+    private final int high;
+
+    private AttributeRange(String name, int low, int high)
+    {
+        this.name = name;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * @param id Attribute description returned by the LDAP server.
+     * @return The range of values described by the ID or null if it has no range option.
+     */
+    static AttributeRange parse(String id)
+    {
+        int option = id != null ? id.toLowerCase().indexOf(RANGE_OPTION) : -1;
+        if (option <= 0)
+        {
+            return null;
+        }
+        String range = id.substring(option + RANGE_OPTION.length());
+        int separator = range.indexOf('-');
+        if (separator <= 0)
+        {
+            return null;
+        }
+        try
+        {
+            int low = Integer.parseInt(range.substring(0, separator));
+            String highValue = range.substring(separator + 1);
+            int high = LAST.equals(highValue) ? -1 : Integer.parseInt(highValue);
+            return new AttributeRange(id.substring(0, option), low, high);
+        }
+        catch (NumberFormatException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param name Attribute name.
+     * @param low Index of the first value.
+     * @param size Amount of values or 0 to request all the values from <i>low</i>.
+     * @return The attribute description that requests the range of values.
+     */
+    static String request(String name, int low, int size)
+    {
+        return name + RANGE_OPTION + low + "-" + (size > 0 ? String.valueOf(low + size - 1) : LAST);
+    }
+
+    /**
+     * @return The attribute name without the range option.
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    int getLow()
+    {
+        return low;
+    }
+
+    /**
+     * @return The index of the last value or -1 if this is the last range.
+     */
+    int getHigh()
+    {
+        return high;
+    }
+
+    /**
+     * @return true if there are no values after this range.
+     */
+    boolean isLast()
+    {
+        return high < 0;
+    }
+}
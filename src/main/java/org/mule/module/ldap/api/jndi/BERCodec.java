@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Minimal BER encoding and decoding of the values of the LDAP controls that JNDI doesn't implement.
+ * Only definite lengths of up to 4 bytes and integers of up to 32 bits are supported.
+ */
+final class BERCodec
+{
+    static final int BOOLEAN_TAG = 0x01;
+    static final int INTEGER_TAG = 0x02;
+    static final int OCTET_STRING_TAG = 0x04;
+    static final int ENUMERATED_TAG = 0x0A;
+    static final int SEQUENCE_TAG = 0x30;
+
+    private BERCodec()
+    {
+    }
+
+    static void writeInteger(ByteArrayOutputStream out, int tag, int value) throws IOException
+    {
+        // Minimal two's complement representation
+        int length = 4;
+        while (length > 1 && ((value >> ((length - 1) * 8 - 1)) == 0 || (value >> ((length - 1) * 8 - 1)) == -1))
+        {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+        }
+        writeElement(out, tag, bytes);
+    }
+
+    static void writeBoolean(ByteArrayOutputStream out, boolean value) throws IOException
+    {
+        writeElement(out, BOOLEAN_TAG, new byte[] {value ? (byte) 0xFF : 0});
+    }
+
+    static void writeElement(ByteArrayOutputStream out, int tag, byte[] content) throws IOException
+    {
+        out.write(tag);
+        if (content.length < 0x80)
+        {
+            out.write(content.length);
+        }
+        else
+        {
+            int lengthBytes = content.length > 0xFFFFFF ? 4 : content.length > 0xFFFF ? 3 : content.length > 0xFF ? 2 : 1;
+            out.write(0x80 | lengthBytes);
+            for (int i = lengthBytes - 1; i >= 0; i--)
+            {
+                out.write(content.length >> (i * 8));
+            }
+        }
+        out.write(content);
+    }
+
+    /**
+     * @return The content wrapped in a SEQUENCE.
+     */
+    static byte[] sequence(ByteArrayOutputStream content) throws IOException
+    {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        writeElement(value, SEQUENCE_TAG, content.toByteArray());
+        return value.toByteArray();
+    }
+
+    static class Reader
+    {
+        private final byte[] data;
+        private int position = 0;
+        private int end;
+
+        Reader(byte[] data)
+        {
+            this.data = data;
+            this.end = data.length;
+        }
+
+        boolean hasMore()
+        {
+            return position < end;
+        }
+
+        /**
+         * @return The tag of the next element or -1 if there are no more elements.
+         */
+        int peekTag()
+        {
+            return hasMore() ? data[position] & 0xFF : -1;
+        }
+
+        void enter(int tag) throws IOException
+        {
+            int length = readHeader(tag);
+            end = position + length;
+        }
+
+        int readInteger(int tag) throws IOException
+        {
+            byte[] bytes = read(tag);
+            if (bytes.length == 0 || bytes.length > 4)
+            {
+                throw new IOException("Invalid integer length " + bytes.length);
+            }
+            int value = bytes[0]; // sign extension
+            for (int i = 1; i < bytes.length; i++)
+            {
+                value = (value << 8) | (bytes[i] & 0xFF);
+            }
+            return value;
+        }
+
+        boolean readBoolean() throws IOException
+        {
+            byte[] bytes = read(BOOLEAN_TAG);
+            if (bytes.length != 1)
+            {
+                throw new IOException("Invalid boolean length " + bytes.length);
+            }
+            return bytes[0] != 0;
+        }
+
+        byte[] read(int tag) throws IOException
+        {
+            int length = readHeader(tag);
+            byte[] content = new byte[length];
+            System.arraycopy(data, position, content, 0, length);
+            position += length;
+            return content;
+        }
+
+        private int readHeader(int tag) throws IOException
+        {
+            if (position + 2 > end || (data[position] & 0xFF) != tag)
+            {
+                throw new IOException("Expected BER element with tag " + tag + " at position " + position);
+            }
+            position++;
+            int length = data[position++] & 0xFF;
+            if ((length & 0x80) != 0)
+            {
+                int lengthBytes = length & 0x7F;
+                if (lengthBytes == 0 || lengthBytes > 4 || position + lengthBytes > end)
+                {
+                    throw new IOException("Invalid BER length at position " + position);
+                }
+                length = 0;
+                for (int i = 0; i < lengthBytes; i++)
+                {
+                    length = (length << 8) | (data[position++] & 0xFF);
+                }
+            }
+            if (length < 0 || position + length > end)
+            {
+                throw new IOException("BER element length " + length + " exceeds the available data");
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Subscription that polls the change log of the LDAP server (draft-good-ldap-changelog), as published
+ * in the <i>changelog</i> attribute of the root DSE, every <i>retryDelay</i> milliseconds. Each poll reads
+ * at most <i>bufferSize</i> changes, and the next poll is not done until all of them have been returned,
+ * so changes are only read as fast as they are consumed.
+ * <p/>
+ * The number of the last notified change is kept across connection failures, so no change is missed while
+ * the connection is lost. Changes are notified from the one after the <i>lastChangeNumber</i> published in
+ * the root DSE when the subscription started.
+ * <p/>
+ * The change log holds absolute DNs, so the base DN should be absolute too. The filter is checked by reading
+ * the changed entry, which is not possible for deleted entries: all the deletions under the base DN are notified.
+ */
+public class ChangeLogSubscription extends AbstractChangeSubscription
+{
+    public static final String DEFAULT_CHANGE_LOG_DN = "cn=changelog";
+
+    private static final String CHANGE_NUMBER_ATTR = "changeNumber";
+    private static final String TARGET_DN_ATTR = "targetDN";
+    private static final String CHANGE_TYPE_ATTR = "changeType";
+    private static final String NEW_RDN_ATTR = "newRDN";
+    private static final String NEW_SUPERIOR_ATTR = "newSuperior";
+    private static final String[] CHANGE_ATTRIBUTES = new String[] {CHANGE_NUMBER_ATTR, TARGET_DN_ATTR, CHANGE_TYPE_ATTR, NEW_RDN_ATTR, NEW_SUPERIOR_ATTR};
+    private static final String LAST_CHANGE_NUMBER_ATTR = "lastChangeNumber";
+    private static final String FIRST_CHANGE_NUMBER_ATTR = "firstChangeNumber";
+    private static final String[] ROOT_DSE_ATTRIBUTES = new String[] {"changelog", LAST_CHANGE_NUMBER_ATTR, FIRST_CHANGE_NUMBER_ATTR};
+
+    private final LinkedList<LDAPChangeEvent> pending = new LinkedList<LDAPChangeEvent>();
+    private LdapContext ctx = null;
+    private String changeLogDn = null;
+    private long nextChangeNumber = -1;
+    private long nextPoll = 0;
+
+    public ChangeLogSubscription(Hashtable<String, Object> environment, String baseDn, String filter, int scope, int bufferSize, long retryDelay)
+    {
+        super(environment, baseDn, filter, scope, bufferSize, retryDelay);
+    }
+
+    @Override
+    public synchronized LDAPChangeEvent poll(long timeout) throws LDAPException, InterruptedException
+    {
+        if (!pending.isEmpty() || closed)
+        {
+            return pending.poll();
+        }
+        if (!ensureConnected(timeout))
+        {
+            return null;
+        }
+
+        long wait = nextPoll - System.currentTimeMillis();
+        if (wait > 0)
+        {
+            Thread.sleep(Math.min(wait, Math.max(timeout, 1)));
+            if (wait > timeout)
+            {
+                return null;
+            }
+        }
+
+        try
+        {
+            boolean more = readChanges();
+            // Keep reading if the log has more changes than fit in the buffer
+            nextPoll = more ? 0 : System.currentTimeMillis() + retryDelay;
+        }
+        catch (NamingException nex)
+        {
+            handleFailure(nex);
+        }
+        return pending.poll();
+    }
+
+    /**
+     * @return The number of the next change to be read from the change log.
+     */
+    public synchronized long getNextChangeNumber()
+    {
+        return nextChangeNumber;
+    }
+
+    @Override
+    protected void connect() throws NamingException
+    {
+        LdapContext newCtx = new InitialLdapContext(environment, null);
+        try
+        {
+            if (changeLogDn == null)
+            {
+                Attributes rootDse = newCtx.getAttributes("", ROOT_DSE_ATTRIBUTES);
+                Attribute changeLog = rootDse.get("changelog");
+                changeLogDn = changeLog != null ? (String) changeLog.get() : DEFAULT_CHANGE_LOG_DN;
+
+                long lastChangeNumber = getNumber(rootDse, LAST_CHANGE_NUMBER_ATTR);
+                if (lastChangeNumber >= 0)
+                {
+                    nextChangeNumber = lastChangeNumber + 1;
+                }
+                else
+                {
+                    logger.warn("LDAP server doesn't publish lastChangeNumber in its root DSE. Reading the whole change log.");
+                    nextChangeNumber = Math.max(getNumber(rootDse, FIRST_CHANGE_NUMBER_ATTR), 0);
+                }
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Reading change log " + changeLogDn + " from change number " + nextChangeNumber);
+                }
+            }
+        }
+        catch (NamingException nex)
+        {
+            closeQuietly(newCtx);
+            throw nex;
+        }
+        this.ctx = newCtx;
+    }
+
+    @Override
+    protected synchronized void disconnect()
+    {
+        closeQuietly(this.ctx);
+        this.ctx = null;
+        this.nextPoll = 0;
+    }
+
+    @Override
+    protected boolean isConnected()
+    {
+        return this.ctx != null;
+    }
+
+    private boolean readChanges() throws NamingException
+    {
+        // Change numbers are consecutive, so reading a window of them (instead of using a size limit, which
+        // returns any of the matching changes) never skips a change
+        long lastInWindow = nextChangeNumber + bufferSize - 1;
+        SearchControls controls = new SearchControls(SearchControls.ONELEVEL_SCOPE, bufferSize, 0, CHANGE_ATTRIBUTES, false, false);
+        NamingEnumeration<SearchResult> results = ctx.search(changeLogDn, "(&(" + CHANGE_NUMBER_ATTR + ">=" + nextChangeNumber + ")(" + CHANGE_NUMBER_ATTR + "<=" + lastInWindow + "))", controls);
+
+        List<Attributes> changes = new ArrayList<Attributes>();
+        try
+        {
+            while (results.hasMore())
+            {
+                changes.add(results.next().getAttributes());
+            }
+        }
+        catch (SizeLimitExceededException slee)
+        {
+            logger.debug("Size limit exceeded reading change log. Reading the remaining changes in the next poll.", slee);
+        }
+        finally
+        {
+            results.close();
+        }
+
+        if (changes.isEmpty())
+        {
+            // The whole window may have been trimmed from the change log
+            long lastChangeNumber = getNumber(ctx.getAttributes("", ROOT_DSE_ATTRIBUTES), LAST_CHANGE_NUMBER_ATTR);
+            if (lastChangeNumber > lastInWindow)
+            {
+                logger.warn("Changes " + nextChangeNumber + " to " + lastInWindow + " are not in the change log. Skipping them.");
+                nextChangeNumber = lastInWindow + 1;
+                return true;
+            }
+            return false;
+        }
+
+        // The LDAP server doesn't need to return them in order
+        Collections.sort(changes, new Comparator<Attributes>()
+        {
+            @Override
+            public int compare(Attributes change1, Attributes change2)
+            {
+                long number1 = getChangeNumber(change1);
+                long number2 = getChangeNumber(change2);
+                return number1 < number2 ? -1 : (number1 == number2 ? 0 : 1);
+            }
+        });
+
+        for (Attributes change : changes)
+        {
+            long changeNumber = getChangeNumber(change);
+            if (changeNumber < nextChangeNumber)
+            {
+                continue;
+            }
+            LDAPChangeEvent event = buildEvent(change, changeNumber);
+            // Only advanced once the change has been processed, so it is read again after a failure
+            nextChangeNumber = changeNumber + 1;
+            if (event != null)
+            {
+                pending.add(event);
+            }
+        }
+        return changes.size() >= bufferSize;
+    }
+
+    private LDAPChangeEvent buildEvent(Attributes change, long changeNumber) throws NamingException
+    {
+        String targetDn = getValue(change, TARGET_DN_ATTR);
+        String changeType = getValue(change, CHANGE_TYPE_ATTR);
+        if (targetDn == null || changeType == null)
+        {
+            return null;
+        }
+        changeType = changeType.trim().toLowerCase(Locale.ENGLISH);
+
+        if ("delete".equals(changeType))
+        {
+            return isInScope(targetDn) ? new LDAPChangeEvent(LDAPChangeEvent.DELETE, targetDn, null, null, changeNumber) : null;
+        }
+
+        String dn = targetDn;
+        String previousDn = null;
+        String type;
+        if ("add".equals(changeType))
+        {
+            type = LDAPChangeEvent.ADD;
+        }
+        else if ("modify".equals(changeType))
+        {
+            type = LDAPChangeEvent.MODIFY;
+        }
+        else if ("modrdn".equals(changeType) || "moddn".equals(changeType))
+        {
+            type = LDAPChangeEvent.RENAME;
+            previousDn = targetDn;
+            String newSuperior = getValue(change, NEW_SUPERIOR_ATTR);
+            String parentDn = newSuperior != null ? newSuperior : getParentDn(targetDn);
+            dn = getValue(change, NEW_RDN_ATTR) + (parentDn.length() > 0 ? "," + parentDn : "");
+        }
+        else
+        {
+            return null;
+        }
+
+        if (!isInScope(dn) && (previousDn == null || !isInScope(previousDn)))
+        {
+            return null;
+        }
+
+        LDAPEntry entry = readEntry(dn);
+        return entry != null ? new LDAPChangeEvent(type, dn, previousDn, entry, changeNumber) : null;
+    }
+
+    /**
+     * @return The entry if it exists and it matches the filter or null otherwise.
+     */
+    private LDAPEntry readEntry(String dn) throws NamingException
+    {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+        NamingEnumeration<SearchResult> results = null;
+        try
+        {
+            results = ctx.search(dn, filter, controls);
+            return results.hasMore() ? LDAPJNDIUtils.buildEntry(dn, results.next().getAttributes()) : null;
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            // Deleted after the change
+            return null;
+        }
+        catch (LDAPException ex)
+        {
+            logger.warn("Could not read the attributes of changed entry " + dn, ex);
+            return null;
+        }
+        finally
+        {
+            if (results != null)
+            {
+                results.close();
+            }
+        }
+    }
+
+    private static long getChangeNumber(Attributes change)
+    {
+        return getNumber(change, CHANGE_NUMBER_ATTR);
+    }
+
+    private static long getNumber(Attributes attributes, String name)
+    {
+        try
+        {
+            String value = getValue(attributes, name);
+            return value != null ? Long.parseLong(value.trim()) : -1;
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    private static String getValue(Attributes attributes, String name)
+    {
+        try
+        {
+            Attribute attribute = attributes.get(name);
+            Object value = attribute != null ? attribute.get() : null;
+            return value != null ? value.toString() : null;
+        }
+        catch (NamingException nex)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * Sync request control of the LDAP content synchronization operation (RFC 4533) in <i>refreshOnly</i> mode:
+ * the LDAP server returns the entries changed since the state represented by the cookie (or all of them if
+ * there is no cookie) and a new cookie, and then the search ends.
+ * <pre>
+ * syncRequestValue ::= SEQUENCE {
+ *     mode ENUMERATED {
+ *         refreshOnly       (1),
+ *         refreshAndPersist (3) },
+ *     cookie     syncCookie OPTIONAL,
+ *     reloadHint BOOLEAN DEFAULT FALSE }
+ * </pre>
+ * JNDI has no implementation of this control, so the BER encoding of the request and the decoding of the
+ * sync state control (returned with each entry) and the sync done control (returned with the search result)
+ * are done here.
+ */
+public class ContentSyncControl extends BasicControl
+{
+    private static final long serialVersionUID = 4672839121541338014L;
+
+    public static final String OID = "1.3.6.1.4.1.4203.1.9.1.1";
+    public static final String STATE_OID = "1.3.6.1.4.1.4203.1.9.1.2";
+    public static final String DONE_OID = "1.3.6.1.4.1.4203.1.9.1.3";
+
+    public static final int PRESENT = 0;
+    public static final int ADD = 1;
+    public static final int MODIFY = 2;
+    public static final int DELETE = 3;
+
+    private static final int REFRESH_ONLY = 1;
+
+    /**
+     * @param cookie The cookie returned by the LDAP server in the previous synchronization or null.
+     * @throws IOException If the control value cannot be encoded.
+     */
+    public ContentSyncControl(byte[] cookie) throws IOException
+    {
+        super(OID, Control.CRITICAL, encode(cookie));
+    }
+
+    private static byte[] encode(byte[] cookie) throws IOException
+    {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        BERCodec.writeInteger(request, BERCodec.ENUMERATED_TAG, REFRESH_ONLY);
+        if (cookie != null)
+        {
+            BERCodec.writeElement(request, BERCodec.OCTET_STRING_TAG, cookie);
+        }
+        return BERCodec.sequence(request);
+    }
+
+    /**
+     * @param entryControls Controls returned by the LDAP server along with an entry.
+     * @return The decoded sync state control or null if the server did not return one.
+     * @throws IOException If the control value is not valid.
+     */
+    public static State getState(Control[] entryControls) throws IOException
+    {
+        Control control = find(entryControls, STATE_OID);
+        return control != null ? State.decode(control.getEncodedValue()) : null;
+    }
+
+    /**
+     * @param responseControls Controls returned by the LDAP server along with the search result.
+     * @return The decoded sync done control or null if the server did not return one.
+     * @throws IOException If the control value is not valid.
+     */
+    public static Done getDone(Control[] responseControls) throws IOException
+    {
+        Control control = find(responseControls, DONE_OID);
+        return control != null ? Done.decode(control.getEncodedValue()) : null;
+    }
+
+    private static Control find(Control[] controls, String oid)
+    {
+        if (controls != null)
+        {
+            for (Control control : controls)
+            {
+                if (oid.equals(control.getID()))
+                {
+                    return control;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sync state control.
+     * <pre>
+     * syncStateValue ::= SEQUENCE {
+     *     state ENUMERATED {
+     *         present (0),
+     *         add (1),
+     *         modify (2),
+     *         delete (3) },
+     *     entryUUID syncUUID,
+     *     cookie    syncCookie OPTIONAL }
+     * </pre>
+     */
+    public static class State
+    {
+        private final int state;
+        private final byte[] entryUuid;
+        private final byte[] cookie;
+
+        State(int state, byte[] entryUuid, byte[] cookie)
+        {
+            this.state = state;
+            this.entryUuid = entryUuid;
+            this.cookie = cookie;
+        }
+
+        static State decode(byte[] value) throws IOException
+        {
+            if (value == null)
+            {
+                throw new IOException("Sync state control has no value");
+            }
+            BERCodec.Reader reader = new BERCodec.Reader(value);
+            reader.enter(BERCodec.SEQUENCE_TAG);
+            int state = reader.readInteger(BERCodec.ENUMERATED_TAG);
+            byte[] entryUuid = reader.read(BERCodec.OCTET_STRING_TAG);
+            byte[] cookie = reader.hasMore() ? reader.read(BERCodec.OCTET_STRING_TAG) : null;
+            return new State(state, entryUuid, cookie);
+        }
+
+        /**
+         * @return One of {@link ContentSyncControl#PRESENT}, {@link ContentSyncControl#ADD}, {@link ContentSyncControl#MODIFY}
+         *         or {@link ContentSyncControl#DELETE}.
+         */
+        public int getState()
+        {
+            return state;
+        }
+
+        public byte[] getEntryUuid()
+        {
+            return entryUuid;
+        }
+
+        public byte[] getCookie()
+        {
+            return cookie;
+        }
+    }
+
+    /**
+     * Sync done control.
+     * <pre>
+     * syncDoneValue ::= SEQUENCE {
+     *     cookie          syncCookie OPTIONAL,
+     *     refreshDeletes  BOOLEAN DEFAULT FALSE }
+     * </pre>
+     */
+    public static class Done
+    {
+        private final byte[] cookie;
+        private final boolean refreshDeletes;
+
+        Done(byte[] cookie, boolean refreshDeletes)
+        {
+            this.cookie = cookie;
+            this.refreshDeletes = refreshDeletes;
+        }
+
+        static Done decode(byte[] value) throws IOException
+        {
+            if (value == null)
+            {
+                // All the fields are optional
+                return new Done(null, false);
+            }
+            BERCodec.Reader reader = new BERCodec.Reader(value);
+            reader.enter(BERCodec.SEQUENCE_TAG);
+            byte[] cookie = reader.peekTag() == BERCodec.OCTET_STRING_TAG ? reader.read(BERCodec.OCTET_STRING_TAG) : null;
+            boolean refreshDeletes = reader.peekTag() == BERCodec.BOOLEAN_TAG ? reader.readBoolean() : false;
+            return new Done(cookie, refreshDeletes);
+        }
+
+        public byte[] getCookie()
+        {
+            return cookie;
+        }
+
+        /**
+         * @return true if the deleted entries were returned with the delete state, or false if the entries
+         *         that were not deleted were returned with the present state.
+         */
+        public boolean isRefreshDeletes()
+        {
+            return refreshDeletes;
+        }
+    }
+}
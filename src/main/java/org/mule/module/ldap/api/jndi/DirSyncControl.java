@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * Active Directory DirSync control: the LDAP server returns the objects changed since the state represented
+ * by the cookie (or all of them if there is no cookie) with only their changed attributes. Deleted objects
+ * are returned with the <i>isDeleted</i> attribute set to TRUE.
+ * <pre>
+ * DirSyncRequestValue ::= SEQUENCE {
+ *     Flags      INTEGER,
+ *     MaxBytes   INTEGER,
+ *     Cookie     OCTET STRING }
+ * </pre>
+ * JNDI has no implementation of this control, so the BER encoding of the request and the decoding of the
+ * response are done here.
+ */
+public class DirSyncControl extends BasicControl
+{
+    private static final long serialVersionUID = -5408243981264590017L;
+
+    public static final String OID = "1.2.840.113556.1.4.841";
+
+    /**
+     * Makes the LDAP server check the permissions of the user on each object, so that DirSync can be
+     * used without the replicating directory changes right.
+     */
+    public static final int OBJECT_SECURITY = 0x1;
+
+    /**
+     * @param flags The DirSync flags.
+     * @param maxBytes Maximum size of the response. 0 means the default of the LDAP server.
+     * @param cookie The cookie returned by the LDAP server in the previous response or null.
+     * @throws IOException If the control value cannot be encoded.
+     */
+    public DirSyncControl(int flags, int maxBytes, byte[] cookie) throws IOException
+    {
+        super(OID, Control.CRITICAL, encode(flags, maxBytes, cookie));
+    }
+
+    private static byte[] encode(int flags, int maxBytes, byte[] cookie) throws IOException
+    {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        BERCodec.writeInteger(request, BERCodec.INTEGER_TAG, flags);
+        BERCodec.writeInteger(request, BERCodec.INTEGER_TAG, maxBytes);
+        BERCodec.writeElement(request, BERCodec.OCTET_STRING_TAG, cookie != null ? cookie : new byte[0]);
+        return BERCodec.sequence(request);
+    }
+
+    /**
+     * @param responseControls Controls returned by the LDAP server.
+     * @return The decoded DirSync response or null if the server did not return one.
+     * @throws IOException If the response control value is not valid.
+     */
+    public static Response getResponse(Control[] responseControls) throws IOException
+    {
+        if (responseControls != null)
+        {
+            for (Control control : responseControls)
+            {
+                if (OID.equals(control.getID()))
+                {
+                    return Response.decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * DirSync response control.
+     * <pre>
+     * DirSyncResponseValue ::= SEQUENCE {
+     *     MoreResults     INTEGER,
+     *     unused          INTEGER,
+     *     CookieServer    OCTET STRING }
+     * </pre>
+     */
+    public static class Response
+    {
+        private final boolean moreResults;
+        private final byte[] cookie;
+
+        Response(boolean moreResults, byte[] cookie)
+        {
+            this.moreResults = moreResults;
+            this.cookie = cookie;
+        }
+
+        static Response decode(byte[] value) throws IOException
+        {
+            if (value == null)
+            {
+                throw new IOException("DirSync response control has no value");
+            }
+            BERCodec.Reader reader = new BERCodec.Reader(value);
+            reader.enter(BERCodec.SEQUENCE_TAG);
+            int moreResults = reader.readInteger(BERCodec.INTEGER_TAG);
+            reader.readInteger(BERCodec.INTEGER_TAG);
+            byte[] cookie = reader.read(BERCodec.OCTET_STRING_TAG);
+            return new Response(moreResults != 0, cookie);
+        }
+
+        /**
+         * @return true if there are more changes than fit in the response, so the search must be repeated with the new cookie.
+         */
+        public boolean isMoreResults()
+        {
+            return moreResults;
+        }
+
+        public byte[] getCookie()
+        {
+            return cookie;
+        }
+    }
+}
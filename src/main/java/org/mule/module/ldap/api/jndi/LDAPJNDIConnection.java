@@ -17,31 +17,51 @@
 
 package org.mule.module.ldap.api.jndi;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 
 import org.apache.commons.lang.StringUtils;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPAttributeValueIterator;
+import org.mule.module.ldap.api.LDAPChangeSubscription;
 import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPCredentialsCache;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPEntryAttribute;
 import org.mule.module.ldap.api.LDAPEntryAttributes;
+import org.mule.module.ldap.api.LDAPEntryCache;
 import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPMetrics;
+import org.mule.module.ldap.api.LDAPNegativeCache;
+import org.mule.module.ldap.api.LDAPParallelSearch;
 import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchCache;
 import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSlowQueryLog;
+import org.mule.module.ldap.api.LDAPSyncResult;
+import org.mule.module.ldap.api.LDAPUtils;
 
 /**
  * This class is the abstraction
@@ -53,32 +73,87 @@ public class LDAPJNDIConnection extends LDAPConnection
     public static final int DEFAULT_MAX_POOL_CONNECTIONS = 0;
     public static final int DEFAULT_INITIAL_POOL_CONNECTIONS = 0;
     public static final long DEFAULT_POOL_TIMEOUT = 0L;
+    public static final long DEFAULT_POOL_BORROW_TIMEOUT = 0L;
+    public static final boolean DEFAULT_POOL_VALIDATE_ON_BORROW = false;
+    public static final int DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES = 10000;
+    public static final int DEFAULT_LOOKUP_CACHE_MAX_ENTRIES = 0;
+    public static final long DEFAULT_LOOKUP_CACHE_MAX_BYTES = 0L;
+    public static final long DEFAULT_LOOKUP_CACHE_TTL = 60000L;
+    public static final int DEFAULT_NEGATIVE_CACHE_MAX_ENTRIES = 0;
+    public static final long DEFAULT_NEGATIVE_CACHE_TTL = 5000L;
+    public static final boolean DEFAULT_NEGATIVE_CACHE_BLOOM_FILTER = false;
+    public static final long DEFAULT_SEARCH_CACHE_MAX_BYTES = 0L;
+    public static final long DEFAULT_SEARCH_CACHE_TTL = 60000L;
     public static final String DEFAULT_INITIAL_CONTEXT_FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
     public static final String DEFAULT_REFERRAL = "ignore";
+    public static final String DEFAULT_LOAD_BALANCING_POLICY = NO_LOAD_BALANCING;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30000L;
+    public static final long DEFAULT_CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD = 0L;
+    public static final int DEFAULT_VERIFY_INITIAL_POOL_SIZE = 1;
+    public static final int DEFAULT_VERIFY_MAX_POOL_SIZE = 10;
+    public static final int DEFAULT_VERIFY_CACHE_MAX_ENTRIES = 0;
+    public static final long DEFAULT_VERIFY_CACHE_TTL = 10000L;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 0;
+    public static final long DEFAULT_READ_TIMEOUT = 0L;
+    public static final long DEFAULT_OPERATION_TIMEOUT = 0L;
 
     private static final boolean IGNORE_CASE = true;
 
     private static final String INITIAL_CONTEXT_FACTORY_ATTR = "initialContextFactory";
     
+    private static final String CONTENT_SYNC_COOKIE_PREFIX = "csync:";
+    private static final String DIR_SYNC_COOKIE_PREFIX = "dirsync:";
+    private static final String IS_DELETED_ATTR = "isDeleted";
+    
     /**
-     * Final constants for managing JNDI Pool connections.
+     * Pooling is handled by {@link LDAPJNDIContextPool}, so the JNDI provider pool is disabled
+     * unless it is explicitly enabled through the extended configuration.
      */
     private static final String POOL_ENABLED_ENV_PARAM =  "com.sun.jndi.ldap.connect.pool";
-    private static final String MAX_POOL_SIZE_ENV_PARAM = "com.sun.jndi.ldap.connect.pool.maxsize";
-    private static final String INIT_POOL_SIZE_ENV_PARAM = "com.sun.jndi.ldap.connect.pool.initsize";
-    private static final String TIME_OUT_ENV_PARAM = "com.sun.jndi.ldap.connect.pool.timeout";
-    private static final String AUTHENTICATION_ENV_PARAM = "com.sun.jndi.ldap.pool.authentication";
+    private static final String CONNECT_TIMEOUT_ENV_PARAM = "com.sun.jndi.ldap.connect.timeout";
+    private static final String READ_TIMEOUT_ENV_PARAM = "com.sun.jndi.ldap.read.timeout";
 
     private String providerUrl = null;
     private int maxPoolConnections = DEFAULT_MAX_POOL_CONNECTIONS;
     private int initialPoolSizeConnections = DEFAULT_INITIAL_POOL_CONNECTIONS;
     private long poolTimeout = DEFAULT_POOL_TIMEOUT;
+    private long poolBorrowTimeout = DEFAULT_POOL_BORROW_TIMEOUT;
+    private boolean poolValidateOnBorrow = DEFAULT_POOL_VALIDATE_ON_BORROW;
+    private int sortMaxInMemoryEntries = DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES;
+    private int lookupCacheMaxEntries = DEFAULT_LOOKUP_CACHE_MAX_ENTRIES;
+    private long lookupCacheMaxBytes = DEFAULT_LOOKUP_CACHE_MAX_BYTES;
+    private long lookupCacheTtl = DEFAULT_LOOKUP_CACHE_TTL;
+    private int negativeCacheMaxEntries = DEFAULT_NEGATIVE_CACHE_MAX_ENTRIES;
+    private long negativeCacheTtl = DEFAULT_NEGATIVE_CACHE_TTL;
+    private boolean negativeCacheBloomFilter = DEFAULT_NEGATIVE_CACHE_BLOOM_FILTER;
+    private long searchCacheMaxBytes = DEFAULT_SEARCH_CACHE_MAX_BYTES;
+    private long searchCacheTtl = DEFAULT_SEARCH_CACHE_TTL;
     private String authentication = NO_AUTHENTICATION;
     private String initialContextFactory = DEFAULT_INITIAL_CONTEXT_FACTORY;
     private String referral = DEFAULT_REFERRAL;
+    private String loadBalancingPolicy = DEFAULT_LOAD_BALANCING_POLICY;
+    private int circuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    private long circuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+    private long circuitBreakerSlowOperationThreshold = DEFAULT_CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD;
+    private int verifyInitialPoolSize = DEFAULT_VERIFY_INITIAL_POOL_SIZE;
+    private int verifyMaxPoolSize = DEFAULT_VERIFY_MAX_POOL_SIZE;
+    private int verifyCacheMaxEntries = DEFAULT_VERIFY_CACHE_MAX_ENTRIES;
+    private long verifyCacheTtl = DEFAULT_VERIFY_CACHE_TTL;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long readTimeout = DEFAULT_READ_TIMEOUT;
+    private long operationTimeout = DEFAULT_OPERATION_TIMEOUT;
     private Map<String, String> extendedEnvironment = null;
         
     private LdapContext conn = null;
+    private LDAPJNDIContextPool pool = null;
+    private LDAPJNDIServerPool servers = null;
+    private LDAPEntryCache lookupCache = null;
+    private LDAPNegativeCache negativeCache = null;
+    private LDAPSearchCache searchCache = null;
+    private LDAPJNDIContextPool verifyPool = null;
+    private LDAPCredentialsCache credentialsCache = null;
+    private LDAPJNDIOperationWatchdog watchdog = null;
 
     /**
 	 * 
@@ -171,12 +246,93 @@ public class LDAPJNDIConnection extends LDAPConnection
 
             setPoolTimeout(getConfValue(conf, POOL_TIMEOUT_ATTR, DEFAULT_POOL_TIMEOUT));
             extendedEnvironment.remove(POOL_TIMEOUT_ATTR);
+
+            setPoolBorrowTimeout(getConfValue(conf, POOL_BORROW_TIMEOUT_ATTR, DEFAULT_POOL_BORROW_TIMEOUT));
+            extendedEnvironment.remove(POOL_BORROW_TIMEOUT_ATTR);
+
+            setPoolValidateOnBorrow(getConfValue(conf, POOL_VALIDATE_ON_BORROW_ATTR, DEFAULT_POOL_VALIDATE_ON_BORROW));
+            extendedEnvironment.remove(POOL_VALIDATE_ON_BORROW_ATTR);
+
+            setSortMaxInMemoryEntries(getConfValue(conf, SORT_MAX_IN_MEMORY_ENTRIES_ATTR, DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES));
+            extendedEnvironment.remove(SORT_MAX_IN_MEMORY_ENTRIES_ATTR);
+
+            setLookupCacheMaxEntries(getConfValue(conf, LOOKUP_CACHE_MAX_ENTRIES_ATTR, DEFAULT_LOOKUP_CACHE_MAX_ENTRIES));
+            extendedEnvironment.remove(LOOKUP_CACHE_MAX_ENTRIES_ATTR);
+
+            setLookupCacheMaxBytes(getConfValue(conf, LOOKUP_CACHE_MAX_BYTES_ATTR, DEFAULT_LOOKUP_CACHE_MAX_BYTES));
+            extendedEnvironment.remove(LOOKUP_CACHE_MAX_BYTES_ATTR);
+
+            setLookupCacheTtl(getConfValue(conf, LOOKUP_CACHE_TTL_ATTR, DEFAULT_LOOKUP_CACHE_TTL));
+            extendedEnvironment.remove(LOOKUP_CACHE_TTL_ATTR);
+
+            setNegativeCacheMaxEntries(getConfValue(conf, NEGATIVE_CACHE_MAX_ENTRIES_ATTR, DEFAULT_NEGATIVE_CACHE_MAX_ENTRIES));
+            extendedEnvironment.remove(NEGATIVE_CACHE_MAX_ENTRIES_ATTR);
+
+            setNegativeCacheTtl(getConfValue(conf, NEGATIVE_CACHE_TTL_ATTR, DEFAULT_NEGATIVE_CACHE_TTL));
+            extendedEnvironment.remove(NEGATIVE_CACHE_TTL_ATTR);
+
+            setNegativeCacheBloomFilter(getConfValue(conf, NEGATIVE_CACHE_BLOOM_FILTER_ATTR, DEFAULT_NEGATIVE_CACHE_BLOOM_FILTER));
+            extendedEnvironment.remove(NEGATIVE_CACHE_BLOOM_FILTER_ATTR);
+
+            setSearchCacheMaxBytes(getConfValue(conf, SEARCH_CACHE_MAX_BYTES_ATTR, DEFAULT_SEARCH_CACHE_MAX_BYTES));
+            extendedEnvironment.remove(SEARCH_CACHE_MAX_BYTES_ATTR);
+
+            setSearchCacheTtl(getConfValue(conf, SEARCH_CACHE_TTL_ATTR, DEFAULT_SEARCH_CACHE_TTL));
+            extendedEnvironment.remove(SEARCH_CACHE_TTL_ATTR);
+
+            setAsyncMaxQueuedOperations(getConfValue(conf, ASYNC_MAX_QUEUED_OPERATIONS_ATTR, DEFAULT_ASYNC_MAX_QUEUED_OPERATIONS));
+            extendedEnvironment.remove(ASYNC_MAX_QUEUED_OPERATIONS_ATTR);
             
             setProviderUrl(getConfValue(conf, LDAP_URL_ATTR, null));
             extendedEnvironment.remove(LDAP_URL_ATTR);
             
             setReferral(getConfValue(conf, REFERRAL_ATTR, DEFAULT_REFERRAL));
             extendedEnvironment.remove(REFERRAL_ATTR);
+
+            setLoadBalancingPolicy(getConfValue(conf, LOAD_BALANCING_POLICY_ATTR, DEFAULT_LOAD_BALANCING_POLICY));
+            extendedEnvironment.remove(LOAD_BALANCING_POLICY_ATTR);
+
+            setCircuitBreakerFailureThreshold(getConfValue(conf, CIRCUIT_BREAKER_FAILURE_THRESHOLD_ATTR, DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD));
+            extendedEnvironment.remove(CIRCUIT_BREAKER_FAILURE_THRESHOLD_ATTR);
+
+            setCircuitBreakerOpenTime(getConfValue(conf, CIRCUIT_BREAKER_OPEN_TIME_ATTR, DEFAULT_CIRCUIT_BREAKER_OPEN_TIME));
+            extendedEnvironment.remove(CIRCUIT_BREAKER_OPEN_TIME_ATTR);
+
+            setCircuitBreakerSlowOperationThreshold(getConfValue(conf, CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD_ATTR, DEFAULT_CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD));
+            extendedEnvironment.remove(CIRCUIT_BREAKER_SLOW_OPERATION_THRESHOLD_ATTR);
+
+            setVerifyInitialPoolSize(getConfValue(conf, VERIFY_INITIAL_POOL_SIZE_ATTR, DEFAULT_VERIFY_INITIAL_POOL_SIZE));
+            extendedEnvironment.remove(VERIFY_INITIAL_POOL_SIZE_ATTR);
+
+            setVerifyMaxPoolSize(getConfValue(conf, VERIFY_MAX_POOL_SIZE_ATTR, DEFAULT_VERIFY_MAX_POOL_SIZE));
+            extendedEnvironment.remove(VERIFY_MAX_POOL_SIZE_ATTR);
+
+            setVerifyCacheMaxEntries(getConfValue(conf, VERIFY_CACHE_MAX_ENTRIES_ATTR, DEFAULT_VERIFY_CACHE_MAX_ENTRIES));
+            extendedEnvironment.remove(VERIFY_CACHE_MAX_ENTRIES_ATTR);
+
+            setVerifyCacheTtl(getConfValue(conf, VERIFY_CACHE_TTL_ATTR, DEFAULT_VERIFY_CACHE_TTL));
+            extendedEnvironment.remove(VERIFY_CACHE_TTL_ATTR);
+
+            setConnectTimeout(getConfValue(conf, CONNECT_TIMEOUT_ATTR, DEFAULT_CONNECT_TIMEOUT));
+            extendedEnvironment.remove(CONNECT_TIMEOUT_ATTR);
+
+            setReadTimeout(getConfValue(conf, READ_TIMEOUT_ATTR, DEFAULT_READ_TIMEOUT));
+            extendedEnvironment.remove(READ_TIMEOUT_ATTR);
+
+            setOperationTimeout(getConfValue(conf, OPERATION_TIMEOUT_ATTR, DEFAULT_OPERATION_TIMEOUT));
+            extendedEnvironment.remove(OPERATION_TIMEOUT_ATTR);
+
+            if (getConfValue(conf, METRICS_ENABLED_ATTR, false))
+            {
+                enableMetrics(getConfValue(conf, METRICS_REPORTER_ATTR, null), getConfValue(conf, METRICS_REPORT_INTERVAL_ATTR, DEFAULT_METRICS_REPORT_INTERVAL));
+            }
+            extendedEnvironment.remove(METRICS_ENABLED_ATTR);
+            extendedEnvironment.remove(METRICS_REPORTER_ATTR);
+            extendedEnvironment.remove(METRICS_REPORT_INTERVAL_ATTR);
+
+            enableSlowQueryLog(getConfValue(conf, SLOW_QUERY_THRESHOLD_ATTR, DEFAULT_SLOW_QUERY_THRESHOLD), getConfValue(conf, SLOW_QUERY_TOP_FINGERPRINTS_ATTR, DEFAULT_SLOW_QUERY_TOP_FINGERPRINTS));
+            extendedEnvironment.remove(SLOW_QUERY_THRESHOLD_ATTR);
+            extendedEnvironment.remove(SLOW_QUERY_TOP_FINGERPRINTS_ATTR);
             
         }
     }
@@ -201,6 +357,13 @@ public class LDAPJNDIConnection extends LDAPConnection
         
         return StringUtils.isNotEmpty(value) ? Long.parseLong(value) : defaultValue;        
     }
+
+    private boolean getConfValue(Map<String, String> conf, String key, boolean defaultValue)
+    {
+        String value = conf.get(key);
+        
+        return StringUtils.isNotEmpty(value) ? Boolean.parseBoolean(value) : defaultValue;        
+    }
     
     /**
      * @return
@@ -226,12 +389,31 @@ public class LDAPJNDIConnection extends LDAPConnection
         {
             conf.append("init_pool_conns: " + getInitialPoolSizeConnections() + ", ");
             conf.append("max_pool_conns: " + getMaxPoolConnections() + ", ");
-            conf.append("pool_timeout: " + getPoolTimeout());
+            conf.append("pool_timeout: " + getPoolTimeout() + ", ");
+            conf.append("pool_borrow_timeout: " + getPoolBorrowTimeout() + ", ");
+            conf.append("pool_validate_on_borrow: " + isPoolValidateOnBorrow());
         }
         else
         {
             conf.append("pool: disabled");
         }
+        if (isLoadBalancingEnabled())
+        {
+            conf.append(", load_balancing: " + getLoadBalancingPolicy() + ", ");
+            conf.append("circuit_breaker_failure_threshold: " + getCircuitBreakerFailureThreshold() + ", ");
+            conf.append("circuit_breaker_open_time: " + getCircuitBreakerOpenTime() + ", ");
+            conf.append("circuit_breaker_slow_operation_threshold: " + getCircuitBreakerSlowOperationThreshold());
+        }
+        conf.append(", connect_timeout: " + getConnectTimeout() + ", ");
+        conf.append("read_timeout: " + getReadTimeout() + ", ");
+        conf.append("operation_timeout: " + getOperationTimeout());
+        conf.append(", verify_init_pool_conns: " + getVerifyInitialPoolSize() + ", ");
+        conf.append("verify_max_pool_conns: " + getVerifyMaxPoolSize());
+        if (getVerifyCacheMaxEntries() > 0)
+        {
+            conf.append(", verify_cache_max_entries: " + getVerifyCacheMaxEntries() + ", ");
+            conf.append("verify_cache_ttl: " + getVerifyCacheTtl());
+        }
         if(extendedEnvironment != null && extendedEnvironment.size() > 0)
         {
             conf.append(", extended: " + extendedEnvironment);
@@ -263,6 +445,32 @@ public class LDAPJNDIConnection extends LDAPConnection
      */
     public void close() throws LDAPException
     {
+        // Operations still waiting for a thread would fail anyway without the pool
+        shutdownAsyncExecutor();
+        getMetrics().unregister();
+        getSlowQueryLog().unregister();
+        closePool();
+        closeServers();
+        closeVerifyPool();
+        
+        if (this.lookupCache != null)
+        {
+            // Cached entries were visible to the binded user, who may not be the next one
+            this.lookupCache.clear();
+        }
+        if (this.negativeCache != null)
+        {
+            this.negativeCache.clear();
+        }
+        if (this.searchCache != null)
+        {
+            this.searchCache.clear();
+        }
+        if (this.credentialsCache != null)
+        {
+            this.credentialsCache.clear();
+        }
+        
         if (getConn() != null)
         {
             try
@@ -285,44 +493,38 @@ public class LDAPJNDIConnection extends LDAPConnection
      * @throws LDAPException
      */
     private Hashtable<String, String> buildEnvironment(String dn, String password) throws LDAPException
+    {
+        return buildEnvironment(getAuthentication(), dn, password);
+    }
+
+    /**
+     * @param authentication The authentication mechanism, which may not be the configured one.
+     * @param dn
+     * @param password
+     * @return
+     * @throws LDAPException
+     */
+    private Hashtable<String, String> buildEnvironment(String authentication, String dn, String password) throws LDAPException
     {
         Hashtable<String, String> env = new Hashtable<String, String>();
         
         env.put(Context.REFERRAL, getReferral());
-        env.put(Context.SECURITY_AUTHENTICATION, getAuthentication());
-        if (!isNoAuthentication())
+        env.put(Context.SECURITY_AUTHENTICATION, authentication);
+        if (!NO_AUTHENTICATION.equalsIgnoreCase(authentication))
         {
             env.put(Context.SECURITY_PRINCIPAL, dn);
             env.put(Context.SECURITY_CREDENTIALS, password);
         }
         env.put(Context.INITIAL_CONTEXT_FACTORY, getInitialContextFactory());
         env.put(Context.PROVIDER_URL, getProviderUrl());
-
-
-        if (isConnectionPoolEnabled())
+        env.put(POOL_ENABLED_ENV_PARAM, "false");
+        if (getConnectTimeout() > 0)
         {
-            env.put(POOL_ENABLED_ENV_PARAM, "true");
-            
-            env.put(AUTHENTICATION_ENV_PARAM, getAuthentication());
-
-            if (getMaxPoolConnections() > 0)
-            {
-                env.put(MAX_POOL_SIZE_ENV_PARAM, String.valueOf(getMaxPoolConnections()));
-            }
-
-            if (getInitialPoolSizeConnections() > 0)
-            {
-                env.put(INIT_POOL_SIZE_ENV_PARAM, String.valueOf(getInitialPoolSizeConnections()));
-            }
-
-            if (getPoolTimeout() > 0)
-            {
-                env.put(TIME_OUT_ENV_PARAM, String.valueOf(getPoolTimeout()));
-            }
+            env.put(CONNECT_TIMEOUT_ENV_PARAM, String.valueOf(getConnectTimeout()));
         }
-        else
+        if (getReadTimeout() > 0)
         {
-            env.put(POOL_ENABLED_ENV_PARAM, "false");
+            env.put(READ_TIMEOUT_ENV_PARAM, String.valueOf(getReadTimeout()));
         }
         
         if(extendedEnvironment != null && extendedEnvironment.size() > 0)
@@ -363,244 +565,1529 @@ public class LDAPJNDIConnection extends LDAPConnection
     @Override
     public void bind(String dn, String password) throws LDAPException
     {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.BIND);
         try
         {
             if(!isClosed())
             {
-                String currentUrl = (String) getConn().getEnvironment().get(Context.PROVIDER_URL);
-                String currentAuth = (String) getConn().getEnvironment().get(Context.SECURITY_AUTHENTICATION);
-                String currentDn = getBindedUserDn();
-                
-                logger.info("Already binded to " + currentUrl + " with " + currentAuth + " authentication as " + (currentDn != null ? currentDn : "anonymous") + ". Closing connection first.");
+                if (logger.isInfoEnabled())
+                {
+                    String currentDn = getBindedUserDn();
+                    logger.info("Already binded to {} with {} authentication as {}. Closing connection first.", getConn().getEnvironment().get(Context.PROVIDER_URL),
+                        getConn().getEnvironment().get(Context.SECURITY_AUTHENTICATION), currentDn != null ? currentDn : "anonymous");
+                }
                 
                 close();
                 
-                logger.info("Re-binding to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous"));
+                logger.info("Re-binding to {} with {} authentication as {}", getProviderUrl(), getAuthentication(), dn != null ? dn : "anonymous");
             }
             
-            logConfiguration(dn, password);
-            setConn(new InitialLdapContext(buildEnvironment(dn, password), null));
-            logger.info("Binded to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous"));
-
+            if (logger.isDebugEnabled())
+            {
+                logConfiguration(dn, password);
+            }
+            Hashtable<String, String> env = buildEnvironment(dn, password);
+            setConn(new InitialLdapContext(env, null));
+            logger.info("Binded to {} with {} authentication as {}", getProviderUrl(), getAuthentication(), dn != null ? dn : "anonymous");
+            
+            if (isLoadBalancingEnabled())
+            {
+                startServers(env);
+            }
+            else if (isConnectionPoolEnabled())
+            {
+                startPool(env);
+            }
+            
+            if (this.lookupCache == null && getLookupCacheMaxEntries() > 0)
+            {
+                this.lookupCache = new LDAPEntryCache(getLookupCacheMaxEntries(), getLookupCacheMaxBytes(), getLookupCacheTtl());
+            }
+            
+            if (this.negativeCache == null && getNegativeCacheMaxEntries() > 0 && getNegativeCacheTtl() > 0)
+            {
+                this.negativeCache = new LDAPNegativeCache(getNegativeCacheMaxEntries(), getNegativeCacheTtl(), isNegativeCacheBloomFilter());
+            }
+            
+            if (this.searchCache == null && getSearchCacheMaxBytes() > 0)
+            {
+                this.searchCache = new LDAPSearchCache(getSearchCacheMaxBytes(), getSearchCacheTtl());
+            }
+            
+            if (this.credentialsCache == null && getVerifyCacheMaxEntries() > 0 && getVerifyCacheTtl() > 0)
+            {
+                this.credentialsCache = new LDAPCredentialsCache(getVerifyCacheMaxEntries(), getVerifyCacheTtl());
+            }
+            
+            if (this.watchdog == null && getOperationTimeout() > 0)
+            {
+                this.watchdog = new LDAPJNDIOperationWatchdog(getOperationTimeout());
+            }
+            
+            getMetrics().register();
+            getSlowQueryLog().register();
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Bind failed.");
+            throw sample.failed(handleNamingException(nex, "Bind failed."));
+        }
+        catch (LDAPException ex)
+        {
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            sample.stop();
         }
     }
 
-    private String getBindedUserPassword() throws LDAPException
+    private void startPool(Hashtable<String, String> env) throws LDAPException
     {
+        LDAPJNDIContextPool newPool = new LDAPJNDIContextPool(env, getInitialPoolSizeConnections(), getMaxPoolConnections(), getPoolBorrowTimeout(), getPoolTimeout(), isPoolValidateOnBorrow());
         try
         {
-            return (String) getConn().getEnvironment().get(Context.SECURITY_CREDENTIALS);
+            newPool.start();
+            this.pool = newPool;
         }
-        catch (NamingException nex)
+        catch (LDAPException ex)
         {
-            throw handleNamingException(nex, "Cannot get binded user password.");
+            newPool.close();
+            close();
+            throw ex;
         }
     }
     
-    @Override
-    public String getBindedUserDn() throws LDAPException
+    private void closePool()
     {
-        if(!isClosed())
+        if (this.pool != null)
         {
-            try
-            {
-                return (String) getConn().getEnvironment().get(Context.SECURITY_PRINCIPAL);
-            }
-            catch (NamingException nex)
-            {
-                throw handleNamingException(nex, "Cannot get binded user DN.");
-            }
+            this.pool.close();
+            this.pool = null;
         }
-        else
+    }
+    
+    private void startServers(Hashtable<String, String> env) throws LDAPException
+    {
+        LDAPJNDIServerPool newServers = new LDAPJNDIServerPool(getProviderUrls(), env, getLoadBalancingPolicy(), getInitialPoolSizeConnections(), getMaxPoolConnections(), getPoolBorrowTimeout(),
+            getPoolTimeout(), isPoolValidateOnBorrow(), getCircuitBreakerFailureThreshold(), getCircuitBreakerOpenTime(), getCircuitBreakerSlowOperationThreshold());
+        try
         {
-            return null;
+            newServers.start();
+            this.servers = newServers;
+        }
+        catch (LDAPException ex)
+        {
+            close();
+            throw ex;
         }
     }
     
-    /**
-     * @param baseDn
-     * @param filter
-     * @param controls
-     * @return
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String,
-     *      java.lang.String, org.mule.module.ldap.api.LDAPSearchControls)
-     */
-    @Override
-    public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls)
-        throws LDAPException
+    private void closeServers()
     {
-        return doSearch(baseDn, filter, null, controls);
+        if (this.servers != null)
+        {
+            this.servers.close();
+            this.servers = null;
+        }
     }
-
+    
     /**
-     * @param baseDn
-     * @param filter
-     * @param filterArgs
-     * @param controls
-     * @return
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String,
-     *      java.lang.String, java.lang.Object[],
-     *      org.mule.module.ldap.api.LDAPSearchControls)
+     * The contexts of the pool used to verify credentials are not authenticated when they are created. Each
+     * verification binds again over the connection of one of them.
      */
-    @Override
-    public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls)
-        throws LDAPException
-    {
-        return doSearch(baseDn, filter, filterArgs, controls);
-    }
-
-    private LDAPResultSet doSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    private synchronized LDAPJNDIContextPool getVerifyPool() throws LDAPException
     {
-        LdapContext searchConn = null;
-        try
+        if (this.verifyPool == null)
         {
-            searchConn = controls.isPagingEnabled() ? getConn().newInstance(LDAPJNDIUtils.buildRequestControls(controls, null)) : getConn();
-            
-            NamingEnumeration<SearchResult> entries;
-            if(filterArgs != null && filterArgs.length > 0)
+            Hashtable<String, String> env = buildEnvironment(NO_AUTHENTICATION, null, null);
+            LDAPJNDIContextPool newPool = new LDAPJNDIContextPool(env, getVerifyInitialPoolSize(), getVerifyMaxPoolSize(), getPoolBorrowTimeout(), getPoolTimeout(), false);
+            try
             {
-                entries = searchConn.search(baseDn, filter, filterArgs, LDAPJNDIUtils.buildSearchControls(controls));
+                newPool.start();
             }
-            else
+            catch (LDAPException ex)
             {
-                entries = searchConn.search(baseDn, filter, LDAPJNDIUtils.buildSearchControls(controls));
+                newPool.close();
+                throw ex;
             }
-            
-            return LDAPResultSetFactory.create(baseDn, filter, filterArgs, searchConn, controls, entries);
-        }
-        catch (NamingException nex)
-        {
-            throw handleNamingException(nex, "Search failed.");
+            this.verifyPool = newPool;
         }
+        return this.verifyPool;
     }
     
-    /**
-     * @param dn
-     * @return
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String)
-     */
-    public LDAPEntry lookup(String dn) throws LDAPException
+    private synchronized void closeVerifyPool()
     {
-        try
+        if (this.verifyPool != null)
         {
-            return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn));
+            this.verifyPool.close();
+            this.verifyPool = null;
         }
-        catch (NamingException nex)
+    }
+    
+    private LDAPEntry getCachedEntry(String dn, String[] attributes)
+    {
+        LDAPEntryCache cache = this.lookupCache;
+        LDAPEntry entry = cache != null ? cache.get(dn, attributes) : null;
+        if (entry != null && logger.isDebugEnabled())
         {
-            throw handleNamingException(nex, "Lookup failed.");
+            logger.debug("Entry {} found in lookup cache", dn);
         }
+        return entry;
     }
-
-    /**
-     * @param dn
-     * @param attributes
-     * @return
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String,
-     *      java.lang.String[])
+    
+    /*
+     * Generation of the lookup cache before reading an entry, so that entries written meanwhile are not cached.
      */
-    public LDAPEntry lookup(String dn, String[] attributes) throws LDAPException
+    private long getLookupGeneration()
     {
-        try
-        {
-            return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn, attributes));
-        }
-        catch (NamingException nex)
+        LDAPEntryCache cache = this.lookupCache;
+        return cache != null ? cache.getGeneration() : 0L;
+    }
+    
+    private LDAPEntry cacheEntry(String dn, String[] attributes, LDAPEntry entry, long generation)
+    {
+        LDAPEntryCache cache = this.lookupCache;
+        if (cache != null)
         {
-            throw handleNamingException(nex, "Lookup failed.");
+            cache.put(dn, attributes, entry, generation);
         }
+        return entry;
     }
-
-    /**
-     * @param entry
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#addEntry(org.mule.module.ldap.api.LDAPEntry)
+    
+    /*
+     * Entries are invalidated even if the operation failed, as a failure (for example a timeout)
+     * doesn't mean the entry was not changed.
      */
-    public void addEntry(LDAPEntry entry) throws LDAPException
+    private void invalidateCachedEntry(String dn)
     {
-        try
+        LDAPEntryCache cache = this.lookupCache;
+        if (cache != null)
         {
-            getConn().bind(entry.getDn(), null, buildAttributes(entry));
+            cache.invalidate(dn);
         }
-        catch (NamingException nex)
+        invalidateCachedSearches(dn);
+        invalidateCredentials(dn, false);
+    }
+    
+    private void invalidateCachedSubtree(String dn)
+    {
+        LDAPEntryCache cache = this.lookupCache;
+        if (cache != null)
         {
-            throw handleNamingException(nex, "Add entry failed.");
+            cache.invalidateSubtree(dn);
         }
+        invalidateCachedSearches(dn);
+        invalidateCredentials(dn, true);
     }
-
     
-    private LDAPException handleNamingException(NamingException nex, String logMessage)
+    private void invalidateCachedSearches(String dn)
     {
-        logger.error(logMessage, nex);
-        
-        return LDAPException.create(nex);
+        LDAPSearchCache cache = this.searchCache;
+        if (cache != null)
+        {
+            cache.invalidate(dn);
+        }
     }
     
-    /**
-     * @param entry
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#updateEntry(org.mule.module.ldap.api.LDAPEntry)
+    /*
+     * The password of a modified entry may have changed.
      */
-    public void updateEntry(LDAPEntry entry) throws LDAPException
+    private void invalidateCredentials(String dn, boolean subtree)
     {
-        try
+        LDAPCredentialsCache cache = this.credentialsCache;
+        if (cache != null)
         {
-            ModificationItem[] mods = new ModificationItem[entry.getAttributeCount()];
-            Iterator<LDAPEntryAttribute> it = entry.attributes();
-            for (int i = 0; it.hasNext() && i < mods.length; i++)
+            if (subtree)
             {
-                mods[i] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
-                    buildBasicAttribute(((LDAPEntryAttribute) it.next())));
+                cache.invalidateSubtree(dn);
+            }
+            else
+            {
+                cache.invalidate(dn);
             }
-            getConn().modifyAttributes(entry.getDn(), mods);
         }
-        catch (NamingException nex)
+    }
+    
+    /*
+     * Entries that may have been created are no longer known to be missing.
+     */
+    private void invalidateMissingSubtree(String dn)
+    {
+        LDAPNegativeCache cache = this.negativeCache;
+        if (cache != null)
         {
-            throw handleNamingException(nex, "Update entry failed.");
+            cache.invalidateSubtree(dn);
         }
     }
-
+    
     /**
-     * @param entry
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(org.mule.module.ldap.api.LDAPEntry)
+     * Borrows a context for a read.
      */
-    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    private LdapContext borrowContext() throws LDAPException
     {
-        deleteEntry(entry.getDn());
+        return borrowContext(false, LDAPMetrics.Sample.NONE);
     }
-
+    
+    private LdapContext borrowContext(LDAPMetrics.Sample sample) throws LDAPException
+    {
+        return borrowContext(false, sample);
+    }
+    
     /**
-     * @param dn
-     * @throws LDAPException
-     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(java.lang.String)
+     * Borrows a context for a write or for an operation that depends on the state of a single server, such
+     * as a synchronization. If load balancing is enabled, it belongs to the preferred primary server.
      */
-    public void deleteEntry(String dn) throws LDAPException
+    private LdapContext borrowPrimaryContext() throws LDAPException
     {
-        try
-        {
+        return borrowContext(true, LDAPMetrics.Sample.NONE);
+    }
+    
+    private LdapContext borrowPrimaryContext(LDAPMetrics.Sample sample) throws LDAPException
+    {
+        return borrowContext(true, sample);
+    }
+    
+    /**
+     * Borrows a context from the servers or the pool, or returns the binded context if pooling is disabled.
+     * Contexts obtained with this method must be handed back with {@link #releaseContext(LdapContext)}.
+     * If no context can be borrowed, the sample of the operation is stopped as failed.
+     */
+    private LdapContext borrowContext(boolean primary, LDAPMetrics.Sample sample) throws LDAPException
+    {
+        LDAPJNDIServerPool currentServers = this.servers;
+        LDAPJNDIContextPool currentPool = this.pool;
+        LdapContext ctx;
+        try
+        {
+            if (currentServers != null)
+            {
+                ctx = currentServers.borrowContext(primary);
+                if (sample.isRecording())
+                {
+                    sample.setServer(currentServers.getUrl(ctx));
+                }
+            }
+            else if (currentPool != null)
+            {
+                ctx = currentPool.borrowContext();
+            }
+            else if (getConn() != null)
+            {
+                ctx = getConn();
+            }
+            else
+            {
+                throw new LDAPException("Connection is closed. You must first bind.");
+            }
+        }
+        catch (LDAPException ex)
+        {
+            sample.failed(ex);
+            sample.stop();
+            throw ex;
+        }
+        
+        LDAPJNDIOperationWatchdog currentWatchdog = this.watchdog;
+        if (currentWatchdog != null)
+        {
+            currentWatchdog.arm(ctx);
+        }
+        return ctx;
+    }
+    
+    private void releaseContext(LdapContext ctx)
+    {
+        if (ctx == null || isAbandoned(ctx) || ctx == getConn())
+        {
+            return;
+        }
+        LDAPJNDIServerPool currentServers = this.servers;
+        if (currentServers != null)
+        {
+            currentServers.returnContext(ctx);
+        }
+        else if (this.pool != null)
+        {
+            this.pool.returnContext(ctx);
+        }
+    }
+    
+    /**
+     * @return The pool a result set hands back the context to when it is closed, or null for the binded context.
+     */
+    private LDAPJNDIContextPool getPool(LdapContext ctx)
+    {
+        if (ctx == getConn())
+        {
+            return null;
+        }
+        LDAPJNDIServerPool currentServers = this.servers;
+        return currentServers != null ? currentServers.getPool(ctx) : this.pool;
+    }
+    
+    /**
+     * If the exception means that the connection behind a pooled context is no longer usable, then the context is
+     * removed from the pool. Returns the context that should be released, or null if it was discarded.
+     */
+    private LdapContext discardIfBroken(LdapContext ctx, NamingException nex)
+    {
+        if (ctx != null && isAbandoned(ctx))
+        {
+            return null;
+        }
+        if (ctx == null || ctx == getConn() || !LDAPJNDIUtils.isConnectionFailure(nex))
+        {
+            return ctx;
+        }
+        LDAPJNDIServerPool currentServers = this.servers;
+        if (currentServers != null)
+        {
+            currentServers.invalidateContext(ctx);
+            return null;
+        }
+        else if (this.pool != null)
+        {
+            this.pool.invalidateContext(ctx);
+            return null;
+        }
+        return ctx;
+    }
+    
+    /**
+     * Ends the deadline of the operation of the current thread on the context. If the operation exceeded it, then
+     * the watchdog already closed the context, so it is discarded (or, if it is the binded context, the connection
+     * is closed so that it binds again) and true is returned.
+     */
+    private boolean isAbandoned(LdapContext ctx)
+    {
+        LDAPJNDIOperationWatchdog currentWatchdog = this.watchdog;
+        if (currentWatchdog == null)
+        {
+            return false;
+        }
+        currentWatchdog.disarm(ctx);
+        if (!currentWatchdog.isAbandoned(ctx))
+        {
+            return false;
+        }
+        
+        currentWatchdog.forget(ctx);
+        if (ctx == getConn())
+        {
+            logger.warn("Binded connection was closed as an operation exceeded its deadline of {} ms. It must bind again.", currentWatchdog.getTimeout());
+            setConn(null);
+        }
+        else if (this.servers != null)
+        {
+            this.servers.invalidateContext(ctx);
+        }
+        else if (this.pool != null)
+        {
+            this.pool.invalidateContext(ctx);
+        }
+        return true;
+    }
+    
+    /**
+     * Operations that run on a copy of the borrowed context must have it closed too if they exceed their deadline,
+     * as the connection is shared by both.
+     */
+    private void attachToDeadline(LdapContext ctx, LdapContext derived)
+    {
+        LDAPJNDIOperationWatchdog currentWatchdog = this.watchdog;
+        if (currentWatchdog != null)
+        {
+            currentWatchdog.attach(ctx, derived);
+        }
+    }
+    
+    private NamingException deadlineExceeded()
+    {
+        return new javax.naming.CommunicationException("Operation exceeded its deadline of " + getOperationTimeout() + " ms");
+    }
+    
+    private void closeQuietly(LdapContext ctx)
+    {
+        try
+        {
+            ctx.close();
+        }
+        catch (NamingException nex)
+        {
+            logger.debug("Error closing LDAP context. Ignoring it.", nex);
+        }
+    }
+    
+    private String getBindedUserPassword() throws LDAPException
+    {
+        try
+        {
+            return (String) getConn().getEnvironment().get(Context.SECURITY_CREDENTIALS);
+        }
+        catch (NamingException nex)
+        {
+            throw handleNamingException(nex, "Cannot get binded user password.");
+        }
+    }
+    
+    @Override
+    public String getBindedUserDn() throws LDAPException
+    {
+        if(!isClosed())
+        {
+            try
+            {
+                return (String) getConn().getEnvironment().get(Context.SECURITY_PRINCIPAL);
+            }
+            catch (NamingException nex)
+            {
+                throw handleNamingException(nex, "Cannot get binded user DN.");
+            }
+        }
+        else
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Operations run concurrently on different pooled contexts. JNDI contexts should not be used by
+     * several threads at the same time, so if pooling is disabled operations should run one at a time.
+     * 
+     * @return
+     * @see org.mule.module.ldap.api.LDAPConnection#getMaxConcurrentOperations()
+     */
+    @Override
+    public int getMaxConcurrentOperations()
+    {
+        LDAPJNDIServerPool currentServers = this.servers;
+        if (currentServers != null)
+        {
+            return currentServers.getMaxSize();
+        }
+        LDAPJNDIContextPool currentPool = this.pool;
+        return currentPool != null ? currentPool.getMaxSize() : 1;
+    }
+    
+    /**
+     * @return The binded context plus the contexts of the pool (or of the pools of all the servers) and of the pool
+     *         used to verify credentials.
+     * @see org.mule.module.ldap.api.LDAPConnection#getOpenConnections()
+     */
+    @Override
+    public int getOpenConnections()
+    {
+        int open = getConn() != null ? 1 : 0;
+        LDAPJNDIServerPool currentServers = this.servers;
+        LDAPJNDIContextPool currentPool = this.pool;
+        LDAPJNDIContextPool currentVerifyPool = this.verifyPool;
+        if (currentServers != null)
+        {
+            open += currentServers.getOpenContexts();
+        }
+        else if (currentPool != null)
+        {
+            open += currentPool.getOpenContexts();
+        }
+        if (currentVerifyPool != null)
+        {
+            open += currentVerifyPool.getOpenContexts();
+        }
+        return open;
+    }
+    
+    /**
+     * @return The pooled contexts being used by an operation. The binded context is not counted, as it is shared.
+     * @see org.mule.module.ldap.api.LDAPConnection#getBorrowedConnections()
+     */
+    @Override
+    public int getBorrowedConnections()
+    {
+        int borrowed = 0;
+        LDAPJNDIServerPool currentServers = this.servers;
+        LDAPJNDIContextPool currentPool = this.pool;
+        LDAPJNDIContextPool currentVerifyPool = this.verifyPool;
+        if (currentServers != null)
+        {
+            borrowed += currentServers.getBorrowedContexts();
+        }
+        else if (currentPool != null)
+        {
+            borrowed += currentPool.getBorrowedContexts();
+        }
+        if (currentVerifyPool != null)
+        {
+            borrowed += currentVerifyPool.getBorrowedContexts();
+        }
+        return borrowed;
+    }
+    
+    /**
+     * Returns the cached results, if the search cache is enabled and the same search was recently performed.
+     * 
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#searchAll(java.lang.String,
+     *      java.lang.String, org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public List<LDAPEntry> searchAll(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPSearchCache cache = this.searchCache;
+        if (cache == null)
+        {
+            return super.searchAll(baseDn, filter, controls);
+        }
+        
+        List<LDAPEntry> entries = cache.get(baseDn, filter, controls);
+        if (entries != null)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Search of {} under {} found in search cache", filter, baseDn);
+            }
+            return entries;
+        }
+        
+        long generation = cache.getGeneration();
+        entries = super.searchAll(baseDn, filter, controls);
+        cache.put(baseDn, filter, controls, entries, generation);
+        return entries;
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param controls
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String,
+     *      java.lang.String, org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls)
+        throws LDAPException
+    {
+        return doSearch(baseDn, filter, null, controls);
+    }
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param filterArgs
+     * @param controls
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String,
+     *      java.lang.String, java.lang.Object[],
+     *      org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls)
+        throws LDAPException
+    {
+        return doSearch(baseDn, filter, filterArgs, controls);
+    }
+
+    private LDAPResultSet doSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        if (controls.isParallel())
+        {
+            // Runs a search per child of the base DN, each of them coming back here with parallelism disabled
+            return new LDAPParallelSearch(this, controls.getParallelism(), getSortMaxInMemoryEntries()).search(baseDn, filter, filterArgs, controls);
+        }
+
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.SEARCH);
+        LDAPSlowQueryLog.Search slowQuery = getSlowQueryLog().start(baseDn, filter, controls);
+        try
+        {
+            if (controls.isVirtualListView())
+            {
+                if (controls.isOrderBySet())
+                {
+                    LDAPResultSet result = doVirtualListViewSearch(baseDn, filter, filterArgs, controls, sample);
+                    if (result != null)
+                    {
+                        return slowQuery.track(sample.countEntries(result));
+                    }
+                }
+                else if (logger.isDebugEnabled())
+                {
+                    logger.debug("Virtual list view requires sorted results but no order was defined. Skipping {} entries instead.", controls.getOffset());
+                }
+            }
+
+            LDAPResultSet result = doStandardSearch(baseDn, filter, filterArgs, controls, sample, slowQuery);
+            if (controls.getOffset() > 0)
+            {
+                try
+                {
+                    skipEntries(result, controls.getOffset());
+                }
+                catch (LDAPException ex)
+                {
+                    result.close();
+                    throw ex;
+                }
+            }
+            return slowQuery.track(sample.countEntries(result));
+        }
+        catch (LDAPException ex)
+        {
+            throw slowQuery.failed(sample.failed(ex));
+        }
+        finally
+        {
+            // The latency of a search is the time until the first results are available
+            sample.stop();
+        }
+    }
+
+    /*
+     * Returns null if the LDAP server cannot resolve the search with virtual list view, so that the
+     * caller falls back to a standard search.
+     */
+    private LDAPResultSet doVirtualListViewSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, LDAPMetrics.Sample sample) throws LDAPException
+    {
+        LdapContext ctx = borrowContext(sample);
+        LdapContext searchConn = null;
+        try
+        {
+            searchConn = ctx.newInstance(null);
+            attachToDeadline(ctx, searchConn);
+            VirtualListViewLDAPResultSet result = new VirtualListViewLDAPResultSet(baseDn, filter, filterArgs, searchConn, controls, getPool(ctx), ctx);
+            result.open();
+            // The deadline ends once the server returns the first results. Reading the rest is bounded by the read timeout.
+            if (isAbandoned(ctx))
+            {
+                ctx = null;
+                throw deadlineExceeded();
+            }
+            ctx = null; // The result set returns the context to the pool when it is closed
+            return result;
+        }
+        catch (NamingException nex)
+        {
+            if (searchConn != null)
+            {
+                closeQuietly(searchConn);
+            }
+            if (LDAPJNDIUtils.isConnectionFailure(nex))
+            {
+                ctx = discardIfBroken(ctx, nex);
+                throw handleNamingException(nex, "Search failed.");
+            }
+            logger.info("Virtual list view search failed ({}). Skipping {} entries instead.", nex.getMessage(), controls.getOffset());
+            return null;
+        }
+        catch (LDAPException ex)
+        {
+            if (searchConn != null)
+            {
+                closeQuietly(searchConn);
+            }
+            throw ex;
+        }
+        finally
+        {
+            releaseContext(ctx);
+        }
+    }
+
+    /*
+     * LDAP servers without virtual list view support return all the results, so the
+     * entries before the offset are read and ignored.
+     */
+    private void skipEntries(LDAPResultSet result, int totalEntriesToSkip) throws LDAPException
+    {
+        int count = 0;
+        while (count < totalEntriesToSkip && result.hasNext())
+        {
+            count++;
+            result.next(); // skip
+        }
+    }
+
+    private LDAPResultSet doStandardSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, LDAPMetrics.Sample sample, LDAPSlowQueryLog.Search slowQuery) throws LDAPException
+    {
+        LdapContext ctx = borrowContext(sample);
+        LdapContext searchConn = null;
+        try
+        {
+            boolean requestControls = controls.isPagingEnabled() || controls.isOrderBySet();
+            searchConn = requestControls ? ctx.newInstance(LDAPJNDIUtils.buildRequestControls(controls, null)) : ctx;
+            attachToDeadline(ctx, searchConn);
+            
+            NamingEnumeration<SearchResult> entries;
+            if(filterArgs != null && filterArgs.length > 0)
+            {
+                entries = searchConn.search(baseDn, filter, filterArgs, LDAPJNDIUtils.buildSearchControls(controls));
+            }
+            else
+            {
+                entries = searchConn.search(baseDn, filter, LDAPJNDIUtils.buildSearchControls(controls));
+            }
+            
+            // The deadline ends once the server returns the first results. Reading the rest is bounded by the read timeout.
+            if (isAbandoned(ctx))
+            {
+                ctx = null;
+                throw deadlineExceeded();
+            }
+            LDAPJNDIResultSet result = LDAPResultSetFactory.create(baseDn, filter, filterArgs, searchConn, controls, entries, getPool(ctx), ctx);
+            ctx = null; // The result set returns the context to the pool when it is closed
+            if (result instanceof PagedLDAPResultSet)
+            {
+                ((PagedLDAPResultSet) result).setMetrics(getMetrics());
+                ((PagedLDAPResultSet) result).setSlowQuery(slowQuery);
+            }
+            
+            if (controls.isOrderBySet())
+            {
+                // The sort control is not critical, so results are sorted here if the server ignores it
+                return new SortedLDAPResultSet(result, controls.getSortKeys(), getSortMaxInMemoryEntries());
+            }
+            return result;
+        }
+        catch (NamingException nex)
+        {
+            if (searchConn != null && searchConn != ctx)
+            {
+                closeQuietly(searchConn);
+            }
+            ctx = discardIfBroken(ctx, nex);
+            throw handleNamingException(nex, "Search failed.");
+        }
+        finally
+        {
+            releaseContext(ctx);
+        }
+    }
+    
+    /**
+     * @param dn
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String)
+     */
+    public LDAPEntry lookup(String dn) throws LDAPException
+    {
+        LDAPEntry cached = getCachedEntry(dn, null);
+        if (cached != null)
+        {
+            return cached;
+        }
+        
+        long generation = getLookupGeneration();
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.LOOKUP);
+        LdapContext ctx = borrowContext(sample);
+        try
+        {
+            return cacheEntry(dn, null, LDAPJNDIUtils.buildEntry(dn, LDAPJNDIUtils.readAllRanges(ctx, dn, ctx.getAttributes(dn))), generation);
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Lookup failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+        }
+    }
+
+    /**
+     * @param dn
+     * @param attributes
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String,
+     *      java.lang.String[])
+     */
+    public LDAPEntry lookup(String dn, String[] attributes) throws LDAPException
+    {
+        LDAPEntry cached = getCachedEntry(dn, attributes);
+        if (cached != null)
+        {
+            return cached;
+        }
+        
+        long generation = getLookupGeneration();
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.LOOKUP);
+        LdapContext ctx = borrowContext(sample);
+        try
+        {
+            return cacheEntry(dn, attributes, LDAPJNDIUtils.buildEntry(dn, LDAPJNDIUtils.readAllRanges(ctx, dn, ctx.getAttributes(dn, attributes))), generation);
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Lookup failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+        }
+    }
+
+    /**
+     * Reads the values with range retrieval, so that at most one chunk of values is held in memory if the
+     * LDAP server supports it (see {@link RangeAttributeValueIterator}).
+     * 
+     * @param dn
+     * @param attributeName
+     * @param chunkSize
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#readAttributeValues(java.lang.String, java.lang.String, int)
+     */
+    @Override
+    public LDAPAttributeValueIterator readAttributeValues(String dn, String attributeName, int chunkSize) throws LDAPException
+    {
+        RangeAttributeValueIterator values = new RangeAttributeValueIterator(this, dn, attributeName, chunkSize);
+        // Reads the first chunk, so that a missing entry fails here and not while iterating
+        values.hasMoreChunks();
+        return values;
+    }
+
+    /**
+     * @param dn
+     * @param attributeIds
+     * @return The attributes of the entry as returned by the LDAP server.
+     * @throws LDAPException
+     */
+    Attributes readAttributes(String dn, String[] attributeIds) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.LOOKUP);
+        LdapContext ctx = borrowContext(sample);
+        try
+        {
+            return ctx.getAttributes(dn, attributeIds);
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Lookup failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+        }
+    }
+
+    /**
+     * Requests no attributes and, as missing entries are an expected result, doesn't log or wrap the
+     * exception returned by the LDAP server for them. Missing DNs are remembered by the negative cache,
+     * if enabled, and entries held by the lookup cache are known to exist without asking the server.
+     * 
+     * @param dn
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#exists(java.lang.String)
+     */
+    @Override
+    public boolean exists(String dn) throws LDAPException
+    {
+        LDAPNegativeCache cache = this.negativeCache;
+        if (cache != null && cache.isMissing(dn))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Entry {} found in negative cache", dn);
+            }
+            return false;
+        }
+        LDAPEntryCache entryCache = this.lookupCache;
+        if (entryCache != null && entryCache.contains(dn))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Entry {} found in lookup cache", dn);
+            }
+            return true;
+        }
+        
+        long generation = cache != null ? cache.getGeneration() : 0L;
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.EXISTS);
+        LdapContext ctx = borrowContext(sample);
+        try
+        {
+            ctx.getAttributes(dn, LDAPJNDIUtils.NO_ATTRIBUTES);
+            return true;
+        }
+        catch (javax.naming.NameNotFoundException nnfe)
+        {
+            if (cache != null)
+            {
+                cache.put(dn, generation);
+            }
+            return false;
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Exists failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+        }
+    }
+
+    /**
+     * Credentials are verified over a dedicated pool of connections, so neither the binded context nor the pooled
+     * contexts used by the other operations are affected. Successful verifications are cached if the credentials
+     * cache is enabled.
+     * 
+     * @see org.mule.module.ldap.api.LDAPConnection#verifyCredentials(java.lang.String, java.lang.String)
+     */
+    @Override
+    public boolean verifyCredentials(String dn, String password) throws LDAPException
+    {
+        if (StringUtils.isEmpty(dn) || StringUtils.isEmpty(password))
+        {
+            return false;
+        }
+        
+        LDAPCredentialsCache cache = this.credentialsCache;
+        if (cache != null && cache.isVerified(dn, password))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Credentials of {} found in credentials cache", dn);
+            }
+            return true;
+        }
+        // Credentials verified while the entry is modified are not cached
+        long generation = cache != null ? cache.getGeneration() : 0;
+        
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.VERIFY_CREDENTIALS);
+        LDAPJNDIContextPool currentVerifyPool;
+        LdapContext ctx;
+        try
+        {
+            currentVerifyPool = getVerifyPool();
+            ctx = currentVerifyPool.borrowContext();
+        }
+        catch (LDAPException ex)
+        {
+            sample.failed(ex);
+            sample.stop();
+            throw ex;
+        }
+        LDAPJNDIOperationWatchdog currentWatchdog = this.watchdog;
+        if (currentWatchdog != null)
+        {
+            currentWatchdog.arm(ctx);
+        }
+        boolean broken = false;
+        try
+        {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, isNoAuthentication() ? SIMPLE_AUTHENTICATION : getAuthentication());
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            // The JNDI provider binds again over the connection the context already has
+            ctx.reconnect(null);
+            
+            if (cache != null)
+            {
+                cache.put(dn, password, generation);
+            }
+            return true;
+        }
+        catch (javax.naming.AuthenticationException aex)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Invalid credentials for {}: {}", dn, aex.getMessage());
+            }
+            return false;
+        }
+        catch (NamingException nex)
+        {
+            broken = LDAPJNDIUtils.isConnectionFailure(nex);
+            throw sample.failed(handleNamingException(nex, "Verify credentials failed."));
+        }
+        finally
+        {
+            sample.stop();
+            if (currentWatchdog != null)
+            {
+                currentWatchdog.disarm(ctx);
+                if (currentWatchdog.isAbandoned(ctx))
+                {
+                    currentWatchdog.forget(ctx);
+                    broken = true;
+                }
+            }
+            if (broken)
+            {
+                currentVerifyPool.invalidateContext(ctx);
+            }
+            else
+            {
+                currentVerifyPool.returnContext(ctx);
+            }
+        }
+    }
+
+    /**
+     * The subscription holds its own connection to the LDAP server, created with the same environment
+     * (and so the same credentials) as this connection.
+     * 
+     * @see org.mule.module.ldap.api.LDAPConnection#subscribe(java.lang.String, java.lang.String, int, int, int, long)
+     */
+    @Override
+    public LDAPChangeSubscription subscribe(String baseDn, String filter, int scope, int mode, int bufferSize, long retryDelay) throws LDAPException
+    {
+        if (mode == LDAPChangeSubscription.AUTO)
+        {
+            mode = detectChangeNotificationMode();
+        }
+        
+        Hashtable<String, Object> env = getEnvironment();
+        AbstractChangeSubscription subscription;
+        if (mode == LDAPChangeSubscription.CHANGE_LOG)
+        {
+            subscription = new ChangeLogSubscription(env, baseDn, filter, scope, bufferSize, retryDelay);
+        }
+        else
+        {
+            subscription = new PersistentSearchSubscription(env, baseDn, filter, scope, bufferSize, retryDelay);
+        }
+        subscription.start();
+        
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Subscribed to changes of {} under {} using {}", filter, baseDn, mode == LDAPChangeSubscription.CHANGE_LOG ? "the change log" : "persistent search");
+        }
+        return subscription;
+    }
+    
+    private int detectChangeNotificationMode() throws LDAPException
+    {
+        LdapContext ctx = borrowContext();
+        try
+        {
+            Attributes rootDse = ctx.getAttributes("", new String[] {"supportedControl", "changelog"});
+            Attribute controls = rootDse.get("supportedControl");
+            if (controls != null && controls.contains(PersistentSearchSubscription.PERSISTENT_SEARCH_OID))
+            {
+                return LDAPChangeSubscription.PERSISTENT_SEARCH;
+            }
+            if (rootDse.get("changelog") != null)
+            {
+                return LDAPChangeSubscription.CHANGE_LOG;
+            }
+            throw new LDAPException("LDAP server supports neither persistent search nor a change log");
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw handleNamingException(nex, "Reading supported change notification mechanisms failed.");
+        }
+        finally
+        {
+            releaseContext(ctx);
+        }
+    }
+    
+    private Hashtable<String, Object> getEnvironment() throws LDAPException
+    {
+        if (isClosed())
+        {
+            throw new LDAPException("Cannot subscribe to changes with a closed connection. You must first bind.");
+        }
+        try
+        {
+            Hashtable<String, Object> env = new Hashtable<String, Object>();
+            for (Map.Entry<?, ?> entry : getConn().getEnvironment().entrySet())
+            {
+                env.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            return env;
+        }
+        catch (NamingException nex)
+        {
+            throw handleNamingException(nex, "Cannot get connection environment.");
+        }
+    }
+
+    /**
+     * Uses the content synchronization (RFC 4533) or DirSync controls, if requested or, in
+     * {@link LDAPSyncResult#AUTO} mode, if the cookie was created by them or the LDAP server supports them.
+     * Otherwise it falls back to {@link LDAPSyncResult#HIGH_WATER_MARK}.
+     * 
+     * @see org.mule.module.ldap.api.LDAPConnection#sync(java.lang.String, java.lang.String, org.mule.module.ldap.api.LDAPSearchControls, int, java.lang.String[], java.lang.String)
+     */
+    @Override
+    public LDAPSyncResult sync(String baseDn, String filter, LDAPSearchControls controls, int mode, String[] highWaterMarkAttributes, String cookie) throws LDAPException
+    {
+        if (mode == LDAPSyncResult.AUTO)
+        {
+            mode = cookie != null ? getSyncMode(cookie) : detectSyncMode();
+        }
+        else if (cookie != null && getSyncMode(cookie) != mode)
+        {
+            logger.warn("Cookie was created by a different synchronization mode. Returning all the entries.");
+            cookie = null;
+        }
+        
+        if (cookie != null)
+        {
+            logger.debug("Synchronizing {} under {} with mode {} from cookie {}", filter, baseDn, mode, cookie);
+        }
+        else
+        {
+            logger.debug("Synchronizing {} under {} with mode {}", filter, baseDn, mode);
+        }
+        
+        switch (mode)
+        {
+            case LDAPSyncResult.CONTENT_SYNC :
+                return controlSync(baseDn, filter, controls, true, cookie != null ? LDAPUtils.decodeBase64(cookie.substring(CONTENT_SYNC_COOKIE_PREFIX.length())) : null);
+            case LDAPSyncResult.DIR_SYNC :
+                return controlSync(baseDn, filter, controls, false, cookie != null ? LDAPUtils.decodeBase64(cookie.substring(DIR_SYNC_COOKIE_PREFIX.length())) : null);
+            default :
+                return highWaterMarkSync(baseDn, filter, controls, highWaterMarkAttributes, cookie);
+        }
+    }
+    
+    private static int getSyncMode(String cookie)
+    {
+        if (cookie.startsWith(CONTENT_SYNC_COOKIE_PREFIX))
+        {
+            return LDAPSyncResult.CONTENT_SYNC;
+        }
+        return cookie.startsWith(DIR_SYNC_COOKIE_PREFIX) ? LDAPSyncResult.DIR_SYNC : LDAPSyncResult.HIGH_WATER_MARK;
+    }
+    
+    private int detectSyncMode() throws LDAPException
+    {
+        LdapContext ctx = borrowPrimaryContext();
+        try
+        {
+            Attribute controls = ctx.getAttributes("", new String[] {"supportedControl"}).get("supportedControl");
+            if (controls != null && controls.contains(ContentSyncControl.OID))
+            {
+                return LDAPSyncResult.CONTENT_SYNC;
+            }
+            if (controls != null && controls.contains(DirSyncControl.OID))
+            {
+                return LDAPSyncResult.DIR_SYNC;
+            }
+            return LDAPSyncResult.HIGH_WATER_MARK;
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw handleNamingException(nex, "Reading supported synchronization controls failed.");
+        }
+        finally
+        {
+            releaseContext(ctx);
+        }
+    }
+    
+    private LDAPSyncResult controlSync(String baseDn, String filter, LDAPSearchControls controls, boolean contentSync, byte[] cookie) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.SYNC);
+        LdapContext ctx = borrowPrimaryContext(sample);
+        LdapContext searchConn = null;
+        try
+        {
+            searchConn = ctx.newInstance(null);
+            attachToDeadline(ctx, searchConn);
+            try
+            {
+                return contentSync ? contentSync(searchConn, baseDn, filter, controls, cookie) : dirSync(searchConn, baseDn, filter, controls, cookie);
+            }
+            catch (NamingException nex)
+            {
+                if (cookie == null || !isSyncRefreshRequired(nex))
+                {
+                    throw nex;
+                }
+                logger.info("LDAP server cannot synchronize from the cookie ({}). Returning all the entries.", nex.getMessage());
+                return contentSync ? contentSync(searchConn, baseDn, filter, controls, null) : dirSync(searchConn, baseDn, filter, controls, null);
+            }
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Synchronization failed."));
+        }
+        catch (IOException ex)
+        {
+            throw sample.failed(new LDAPException("Could not encode or decode synchronization control", ex));
+        }
+        finally
+        {
+            sample.stop();
+            if (searchConn != null)
+            {
+                closeQuietly(searchConn);
+            }
+            releaseContext(ctx);
+        }
+    }
+    
+    /*
+     * e-syncRefreshRequired (RFC 4533), returned when the cookie is too old. JNDI has no exception for it.
+     */
+    private static boolean isSyncRefreshRequired(NamingException nex)
+    {
+        String message = nex.getMessage();
+        return message != null && message.contains("error code 4096");
+    }
+    
+    private LDAPSyncResult contentSync(LdapContext searchConn, String baseDn, String filter, LDAPSearchControls controls, byte[] cookie) throws NamingException, LDAPException, IOException
+    {
+        searchConn.setRequestControls(new Control[] {new ContentSyncControl(cookie)});
+        
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        List<String> deletedDns = new ArrayList<String>();
+        byte[] newCookie = cookie;
+        int present = 0;
+        
+        NamingEnumeration<SearchResult> results = searchConn.search(baseDn, filter, LDAPJNDIUtils.buildSearchControls(controls));
+        try
+        {
+            while (results.hasMore())
+            {
+                SearchResult result = results.next();
+                ContentSyncControl.State state = result instanceof HasControls ? ContentSyncControl.getState(((HasControls) result).getControls()) : null;
+                String dn = getDn(result, baseDn);
+                if (state == null || state.getState() == ContentSyncControl.ADD || state.getState() == ContentSyncControl.MODIFY)
+                {
+                    entries.add(LDAPJNDIUtils.buildEntry(dn, result.getAttributes()));
+                }
+                else if (state.getState() == ContentSyncControl.DELETE)
+                {
+                    deletedDns.add(dn);
+                }
+                else
+                {
+                    present++;
+                }
+                if (state != null && state.getCookie() != null)
+                {
+                    newCookie = state.getCookie();
+                }
+            }
+        }
+        finally
+        {
+            results.close();
+        }
+        
+        ContentSyncControl.Done done = ContentSyncControl.getDone(searchConn.getResponseControls());
+        if (done != null && done.getCookie() != null)
+        {
+            newCookie = done.getCookie();
+        }
+        if (cookie != null && (present > 0 || done == null || !done.isRefreshDeletes()))
+        {
+            logger.warn("LDAP server used the present phase ({} unchanged entries returned) instead of returning the deleted entries under {}. Deleted entries are not reported.", present, baseDn);
+        }
+        // Deleted entries sent as a set of entryUUIDs (syncIdSet intermediate responses) are not exposed by JNDI,
+        // so even in the delete phase there is no way to know that all of them were returned.
+        return new LDAPSyncResult(entries, deletedDns, newCookie != null ? CONTENT_SYNC_COOKIE_PREFIX + LDAPUtils.encodeBase64(newCookie) : null, cookie == null, false);
+    }
+    
+    private LDAPSyncResult dirSync(LdapContext searchConn, String baseDn, String filter, LDAPSearchControls controls, byte[] cookie) throws NamingException, LDAPException, IOException
+    {
+        SearchControls searchControls = LDAPJNDIUtils.buildSearchControls(controls);
+        if (searchControls.getReturningAttributes() != null)
+        {
+            // Deleted objects are recognized by this attribute
+            String[] attributes = Arrays.copyOf(searchControls.getReturningAttributes(), searchControls.getReturningAttributes().length + 1);
+            attributes[attributes.length - 1] = IS_DELETED_ATTR;
+            searchControls.setReturningAttributes(attributes);
+        }
+        
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        List<String> deletedDns = new ArrayList<String>();
+        byte[] newCookie = cookie;
+        DirSyncControl.Response response;
+        do
+        {
+            searchConn.setRequestControls(new Control[] {new DirSyncControl(0, 0, newCookie)});
+            NamingEnumeration<SearchResult> results = searchConn.search(baseDn, filter, searchControls);
+            try
+            {
+                while (results.hasMore())
+                {
+                    SearchResult result = results.next();
+                    String dn = getDn(result, baseDn);
+                    Attribute isDeleted = result.getAttributes() != null ? result.getAttributes().get(IS_DELETED_ATTR) : null;
+                    if (isDeleted != null && "TRUE".equalsIgnoreCase(String.valueOf(isDeleted.get())))
+                    {
+                        deletedDns.add(dn);
+                    }
+                    else
+                    {
+                        entries.add(LDAPJNDIUtils.buildEntry(dn, result.getAttributes()));
+                    }
+                }
+            }
+            finally
+            {
+                results.close();
+            }
+            
+            response = DirSyncControl.getResponse(searchConn.getResponseControls());
+            if (response == null)
+            {
+                throw new LDAPException("LDAP server did not return the DirSync response control");
+            }
+            newCookie = response.getCookie();
+        }
+        while (response.isMoreResults());
+        
+        return new LDAPSyncResult(entries, deletedDns, DIR_SYNC_COOKIE_PREFIX + LDAPUtils.encodeBase64(newCookie), cookie == null);
+    }
+    
+    private static String getDn(SearchResult result, String baseDn)
+    {
+        if (!result.isRelative())
+        {
+            return result.getName();
+        }
+        return result.getName().length() > 0 ? result.getName() + "," + baseDn : baseDn;
+    }
+
+    /**
+     * @param entry
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#addEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    public void addEntry(LDAPEntry entry) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.ADD);
+        LdapContext ctx = borrowPrimaryContext(sample);
+        try
+        {
+            ctx.bind(entry.getDn(), null, buildAttributes(entry));
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Add entry failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(entry.getDn());
+            invalidateMissingSubtree(entry.getDn());
+        }
+    }
+
+    
+    private LDAPException handleNamingException(NamingException nex, String logMessage)
+    {
+        // The exception is thrown to the caller, who decides whether it is worth its stack trace
+        if (logger.isDebugEnabled())
+        {
+            logger.error(logMessage, nex);
+        }
+        else
+        {
+            logger.error("{} {}", logMessage, nex.getMessage());
+        }
+        
+        if (LDAPJNDIUtils.isReadTimeout(nex))
+        {
+            // The LDAP server is not responding, as when the connection is lost
+            return new CommunicationException(nex.getMessage(), nex);
+        }
+        return LDAPException.create(nex);
+    }
+    
+    /**
+     * @param entry
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#updateEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    public void updateEntry(LDAPEntry entry) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.UPDATE);
+        LdapContext ctx = borrowPrimaryContext(sample);
+        try
+        {
+            ModificationItem[] mods = new ModificationItem[entry.getAttributeCount()];
+            Iterator<LDAPEntryAttribute> it = entry.attributes();
+            for (int i = 0; it.hasNext() && i < mods.length; i++)
+            {
+                mods[i] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
+                    buildBasicAttribute(((LDAPEntryAttribute) it.next())));
+            }
+            ctx.modifyAttributes(entry.getDn(), mods);
+        }
+        catch (NamingException nex)
+        {
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Update entry failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(entry.getDn());
+        }
+    }
+
+    /**
+     * @param entry
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    {
+        deleteEntry(entry.getDn());
+    }
+
+    /**
+     * @param dn
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(java.lang.String)
+     */
+    public void deleteEntry(String dn) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.DELETE);
+        LdapContext ctx = borrowPrimaryContext(sample);
+        try
+        {
             if(logger.isDebugEnabled())
             {
-                logger.debug("About to delete entry " + dn );
+                logger.debug("About to delete entry {}", dn);
             } 
             
-            getConn().unbind(dn);
+            ctx.unbind(dn);
             
             if(logger.isInfoEnabled())
             {
-                logger.info("Deleted entry " + dn);
+                logger.info("Deleted entry {}", dn);
             }             
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Delete entry failed.");
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Delete entry failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(dn);
         }
     }
 
@@ -613,23 +2100,34 @@ public class LDAPJNDIConnection extends LDAPConnection
      */
     public void renameEntry(String oldDn, String newDn) throws LDAPException
     {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.RENAME);
+        LdapContext ctx = borrowPrimaryContext(sample);
         try
         {
             if(logger.isDebugEnabled())
             {
-                logger.debug("About to rename entry " + oldDn + " to " + newDn);
+                logger.debug("About to rename entry {} to {}", oldDn, newDn);
             }
             
-            getConn().rename(oldDn, newDn);
+            ctx.rename(oldDn, newDn);
             
             if(logger.isInfoEnabled())
             {
-                logger.info("Renamed entry " + oldDn + " to " + newDn);
+                logger.info("Renamed entry {} to {}", oldDn, newDn);
             }            
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Rename entry failed.");
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Rename entry failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedSubtree(oldDn);
+            invalidateCachedSearches(newDn);
+            invalidateMissingSubtree(newDn);
         }
     }
     
@@ -642,15 +2140,24 @@ public class LDAPJNDIConnection extends LDAPConnection
      */
     public void addAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
     {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.ADD_ATTRIBUTE);
+        LdapContext ctx = borrowPrimaryContext(sample);
         try
         {
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.ADD_ATTRIBUTE, buildBasicAttribute(attribute));
-            getConn().modifyAttributes(dn, mods);
+            ctx.modifyAttributes(dn, mods);
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Add attribute failed.");
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Add attribute failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(dn);
         }
     }
 
@@ -664,15 +2171,24 @@ public class LDAPJNDIConnection extends LDAPConnection
     public void updateAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
     {
 
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.UPDATE_ATTRIBUTE);
+        LdapContext ctx = borrowPrimaryContext(sample);
         try
         {
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, buildBasicAttribute(attribute));
-            getConn().modifyAttributes(dn, mods);
+            ctx.modifyAttributes(dn, mods);
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Update attribute failed.");
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Update attribute failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(dn);
         }
     }
 
@@ -685,15 +2201,24 @@ public class LDAPJNDIConnection extends LDAPConnection
      */
     public void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
     {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.DELETE_ATTRIBUTE);
+        LdapContext ctx = borrowPrimaryContext(sample);
         try
         {
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.REMOVE_ATTRIBUTE, buildBasicAttribute(attribute));
-            getConn().modifyAttributes(dn, mods);
+            ctx.modifyAttributes(dn, mods);
         }
         catch (NamingException nex)
         {
-            throw handleNamingException(nex, "Delete attribute failed.");
+            ctx = discardIfBroken(ctx, nex);
+            throw sample.failed(handleNamingException(nex, "Delete attribute failed."));
+        }
+        finally
+        {
+            sample.stop();
+            releaseContext(ctx);
+            invalidateCachedEntry(dn);
         }
     }
 
@@ -761,6 +2286,214 @@ public class LDAPJNDIConnection extends LDAPConnection
         this.poolTimeout = poolTimeout;
     }
 
+    /**
+     * @return Returns the poolBorrowTimeout.
+     */
+    public long getPoolBorrowTimeout()
+    {
+        return poolBorrowTimeout;
+    }
+
+    /**
+     * @param poolBorrowTimeout The poolBorrowTimeout to set.
+     */
+    public void setPoolBorrowTimeout(long poolBorrowTimeout)
+    {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    /**
+     * @return Returns the poolValidateOnBorrow.
+     */
+    public boolean isPoolValidateOnBorrow()
+    {
+        return poolValidateOnBorrow;
+    }
+
+    /**
+     * @param poolValidateOnBorrow The poolValidateOnBorrow to set.
+     */
+    public void setPoolValidateOnBorrow(boolean poolValidateOnBorrow)
+    {
+        this.poolValidateOnBorrow = poolValidateOnBorrow;
+    }
+
+    /**
+     * @return Returns the maximum amount of entries held in memory when results are sorted by the connector.
+     */
+    public int getSortMaxInMemoryEntries()
+    {
+        return sortMaxInMemoryEntries;
+    }
+
+    /**
+     * @param sortMaxInMemoryEntries The sortMaxInMemoryEntries to set.
+     */
+    public void setSortMaxInMemoryEntries(int sortMaxInMemoryEntries)
+    {
+        this.sortMaxInMemoryEntries = sortMaxInMemoryEntries;
+    }
+
+    /**
+     * @return Returns the maximum amount of entries in the lookup cache. 0 means the cache is disabled.
+     */
+    public int getLookupCacheMaxEntries()
+    {
+        return lookupCacheMaxEntries;
+    }
+
+    /**
+     * @param lookupCacheMaxEntries The lookupCacheMaxEntries to set.
+     */
+    public void setLookupCacheMaxEntries(int lookupCacheMaxEntries)
+    {
+        this.lookupCacheMaxEntries = lookupCacheMaxEntries;
+    }
+
+    /**
+     * @return Returns the maximum estimated size in bytes of the entries in the lookup cache. 0 means no limit.
+     */
+    public long getLookupCacheMaxBytes()
+    {
+        return lookupCacheMaxBytes;
+    }
+
+    /**
+     * @param lookupCacheMaxBytes The lookupCacheMaxBytes to set.
+     */
+    public void setLookupCacheMaxBytes(long lookupCacheMaxBytes)
+    {
+        this.lookupCacheMaxBytes = lookupCacheMaxBytes;
+    }
+
+    /**
+     * @return Returns the milliseconds an entry stays in the lookup cache.
+     */
+    public long getLookupCacheTtl()
+    {
+        return lookupCacheTtl;
+    }
+
+    /**
+     * @param lookupCacheTtl The lookupCacheTtl to set.
+     */
+    public void setLookupCacheTtl(long lookupCacheTtl)
+    {
+        this.lookupCacheTtl = lookupCacheTtl;
+    }
+
+    /**
+     * @return Returns the maximum amount of missing DNs in the negative cache. 0 means the cache is disabled.
+     */
+    public int getNegativeCacheMaxEntries()
+    {
+        return negativeCacheMaxEntries;
+    }
+
+    /**
+     * @param negativeCacheMaxEntries The negativeCacheMaxEntries to set.
+     */
+    public void setNegativeCacheMaxEntries(int negativeCacheMaxEntries)
+    {
+        this.negativeCacheMaxEntries = negativeCacheMaxEntries;
+    }
+
+    /**
+     * @return Returns the milliseconds a missing DN stays in the negative cache.
+     */
+    public long getNegativeCacheTtl()
+    {
+        return negativeCacheTtl;
+    }
+
+    /**
+     * @param negativeCacheTtl The negativeCacheTtl to set.
+     */
+    public void setNegativeCacheTtl(long negativeCacheTtl)
+    {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    /**
+     * @return Returns whether the negative cache is fronted by a Bloom filter.
+     */
+    public boolean isNegativeCacheBloomFilter()
+    {
+        return negativeCacheBloomFilter;
+    }
+
+    /**
+     * @param negativeCacheBloomFilter The negativeCacheBloomFilter to set.
+     */
+    public void setNegativeCacheBloomFilter(boolean negativeCacheBloomFilter)
+    {
+        this.negativeCacheBloomFilter = negativeCacheBloomFilter;
+    }
+
+    /**
+     * @return Returns the maximum estimated size in bytes of the results in the search cache. 0 means the cache is disabled.
+     */
+    public long getSearchCacheMaxBytes()
+    {
+        return searchCacheMaxBytes;
+    }
+
+    /**
+     * @param searchCacheMaxBytes The searchCacheMaxBytes to set.
+     */
+    public void setSearchCacheMaxBytes(long searchCacheMaxBytes)
+    {
+        this.searchCacheMaxBytes = searchCacheMaxBytes;
+    }
+
+    /**
+     * @return Returns the milliseconds the results of a search stay in the search cache.
+     */
+    public long getSearchCacheTtl()
+    {
+        return searchCacheTtl;
+    }
+
+    /**
+     * @param searchCacheTtl The searchCacheTtl to set.
+     */
+    public void setSearchCacheTtl(long searchCacheTtl)
+    {
+        this.searchCacheTtl = searchCacheTtl;
+    }
+
+    /**
+     * @return The search cache or null if it is disabled.
+     */
+    public LDAPSearchCache getSearchCache()
+    {
+        return searchCache;
+    }
+
+    /**
+     * @return The negative cache or null if it is disabled.
+     */
+    public LDAPNegativeCache getNegativeCache()
+    {
+        return negativeCache;
+    }
+
+    /**
+     * @return The credentials cache or null if it is disabled.
+     */
+    public LDAPCredentialsCache getCredentialsCache()
+    {
+        return credentialsCache;
+    }
+
+    /**
+     * @return The lookup cache or null if it is disabled.
+     */
+    public LDAPEntryCache getLookupCache()
+    {
+        return lookupCache;
+    }
+
     /**
      * @return Returns the providerUrl.
      */
@@ -782,6 +2515,143 @@ public class LDAPJNDIConnection extends LDAPConnection
         return getInitialPoolSizeConnections() > 0;
     }
 
+    /**
+     * @return The servers of the provider URL, which may hold several space separated URLs.
+     */
+    public List<String> getProviderUrls()
+    {
+        return getProviderUrl() != null ? Arrays.asList(getProviderUrl().trim().split("\\s+")) : new ArrayList<String>();
+    }
+
+    /**
+     * @return true if the provider URL has more than one server and a load balancing policy is set. Otherwise, the JNDI
+     *         provider connects to the first server of the provider URL that is reachable.
+     */
+    public boolean isLoadBalancingEnabled()
+    {
+        return !NO_LOAD_BALANCING.equals(getLoadBalancingPolicy()) && getProviderUrls().size() > 1;
+    }
+
+    /**
+     * @return The URLs of the servers that are not rejecting operations because of their circuit breaker. Empty if load
+     *         balancing is disabled.
+     */
+    public List<String> getAvailableServers()
+    {
+        LDAPJNDIServerPool currentServers = this.servers;
+        return currentServers != null ? currentServers.getAvailableUrls() : new ArrayList<String>();
+    }
+
+    public String getLoadBalancingPolicy()
+    {
+        return loadBalancingPolicy;
+    }
+
+    public void setLoadBalancingPolicy(String loadBalancingPolicy)
+    {
+        this.loadBalancingPolicy = loadBalancingPolicy;
+    }
+
+    public int getCircuitBreakerFailureThreshold()
+    {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold)
+    {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenTime()
+    {
+        return circuitBreakerOpenTime;
+    }
+
+    public void setCircuitBreakerOpenTime(long circuitBreakerOpenTime)
+    {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    public long getCircuitBreakerSlowOperationThreshold()
+    {
+        return circuitBreakerSlowOperationThreshold;
+    }
+
+    public void setCircuitBreakerSlowOperationThreshold(long circuitBreakerSlowOperationThreshold)
+    {
+        this.circuitBreakerSlowOperationThreshold = circuitBreakerSlowOperationThreshold;
+    }
+
+    public int getVerifyInitialPoolSize()
+    {
+        return verifyInitialPoolSize;
+    }
+
+    public void setVerifyInitialPoolSize(int verifyInitialPoolSize)
+    {
+        this.verifyInitialPoolSize = verifyInitialPoolSize;
+    }
+
+    public int getVerifyMaxPoolSize()
+    {
+        return verifyMaxPoolSize;
+    }
+
+    public void setVerifyMaxPoolSize(int verifyMaxPoolSize)
+    {
+        this.verifyMaxPoolSize = verifyMaxPoolSize;
+    }
+
+    public int getVerifyCacheMaxEntries()
+    {
+        return verifyCacheMaxEntries;
+    }
+
+    public void setVerifyCacheMaxEntries(int verifyCacheMaxEntries)
+    {
+        this.verifyCacheMaxEntries = verifyCacheMaxEntries;
+    }
+
+    public long getVerifyCacheTtl()
+    {
+        return verifyCacheTtl;
+    }
+
+    public void setVerifyCacheTtl(long verifyCacheTtl)
+    {
+        this.verifyCacheTtl = verifyCacheTtl;
+    }
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getOperationTimeout()
+    {
+        return operationTimeout;
+    }
+
+    public void setOperationTimeout(long operationTimeout)
+    {
+        this.operationTimeout = operationTimeout;
+    }
+
     /**
      * @return Returns the initialContextFactory.
      */
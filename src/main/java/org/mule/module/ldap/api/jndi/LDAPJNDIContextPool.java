@@ -0,0 +1,503 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Pool of bound {@link LdapContext} instances owned by a {@link LDAPJNDIConnection}. Every
+ * context in the pool has its own physical connection to the LDAP server, so operations that
+ * borrow different contexts run concurrently.
+ * <p/>
+ * The pool keeps at least <i>minSize</i> contexts open and never opens more than
+ * <i>maxSize</i>. Borrowers wait at most <i>borrowTimeout</i> milliseconds for a context
+ * to be available (0 waits indefinitely), idle contexts are closed after <i>idleTimeout</i>
+ * milliseconds (0 disables eviction) and, if enabled, contexts are validated with a cheap
+ * read of the base entry before being handed out.
+ *
+ * @author mariano
+ */
+public class LDAPJNDIContextPool
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final long MIN_EVICTION_PERIOD = 1000L;
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ldap-context-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Hashtable<String, String> environment;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final long idleTimeout;
+    private final boolean validateOnBorrow;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final LinkedList<IdleContext> idleContexts = new LinkedList<IdleContext>();
+    private int openContexts = 0;
+    private int borrowedContexts = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> evictionTask = null;
+
+    /**
+     * @param environment Environment used to create each one of the pooled contexts.
+     * @param minSize Amount of contexts opened when the pool starts and kept open afterwards.
+     * @param maxSize Maximum amount of open contexts. If it is less than <i>minSize</i>, then <i>minSize</i> is used.
+     * @param borrowTimeout Milliseconds to wait for an available context. 0 means wait indefinitely.
+     * @param idleTimeout Milliseconds a context may stay idle before being closed. 0 disables eviction.
+     * @param validateOnBorrow Whether contexts are validated before being returned by {@link #borrowContext()}.
+     */
+    public LDAPJNDIContextPool(Hashtable<String, String> environment, int minSize, int maxSize, long borrowTimeout, long idleTimeout, boolean validateOnBorrow)
+    {
+        this.environment = environment;
+        this.minSize = Math.max(minSize, 0);
+        this.maxSize = Math.max(Math.max(maxSize, this.minSize), 1);
+        this.borrowTimeout = borrowTimeout;
+        this.idleTimeout = idleTimeout;
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * Opens the initial contexts and schedules the eviction of idle ones.
+     *
+     * @throws LDAPException If any of the initial contexts cannot be created.
+     */
+    public void start() throws LDAPException
+    {
+        List<LdapContext> initial = new ArrayList<LdapContext>(minSize);
+        try
+        {
+            for (int i = 0; i < minSize; i++)
+            {
+                initial.add(createContext());
+            }
+        }
+        catch (LDAPException ex)
+        {
+            for (LdapContext ctx : initial)
+            {
+                closeContext(ctx);
+            }
+            throw ex;
+        }
+
+        lock.lock();
+        try
+        {
+            for (LdapContext ctx : initial)
+            {
+                idleContexts.addLast(new IdleContext(ctx));
+            }
+            openContexts = initial.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (idleTimeout > 0)
+        {
+            long period = Math.max(idleTimeout / 2, MIN_EVICTION_PERIOD);
+            evictionTask = EVICTOR.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    evictIdleContexts();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Started LDAP context pool with " + minSize + " contexts (max: " + maxSize + ", borrow timeout: " + borrowTimeout + " ms, idle timeout: " + idleTimeout + " ms, validate on borrow: " + validateOnBorrow + ")");
+        }
+    }
+
+    /**
+     * Borrows a context from the pool, opening a new one if there is none idle and the pool
+     * has not reached its maximum size. The context must be handed back with
+     * {@link #returnContext(LdapContext)} or {@link #invalidateContext(LdapContext)}.
+     *
+     * @return A bound context.
+     * @throws LDAPException If the pool is closed, no context became available before the
+     *         borrow timeout or a new context could not be created.
+     */
+    public LdapContext borrowContext() throws LDAPException
+    {
+        long deadline = borrowTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeout) : 0L;
+
+        while (true)
+        {
+            IdleContext idle = null;
+            boolean create = false;
+
+            lock.lock();
+            try
+            {
+                while (idle == null && !create)
+                {
+                    if (closed)
+                    {
+                        throw new LDAPException("Cannot borrow a connection from a closed pool.");
+                    }
+
+                    idle = idleContexts.pollFirst();
+                    if (idle == null)
+                    {
+                        if (openContexts < maxSize)
+                        {
+                            openContexts++;
+                            create = true;
+                        }
+                        else
+                        {
+                            awaitAvailable(deadline);
+                        }
+                    }
+                }
+                borrowedContexts++;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (create)
+            {
+                try
+                {
+                    return createContext();
+                }
+                catch (LDAPException ex)
+                {
+                    discard();
+                    throw ex;
+                }
+            }
+            else if (isExpired(idle, System.currentTimeMillis()) || (validateOnBorrow && !isValid(idle.context)))
+            {
+                closeContext(idle.context);
+                discard();
+            }
+            else
+            {
+                return idle.context;
+            }
+        }
+    }
+
+    /**
+     * Hands back a healthy context so that it can be borrowed again.
+     *
+     * @param ctx The context obtained from {@link #borrowContext()}.
+     */
+    public void returnContext(LdapContext ctx)
+    {
+        if (ctx == null)
+        {
+            return;
+        }
+
+        boolean close = false;
+        lock.lock();
+        try
+        {
+            borrowedContexts--;
+            if (closed)
+            {
+                openContexts--;
+                close = true;
+            }
+            else
+            {
+                idleContexts.addFirst(new IdleContext(ctx));
+                available.signal();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (close)
+        {
+            closeContext(ctx);
+        }
+    }
+
+    /**
+     * Closes a borrowed context that should not be used again (for example because its
+     * connection to the server was lost) making room for a new one.
+     *
+     * @param ctx The context obtained from {@link #borrowContext()}.
+     */
+    public void invalidateContext(LdapContext ctx)
+    {
+        if (ctx != null)
+        {
+            closeContext(ctx);
+            discard();
+        }
+    }
+
+    /**
+     * Closes all the idle contexts. Contexts that are borrowed at the time of closing the pool
+     * are closed when they are returned.
+     */
+    public void close()
+    {
+        List<IdleContext> toClose;
+        lock.lock();
+        try
+        {
+            closed = true;
+            toClose = new ArrayList<IdleContext>(idleContexts);
+            idleContexts.clear();
+            openContexts -= toClose.size();
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (evictionTask != null)
+        {
+            evictionTask.cancel(false);
+            evictionTask = null;
+        }
+
+        for (IdleContext idle : toClose)
+        {
+            closeContext(idle.context);
+        }
+    }
+
+    public boolean isClosed()
+    {
+        lock.lock();
+        try
+        {
+            return closed;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Amount of contexts opened by this pool (idle and borrowed).
+     */
+    public int getOpenContexts()
+    {
+        lock.lock();
+        try
+        {
+            return openContexts;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Amount of contexts currently borrowed.
+     */
+    public int getBorrowedContexts()
+    {
+        lock.lock();
+        try
+        {
+            return borrowedContexts;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getMinSize()
+    {
+        return minSize;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Closes the contexts that have been idle for more than the idle timeout, keeping at least
+     * the minimum amount of contexts open.
+     */
+    protected void evictIdleContexts()
+    {
+        List<LdapContext> toClose = new ArrayList<LdapContext>();
+        long now = System.currentTimeMillis();
+
+        lock.lock();
+        try
+        {
+            // Least recently used contexts are at the end of the list
+            for (Iterator<IdleContext> it = idleContexts.descendingIterator(); it.hasNext() && openContexts > minSize;)
+            {
+                IdleContext idle = it.next();
+                if (isExpired(idle, now))
+                {
+                    it.remove();
+                    openContexts--;
+                    toClose.add(idle.context);
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for (LdapContext ctx : toClose)
+        {
+            closeContext(ctx);
+        }
+
+        if (!toClose.isEmpty() && logger.isDebugEnabled())
+        {
+            logger.debug("Evicted " + toClose.size() + " idle LDAP contexts");
+        }
+    }
+
+    private void awaitAvailable(long deadline) throws LDAPException
+    {
+        try
+        {
+            if (deadline == 0L)
+            {
+                available.await();
+            }
+            else
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L || available.awaitNanos(remaining) <= 0L && idleContexts.isEmpty() && openContexts >= maxSize)
+                {
+                    throw new LDAPException("Timed out after " + borrowTimeout + " ms waiting for an available connection. All " + maxSize + " pooled connections are in use.");
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new LDAPException("Interrupted while waiting for an available connection.", ex);
+        }
+    }
+
+    private void discard()
+    {
+        lock.lock();
+        try
+        {
+            openContexts--;
+            borrowedContexts--;
+            available.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(IdleContext idle, long now)
+    {
+        return idleTimeout > 0 && now - idle.idleSince > idleTimeout;
+    }
+
+    private boolean isValid(LdapContext ctx)
+    {
+        try
+        {
+            ctx.getAttributes("", LDAPJNDIUtils.NO_ATTRIBUTES);
+            return true;
+        }
+        catch (NamingException nex)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Discarding pooled LDAP context that failed validation: " + nex.getMessage());
+            }
+            return false;
+        }
+    }
+
+    private LdapContext createContext() throws LDAPException
+    {
+        try
+        {
+            return new InitialLdapContext(environment, null);
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+    }
+
+    private void closeContext(LdapContext ctx)
+    {
+        try
+        {
+            ctx.close();
+        }
+        catch (NamingException nex)
+        {
+            logger.debug("Error closing pooled LDAP context. Ignoring it.", nex);
+        }
+    }
+
+    private static class IdleContext
+    {
+        private final LdapContext context;
+        private final long idleSince;
+
+        IdleContext(LdapContext context)
+        {
+            this.context = context;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+}
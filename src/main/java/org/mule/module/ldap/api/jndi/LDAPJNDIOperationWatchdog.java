@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Abandons the operations that are still waiting for the LDAP server after their deadline. JNDI cannot cancel
+ * a single request, so the context the operation runs on is closed, which makes the operation fail with a
+ * communication error instead of blocking its thread indefinitely.
+ * <p/>
+ * The deadline of an operation starts with {@link #arm(LdapContext)} and ends with {@link #disarm(LdapContext)},
+ * both called from the thread that runs the operation. Several threads may run operations on the same context
+ * (the binded context, when pooling is disabled), and all of them are abandoned if one exceeds its deadline.
+ * Contexts closed by the watchdog are reported by {@link #isAbandoned(LdapContext)} until they are
+ * {@link #forget(LdapContext) forgotten}, so that they are discarded instead of being used again.
+ * <p/>
+ * Operations that run on a copy of the context (created with <i>newInstance</i> to set request controls)
+ * must {@link #attach(LdapContext, LdapContext) attach} it to their deadline: the copy shares the connection
+ * of the context, which is only closed once both of them are.
+ */
+class LDAPJNDIOperationWatchdog
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ldap-operation-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long timeout;
+
+    /*
+     * Context -> deadlines of the operations running on it. Identity is used as contexts don't override equals.
+     */
+    private final Map<LdapContext, List<Deadline>> deadlines = new IdentityHashMap<LdapContext, List<Deadline>>();
+    private final Set<LdapContext> abandoned = Collections.newSetFromMap(new IdentityHashMap<LdapContext, Boolean>());
+
+    /**
+     * @param timeout Milliseconds an operation may wait for the LDAP server. Must be greater than 0.
+     */
+    LDAPJNDIOperationWatchdog(long timeout)
+    {
+        if (timeout <= 0)
+        {
+            throw new IllegalArgumentException("Timeout must be greater than 0");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts the deadline of an operation of the current thread.
+     */
+    void arm(LdapContext ctx)
+    {
+        Deadline deadline = new Deadline(ctx, Thread.currentThread());
+        synchronized (this)
+        {
+            List<Deadline> running = deadlines.get(ctx);
+            if (running == null)
+            {
+                running = new ArrayList<Deadline>(1);
+                deadlines.put(ctx, running);
+            }
+            running.add(deadline);
+        }
+        deadline.task = TIMER.schedule(deadline, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a context derived from an armed one to the deadline of the last operation armed by the current thread
+     * on it, so that both are closed if the operation exceeds its deadline.
+     */
+    void attach(LdapContext ctx, LdapContext derived)
+    {
+        if (derived == null || derived == ctx)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            Deadline deadline = getDeadline(ctx);
+            if (deadline != null)
+            {
+                deadline.derived.add(derived);
+            }
+        }
+    }
+
+    /**
+     * Ends the deadline of the last operation armed by the current thread on the context.
+     */
+    void disarm(LdapContext ctx)
+    {
+        Deadline deadline = null;
+        synchronized (this)
+        {
+            List<Deadline> running = deadlines.get(ctx);
+            if (running != null)
+            {
+                for (int i = running.size() - 1; i >= 0 && deadline == null; i--)
+                {
+                    if (running.get(i).thread == Thread.currentThread())
+                    {
+                        deadline = running.remove(i);
+                    }
+                }
+                if (running.isEmpty())
+                {
+                    deadlines.remove(ctx);
+                }
+            }
+        }
+        if (deadline != null && deadline.task != null)
+        {
+            deadline.task.cancel(false);
+        }
+    }
+
+    /**
+     * @return true if the context was closed because an operation exceeded its deadline.
+     */
+    synchronized boolean isAbandoned(LdapContext ctx)
+    {
+        return abandoned.contains(ctx);
+    }
+
+    /**
+     * Stops reporting an abandoned context, once it has been discarded.
+     */
+    synchronized void forget(LdapContext ctx)
+    {
+        abandoned.remove(ctx);
+    }
+
+    long getTimeout()
+    {
+        return timeout;
+    }
+
+    private Deadline getDeadline(LdapContext ctx)
+    {
+        List<Deadline> running = deadlines.get(ctx);
+        if (running != null)
+        {
+            for (int i = running.size() - 1; i >= 0; i--)
+            {
+                if (running.get(i).thread == Thread.currentThread())
+                {
+                    return running.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void expire(Deadline deadline)
+    {
+        List<LdapContext> contexts;
+        synchronized (this)
+        {
+            List<Deadline> running = deadlines.get(deadline.ctx);
+            // The operation may have finished while the deadline was expiring
+            if (running == null || !running.contains(deadline))
+            {
+                return;
+            }
+            abandoned.add(deadline.ctx);
+            contexts = new ArrayList<LdapContext>(deadline.derived);
+            contexts.add(deadline.ctx);
+        }
+
+        logger.warn("Abandoning the LDAP operation of thread " + deadline.thread.getName() + " as the LDAP server did not respond in " + timeout + " ms");
+        for (LdapContext ctx : contexts)
+        {
+            try
+            {
+                ctx.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Error closing abandoned LDAP context. Ignoring it.", nex);
+            }
+        }
+    }
+
+    private class Deadline implements Runnable
+    {
+        private final LdapContext ctx;
+        private final Thread thread;
+        private final List<LdapContext> derived = new ArrayList<LdapContext>(1);
+        private volatile ScheduledFuture<?> task;
+
+        Deadline(LdapContext ctx, Thread thread)
+        {
+            this.ctx = ctx;
+            this.thread = thread;
+        }
+
+        @Override
+        public void run()
+        {
+            expire(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import javax.naming.ldap.Control;
+
+import org.mule.module.ldap.api.LDAPResultSet;
+
+/**
+ * {@link LDAPResultSet} backed by a JNDI search that gives access to the response controls
+ * returned by the LDAP server.
+ */
+public interface LDAPJNDIResultSet extends LDAPResultSet
+{
+    /**
+     * @return The controls returned by the server at the end of the first search response (the
+     *         first page if paging is enabled), an empty array if the server returned none, or null
+     *         if the first response has not been completely read yet.
+     */
+    Control[] getFirstResponseControls();
+}
@@ -0,0 +1,494 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Spreads the operations of a {@link LDAPJNDIConnection} among several replicas of the same directory. Every
+ * server has its own {@link LDAPJNDIContextPool} and reads run on the server chosen by the load balancing
+ * policy:
+ * <ul>
+ * <li><b>failover</b>: the first available server, in the order they were configured.</li>
+ * <li><b>roundRobin</b>: every available server in turn.</li>
+ * <li><b>leastOutstandingRequests</b>: the available server with the fewest contexts in use.</li>
+ * <li><b>fewestFailures</b>: the available server with the fewest recent failures. A failure weighs half as much
+ * after every <i>openTime</i> milliseconds.</li>
+ * </ul>
+ * Writes always run on the first available server (the preferred primary), so that replication conflicts are
+ * avoided while it is up. If a context cannot be created, the operation moves to the next server.
+ * <p/>
+ * Every server has a circuit breaker. After <i>failureThreshold</i> consecutive failures (lost connections,
+ * contexts that cannot be created and, if <i>slowOperationThreshold</i> is set, operations that take longer)
+ * the server gets no operations for <i>openTime</i> milliseconds. Then a single operation is let through,
+ * and the server is available again if it succeeds. Searches whose results are streamed are not timed.
+ *
+ * @author mariano
+ */
+public class LDAPJNDIServerPool
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final String FAILOVER_POLICY = "failover";
+    public static final String ROUND_ROBIN_POLICY = "roundRobin";
+    public static final String LEAST_OUTSTANDING_REQUESTS_POLICY = "leastOutstandingRequests";
+    public static final String FEWEST_FAILURES_POLICY = "fewestFailures";
+
+    private final List<Server> servers;
+    private final String policy;
+    private final int failureThreshold;
+    private final long openTime;
+    private final long slowOperationThreshold;
+
+    private final ConcurrentHashMap<LdapContext, Borrowed> borrowed = new ConcurrentHashMap<LdapContext, Borrowed>();
+    private final AtomicInteger nextServer = new AtomicInteger();
+
+    /**
+     * @param urls URLs of the servers. The first one is the preferred primary.
+     * @param environment Environment of the contexts. Its provider URL is replaced by the URL of each server.
+     * @param policy One of the load balancing policies.
+     * @param minSize Minimum size of the pool of each server.
+     * @param maxSize Maximum size of the pool of each server.
+     * @param borrowTimeout See {@link LDAPJNDIContextPool}.
+     * @param idleTimeout See {@link LDAPJNDIContextPool}.
+     * @param validateOnBorrow See {@link LDAPJNDIContextPool}.
+     * @param failureThreshold Consecutive failures that make a server unavailable. 0 disables circuit breaking.
+     * @param openTime Milliseconds a server is unavailable before it is tested again.
+     * @param slowOperationThreshold Milliseconds after which an operation counts as a failure. 0 disables it.
+     */
+    public LDAPJNDIServerPool(List<String> urls, Hashtable<String, String> environment, String policy, int minSize, int maxSize, long borrowTimeout, long idleTimeout,
+                              boolean validateOnBorrow, int failureThreshold, long openTime, long slowOperationThreshold) throws LDAPException
+    {
+        if (!FAILOVER_POLICY.equals(policy) && !ROUND_ROBIN_POLICY.equals(policy) && !LEAST_OUTSTANDING_REQUESTS_POLICY.equals(policy) && !FEWEST_FAILURES_POLICY.equals(policy))
+        {
+            throw new LDAPException("Unknown load balancing policy: " + policy);
+        }
+        this.policy = policy;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.slowOperationThreshold = slowOperationThreshold;
+
+        List<Server> newServers = new ArrayList<Server>(urls.size());
+        for (String url : urls)
+        {
+            Hashtable<String, String> serverEnvironment = new Hashtable<String, String>(environment);
+            serverEnvironment.put(Context.PROVIDER_URL, url);
+            newServers.add(new Server(url, serverEnvironment, minSize, maxSize, borrowTimeout, idleTimeout, validateOnBorrow));
+        }
+        this.servers = Collections.unmodifiableList(newServers);
+    }
+
+    /**
+     * Starts the pool of every server. Servers whose initial contexts cannot be created start unavailable.
+     *
+     * @throws LDAPException If none of the servers could be started.
+     */
+    public void start() throws LDAPException
+    {
+        LDAPException lastFailure = null;
+        int started = 0;
+        for (Server server : servers)
+        {
+            try
+            {
+                server.start();
+                started++;
+            }
+            catch (LDAPException ex)
+            {
+                logger.warn("Could not connect to " + server.getUrl() + ": " + ex.getMessage());
+                server.open();
+                lastFailure = ex;
+            }
+        }
+        if (started == 0)
+        {
+            close();
+            throw lastFailure;
+        }
+    }
+
+    /**
+     * Borrows a context of the server chosen for the operation. The context must be handed back with
+     * {@link #returnContext(LdapContext)} or {@link #invalidateContext(LdapContext)}, or with the pool returned
+     * by {@link #getPool(LdapContext)}.
+     *
+     * @param write Whether the context is used to modify entries.
+     * @throws CommunicationException If no server is available.
+     */
+    public LdapContext borrowContext(boolean write) throws LDAPException
+    {
+        List<Server> tried = new ArrayList<Server>(servers.size());
+        LDAPException lastFailure = null;
+        Server server;
+        while ((server = select(write, tried)) != null)
+        {
+            tried.add(server);
+            try
+            {
+                LdapContext ctx = server.borrowContext();
+                borrowed.put(ctx, new Borrowed(server));
+                return ctx;
+            }
+            catch (LDAPException ex)
+            {
+                if (!isConnectionFailure(ex))
+                {
+                    throw ex;
+                }
+                server.recordFailure(ex.getMessage());
+                lastFailure = ex;
+            }
+        }
+
+        if (lastFailure != null)
+        {
+            throw lastFailure;
+        }
+        throw new CommunicationException("None of the LDAP servers is available: " + getUrls());
+    }
+
+    /**
+     * Hands back a context after a successful operation.
+     */
+    public void returnContext(LdapContext ctx)
+    {
+        Borrowed borrowedContext = ctx != null ? borrowed.remove(ctx) : null;
+        if (borrowedContext != null)
+        {
+            borrowedContext.server.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - borrowedContext.since));
+            borrowedContext.server.returnContext(ctx);
+        }
+    }
+
+    /**
+     * Discards a context whose connection was lost, counting it as a failure of its server.
+     */
+    public void invalidateContext(LdapContext ctx)
+    {
+        Borrowed borrowedContext = ctx != null ? borrowed.remove(ctx) : null;
+        if (borrowedContext != null)
+        {
+            borrowedContext.server.recordFailure("Connection lost");
+            borrowedContext.server.invalidateContext(ctx);
+        }
+    }
+
+    /**
+     * @return The pool the context was borrowed from, for result sets that hand back the context when they are closed.
+     */
+    public LDAPJNDIContextPool getPool(LdapContext ctx)
+    {
+        Borrowed borrowedContext = borrowed.get(ctx);
+        return borrowedContext != null ? borrowedContext.server : null;
+    }
+
+    /**
+     * @return URL of the server the context was borrowed from, or null if it was not borrowed from this pool.
+     */
+    public String getUrl(LdapContext ctx)
+    {
+        Borrowed borrowedContext = borrowed.get(ctx);
+        return borrowedContext != null ? borrowedContext.server.getUrl() : null;
+    }
+
+    public void close()
+    {
+        for (Server server : servers)
+        {
+            server.close();
+        }
+    }
+
+    /**
+     * @return Maximum amount of operations that can run at the same time in all the servers.
+     */
+    public int getMaxSize()
+    {
+        int maxSize = 0;
+        for (Server server : servers)
+        {
+            maxSize += server.getMaxSize();
+        }
+        return maxSize;
+    }
+
+    /**
+     * @return Amount of contexts opened by the pools of all the servers.
+     */
+    public int getOpenContexts()
+    {
+        int open = 0;
+        for (Server server : servers)
+        {
+            open += server.getOpenContexts();
+        }
+        return open;
+    }
+
+    /**
+     * @return Amount of contexts currently borrowed from the pools of all the servers.
+     */
+    public int getBorrowedContexts()
+    {
+        int borrowedContexts = 0;
+        for (Server server : servers)
+        {
+            borrowedContexts += server.getBorrowedContexts();
+        }
+        return borrowedContexts;
+    }
+
+    public List<String> getUrls()
+    {
+        List<String> urls = new ArrayList<String>(servers.size());
+        for (Server server : servers)
+        {
+            urls.add(server.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * @return URLs of the servers that currently get operations.
+     */
+    public List<String> getAvailableUrls()
+    {
+        long now = System.currentTimeMillis();
+        List<String> urls = new ArrayList<String>(servers.size());
+        for (Server server : servers)
+        {
+            if (server.isAvailable(now))
+            {
+                urls.add(server.getUrl());
+            }
+        }
+        return urls;
+    }
+
+    public String getPolicy()
+    {
+        return policy;
+    }
+
+    private Server select(boolean write, List<Server> excluded)
+    {
+        while (true)
+        {
+            long now = System.currentTimeMillis();
+            List<Server> candidates = new ArrayList<Server>(servers.size());
+            for (Server server : servers)
+            {
+                if (!excluded.contains(server) && server.isAvailable(now))
+                {
+                    candidates.add(server);
+                }
+            }
+            if (candidates.isEmpty())
+            {
+                return null;
+            }
+
+            Server selected = write || FAILOVER_POLICY.equals(policy) ? candidates.get(0) : selectForRead(candidates, now);
+            // Only one operation tests a server whose circuit was open, so another one may have taken it
+            if (selected.acquire(now))
+            {
+                return selected;
+            }
+            excluded = new ArrayList<Server>(excluded);
+            excluded.add(selected);
+        }
+    }
+
+    private Server selectForRead(List<Server> candidates, long now)
+    {
+        // Ties are broken in turns, so that equally good servers share the load
+        int start = (nextServer.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+        if (ROUND_ROBIN_POLICY.equals(policy))
+        {
+            return candidates.get(start);
+        }
+
+        Server selected = null;
+        double selectedScore = 0;
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            Server candidate = candidates.get((start + i) % candidates.size());
+            double score = LEAST_OUTSTANDING_REQUESTS_POLICY.equals(policy) ? candidate.getBorrowedContexts() : candidate.getRecentFailures(now);
+            if (selected == null || score < selectedScore)
+            {
+                selected = candidate;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private static boolean isConnectionFailure(LDAPException ex)
+    {
+        return ex instanceof CommunicationException || (ex.getCause() instanceof NamingException && LDAPJNDIUtils.isConnectionFailure((NamingException) ex.getCause()));
+    }
+
+    private static final class Borrowed
+    {
+        private final Server server;
+        private final long since = System.nanoTime();
+
+        Borrowed(Server server)
+        {
+            this.server = server;
+        }
+    }
+
+    /**
+     * Pool of a single server together with the state of its circuit breaker. Contexts returned directly to it,
+     * instead of through the server pool, are counted as successful untimed operations.
+     */
+    private final class Server extends LDAPJNDIContextPool
+    {
+        private final String url;
+
+        // Circuit breaker state, guarded by this
+        private int consecutiveFailures = 0;
+        private long openUntil = 0L;
+        private double recentFailures = 0;
+        private long recentFailuresUpdated = 0L;
+
+        Server(String url, Hashtable<String, String> environment, int minSize, int maxSize, long borrowTimeout, long idleTimeout, boolean validateOnBorrow)
+        {
+            super(environment, minSize, maxSize, borrowTimeout, idleTimeout, validateOnBorrow);
+            this.url = url;
+        }
+
+        String getUrl()
+        {
+            return url;
+        }
+
+        @Override
+        public void returnContext(LdapContext ctx)
+        {
+            if (ctx != null && borrowed.remove(ctx) != null)
+            {
+                recordSuccess(0L);
+            }
+            super.returnContext(ctx);
+        }
+
+        @Override
+        public void invalidateContext(LdapContext ctx)
+        {
+            if (ctx != null)
+            {
+                borrowed.remove(ctx);
+            }
+            super.invalidateContext(ctx);
+        }
+
+        synchronized boolean isAvailable(long now)
+        {
+            return openUntil <= now;
+        }
+
+        /**
+         * Once the circuit has been open for <i>openTime</i>, the first operation that acquires the server
+         * tests it, keeping the rest of the operations away until it finishes.
+         */
+        synchronized boolean acquire(long now)
+        {
+            if (openUntil == 0L)
+            {
+                return true;
+            }
+            if (openUntil <= now)
+            {
+                openUntil = now + openTime;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Counts the failure to start the server as enough consecutive failures to open its circuit.
+         */
+        synchronized void open()
+        {
+            long now = System.currentTimeMillis();
+            recentFailures = getRecentFailures(now) + 1;
+            recentFailuresUpdated = now;
+            if (failureThreshold > 0)
+            {
+                consecutiveFailures = failureThreshold;
+                openUntil = now + openTime;
+            }
+        }
+
+        synchronized void recordSuccess(long elapsed)
+        {
+            if (slowOperationThreshold > 0 && elapsed > slowOperationThreshold)
+            {
+                recordFailure("Operation took " + elapsed + " ms");
+                return;
+            }
+            consecutiveFailures = 0;
+            if (openUntil != 0L)
+            {
+                openUntil = 0L;
+                logger.info("LDAP server " + url + " is available again.");
+            }
+        }
+
+        synchronized void recordFailure(String reason)
+        {
+            long now = System.currentTimeMillis();
+            recentFailures = getRecentFailures(now) + 1;
+            recentFailuresUpdated = now;
+            consecutiveFailures++;
+
+            if (failureThreshold > 0 && consecutiveFailures >= failureThreshold)
+            {
+                if (openUntil == 0L)
+                {
+                    logger.warn("LDAP server " + url + " is unavailable for " + openTime + " ms after " + consecutiveFailures + " consecutive failures. Last failure: " + reason);
+                }
+                openUntil = now + openTime;
+            }
+        }
+
+        synchronized double getRecentFailures(long now)
+        {
+            if (recentFailures == 0 || openTime <= 0)
+            {
+                return recentFailures;
+            }
+            return recentFailures * Math.pow(0.5, (double) (now - recentFailuresUpdated) / openTime);
+        }
+
+        @Override
+        public String toString()
+        {
+            return url;
+        }
+    }
+}
@@ -9,27 +9,42 @@
 package org.mule.module.ldap.api.jndi;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.naming.CommunicationException;
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
 
+import org.mule.module.ldap.api.CompactLDAPEntry;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPEntryAttribute;
 import org.mule.module.ldap.api.LDAPException;
 import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
 import org.mule.module.ldap.api.LDAPSearchControls;
 import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPSortKey;
 
 public class LDAPJNDIUtils
 {
+    /**
+     * Requesting the special attribute 1.1 returns no attributes at all (RFC 4511).
+     */
+    static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+
+    private static final String READ_TIMEOUT_MESSAGE = "LDAP response read timed out";
 
     /**
      * 
@@ -39,6 +54,30 @@ public class LDAPJNDIUtils
     }
 
     /**
+     * @param nex
+     * @return true if the exception means that the connection to the LDAP server is no longer usable.
+     */
+    static boolean isConnectionFailure(NamingException nex)
+    {
+        return nex instanceof CommunicationException || nex instanceof ServiceUnavailableException || isReadTimeout(nex);
+    }
+
+    /**
+     * The JNDI provider throws a plain {@link NamingException} when the server doesn't respond within the read timeout
+     * (<i>com.sun.jndi.ldap.read.timeout</i>), and the connection may have a response still on its way, so it is not reused.
+     * 
+     * @param nex
+     * @return true if the exception is a read timeout.
+     */
+    static boolean isReadTimeout(NamingException nex)
+    {
+        return nex.getClass() == NamingException.class && nex.getMessage() != null && nex.getMessage().startsWith(READ_TIMEOUT_MESSAGE);
+    }
+
+    /**
+     * Builds the entry with its attribute map sized for all the attributes and, for the attributes
+     * returned by the LDAP provider, without enumerating their values.
+     * 
      * @param entryDN
      * @param attributes
      * @return
@@ -46,7 +85,7 @@ public class LDAPJNDIUtils
      */
     public static LDAPEntry buildEntry(String entryDN, Attributes attributes) throws LDAPException
     {
-        LDAPEntry anEntry = new LDAPEntry(entryDN);
+        LDAPEntry anEntry = new LDAPEntry(entryDN, attributes != null ? attributes.size() : 0);
         if (attributes != null)
         {
             try
@@ -64,6 +103,105 @@ public class LDAPJNDIUtils
         return anEntry;
     }    
     
+    /**
+     * @param entryDN
+     * @param attributes
+     * @param controls Controls of the search that returned the entry.
+     * @return The entry in the format requested by the controls.
+     * @throws LDAPException
+     */
+    public static LDAPEntry buildEntry(String entryDN, Attributes attributes, LDAPSearchControls controls) throws LDAPException
+    {
+        int format = controls != null ? controls.getEntryFormat() : LDAPSearchControls.STANDARD_ENTRIES;
+        if (format == LDAPSearchControls.COMPACT_ENTRIES)
+        {
+            return buildCompactEntry(entryDN, attributes);
+        }
+        else if (format == LDAPSearchControls.LAZY_ENTRIES)
+        {
+            return new LazyLDAPEntry(entryDN, attributes);
+        }
+        return buildEntry(entryDN, attributes);
+    }
+
+    /**
+     * Reads the remaining ranges of the attributes returned with range retrieval (see
+     * {@link #readAllRanges(DirContext, String, Attributes)}) and builds the entry.
+     * 
+     * @param ctx Context used to read the remaining ranges.
+     * @param entryDN
+     * @param attributes
+     * @param controls Controls of the search that returned the entry.
+     * @return The entry in the format requested by the controls.
+     * @throws LDAPException
+     */
+    public static LDAPEntry buildEntry(DirContext ctx, String entryDN, Attributes attributes, LDAPSearchControls controls) throws LDAPException
+    {
+        try
+        {
+            return buildEntry(entryDN, readAllRanges(ctx, entryDN, attributes), controls);
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+    }
+
+    /**
+     * @param entryDN
+     * @param attributes
+     * @return
+     * @throws LDAPException
+     */
+    public static CompactLDAPEntry buildCompactEntry(String entryDN, Attributes attributes) throws LDAPException
+    {
+        int count = attributes != null ? attributes.size() : 0;
+        String[] names = new String[count];
+        Object[] values = new Object[count];
+        int i = 0;
+        if (attributes != null)
+        {
+            try
+            {
+                for (NamingEnumeration<?> attrs = attributes.getAll(); attrs.hasMore() && i < count; i++)
+                {
+                    Attribute attribute = (Attribute) attrs.nextElement();
+                    names[i] = attribute.getID();
+                    int size = attribute.size();
+                    if (size > 1)
+                    {
+                        Object[] attributeValues = new Object[size];
+                        if (attribute instanceof BasicAttribute)
+                        {
+                            for (int j = 0; j < size; j++)
+                            {
+                                attributeValues[j] = attribute.get(j);
+                            }
+                        }
+                        else
+                        {
+                            NamingEnumeration<?> valuesEnum = attribute.getAll();
+                            for (int j = 0; j < size && valuesEnum.hasMore(); j++)
+                            {
+                                attributeValues[j] = valuesEnum.next();
+                            }
+                        }
+                        values[i] = attributeValues;
+                    }
+                    else
+                    {
+                        values[i] = attribute.get();
+                    }
+                }
+            }
+            catch (NamingException nex)
+            {
+                throw LDAPException.create(nex);
+            }
+        }
+        return new CompactLDAPEntry(entryDN, names, values);
+    }
+    
     /**
      * @param attribute
      * @return
@@ -75,23 +213,31 @@ public class LDAPJNDIUtils
         {
             try
             {
-                if (attribute.size() > 1)
+                int size = attribute.size();
+                if (size > 1)
                 {
-                    LDAPMultiValueEntryAttribute newAttribute = new LDAPMultiValueEntryAttribute();
-                    newAttribute.setName(attribute.getID());
-                    NamingEnumeration<?> values = attribute.getAll();
-                    while (values.hasMore())
+                    LDAPMultiValueEntryAttribute newAttribute = new LDAPMultiValueEntryAttribute(attribute.getID(), size);
+                    if (attribute instanceof BasicAttribute)
                     {
-                        newAttribute.addValue(values.next());
+                        // Values are held in a list, so they can be read by index even if the attribute is not ordered
+                        for (int i = 0; i < size; i++)
+                        {
+                            newAttribute.addValue(attribute.get(i));
+                        }
+                    }
+                    else
+                    {
+                        NamingEnumeration<?> values = attribute.getAll();
+                        while (values.hasMore())
+                        {
+                            newAttribute.addValue(values.next());
+                        }
                     }
                     return newAttribute;
                 }
                 else
                 {
-                    LDAPSingleValueEntryAttribute newAttribute = new LDAPSingleValueEntryAttribute();
-                    newAttribute.setName(attribute.getID());
-                    newAttribute.setValue(attribute.get());
-                    return newAttribute;
+                    return new LDAPSingleValueEntryAttribute(attribute.getID(), attribute.get());
                 }
             }
             catch (NamingException nex)
@@ -106,6 +252,125 @@ public class LDAPJNDIUtils
     }   
     
     /**
+     * Completes the attributes returned with range retrieval. Active Directory returns at most MaxValRange
+     * values (1500 by default) of a multi valued attribute, under an ID such as <i>member;range=0-1499</i>, so
+     * the remaining ranges are read and the attribute is replaced with one holding all its values under its
+     * plain name.
+     * 
+     * @param ctx Context used to read the remaining ranges. If it is null, then the attributes are not completed.
+     * @param dn DN of the entry the attributes belong to.
+     * @param attributes Attributes returned by the LDAP server. They are changed, not copied.
+     * @return The attributes.
+     * @throws NamingException
+     */
+    public static Attributes readAllRanges(DirContext ctx, String dn, Attributes attributes) throws NamingException
+    {
+        if (ctx == null || attributes == null || attributes.size() == 0)
+        {
+            return attributes;
+        }
+
+        List<Attribute> ranged = null;
+        for (NamingEnumeration<? extends Attribute> attrs = attributes.getAll(); attrs.hasMore();)
+        {
+            Attribute attribute = attrs.next();
+            if (attribute.getID().indexOf(';') > 0 && AttributeRange.parse(attribute.getID()) != null)
+            {
+                if (ranged == null)
+                {
+                    ranged = new ArrayList<Attribute>(1);
+                }
+                ranged.add(attribute);
+            }
+        }
+        if (ranged == null)
+        {
+            return attributes;
+        }
+
+        for (Attribute first : ranged)
+        {
+            AttributeRange range = AttributeRange.parse(first.getID());
+            // Ordered, so adding a value doesn't look for it among the ones already added
+            Attribute complete = new BasicAttribute(range.getName(), true);
+            addValues(complete, first);
+            while (!range.isLast())
+            {
+                Attribute next = findRange(ctx.getAttributes(dn, new String[] {AttributeRange.request(range.getName(), range.getHigh() + 1, 0)}), range.getName());
+                if (next == null)
+                {
+                    break;
+                }
+                addValues(complete, next);
+                range = AttributeRange.parse(next.getID());
+            }
+            attributes.remove(first.getID());
+            attributes.put(complete);
+        }
+        return attributes;
+    }
+
+    /**
+     * @param attributes
+     * @param name
+     * @return The attribute returned with range retrieval for the attribute with the given name or null if
+     *         there is none.
+     * @throws NamingException
+     */
+    static Attribute findRange(Attributes attributes, String name) throws NamingException
+    {
+        if (attributes != null)
+        {
+            for (NamingEnumeration<? extends Attribute> attrs = attributes.getAll(); attrs.hasMore();)
+            {
+                Attribute attribute = attrs.next();
+                AttributeRange range = AttributeRange.parse(attribute.getID());
+                if (range != null && range.getName().equalsIgnoreCase(name))
+                {
+                    return attribute;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param attribute
+     * @return The values of the attribute, read by index if it is a {@link BasicAttribute}.
+     * @throws NamingException
+     */
+    static List<Object> getValues(Attribute attribute) throws NamingException
+    {
+        int size = attribute != null ? attribute.size() : 0;
+        List<Object> values = new ArrayList<Object>(size);
+        if (attribute instanceof BasicAttribute)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                values.add(attribute.get(i));
+            }
+        }
+        else if (attribute != null)
+        {
+            for (NamingEnumeration<?> all = attribute.getAll(); all.hasMore();)
+            {
+                values.add(all.next());
+            }
+        }
+        return values;
+    }
+
+    private static void addValues(Attribute target, Attribute source) throws NamingException
+    {
+        for (Object value : getValues(source))
+        {
+            target.add(value);
+        }
+    }
+
+    /**
+     * Builds the request controls for a search: a paged results control if paging is enabled and a non critical
+     * server side sort control (RFC 2891) if the search defines an order.
      * 
      * @param controls
      * @param cookie
@@ -116,21 +381,23 @@ public class LDAPJNDIUtils
     {
         try
         {
+            List<Control> requestControls = new ArrayList<Control>(2);
             if(controls.isPagingEnabled())
             {
                 if(cookie != null)
                 {
-                    return new Control[] {new PagedResultsControl(controls.getPageSize(), cookie, Control.CRITICAL)};
+                    requestControls.add(new PagedResultsControl(controls.getPageSize(), cookie, Control.CRITICAL));
                 }
                 else
                 {
-                    return new Control[] {new PagedResultsControl(controls.getPageSize(), Control.CRITICAL)};
+                    requestControls.add(new PagedResultsControl(controls.getPageSize(), Control.CRITICAL));
                 }
             }
-            else
+            if(controls.isOrderBySet())
             {
-                return new Control[0];
+                requestControls.add(new SortControl(buildSortKeys(controls.getSortKeys()), Control.NONCRITICAL));
             }
+            return requestControls.toArray(new Control[requestControls.size()]);
         }
         catch(IOException ex)
         {
@@ -138,6 +405,44 @@ public class LDAPJNDIUtils
         }
     }    
     
+    /**
+     * Builds the request controls to retrieve a window of the results by offset: a critical server side sort
+     * control and a critical virtual list view control. Paging is not used as the window size already bounds
+     * the amount of entries returned by each search.
+     * 
+     * @param controls
+     * @param position Position (1 based) of the first entry of the window.
+     * @param windowSize Amount of entries of the window.
+     * @param contextId Context ID returned by the server in the previous window or null.
+     * @return
+     * @throws LDAPException
+     */
+    public static Control[] buildVirtualListViewControls(LDAPSearchControls controls, int position, int windowSize, byte[] contextId) throws LDAPException
+    {
+        try
+        {
+            return new Control[] {
+                new SortControl(buildSortKeys(controls.getSortKeys()), Control.CRITICAL),
+                new VirtualListViewControl(position, windowSize - 1, 0, contextId, Control.CRITICAL)
+            };
+        }
+        catch(IOException ex)
+        {
+            throw new LDAPException("Could not create request virtual list view controls", ex);
+        }
+    }
+    
+    private static SortKey[] buildSortKeys(List<LDAPSortKey> sortKeys)
+    {
+        SortKey[] keys = new SortKey[sortKeys.size()];
+        for(int i = 0; i < keys.length; i++)
+        {
+            LDAPSortKey key = sortKeys.get(i);
+            keys[i] = new SortKey(key.getAttributeName(), key.isAscending(), key.getMatchingRule());
+        }
+        return keys;
+    }
+    
     /**
      * @param controls
      * @return
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.ObjectStreamException;
+import java.util.Iterator;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPEntryAttributes;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * {@link LDAPEntry} that keeps the attributes returned by JNDI and converts each of them into a
+ * {@link LDAPEntryAttribute} the first time it is read with {@link #getAttribute(String)}. Reading all the
+ * attributes ({@link #attributes()}, {@link #toMap()}, {@link #toLDIFString()} or {@link #getAttributes()})
+ * converts the ones that were not converted yet.
+ * <p/>
+ * The entry holds the JNDI attributes until all of them are converted, so it saves the conversion of the
+ * attributes that are never read, not memory. Entries are converted before being serialized.
+ */
+public class LazyLDAPEntry extends LDAPEntry
+{
+    private static final long serialVersionUID = 6342176503547093315L;
+
+    /*
+     * Attributes not converted yet, removed as they are converted. Null once all of them are converted.
+     */
+    private volatile Attributes pending;
+
+    /**
+     * @param dn
+     * @param attributes Attributes returned by JNDI. They are held by the entry, not copied, and they are
+     *        removed from it as they are converted.
+     */
+    public LazyLDAPEntry(String dn, Attributes attributes)
+    {
+        super(dn, new LDAPEntryAttributes(attributes != null ? attributes.size() : 0));
+        this.pending = attributes != null && attributes.size() > 0 ? attributes : null;
+    }
+
+    /**
+     * @return true if some of the attributes have not been converted yet.
+     */
+    public boolean isLazy()
+    {
+        return pending != null;
+    }
+
+    @Override
+    public LDAPEntryAttribute getAttribute(String name)
+    {
+        if (pending == null || name == null)
+        {
+            return super.getAttribute(name);
+        }
+        synchronized (this)
+        {
+            LDAPEntryAttribute attribute = super.getAttributes().getAttribute(name);
+            if (attribute == null && pending != null)
+            {
+                Attribute pendingAttribute = removePending(name);
+                if (pendingAttribute != null)
+                {
+                    attribute = convert(pendingAttribute);
+                    super.addAttribute(attribute);
+                }
+            }
+            return attribute;
+        }
+    }
+
+    @Override
+    public synchronized void addAttribute(LDAPEntryAttribute attribute)
+    {
+        // The new attribute replaces the one returned by the LDAP server
+        if (pending != null)
+        {
+            removePending(attribute.getName());
+        }
+        super.addAttribute(attribute);
+    }
+
+    @Override
+    public synchronized void resetAttributes()
+    {
+        pending = null;
+        super.resetAttributes();
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        if (pending == null)
+        {
+            return super.getAttributeCount();
+        }
+        synchronized (this)
+        {
+            return super.getAttributeCount() + (pending != null ? pending.size() : 0);
+        }
+    }
+
+    @Override
+    public Iterator<LDAPEntryAttribute> attributes()
+    {
+        convertAll();
+        return super.attributes();
+    }
+
+    @Override
+    public LDAPEntryAttributes getAttributes()
+    {
+        convertAll();
+        return super.getAttributes();
+    }
+
+    @Override
+    public synchronized void setAttributes(LDAPEntryAttributes attributes)
+    {
+        pending = null;
+        super.setAttributes(attributes);
+    }
+
+    private void convertAll()
+    {
+        if (pending == null)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            Attributes currentPending = pending;
+            if (currentPending != null)
+            {
+                LDAPEntryAttributes converted = super.getAttributes();
+                try
+                {
+                    for (NamingEnumeration<? extends Attribute> all = currentPending.getAll(); all.hasMore();)
+                    {
+                        converted.addAttribute(convert(all.next()));
+                    }
+                }
+                catch (NamingException nex)
+                {
+                    throw new IllegalStateException("Error reading attributes of LDAP entry " + getDn() + ": " + nex.getMessage(), nex);
+                }
+                pending = null;
+            }
+        }
+    }
+
+    private Attribute removePending(String name)
+    {
+        Attribute attribute = pending.remove(name);
+        if (attribute == null && !pending.isCaseIgnored())
+        {
+            try
+            {
+                for (NamingEnumeration<String> ids = pending.getIDs(); ids.hasMore();)
+                {
+                    String id = ids.next();
+                    if (id.equalsIgnoreCase(name))
+                    {
+                        attribute = pending.remove(id);
+                        break;
+                    }
+                }
+            }
+            catch (NamingException nex)
+            {
+                throw new IllegalStateException("Error reading attributes of LDAP entry " + getDn() + ": " + nex.getMessage(), nex);
+            }
+        }
+        if (pending.size() == 0)
+        {
+            pending = null;
+        }
+        return attribute;
+    }
+
+    private LDAPEntryAttribute convert(Attribute attribute)
+    {
+        try
+        {
+            return LDAPJNDIUtils.buildAttribute(attribute);
+        }
+        catch (LDAPException ex)
+        {
+            throw new IllegalStateException("Error reading attribute " + attribute.getID() + " of LDAP entry " + getDn() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /*
+     * Called before the attributes of the superclass are written.
+     */
+    private Object writeReplace() throws ObjectStreamException
+    {
+        convertAll();
+        return this;
+    }
+}
@@ -24,10 +24,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPException;
-import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPMetrics;
 import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSlowQueryLog;
 
-public class PagedLDAPResultSet implements LDAPResultSet
+public class PagedLDAPResultSet implements LDAPJNDIResultSet
 {
     protected final Log logger = LogFactory.getLog(getClass());
 
@@ -36,15 +37,30 @@ public class PagedLDAPResultSet implements LDAPResultSet
     private Object[] filterArgs;
     private LdapContext conn;
     private LDAPSearchControls controls;
+    private LDAPJNDIContextPool pool;
+    private LdapContext pooledConn;
     
     private NamingEnumeration<SearchResult> entries = null;
     
     private byte[] cookie = null;
+    private Control[] firstResponseControls = null;
+    private int pages = 1;
+    private boolean pagesRecorded = false;
+    private LDAPMetrics metrics = LDAPMetrics.DISABLED;
+    private LDAPSlowQueryLog.Search slowQuery = LDAPSlowQueryLog.Search.NONE;
     
     /**
      * 
      */
     public PagedLDAPResultSet(String baseDn, String filter, Object[] filterArgs, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries)
+    {
+        this(baseDn, filter, filterArgs, conn, controls, entries, null, null);
+    }
+
+    /**
+     * 
+     */
+    public PagedLDAPResultSet(String baseDn, String filter, Object[] filterArgs, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries, LDAPJNDIContextPool pool, LdapContext pooledConn)
     {
         this.baseDn = baseDn;
         this.filter = filter;
@@ -52,6 +68,8 @@ public class PagedLDAPResultSet implements LDAPResultSet
         this.controls = controls;
         this.conn = conn;
         this.entries = entries;
+        this.pool = pool;
+        this.pooledConn = pooledConn;
     }
     
     /**
@@ -80,11 +98,32 @@ public class PagedLDAPResultSet implements LDAPResultSet
                 finally
                 {
                     this.conn = null;
+                    releasePooledConn();
+                    recordPages();
                 }
             }
         }
     }
 
+    private void recordPages()
+    {
+        if(!this.pagesRecorded)
+        {
+            this.pagesRecorded = true;
+            this.metrics.recordPages(this.pages);
+            this.slowQuery.setPages(this.pages);
+        }
+    }
+
+    private void releasePooledConn()
+    {
+        if(this.pool != null && this.pooledConn != null)
+        {
+            this.pool.returnContext(this.pooledConn);
+            this.pooledConn = null;
+        }
+    }
+
     private void closeResultSet() throws LDAPException
     {
         try
@@ -123,7 +162,7 @@ public class PagedLDAPResultSet implements LDAPResultSet
                 {
                     entryDn += "," + baseDn;
                 }
-                return LDAPJNDIUtils.buildEntry(entryDn, searchResult.getAttributes());
+                return LDAPJNDIUtils.buildEntry(this.pooledConn, entryDn, searchResult.getAttributes(), controls);
             }
         }
         throw new NoSuchElementException();
@@ -136,6 +175,7 @@ public class PagedLDAPResultSet implements LDAPResultSet
             silentCloseEntriesEnumeration();
             
             this.conn.setRequestControls(LDAPJNDIUtils.buildRequestControls(controls, cookie));
+            this.pages++;
             if(filterArgs != null && filterArgs.length > 0)
             {
                 this.entries = this.conn.search(baseDn, filter, filterArgs, LDAPJNDIUtils.buildSearchControls(controls));
@@ -184,16 +224,22 @@ public class PagedLDAPResultSet implements LDAPResultSet
             {
                 if(!this.entries.hasMore())
                 {
-                    this.cookie = getPagedResultsResponseControlCookie();
-                    if(this.cookie != null)
+                    Control[] responseControls = getResponseControls();
+                    if(this.firstResponseControls == null)
                     {
-                        getNextPage();
-                        return this.entries != null && this.entries.hasMore();
+                        this.firstResponseControls = responseControls;
                     }
-                    else
+                    this.cookie = getPagedResultsResponseControlCookie(responseControls);
+                    if(this.cookie != null)
                     {
-                        return false;
+                        getNextPage();
+                        if(this.entries != null && this.entries.hasMore())
+                        {
+                            return true;
+                        }
                     }
+                    recordPages();
+                    return false;
                    
                 }
                 else
@@ -217,30 +263,67 @@ public class PagedLDAPResultSet implements LDAPResultSet
         }
     }
 
-    private byte[] getPagedResultsResponseControlCookie() throws LDAPException
+    private Control[] getResponseControls() throws LDAPException
     {
         try
         {
-            // Examine the paged results control response
             Control[] responseControls = this.conn.getResponseControls();
-            if (responseControls != null)
-            {
-                for (int i = 0; i < responseControls.length; i++)
-                {
-                    if (responseControls[i] instanceof PagedResultsResponseControl)
-                    {
-                        PagedResultsResponseControl prrc = (PagedResultsResponseControl)responseControls[i];
-                        return prrc.getCookie();
-                    }
-                }
-            }
-            return null;
+            return responseControls != null ? responseControls : new Control[0];
         }
         catch(NamingException nex)
         {
             throw LDAPException.create(nex);
         }
     }
+
+    private byte[] getPagedResultsResponseControlCookie(Control[] responseControls)
+    {
+        // Examine the paged results control response
+        for (int i = 0; i < responseControls.length; i++)
+        {
+            if (responseControls[i] instanceof PagedResultsResponseControl)
+            {
+                PagedResultsResponseControl prrc = (PagedResultsResponseControl)responseControls[i];
+                return prrc.getCookie();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return Amount of pages requested to the LDAP server so far.
+     */
+    public int getPages()
+    {
+        return this.pages;
+    }
+
+    /**
+     * @param metrics Metrics that record the amount of pages once all the entries are read or the result set is closed.
+     */
+    public void setMetrics(LDAPMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param slowQuery Search of the slow query log that records the amount of pages once all the entries are read or the
+     *            result set is closed.
+     */
+    public void setSlowQuery(LDAPSlowQueryLog.Search slowQuery)
+    {
+        this.slowQuery = slowQuery;
+    }
+    
+    /**
+     * @return
+     * @see org.mule.module.ldap.api.jndi.LDAPJNDIResultSet#getFirstResponseControls()
+     */
+    @Override
+    public Control[] getFirstResponseControls()
+    {
+        return this.firstResponseControls;
+    }
     
     /**
      * @return
@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Binding;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.event.EventDirContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Subscription that registers a JNDI naming listener, which the LDAP provider implements with a
+ * persistent search (draft-ietf-ldapext-psearch). Changes are pushed by the LDAP server and queued
+ * by the JNDI event thread.
+ * <p/>
+ * When the queue is full, the JNDI event thread waits, so the LDAP provider stops reading the search
+ * replies, up to <i>com.sun.jndi.ldap.search.replyQueueSize</i> of them, and then stops reading from
+ * the connection, which makes the LDAP server wait too.
+ * <p/>
+ * The LDAP server only notifies the changes made while the persistent search is active. To catch up
+ * with the changes made while the connection was lost, after connecting again the subscription searches
+ * the entries matching the filter whose <i>modifyTimestamp</i> or <i>createTimestamp</i> is after the last
+ * time it knew the connection was alive (minus {@link #RESYNC_CLOCK_SKEW} to allow for the difference between
+ * the local and the LDAP server clocks), and notifies them as additions or modifications. The persistent search
+ * is registered before that search, so no change is missed but some may be notified twice. Deleted entries
+ * cannot be found, so deletions made while the connection was lost are not notified, and renamed entries are
+ * only notified with their new DN.
+ */
+public class PersistentSearchSubscription extends AbstractChangeSubscription
+{
+    public static final String PERSISTENT_SEARCH_OID = "2.16.840.1.113730.3.4.3";
+
+    private static final String REPLY_QUEUE_SIZE_ENV_PARAM = "com.sun.jndi.ldap.search.replyQueueSize";
+    private static final long OFFER_TIMEOUT = 1000L;
+    private static final String MODIFY_TIMESTAMP_ATTR = "modifyTimestamp";
+    private static final String CREATE_TIMESTAMP_ATTR = "createTimestamp";
+    private static final String[] RESYNC_ATTRIBUTES = new String[] {"*", CREATE_TIMESTAMP_ATTR};
+
+    /**
+     * Milliseconds subtracted from the last time the connection was known to be alive when searching
+     * the entries changed while it was lost.
+     */
+    public static final long RESYNC_CLOCK_SKEW = 60000L;
+
+    private final BlockingQueue<LDAPChangeEvent> events;
+    private DirContext initialCtx = null;
+    private volatile EventDirContext eventCtx = null;
+    private volatile Listener listener = null;
+    private volatile NamingException failure = null;
+    private volatile long lastAlive = 0;
+    private DirContext resyncCtx = null;
+    private NamingEnumeration<SearchResult> resyncResults = null;
+    private String resyncFrom = null;
+    private long resyncFromTime = 0;
+
+    public PersistentSearchSubscription(Hashtable<String, Object> environment, String baseDn, String filter, int scope, int bufferSize, long retryDelay)
+    {
+        super(environment, baseDn, filter, scope, bufferSize, retryDelay);
+        this.events = new ArrayBlockingQueue<LDAPChangeEvent>(this.bufferSize);
+    }
+
+    @Override
+    public LDAPChangeEvent poll(long timeout) throws LDAPException, InterruptedException
+    {
+        // Changes received before a failure are returned first
+        LDAPChangeEvent event = events.poll();
+        if (event != null || closed)
+        {
+            return event;
+        }
+
+        NamingException nex = failure;
+        if (nex != null)
+        {
+            failure = null;
+            handleFailure(nex);
+        }
+
+        if (!ensureConnected(timeout))
+        {
+            return null;
+        }
+
+        // Changes pushed by the LDAP server are returned before the resynchronized ones so that the
+        // LDAP provider doesn't stop reading from the connection while the resync is read
+        event = nextResyncEvent();
+        if (event != null)
+        {
+            return event;
+        }
+        return events.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The generalized time from which the entries changed while the connection was lost are being read,
+     *         or null if the subscription is not resynchronizing.
+     */
+    public synchronized String getResyncFrom()
+    {
+        return resyncFromTime > 0 ? resyncFrom : null;
+    }
+
+    @Override
+    protected synchronized void connect() throws NamingException
+    {
+        Hashtable<String, Object> env = new Hashtable<String, Object>(environment);
+        if (!env.containsKey(REPLY_QUEUE_SIZE_ENV_PARAM))
+        {
+            env.put(REPLY_QUEUE_SIZE_ENV_PARAM, String.valueOf(bufferSize));
+        }
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(scope);
+        Listener newListener = new Listener();
+
+        DirContext newInitialCtx = new InitialDirContext(env);
+        EventDirContext newEventCtx = null;
+        try
+        {
+            newEventCtx = (EventDirContext) newInitialCtx.lookup("");
+            this.listener = newListener;
+            newEventCtx.addNamingListener(baseDn, filter, controls, newListener);
+        }
+        catch (NamingException nex)
+        {
+            this.listener = null;
+            closeQuietly(newEventCtx);
+            closeQuietly(newInitialCtx);
+            throw nex;
+        }
+        this.initialCtx = newInitialCtx;
+        this.eventCtx = newEventCtx;
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Registered persistent search of " + filter + " under " + baseDn);
+        }
+
+        long previouslyAlive = this.lastAlive;
+        this.lastAlive = System.currentTimeMillis();
+        if (previouslyAlive > 0)
+        {
+            // Reconnecting: the persistent search is already registered, so the changes made from now on are notified
+            startResync(previouslyAlive - RESYNC_CLOCK_SKEW);
+        }
+    }
+
+    private void startResync(long from) throws NamingException
+    {
+        // Kept until the resync finishes, so that it starts again from the same time if the connection is lost meanwhile
+        this.resyncFromTime = from;
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String timestamp = format.format(new Date(from));
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(scope);
+        controls.setReturningAttributes(RESYNC_ATTRIBUTES);
+        String baseFilter = filter.trim().startsWith("(") ? filter.trim() : "(" + filter.trim() + ")";
+        String changedFilter = "(&" + baseFilter + "(|(" + MODIFY_TIMESTAMP_ATTR + ">=" + timestamp + ")(" + CREATE_TIMESTAMP_ATTR + ">=" + timestamp + ")))";
+
+        // Read with its own connection, as the LDAP provider may stop reading from the one of the persistent search
+        DirContext newResyncCtx = new InitialDirContext(environment);
+        try
+        {
+            this.resyncResults = newResyncCtx.search(baseDn, changedFilter, controls);
+        }
+        catch (NamingException nex)
+        {
+            closeQuietly(newResyncCtx);
+            throw nex;
+        }
+        this.resyncCtx = newResyncCtx;
+        this.resyncFrom = timestamp;
+
+        logger.info("Notifying the changes made under " + baseDn + " since " + timestamp + " while the connection was lost. Deletions made meanwhile are not notified.");
+    }
+
+    private synchronized LDAPChangeEvent nextResyncEvent() throws LDAPException
+    {
+        try
+        {
+            while (resyncResults != null && resyncResults.hasMore())
+            {
+                SearchResult result = resyncResults.next();
+                String dn = !result.isRelative() ? result.getName() : (result.getName().length() > 0 ? result.getName() + "," + baseDn : baseDn);
+                Attributes attributes = result.getAttributes();
+                Attribute created = attributes.remove(CREATE_TIMESTAMP_ATTR);
+                String createTimestamp = created != null && created.get() != null ? created.get().toString() : null;
+                boolean added = createTimestamp != null && createTimestamp.compareTo(resyncFrom) >= 0;
+                try
+                {
+                    return new LDAPChangeEvent(added ? LDAPChangeEvent.ADD : LDAPChangeEvent.MODIFY, dn, null, LDAPJNDIUtils.buildEntry(dn, attributes), -1);
+                }
+                catch (LDAPException ex)
+                {
+                    logger.warn("Could not read the attributes of changed entry " + dn, ex);
+                }
+            }
+            stopResync();
+            resyncFromTime = 0;
+        }
+        catch (NamingException nex)
+        {
+            // The resync starts again, from the same time, once connected again
+            handleFailure(nex);
+        }
+        return null;
+    }
+
+    private void stopResync()
+    {
+        if (resyncResults != null)
+        {
+            try
+            {
+                resyncResults.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Error closing resync results. Ignoring it.", nex);
+            }
+        }
+        closeQuietly(resyncCtx);
+        resyncResults = null;
+        resyncCtx = null;
+    }
+
+    @Override
+    protected synchronized void disconnect()
+    {
+        Listener oldListener = this.listener;
+        EventDirContext oldEventCtx = this.eventCtx;
+        // Events still being delivered to the old listener are discarded
+        this.listener = null;
+        this.eventCtx = null;
+        if (oldEventCtx != null)
+        {
+            try
+            {
+                oldEventCtx.removeNamingListener(oldListener);
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Error removing naming listener. Ignoring it.", nex);
+            }
+            closeQuietly(oldEventCtx);
+        }
+        closeQuietly(this.initialCtx);
+        this.initialCtx = null;
+        if (resyncFromTime > 0)
+        {
+            // Not finished, so it has to start again from the same time
+            this.lastAlive = Math.min(this.lastAlive, resyncFromTime + RESYNC_CLOCK_SKEW);
+        }
+        stopResync();
+    }
+
+    @Override
+    protected boolean isConnected()
+    {
+        return this.eventCtx != null;
+    }
+
+    private class Listener implements NamespaceChangeListener, ObjectChangeListener
+    {
+        @Override
+        public void objectAdded(NamingEvent evt)
+        {
+            enqueue(new LDAPChangeEvent(LDAPChangeEvent.ADD, evt.getNewBinding().getName(), null, buildEntry(evt.getNewBinding()), -1));
+        }
+
+        @Override
+        public void objectRemoved(NamingEvent evt)
+        {
+            enqueue(new LDAPChangeEvent(LDAPChangeEvent.DELETE, evt.getOldBinding().getName(), null, null, -1));
+        }
+
+        @Override
+        public void objectRenamed(NamingEvent evt)
+        {
+            Binding oldBinding = evt.getOldBinding();
+            enqueue(new LDAPChangeEvent(LDAPChangeEvent.RENAME, evt.getNewBinding().getName(), oldBinding != null ? oldBinding.getName() : null, buildEntry(evt.getNewBinding()), -1));
+        }
+
+        @Override
+        public void objectChanged(NamingEvent evt)
+        {
+            enqueue(new LDAPChangeEvent(LDAPChangeEvent.MODIFY, evt.getNewBinding().getName(), null, buildEntry(evt.getNewBinding()), -1));
+        }
+
+        @Override
+        public void namingExceptionThrown(NamingExceptionEvent evt)
+        {
+            if (listener == this)
+            {
+                failure = evt.getException();
+            }
+        }
+
+        private LDAPEntry buildEntry(Binding binding)
+        {
+            if (binding instanceof SearchResult && ((SearchResult) binding).getAttributes() != null)
+            {
+                try
+                {
+                    return LDAPJNDIUtils.buildEntry(binding.getName(), ((SearchResult) binding).getAttributes());
+                }
+                catch (LDAPException ex)
+                {
+                    logger.warn("Could not read the attributes of changed entry " + binding.getName(), ex);
+                }
+            }
+            return null;
+        }
+
+        private void enqueue(LDAPChangeEvent event)
+        {
+            if (listener == this)
+            {
+                lastAlive = System.currentTimeMillis();
+            }
+            try
+            {
+                while (!closed && listener == this)
+                {
+                    if (events.offer(event, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+                    {
+                        return;
+                    }
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Change buffer of " + bufferSize + " changes is full. Waiting to notify " + event);
+                    }
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
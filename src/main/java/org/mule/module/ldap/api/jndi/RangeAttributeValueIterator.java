@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPAttributeValueIterator;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Reads the values of an attribute with range retrieval (<i>member;range=0-1499</i>), requesting
+ * <i>chunkSize</i> values at a time. The LDAP server may return less values than requested (Active
+ * Directory returns at most MaxValRange values), in which case the chunks are smaller.
+ * <p/>
+ * If the LDAP server doesn't support range retrieval, then the whole attribute is read with the first
+ * chunk and its values are returned in chunks.
+ */
+public class RangeAttributeValueIterator extends LDAPAttributeValueIterator
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final LDAPJNDIConnection connection;
+    private final int chunkSize;
+    private int nextValue = 0;
+    private boolean lastRange = false;
+    private LDAPAttributeValueIterator allValues = null;
+
+    /**
+     * @param connection Connection used to read the values.
+     * @param dn DN of the entry.
+     * @param attributeName Name of the attribute.
+     * @param chunkSize Amount of values requested in each chunk.
+     */
+    public RangeAttributeValueIterator(LDAPJNDIConnection connection, String dn, String attributeName, int chunkSize)
+    {
+        super(dn, attributeName);
+        this.connection = connection;
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    @Override
+    protected List<Object> readNextChunk() throws LDAPException
+    {
+        if (allValues != null)
+        {
+            return allValues.hasMoreChunks() ? allValues.next() : null;
+        }
+        if (lastRange)
+        {
+            return null;
+        }
+
+        try
+        {
+            Attributes response = connection.readAttributes(getDn(), new String[] {AttributeRange.request(getAttributeName(), nextValue, chunkSize)});
+            Attribute range = LDAPJNDIUtils.findRange(response, getAttributeName());
+            if (range != null)
+            {
+                AttributeRange returned = AttributeRange.parse(range.getID());
+                lastRange = returned.isLast();
+                nextValue = returned.getHigh() + 1;
+                return LDAPJNDIUtils.getValues(range);
+            }
+
+            lastRange = true;
+            if (nextValue > 0)
+            {
+                return null;
+            }
+
+            Attribute attribute = response != null ? response.get(getAttributeName()) : null;
+            if (attribute == null)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("LDAP server returned no range of values of " + getAttributeName() + " for " + getDn() + ". Reading all its values.");
+                }
+                Attributes all = connection.readAttributes(getDn(), new String[] {getAttributeName()});
+                attribute = all != null ? all.get(getAttributeName()) : null;
+            }
+            allValues = LDAPAttributeValueIterator.of(getDn(), getAttributeName(), LDAPJNDIUtils.getValues(attribute), chunkSize);
+            return allValues.hasMoreChunks() ? allValues.next() : null;
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+    }
+}
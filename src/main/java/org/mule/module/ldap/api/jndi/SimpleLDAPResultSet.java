@@ -16,31 +16,46 @@ import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPException;
-import org.mule.module.ldap.api.LDAPResultSet;
 import org.mule.module.ldap.api.LDAPSearchControls;
 
-public class SimpleLDAPResultSet implements LDAPResultSet
+public class SimpleLDAPResultSet implements LDAPJNDIResultSet
 {
     protected final Log logger = LogFactory.getLog(getClass());
 
     private NamingEnumeration<SearchResult> entries = null;
     private String baseDn = null;
     private LDAPSearchControls controls = null;
+    private LdapContext conn = null;
+    private Control[] responseControls = null;
+    private LDAPJNDIContextPool pool = null;
+    private LdapContext pooledConn = null;
     
     /**
      * 
      */
     public SimpleLDAPResultSet(String baseDn, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries)
+    {
+        this(baseDn, conn, controls, entries, null, null);
+    }
+
+    /**
+     * 
+     */
+    public SimpleLDAPResultSet(String baseDn, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries, LDAPJNDIContextPool pool, LdapContext pooledConn)
     {
         this.entries = entries;
         this.baseDn = baseDn;
         this.controls = controls;
+        this.conn = conn;
+        this.pool = pool;
+        this.pooledConn = pooledConn;
     }
 
     /**
@@ -53,7 +68,16 @@ public class SimpleLDAPResultSet implements LDAPResultSet
     {
         try
         {
-            return this.entries != null ? this.entries.hasMore() : false;
+            if(this.entries != null && this.entries.hasMore())
+            {
+                return true;
+            }
+            if(this.responseControls == null && this.entries != null && this.conn != null)
+            {
+                Control[] ctls = this.conn.getResponseControls();
+                this.responseControls = ctls != null ? ctls : new Control[0];
+            }
+            return false;
         }
         catch(SizeLimitExceededException slee)
         {
@@ -84,7 +108,7 @@ public class SimpleLDAPResultSet implements LDAPResultSet
             {
                 entryDn += "," + baseDn;
             }
-            return LDAPJNDIUtils.buildEntry(entryDn, searchResult.getAttributes());
+            return LDAPJNDIUtils.buildEntry(this.pooledConn, entryDn, searchResult.getAttributes(), controls);
         }
         else
         {
@@ -114,7 +138,43 @@ public class SimpleLDAPResultSet implements LDAPResultSet
         finally
         {
             this.entries = null;
+            closeDerivedConn();
+            if(this.pool != null && this.pooledConn != null)
+            {
+                this.pool.returnContext(this.pooledConn);
+                this.pooledConn = null;
+            }
+        }
+    }
+
+    /*
+     * Searches with request controls run on a new instance of the borrowed context that
+     * should be closed along with the result set.
+     */
+    private void closeDerivedConn()
+    {
+        if(this.conn != null && this.pooledConn != null && this.conn != this.pooledConn)
+        {
+            try
+            {
+                this.conn.close();
+            }
+            catch(NamingException nex)
+            {
+                logger.debug("Error closing search context. Ignoring it.", nex);
+            }
         }
+        this.conn = null;
+    }
+
+    /**
+     * @return
+     * @see org.mule.module.ldap.api.jndi.LDAPJNDIResultSet#getFirstResponseControls()
+     */
+    @Override
+    public Control[] getFirstResponseControls()
+    {
+        return this.responseControls;
     }
 
     @Override
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.naming.ldap.Control;
+import javax.naming.ldap.SortResponseControl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryComparator;
+import org.mule.module.ldap.api.LDAPEntrySorter;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSortKey;
+
+/**
+ * Result set of a search that requested server side sorting with a non critical sort control.
+ * <p/>
+ * The server only tells whether it sorted the results at the end of the first search response
+ * (the first page if paging is enabled), so the entries of that response are buffered until it
+ * is complete. If the server sorted them, entries are returned as they come. Otherwise, all the
+ * results are sorted in the connector with {@link LDAPEntrySorter}, holding at most
+ * <i>maxInMemoryEntries</i> entries in memory.
+ */
+public class SortedLDAPResultSet implements LDAPResultSet
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final LDAPJNDIResultSet delegate;
+    private final List<LDAPSortKey> sortKeys;
+    private final int maxInMemoryEntries;
+
+    private List<LDAPEntry> firstResponse = null;
+    private int firstResponseIndex = 0;
+    private LDAPResultSet sortedEntries = null;
+    private boolean closed = false;
+
+    /**
+     * @param delegate The result set of the search that included the sort control.
+     * @param sortKeys Keys used to sort the results if the server did not sort them.
+     * @param maxInMemoryEntries Maximum amount of entries held in memory when sorting in the connector.
+     */
+    public SortedLDAPResultSet(LDAPJNDIResultSet delegate, List<LDAPSortKey> sortKeys, int maxInMemoryEntries)
+    {
+        this.delegate = delegate;
+        this.sortKeys = sortKeys;
+        this.maxInMemoryEntries = maxInMemoryEntries;
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        if (closed)
+        {
+            return false;
+        }
+        prepare();
+        if (sortedEntries != null)
+        {
+            return sortedEntries.hasNext();
+        }
+        return firstResponseIndex < firstResponse.size() || delegate.hasNext();
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        if (sortedEntries != null)
+        {
+            return sortedEntries.next();
+        }
+        if (firstResponseIndex < firstResponse.size())
+        {
+            return firstResponse.set(firstResponseIndex++, null);
+        }
+        return delegate.next();
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+        while (hasNext())
+        {
+            allEntries.add(next());
+        }
+        return allEntries;
+    }
+
+    @Override
+    public void close() throws LDAPException
+    {
+        closed = true;
+        firstResponse = null;
+        try
+        {
+            if (sortedEntries != null)
+            {
+                sortedEntries.close();
+            }
+        }
+        finally
+        {
+            sortedEntries = null;
+            delegate.close();
+        }
+    }
+
+    /**
+     * @return true if the server sorted the results, false if they are sorted by the connector.
+     * @throws LDAPException If the first search response could not be read.
+     */
+    public boolean isServerSorted() throws LDAPException
+    {
+        prepare();
+        return sortedEntries == null;
+    }
+
+    private void prepare() throws LDAPException
+    {
+        if (firstResponse != null || closed)
+        {
+            return;
+        }
+
+        firstResponse = new ArrayList<LDAPEntry>();
+        while (delegate.getFirstResponseControls() == null && delegate.hasNext())
+        {
+            firstResponse.add(delegate.next());
+        }
+
+        if (!isSorted(delegate.getFirstResponseControls()))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("LDAP server did not sort the results by " + sortKeys + ". Sorting them in the connector.");
+            }
+            sortedEntries = sortInConnector();
+        }
+    }
+
+    private LDAPResultSet sortInConnector() throws LDAPException
+    {
+        LDAPEntrySorter sorter = new LDAPEntrySorter(new LDAPEntryComparator(sortKeys), maxInMemoryEntries);
+        try
+        {
+            for (LDAPEntry entry : firstResponse)
+            {
+                sorter.add(entry);
+            }
+            firstResponse.clear();
+
+            while (delegate.hasNext())
+            {
+                sorter.add(delegate.next());
+            }
+            // All the results were read, so the connection can be released before the flow consumes them
+            delegate.close();
+            return sorter.sort();
+        }
+        catch (LDAPException ex)
+        {
+            sorter.discard();
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            sorter.discard();
+            throw ex;
+        }
+    }
+
+    private boolean isSorted(Control[] responseControls)
+    {
+        if (responseControls != null)
+        {
+            for (Control control : responseControls)
+            {
+                if (control instanceof SortResponseControl)
+                {
+                    SortResponseControl response = (SortResponseControl) control;
+                    if (!response.isSorted() && logger.isDebugEnabled())
+                    {
+                        logger.debug("LDAP server rejected the sort control with result code " + response.getResultCode() + (response.getAttributeID() != null ? " (attribute: " + response.getAttributeID() + ")" : ""));
+                    }
+                    return response.isSorted();
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * Virtual list view request control (draft-ietf-ldapext-ldapv3-vlv) selecting a window of the
+ * sorted search results by offset. The LDAP server returns the entries from position
+ * <i>offset</i> (1 based) to <i>offset + afterCount</i>. It must be sent along with a server side
+ * sort control.
+ * <pre>
+ * VirtualListViewRequest ::= SEQUENCE {
+ *     beforeCount    INTEGER (0..maxInt),
+ *     afterCount     INTEGER (0..maxInt),
+ *     target       CHOICE {
+ *         byOffset        [0] SEQUENCE {
+ *             offset          INTEGER (1 .. maxInt),
+ *             contentCount    INTEGER (0 .. maxInt) },
+ *         greaterThanOrEqual [1] AssertionValue },
+ *     contextID     OCTET STRING OPTIONAL }
+ * </pre>
+ * JNDI has no implementation of this control, so the BER encoding of the request and the
+ * decoding of the response are done here.
+ */
+public class VirtualListViewControl extends BasicControl
+{
+    private static final long serialVersionUID = -3315018451346519713L;
+
+    public static final String OID = "2.16.840.1.113730.3.4.9";
+    public static final String RESPONSE_OID = "2.16.840.1.113730.3.4.10";
+
+    private static final int BY_OFFSET_TAG = 0xA0;
+
+    /**
+     * @param offset Position (1 based) of the first entry to return.
+     * @param afterCount Amount of entries to return after the first one.
+     * @param contentCount The client estimate of the amount of results. 0 makes the server use its own count,
+     *                     so that <i>offset</i> is an absolute position.
+     * @param contextId The context ID returned by the server in the previous response or null.
+     * @param criticality Whether the control is critical.
+     * @throws IOException If the control value cannot be encoded.
+     */
+    public VirtualListViewControl(int offset, int afterCount, int contentCount, byte[] contextId, boolean criticality) throws IOException
+    {
+        super(OID, criticality, encode(offset, afterCount, contentCount, contextId));
+    }
+
+    private static byte[] encode(int offset, int afterCount, int contentCount, byte[] contextId) throws IOException
+    {
+        ByteArrayOutputStream byOffset = new ByteArrayOutputStream();
+        BERCodec.writeInteger(byOffset, BERCodec.INTEGER_TAG, offset);
+        BERCodec.writeInteger(byOffset, BERCodec.INTEGER_TAG, contentCount);
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        BERCodec.writeInteger(request, BERCodec.INTEGER_TAG, 0);
+        BERCodec.writeInteger(request, BERCodec.INTEGER_TAG, afterCount);
+        BERCodec.writeElement(request, BY_OFFSET_TAG, byOffset.toByteArray());
+        if (contextId != null)
+        {
+            BERCodec.writeElement(request, BERCodec.OCTET_STRING_TAG, contextId);
+        }
+
+        return BERCodec.sequence(request);
+    }
+
+    /**
+     * @param responseControls Controls returned by the LDAP server.
+     * @return The decoded virtual list view response or null if the server did not return one.
+     * @throws IOException If the response control value is not valid.
+     */
+    public static Response getResponse(Control[] responseControls) throws IOException
+    {
+        if (responseControls != null)
+        {
+            for (Control control : responseControls)
+            {
+                if (RESPONSE_OID.equals(control.getID()))
+                {
+                    return Response.decode(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Virtual list view response control.
+     * <pre>
+     * VirtualListViewResponse ::= SEQUENCE {
+     *     targetPosition    INTEGER (0 .. maxInt),
+     *     contentCount      INTEGER (0 .. maxInt),
+     *     virtualListViewResult ENUMERATED,
+     *     contextID     OCTET STRING OPTIONAL }
+     * </pre>
+     */
+    public static class Response
+    {
+        private final int targetPosition;
+        private final int contentCount;
+        private final int resultCode;
+        private final byte[] contextId;
+
+        Response(int targetPosition, int contentCount, int resultCode, byte[] contextId)
+        {
+            this.targetPosition = targetPosition;
+            this.contentCount = contentCount;
+            this.resultCode = resultCode;
+            this.contextId = contextId;
+        }
+
+        static Response decode(byte[] value) throws IOException
+        {
+            if (value == null)
+            {
+                throw new IOException("Virtual list view response control has no value");
+            }
+            BERCodec.Reader reader = new BERCodec.Reader(value);
+            reader.enter(BERCodec.SEQUENCE_TAG);
+            int targetPosition = reader.readInteger(BERCodec.INTEGER_TAG);
+            int contentCount = reader.readInteger(BERCodec.INTEGER_TAG);
+            int resultCode = reader.readInteger(BERCodec.ENUMERATED_TAG);
+            byte[] contextId = reader.hasMore() ? reader.read(BERCodec.OCTET_STRING_TAG) : null;
+            return new Response(targetPosition, contentCount, resultCode, contextId);
+        }
+
+        public int getTargetPosition()
+        {
+            return targetPosition;
+        }
+
+        public int getContentCount()
+        {
+            return contentCount;
+        }
+
+        /**
+         * @return The LDAP result code of the virtual list view operation. 0 means success.
+         */
+        public int getResultCode()
+        {
+            return resultCode;
+        }
+
+        public byte[] getContextId()
+        {
+            return contextId;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+/**
+ * Result set that reads the sorted results of a search in windows, starting at the entry in position
+ * <i>offset + 1</i>, using the virtual list view control. The LDAP server resolves the offset, so the
+ * entries before it are never transferred. Each window is a separate search of <i>pageSize</i> entries
+ * (or {@link #DEFAULT_WINDOW_SIZE} if paging is disabled), which is only issued once the entries of the
+ * previous one have been consumed. The max results limit applies to the entries of all the windows: the
+ * last window is shrunk so that no more than <i>maxResults</i> entries are returned.
+ */
+public class VirtualListViewLDAPResultSet implements LDAPResultSet
+{
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private String baseDn = null;
+    private String filter = null;
+    private Object[] filterArgs = null;
+    private LdapContext conn = null;
+    private LDAPSearchControls controls = null;
+    private LDAPJNDIContextPool pool = null;
+    private LdapContext pooledConn = null;
+
+    private final int windowSize;
+    private int position;
+    private long returned = 0;
+    private byte[] contextId = null;
+    private List<LDAPEntry> window = Collections.emptyList();
+    private int windowIndex = 0;
+    private boolean lastWindow = false;
+
+    /**
+     * @param baseDn
+     * @param filter
+     * @param filterArgs
+     * @param conn A context used only by this result set. It is closed when the result set is closed.
+     * @param controls
+     * @param pool The pool the search context was borrowed from or null if it is not pooled.
+     * @param pooledConn The context borrowed from the pool. It is returned to the pool when the result set is closed.
+     */
+    public VirtualListViewLDAPResultSet(String baseDn, String filter, Object[] filterArgs, LdapContext conn, LDAPSearchControls controls, LDAPJNDIContextPool pool, LdapContext pooledConn)
+    {
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.conn = conn;
+        this.controls = controls;
+        this.pool = pool;
+        this.pooledConn = pooledConn;
+        this.windowSize = controls.isPagingEnabled() ? controls.getPageSize() : DEFAULT_WINDOW_SIZE;
+        this.position = Math.max(controls.getOffset(), 0) + 1;
+    }
+
+    /**
+     * Reads the first window, so that a LDAP server that cannot resolve the virtual list view is detected before
+     * any entry is returned.
+     *
+     * @throws NamingException If the search failed or the LDAP server did not honor the virtual list view control.
+     * @throws LDAPException If the entries could not be read.
+     */
+    public void open() throws NamingException, LDAPException
+    {
+        fetchWindow();
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        if (this.conn == null)
+        {
+            return false;
+        }
+        if (this.windowIndex < this.window.size())
+        {
+            return true;
+        }
+        if (this.lastWindow)
+        {
+            return false;
+        }
+        try
+        {
+            fetchWindow();
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+        return this.windowIndex < this.window.size();
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        // Release the reference as soon as possible
+        return this.window.set(this.windowIndex++, null);
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+        while (hasNext())
+        {
+            allEntries.add(next());
+        }
+        return allEntries;
+    }
+
+    @Override
+    public void close() throws LDAPException
+    {
+        this.window = Collections.emptyList();
+        this.lastWindow = true;
+        try
+        {
+            if (this.conn != null)
+            {
+                this.conn.close();
+            }
+        }
+        catch (NamingException nex)
+        {
+            logger.debug("Error closing search context. Ignoring it.", nex);
+        }
+        finally
+        {
+            this.conn = null;
+            if (this.pool != null && this.pooledConn != null)
+            {
+                this.pool.returnContext(this.pooledConn);
+                this.pooledConn = null;
+            }
+        }
+    }
+
+    private void fetchWindow() throws NamingException, LDAPException
+    {
+        int size = this.windowSize;
+        if (this.controls.getMaxResults() > 0)
+        {
+            long remaining = this.controls.getMaxResults() - this.returned;
+            if (remaining <= 0)
+            {
+                this.window = Collections.emptyList();
+                this.windowIndex = 0;
+                this.lastWindow = true;
+                return;
+            }
+            size = (int) Math.min(size, remaining);
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Requesting " + size + " entries starting at position " + this.position + " with virtual list view");
+        }
+
+        this.conn.setRequestControls(LDAPJNDIUtils.buildVirtualListViewControls(this.controls, this.position, size, this.contextId));
+
+        NamingEnumeration<SearchResult> results;
+        if (this.filterArgs != null && this.filterArgs.length > 0)
+        {
+            results = this.conn.search(this.baseDn, this.filter, this.filterArgs, LDAPJNDIUtils.buildSearchControls(this.controls));
+        }
+        else
+        {
+            results = this.conn.search(this.baseDn, this.filter, LDAPJNDIUtils.buildSearchControls(this.controls));
+        }
+
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>(size);
+        boolean sizeLimitExceeded = false;
+        try
+        {
+            // Never more than requested, so that max results holds even if the LDAP server returns a larger window
+            while (results.hasMore() && entries.size() < size)
+            {
+                entries.add(buildEntry(results.next()));
+            }
+        }
+        catch (SizeLimitExceededException slee)
+        {
+            logger.warn("Size limit exceeded. Max results is: " + this.controls.getMaxResults(), slee);
+            sizeLimitExceeded = true;
+        }
+        finally
+        {
+            results.close();
+        }
+
+        VirtualListViewControl.Response response;
+        try
+        {
+            response = VirtualListViewControl.getResponse(this.conn.getResponseControls());
+        }
+        catch (IOException ex)
+        {
+            throw new OperationNotSupportedException("Invalid virtual list view response control: " + ex.getMessage());
+        }
+        if (response == null)
+        {
+            throw new OperationNotSupportedException("LDAP server did not return a virtual list view response control");
+        }
+        if (response.getResultCode() != 0)
+        {
+            throw new OperationNotSupportedException("LDAP server rejected the virtual list view control with result code " + response.getResultCode());
+        }
+
+        this.contextId = response.getContextId();
+        this.position += entries.size();
+        this.returned += entries.size();
+        this.lastWindow = sizeLimitExceeded || entries.size() < size || this.position > response.getContentCount() || (this.controls.getMaxResults() > 0 && this.returned >= this.controls.getMaxResults());
+        this.window = entries;
+        this.windowIndex = 0;
+    }
+
+    private LDAPEntry buildEntry(SearchResult searchResult) throws LDAPException
+    {
+        String entryDn = searchResult.getName();
+        if (searchResult.isRelative())
+        {
+            entryDn += "," + this.baseDn;
+        }
+        return LDAPJNDIUtils.buildEntry(this.pooledConn, entryDn, searchResult.getAttributes(), controls);
+    }
+}
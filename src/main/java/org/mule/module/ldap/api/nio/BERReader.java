@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+
+/**
+ * BER decoder of LDAP messages that reads the elements in place, without copying the content of
+ * constructed elements. Only definite lengths of up to 4 bytes and integers of up to 32 bits are
+ * supported, which is all LDAP needs.
+ * <p/>
+ * Constructed elements are read with {@link #enter(int)}, which returns the position where the element
+ * ends, and {@link #hasMore(int)}:
+ *
+ * <pre>
+ * int end = reader.enter(SEQUENCE_TAG);
+ * while (reader.hasMore(end))
+ * {
+ *     ...
+ * }
+ * </pre>
+ */
+final class BERReader
+{
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    BERReader(byte[] data)
+    {
+        this(data, 0, data.length);
+    }
+
+    BERReader(byte[] data, int offset, int length)
+    {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * @param buffer Bytes read from the network.
+     * @param offset Position of the first byte of an element.
+     * @param available Amount of bytes read from <i>offset</i>.
+     * @return The length of the element, including its tag and length, or -1 if the available bytes are
+     *         not enough to know it.
+     * @throws IOException If the length is invalid.
+     */
+    static int elementLength(byte[] buffer, int offset, int available) throws IOException
+    {
+        if (available < 2)
+        {
+            return -1;
+        }
+        int length = buffer[offset + 1] & 0xFF;
+        if ((length & 0x80) == 0)
+        {
+            return 2 + length;
+        }
+        int lengthBytes = length & 0x7F;
+        if (lengthBytes == 0 || lengthBytes > 4)
+        {
+            throw new IOException("Unsupported BER length of " + lengthBytes + " bytes");
+        }
+        if (available < 2 + lengthBytes)
+        {
+            return -1;
+        }
+        length = 0;
+        for (int i = 0; i < lengthBytes; i++)
+        {
+            length = (length << 8) | (buffer[offset + 2 + i] & 0xFF);
+        }
+        if (length < 0 || length > Integer.MAX_VALUE - 2 - lengthBytes)
+        {
+            throw new IOException("Invalid BER length " + length);
+        }
+        return 2 + lengthBytes + length;
+    }
+
+    /**
+     * @param end Position returned by {@link #enter(int)}.
+     * @return true if there are more elements before <i>end</i>.
+     */
+    boolean hasMore(int end)
+    {
+        return position < end;
+    }
+
+    boolean hasMore()
+    {
+        return position < limit;
+    }
+
+    /**
+     * @return The tag of the next element or -1 if there are no more elements.
+     */
+    int peekTag()
+    {
+        return position < limit ? data[position] & 0xFF : -1;
+    }
+
+    /**
+     * Moves to the content of a constructed element.
+     *
+     * @return The position where the element ends.
+     */
+    int enter(int tag) throws IOException
+    {
+        int length = readHeader(tag);
+        return position + length;
+    }
+
+    int readInteger(int tag) throws IOException
+    {
+        int length = readHeader(tag);
+        if (length == 0 || length > 4)
+        {
+            throw new IOException("Invalid integer length " + length);
+        }
+        int value = data[position++]; // sign extension
+        for (int i = 1; i < length; i++)
+        {
+            value = (value << 8) | (data[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    int readInteger() throws IOException
+    {
+        return readInteger(BERWriter.INTEGER_TAG);
+    }
+
+    int readEnumerated() throws IOException
+    {
+        return readInteger(BERWriter.ENUMERATED_TAG);
+    }
+
+    boolean readBoolean(int tag) throws IOException
+    {
+        int length = readHeader(tag);
+        if (length != 1)
+        {
+            throw new IOException("Invalid boolean length " + length);
+        }
+        return data[position++] != 0;
+    }
+
+    byte[] readOctetString(int tag) throws IOException
+    {
+        int length = readHeader(tag);
+        byte[] content = new byte[length];
+        System.arraycopy(data, position, content, 0, length);
+        position += length;
+        return content;
+    }
+
+    byte[] readOctetString() throws IOException
+    {
+        return readOctetString(BERWriter.OCTET_STRING_TAG);
+    }
+
+    /**
+     * Decodes the content as UTF-8 without copying it first.
+     */
+    String readString(int tag) throws IOException
+    {
+        int length = readHeader(tag);
+        String value = length > 0 ? new String(data, position, length, BERWriter.UTF_8) : "";
+        position += length;
+        return value;
+    }
+
+    String readString() throws IOException
+    {
+        return readString(BERWriter.OCTET_STRING_TAG);
+    }
+
+    /**
+     * Skips the next element, whatever its tag.
+     */
+    void skip() throws IOException
+    {
+        int length = readHeader(peekTag());
+        position += length;
+    }
+
+    /**
+     * Skips the elements until <i>end</i>.
+     */
+    void skipTo(int end)
+    {
+        position = end;
+    }
+
+    private int readHeader(int tag) throws IOException
+    {
+        if (position + 2 > limit || (data[position] & 0xFF) != tag)
+        {
+            throw new IOException("Expected BER element with tag 0x" + Integer.toHexString(tag) + " at position " + position
+                                  + (position < limit ? " but found 0x" + Integer.toHexString(data[position] & 0xFF) : ""));
+        }
+        int length = elementLength(data, position, limit - position);
+        if (length < 0 || position + length > limit)
+        {
+            throw new IOException("BER element at position " + position + " exceeds the available data");
+        }
+        int header = (data[position + 1] & 0x80) == 0 ? 2 : 2 + (data[position + 1] & 0x7F);
+        position += header;
+        return length - header;
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.nio.charset.Charset;
+
+/**
+ * BER encoder of LDAP messages that writes all the elements of a message into a single growing buffer.
+ * The length of a constructed element is only known once its content is written, so
+ * {@link #endSequence()} shifts the content to make room for the length.
+ */
+final class BERWriter
+{
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int BOOLEAN_TAG = 0x01;
+    static final int INTEGER_TAG = 0x02;
+    static final int OCTET_STRING_TAG = 0x04;
+    static final int NULL_TAG = 0x05;
+    static final int ENUMERATED_TAG = 0x0A;
+    static final int SEQUENCE_TAG = 0x30;
+    static final int SET_TAG = 0x31;
+
+    private byte[] buffer;
+    private int size = 0;
+    private int[] sequences = new int[8];
+    private int depth = 0;
+
+    BERWriter()
+    {
+        this(256);
+    }
+
+    BERWriter(int initialCapacity)
+    {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Starts a constructed element. Every element written until the matching {@link #endSequence()} is
+     * part of its content.
+     */
+    BERWriter startSequence(int tag)
+    {
+        writeByte(tag);
+        if (depth == sequences.length)
+        {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(sequences, 0, grown, 0, depth);
+            sequences = grown;
+        }
+        sequences[depth++] = size;
+        return this;
+    }
+
+    BERWriter endSequence()
+    {
+        if (depth == 0)
+        {
+            throw new IllegalStateException("There is no sequence to end");
+        }
+        int start = sequences[--depth];
+        int length = size - start;
+        int header = lengthSize(length);
+        ensureCapacity(header);
+        System.arraycopy(buffer, start, buffer, start + header, length);
+        writeLength(start, length, header);
+        size += header;
+        return this;
+    }
+
+    BERWriter writeInteger(int tag, int value)
+    {
+        // Minimal two's complement representation
+        int length = 4;
+        while (length > 1 && ((value >> ((length - 1) * 8 - 1)) == 0 || (value >> ((length - 1) * 8 - 1)) == -1))
+        {
+            length--;
+        }
+        writeHeader(tag, length);
+        for (int i = length - 1; i >= 0; i--)
+        {
+            writeByte(value >> (i * 8));
+        }
+        return this;
+    }
+
+    BERWriter writeInteger(int value)
+    {
+        return writeInteger(INTEGER_TAG, value);
+    }
+
+    BERWriter writeEnumerated(int value)
+    {
+        return writeInteger(ENUMERATED_TAG, value);
+    }
+
+    BERWriter writeBoolean(int tag, boolean value)
+    {
+        writeHeader(tag, 1);
+        writeByte(value ? 0xFF : 0);
+        return this;
+    }
+
+    BERWriter writeBoolean(boolean value)
+    {
+        return writeBoolean(BOOLEAN_TAG, value);
+    }
+
+    BERWriter writeOctetString(int tag, byte[] value, int offset, int length)
+    {
+        writeHeader(tag, length);
+        ensureCapacity(length);
+        System.arraycopy(value, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    BERWriter writeOctetString(int tag, byte[] value)
+    {
+        return writeOctetString(tag, value, 0, value.length);
+    }
+
+    BERWriter writeOctetString(byte[] value)
+    {
+        return writeOctetString(OCTET_STRING_TAG, value);
+    }
+
+    /**
+     * @param value Written as UTF-8. Null is written as an empty string.
+     */
+    BERWriter writeString(int tag, String value)
+    {
+        return writeOctetString(tag, value != null ? value.getBytes(UTF_8) : new byte[0]);
+    }
+
+    BERWriter writeString(String value)
+    {
+        return writeString(OCTET_STRING_TAG, value);
+    }
+
+    BERWriter writeNull(int tag)
+    {
+        writeHeader(tag, 0);
+        return this;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return The encoded elements. All the sequences must have been ended.
+     */
+    byte[] toByteArray()
+    {
+        if (depth > 0)
+        {
+            throw new IllegalStateException(depth + " sequences were not ended");
+        }
+        byte[] bytes = new byte[size];
+        System.arraycopy(buffer, 0, bytes, 0, size);
+        return bytes;
+    }
+
+    private void writeHeader(int tag, int length)
+    {
+        writeByte(tag);
+        int header = lengthSize(length);
+        ensureCapacity(header);
+        writeLength(size, length, header);
+        size += header;
+    }
+
+    private void writeLength(int position, int length, int header)
+    {
+        if (header == 1)
+        {
+            buffer[position] = (byte) length;
+        }
+        else
+        {
+            buffer[position] = (byte) (0x80 | (header - 1));
+            for (int i = 1; i < header; i++)
+            {
+                buffer[position + i] = (byte) (length >> ((header - 1 - i) * 8));
+            }
+        }
+    }
+
+    private static int lengthSize(int length)
+    {
+        if (length < 0x80)
+        {
+            return 1;
+        }
+        return length > 0xFFFFFF ? 5 : length > 0xFFFF ? 4 : length > 0xFF ? 3 : 2;
+    }
+
+    private void writeByte(int value)
+    {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (size + extra > buffer.length)
+        {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + extra)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+}
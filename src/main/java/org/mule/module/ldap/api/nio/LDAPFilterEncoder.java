@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Parses a search filter in its string representation (RFC 4515) and writes it as the BER encoded
+ * Filter of a SearchRequest (RFC 4511).
+ * <p/>
+ * As with JNDI, the filter may hold <i>{n}</i> references to the filter arguments. Arguments are
+ * written as they are: they are never interpreted as wildcards or escape sequences. byte[] arguments
+ * are written as binary values and the rest as the UTF-8 encoding of their string representation.
+ */
+final class LDAPFilterEncoder
+{
+    static final int AND_TAG = 0xA0;
+    static final int OR_TAG = 0xA1;
+    static final int NOT_TAG = 0xA2;
+    static final int EQUALITY_MATCH_TAG = 0xA3;
+    static final int SUBSTRINGS_TAG = 0xA4;
+    static final int GREATER_OR_EQUAL_TAG = 0xA5;
+    static final int LESS_OR_EQUAL_TAG = 0xA6;
+    static final int PRESENT_TAG = 0x87;
+    static final int APPROX_MATCH_TAG = 0xA8;
+    static final int EXTENSIBLE_MATCH_TAG = 0xA9;
+
+    static final int SUBSTRING_INITIAL_TAG = 0x80;
+    static final int SUBSTRING_ANY_TAG = 0x81;
+    static final int SUBSTRING_FINAL_TAG = 0x82;
+
+    static final int MATCHING_RULE_TAG = 0x81;
+    static final int MATCHING_TYPE_TAG = 0x82;
+    static final int MATCH_VALUE_TAG = 0x83;
+    static final int DN_ATTRIBUTES_TAG = 0x84;
+
+    private static final String DEFAULT_FILTER = "(objectClass=*)";
+
+    private final String filter;
+    private final Object[] args;
+    private int position = 0;
+
+    private LDAPFilterEncoder(String filter, Object[] args)
+    {
+        this.filter = filter;
+        this.args = args;
+    }
+
+    /**
+     * @param out Writer of the SearchRequest.
+     * @param filter Filter such as <i>(&(objectClass=person)(cn={0}))</i>. The enclosing parentheses are
+     *            optional and an empty filter matches every entry.
+     * @param args Values of the <i>{n}</i> references or null if the filter has none.
+     * @throws LDAPException If the filter is invalid.
+     */
+    static void encode(BERWriter out, String filter, Object[] args) throws LDAPException
+    {
+        String trimmed = filter != null ? filter.trim() : "";
+        if (trimmed.length() == 0)
+        {
+            trimmed = DEFAULT_FILTER;
+        }
+        else if (trimmed.charAt(0) != '(')
+        {
+            trimmed = "(" + trimmed + ")";
+        }
+
+        LDAPFilterEncoder encoder = new LDAPFilterEncoder(trimmed, args != null && args.length > 0 ? args : null);
+        encoder.writeFilter(out);
+        encoder.skipSpaces();
+        if (encoder.position < trimmed.length())
+        {
+            throw encoder.invalid("unexpected characters after the end of the filter");
+        }
+    }
+
+    private void writeFilter(BERWriter out) throws LDAPException
+    {
+        skipSpaces();
+        expect('(');
+        skipSpaces();
+        switch (current())
+        {
+            case '&' :
+                position++;
+                writeFilterList(out, AND_TAG);
+                break;
+            case '|' :
+                position++;
+                writeFilterList(out, OR_TAG);
+                break;
+            case '!' :
+                position++;
+                out.startSequence(NOT_TAG);
+                writeFilter(out);
+                out.endSequence();
+                break;
+            default :
+                writeItem(out);
+        }
+        skipSpaces();
+        expect(')');
+    }
+
+    private void writeFilterList(BERWriter out, int tag) throws LDAPException
+    {
+        out.startSequence(tag);
+        skipSpaces();
+        while (position < filter.length() && filter.charAt(position) == '(')
+        {
+            writeFilter(out);
+            skipSpaces();
+        }
+        out.endSequence();
+    }
+
+    private void writeItem(BERWriter out) throws LDAPException
+    {
+        int start = position;
+        while (position < filter.length() && "=~<>()".indexOf(filter.charAt(position)) < 0)
+        {
+            position++;
+        }
+        if (position >= filter.length() || filter.charAt(position) == '(' || filter.charAt(position) == ')')
+        {
+            throw invalid("missing operator");
+        }
+
+        String description = filter.substring(start, position).trim();
+        char operator = filter.charAt(position);
+        if (operator == '=')
+        {
+            position++;
+        }
+        else if (position + 1 < filter.length() && filter.charAt(position + 1) == '=')
+        {
+            position += 2;
+        }
+        else
+        {
+            throw invalid("invalid operator " + operator);
+        }
+
+        List<byte[]> parts = readValue();
+        if (operator == '=' && description.endsWith(":"))
+        {
+            writeExtensibleMatch(out, description.substring(0, description.length() - 1), single(parts));
+            return;
+        }
+        if (description.length() == 0)
+        {
+            throw invalid("missing attribute description");
+        }
+
+        switch (operator)
+        {
+            case '=' :
+                if (parts.size() == 1)
+                {
+                    writeAssertion(out, EQUALITY_MATCH_TAG, description, parts.get(0));
+                }
+                else if (parts.size() == 2 && parts.get(0).length == 0 && parts.get(1).length == 0)
+                {
+                    out.writeString(PRESENT_TAG, description);
+                }
+                else
+                {
+                    writeSubstrings(out, description, parts);
+                }
+                break;
+            case '~' :
+                writeAssertion(out, APPROX_MATCH_TAG, description, single(parts));
+                break;
+            case '>' :
+                writeAssertion(out, GREATER_OR_EQUAL_TAG, description, single(parts));
+                break;
+            default :
+                writeAssertion(out, LESS_OR_EQUAL_TAG, description, single(parts));
+        }
+    }
+
+    private static void writeAssertion(BERWriter out, int tag, String description, byte[] value)
+    {
+        out.startSequence(tag);
+        out.writeString(description);
+        out.writeOctetString(value);
+        out.endSequence();
+    }
+
+    private static void writeSubstrings(BERWriter out, String description, List<byte[]> parts)
+    {
+        out.startSequence(SUBSTRINGS_TAG);
+        out.writeString(description);
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        int last = parts.size() - 1;
+        for (int i = 0; i <= last; i++)
+        {
+            byte[] part = parts.get(i);
+            if (part.length > 0)
+            {
+                out.writeOctetString(i == 0 ? SUBSTRING_INITIAL_TAG : (i == last ? SUBSTRING_FINAL_TAG : SUBSTRING_ANY_TAG), part);
+            }
+        }
+        out.endSequence();
+        out.endSequence();
+    }
+
+    /*
+     * attr [":dn"] [":" matchingrule] ":=" value / [":dn"] ":" matchingrule ":=" value
+     */
+    private void writeExtensibleMatch(BERWriter out, String description, byte[] value) throws LDAPException
+    {
+        String[] tokens = description.split(":", -1);
+        String type = tokens[0].trim();
+        String matchingRule = null;
+        boolean dnAttributes = false;
+        for (int i = 1; i < tokens.length; i++)
+        {
+            String token = tokens[i].trim();
+            if ("dn".equalsIgnoreCase(token) && !dnAttributes && matchingRule == null)
+            {
+                dnAttributes = true;
+            }
+            else if (token.length() > 0 && matchingRule == null)
+            {
+                matchingRule = token;
+            }
+            else
+            {
+                throw invalid("invalid extensible match " + description);
+            }
+        }
+        if (type.length() == 0 && matchingRule == null)
+        {
+            throw invalid("extensible match without attribute description or matching rule");
+        }
+
+        out.startSequence(EXTENSIBLE_MATCH_TAG);
+        if (matchingRule != null)
+        {
+            out.writeString(MATCHING_RULE_TAG, matchingRule);
+        }
+        if (type.length() > 0)
+        {
+            out.writeString(MATCHING_TYPE_TAG, type);
+        }
+        out.writeOctetString(MATCH_VALUE_TAG, value);
+        if (dnAttributes)
+        {
+            out.writeBoolean(DN_ATTRIBUTES_TAG, true);
+        }
+        out.endSequence();
+    }
+
+    /*
+     * Reads the assertion value up to the closing parenthesis, split by the unescaped asterisks.
+     */
+    private List<byte[]> readValue() throws LDAPException
+    {
+        List<byte[]> parts = new ArrayList<byte[]>(2);
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        while (position < filter.length())
+        {
+            char c = filter.charAt(position);
+            if (c == ')')
+            {
+                break;
+            }
+            else if (c == '(')
+            {
+                throw invalid("unescaped parenthesis in value");
+            }
+            else if (c == '*')
+            {
+                parts.add(part.toByteArray());
+                part.reset();
+                position++;
+            }
+            else if (c == '\\')
+            {
+                readEscape(part);
+            }
+            else if (c == '{' && args != null)
+            {
+                readArgument(part);
+            }
+            else if (c < 0x80)
+            {
+                part.write(c);
+                position++;
+            }
+            else
+            {
+                int codePoint = filter.codePointAt(position);
+                int length = Character.charCount(codePoint);
+                byte[] bytes = filter.substring(position, position + length).getBytes(BERWriter.UTF_8);
+                part.write(bytes, 0, bytes.length);
+                position += length;
+            }
+        }
+        parts.add(part.toByteArray());
+        return parts;
+    }
+
+    /*
+     * \XX (RFC 4515) or, as accepted by JNDI, a backslash followed by the escaped character (RFC 1960).
+     */
+    private void readEscape(ByteArrayOutputStream part) throws LDAPException
+    {
+        if (position + 2 < filter.length() && isHexDigit(filter.charAt(position + 1)) && isHexDigit(filter.charAt(position + 2)))
+        {
+            part.write(Integer.parseInt(filter.substring(position + 1, position + 3), 16));
+            position += 3;
+        }
+        else if (position + 1 < filter.length())
+        {
+            byte[] bytes = filter.substring(position + 1, position + 2).getBytes(BERWriter.UTF_8);
+            part.write(bytes, 0, bytes.length);
+            position += 2;
+        }
+        else
+        {
+            throw invalid("incomplete escape sequence");
+        }
+    }
+
+    private void readArgument(ByteArrayOutputStream part) throws LDAPException
+    {
+        int end = filter.indexOf('}', position);
+        if (end < 0)
+        {
+            throw invalid("unbalanced {");
+        }
+        int index;
+        try
+        {
+            index = Integer.parseInt(filter.substring(position + 1, end).trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            throw invalid("invalid argument reference " + filter.substring(position, end + 1));
+        }
+        if (index < 0 || index >= args.length)
+        {
+            throw invalid("there is no argument " + index);
+        }
+
+        Object arg = args[index];
+        byte[] bytes = arg instanceof byte[] ? (byte[]) arg : String.valueOf(arg).getBytes(BERWriter.UTF_8);
+        part.write(bytes, 0, bytes.length);
+        position = end + 1;
+    }
+
+    private byte[] single(List<byte[]> parts) throws LDAPException
+    {
+        if (parts.size() != 1)
+        {
+            throw invalid("wildcards are only allowed in equality assertions");
+        }
+        return parts.get(0);
+    }
+
+    private static boolean isHexDigit(char c)
+    {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private char current() throws LDAPException
+    {
+        if (position >= filter.length())
+        {
+            throw invalid("unexpected end of filter");
+        }
+        return filter.charAt(position);
+    }
+
+    private void expect(char c) throws LDAPException
+    {
+        if (current() != c)
+        {
+            throw invalid("expected " + c + " at position " + position);
+        }
+        position++;
+    }
+
+    private void skipSpaces()
+    {
+        while (position < filter.length() && filter.charAt(position) == ' ')
+        {
+            position++;
+        }
+    }
+
+    private LDAPException invalid(String reason)
+    {
+        return new LDAPException("Invalid search filter " + filter + ": " + reason);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+
+/**
+ * LDAP message (RFC 4511) received from the LDAP server. Only the message ID and the type of operation are
+ * decoded when the message is received, so the thread reading from the socket never decodes entries. The
+ * rest is decoded by the thread that waits for the response with {@link #getReader()}.
+ */
+final class LDAPMessage
+{
+    static final int BIND_REQUEST = 0x60;
+    static final int BIND_RESPONSE = 0x61;
+    static final int UNBIND_REQUEST = 0x42;
+    static final int SEARCH_REQUEST = 0x63;
+    static final int SEARCH_RESULT_ENTRY = 0x64;
+    static final int SEARCH_RESULT_DONE = 0x65;
+    static final int MODIFY_REQUEST = 0x66;
+    static final int MODIFY_RESPONSE = 0x67;
+    static final int ADD_REQUEST = 0x68;
+    static final int ADD_RESPONSE = 0x69;
+    static final int DELETE_REQUEST = 0x4A;
+    static final int DELETE_RESPONSE = 0x6B;
+    static final int MODIFY_DN_REQUEST = 0x6C;
+    static final int MODIFY_DN_RESPONSE = 0x6D;
+    static final int ABANDON_REQUEST = 0x50;
+    static final int SEARCH_RESULT_REFERENCE = 0x73;
+    static final int EXTENDED_RESPONSE = 0x78;
+    static final int INTERMEDIATE_RESPONSE = 0x79;
+
+    static final int CONTROLS_TAG = 0xA0;
+
+    private final int messageId;
+    private final int operation;
+    private final int operationEnd;
+    private final BERReader reader;
+    private final int length;
+
+    private LDAPMessage(int messageId, int operation, int operationEnd, BERReader reader, int length)
+    {
+        this.messageId = messageId;
+        this.operation = operation;
+        this.operationEnd = operationEnd;
+        this.reader = reader;
+        this.length = length;
+    }
+
+    /**
+     * @param data A complete LDAPMessage. It is held by the message, not copied.
+     * @return The message, with its reader positioned at the content of the operation.
+     * @throws IOException If the data is not a LDAPMessage.
+     */
+    static LDAPMessage decode(byte[] data) throws IOException
+    {
+        BERReader reader = new BERReader(data);
+        reader.enter(BERWriter.SEQUENCE_TAG);
+        int messageId = reader.readInteger();
+        int operation = reader.peekTag();
+        int operationEnd = reader.enter(operation);
+        return new LDAPMessage(messageId, operation, operationEnd, reader, data.length);
+    }
+
+    int getMessageId()
+    {
+        return messageId;
+    }
+
+    /**
+     * @return Size in bytes of the encoded message.
+     */
+    int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return The tag of the operation, such as {@link #SEARCH_RESULT_ENTRY}.
+     */
+    int getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * @return true if no more messages are sent by the LDAP server for the same request.
+     */
+    boolean isFinal()
+    {
+        return operation != SEARCH_RESULT_ENTRY && operation != SEARCH_RESULT_REFERENCE && operation != INTERMEDIATE_RESPONSE;
+    }
+
+    /**
+     * @return Reader positioned at the content of the operation.
+     */
+    BERReader getReader()
+    {
+        return reader;
+    }
+
+    /**
+     * @return The position where the content of the operation ends.
+     */
+    int getOperationEnd()
+    {
+        return operationEnd;
+    }
+
+    /**
+     * Reads the LDAPResult that all the responses, except entries and references, start with.
+     */
+    LDAPResult readResult() throws IOException
+    {
+        int resultCode = reader.readEnumerated();
+        String matchedDn = reader.readString();
+        String diagnosticMessage = reader.readString();
+        return new LDAPResult(resultCode, matchedDn, diagnosticMessage);
+    }
+
+    /**
+     * Skips the rest of the operation. Call it only once the operation has been read.
+     *
+     * @param oid Type of the control.
+     * @return The value of the response control or null if the message doesn't have it.
+     */
+    byte[] readControlValue(String oid) throws IOException
+    {
+        reader.skipTo(operationEnd);
+        if (reader.peekTag() != CONTROLS_TAG)
+        {
+            return null;
+        }
+        int controlsEnd = reader.enter(CONTROLS_TAG);
+        while (reader.hasMore(controlsEnd))
+        {
+            int controlEnd = reader.enter(BERWriter.SEQUENCE_TAG);
+            String type = reader.readString();
+            if (reader.hasMore(controlEnd) && reader.peekTag() == BERWriter.BOOLEAN_TAG)
+            {
+                reader.readBoolean(BERWriter.BOOLEAN_TAG);
+            }
+            byte[] value = reader.hasMore(controlEnd) ? reader.readOctetString() : null;
+            if (oid.equals(type))
+            {
+                return value;
+            }
+            reader.skipTo(controlEnd);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Socket to the LDAP server shared by all the operations of a connection. Requests are written by the
+ * threads that execute the operations, each of them with its own message ID, and a single reader thread
+ * dispatches the responses to the operations by message ID (RFC 4511 allows the server to return them in
+ * any order). So any amount of operations can be outstanding at the same time on the same socket.
+ * <p/>
+ * If the socket fails or is closed, all the outstanding operations fail with a {@link CommunicationException}.
+ * <p/>
+ * Operations wait at most the read timeout for each response and at most the operation timeout since their
+ * request was sent. Requests that are still waiting for the server afterwards are abandoned, so a server that
+ * stops responding doesn't block the threads of the operations, while the socket remains usable for the rest.
+ * <p/>
+ * The reader thread never waits for an operation to read its responses, as the responses to the other requests
+ * on the same socket would wait too (for example, a lookup executed while iterating the entries of a search). The
+ * responses an operation didn't read yet are kept in memory instead. Paged searches bound them, as the next page
+ * is only requested once the previous one is read, and more than {@link #QUEUED_RESPONSES_WARNING} responses
+ * waiting for the same request are logged as a warning.
+ */
+final class LDAPMessageChannel
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static final AtomicInteger CHANNEL_COUNT = new AtomicInteger();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Default amount of responses to a request received and not yet read by its operation above which a warning is logged.
+     */
+    static final int QUEUED_RESPONSES_WARNING = 1000;
+
+    private final String address;
+    private final SocketChannel channel;
+    private final long readTimeout;
+    private final long operationTimeout;
+    private final int queuedResponsesWarning;
+    private final Object writeLock = new Object();
+    private final ConcurrentHashMap<Integer, Responses> pending = new ConcurrentHashMap<Integer, Responses>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final Thread reader;
+    private volatile String failure = null;
+    private volatile Throwable failureCause = null;
+
+    private LDAPMessageChannel(String address, SocketChannel channel, long readTimeout, long operationTimeout, int queuedResponsesWarning)
+    {
+        this.address = address;
+        this.channel = channel;
+        this.readTimeout = readTimeout;
+        this.operationTimeout = operationTimeout;
+        this.queuedResponsesWarning = queuedResponsesWarning;
+        this.reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                readMessages();
+            }
+        }, "ldap-nio-" + CHANNEL_COUNT.incrementAndGet() + "-reader");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param connectTimeout Milliseconds to wait for the socket to connect or 0 to wait indefinitely.
+     * @param readTimeout Milliseconds to wait for each response or 0 to wait indefinitely.
+     * @param operationTimeout Milliseconds to wait for all the responses to a request or 0 to wait indefinitely.
+     * @return An open channel.
+     * @throws CommunicationException If the LDAP server cannot be reached.
+     */
+    static LDAPMessageChannel open(String host, int port, int connectTimeout, long readTimeout, long operationTimeout) throws LDAPException
+    {
+        return open(host, port, connectTimeout, readTimeout, operationTimeout, QUEUED_RESPONSES_WARNING);
+    }
+
+    /**
+     * @param queuedResponsesWarning Amount of responses to a request received and not yet read above which a warning is logged.
+     * @see #open(String, int, int, long, long)
+     */
+    static LDAPMessageChannel open(String host, int port, int connectTimeout, long readTimeout, long operationTimeout, int queuedResponsesWarning) throws LDAPException
+    {
+        SocketChannel channel = null;
+        try
+        {
+            channel = SocketChannel.open();
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(new InetSocketAddress(host, port), connectTimeout);
+        }
+        catch (IOException ex)
+        {
+            closeQuietly(channel);
+            throw new CommunicationException(host + ":" + port + "; " + ex.getMessage(), ex);
+        }
+        LDAPMessageChannel messageChannel = new LDAPMessageChannel(host + ":" + port, channel, readTimeout, operationTimeout, queuedResponsesWarning);
+        messageChannel.reader.start();
+        return messageChannel;
+    }
+
+    /**
+     * @return A message ID that is not used by any outstanding request.
+     */
+    int nextMessageId()
+    {
+        int messageId;
+        do
+        {
+            // Message IDs are positive 32 bit integers, so they start again from 1 after the greatest one
+            messageId = messageIds.incrementAndGet() & Integer.MAX_VALUE;
+        }
+        while (messageId == 0 || pending.containsKey(messageId));
+        return messageId;
+    }
+
+    /**
+     * Sends a request whose responses are read from the returned queue.
+     *
+     * @param messageId ID of the message, as returned by {@link #nextMessageId()}.
+     * @param message The encoded message.
+     * @return The queue where the responses to the request are added as they are received.
+     * @throws LDAPException If the request could not be sent.
+     */
+    Responses send(int messageId, byte[] message) throws LDAPException
+    {
+        Responses responses = new Responses(this, messageId, operationTimeout > 0 ? System.currentTimeMillis() + operationTimeout : 0L);
+        pending.put(messageId, responses);
+        // Checked after registering the request, so that a concurrent failure either sees it or is seen here
+        if (failure != null)
+        {
+            pending.remove(messageId);
+            throw newFailure();
+        }
+        try
+        {
+            write(message);
+        }
+        catch (LDAPException ex)
+        {
+            pending.remove(messageId);
+            throw ex;
+        }
+        return responses;
+    }
+
+    /**
+     * Sends a request without response (abandon or unbind).
+     */
+    void sendWithoutResponse(byte[] message) throws LDAPException
+    {
+        if (failure != null)
+        {
+            throw newFailure();
+        }
+        write(message);
+    }
+
+    /**
+     * Stops waiting for the responses to a request, which are ignored if they are received afterwards.
+     */
+    void discard(int messageId)
+    {
+        pending.remove(messageId);
+    }
+
+    /**
+     * Discards the responses to a request and asks the server to stop processing it (RFC 4511, section 4.11).
+     */
+    void abandon(int messageId)
+    {
+        discard(messageId);
+        try
+        {
+            BERWriter out = new BERWriter();
+            out.startSequence(BERWriter.SEQUENCE_TAG);
+            out.writeInteger(nextMessageId());
+            out.writeInteger(LDAPMessage.ABANDON_REQUEST, messageId);
+            out.endSequence();
+            sendWithoutResponse(out.toByteArray());
+        }
+        catch (LDAPException ex)
+        {
+            logger.debug("Could not abandon message " + messageId, ex);
+        }
+    }
+
+    /**
+     * @return true if neither the socket failed nor the channel was closed.
+     */
+    boolean isOpen()
+    {
+        return failure == null;
+    }
+
+    /**
+     * @return Amount of requests waiting for responses.
+     */
+    int getPendingRequests()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Closes the socket. Outstanding requests fail.
+     */
+    void close()
+    {
+        fail("Connection to " + address + " is closed", null);
+    }
+
+    private void write(byte[] message) throws LDAPException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        synchronized (writeLock)
+        {
+            try
+            {
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+            catch (IOException ex)
+            {
+                fail("Connection to " + address + " failed: " + ex.getMessage(), ex);
+                throw newFailure();
+            }
+        }
+    }
+
+    private void readMessages()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try
+        {
+            while (true)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new EOFException("Connection closed by the LDAP server");
+                }
+
+                byte[] data = buffer.array();
+                int available = buffer.position();
+                int start = 0;
+                int length;
+                while ((length = BERReader.elementLength(data, start, available - start)) > 0 && length <= available - start)
+                {
+                    dispatch(LDAPMessage.decode(Arrays.copyOfRange(data, start, start + length)));
+                    start += length;
+                }
+
+                if (start > 0)
+                {
+                    System.arraycopy(data, start, data, 0, available - start);
+                    buffer.position(available - start);
+                }
+                if (length > buffer.capacity())
+                {
+                    // Messages larger than the buffer, such as entries with many values, are read whole
+                    ByteBuffer larger = ByteBuffer.allocate(length);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                else if (length < 0 && buffer.capacity() > READ_BUFFER_SIZE && buffer.position() == 0)
+                {
+                    buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            if (failure == null)
+            {
+                logger.warn("Connection to " + address + " failed", ex);
+                fail("Connection to " + address + " failed: " + ex.getMessage(), ex);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            logger.error("Unexpected error reading from " + address, ex);
+            fail("Connection to " + address + " failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void dispatch(LDAPMessage message) throws IOException
+    {
+        Responses responses = pending.get(message.getMessageId());
+        if (responses != null)
+        {
+            // Removed before the operation can read the last response and send its next request
+            if (message.isFinal())
+            {
+                pending.remove(message.getMessageId(), responses);
+            }
+            responses.add(message);
+        }
+        else if (message.getMessageId() == 0)
+        {
+            // Unsolicited notification, such as the notice of disconnection (RFC 4511, section 4.4.1)
+            String diagnostic = message.getOperation() == LDAPMessage.EXTENDED_RESPONSE ? message.readResult().getDiagnosticMessage() : null;
+            throw new IOException("Unsolicited notification from the LDAP server" + (diagnostic != null ? ": " + diagnostic : ""));
+        }
+        else if (logger.isDebugEnabled())
+        {
+            logger.debug("Ignoring response to abandoned message " + message.getMessageId());
+        }
+    }
+
+    private void fail(String reason, Throwable cause)
+    {
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                return;
+            }
+            failureCause = cause;
+            failure = reason;
+        }
+        closeQuietly(channel);
+        for (Integer messageId : pending.keySet())
+        {
+            Responses responses = pending.remove(messageId);
+            if (responses != null)
+            {
+                responses.fail(newFailure());
+            }
+        }
+    }
+
+    private CommunicationException newFailure()
+    {
+        return new CommunicationException(failure, failureCause);
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+                // Nothing else to do
+            }
+        }
+    }
+
+    /**
+     * Responses to a request, in the order they were received.
+     */
+    static final class Responses
+    {
+        private final LDAPMessageChannel channel;
+        private final int messageId;
+        private final long deadline;
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+        // Only used by the reader thread
+        private boolean warned = false;
+
+        private Responses(LDAPMessageChannel channel, int messageId, long deadline)
+        {
+            this.channel = channel;
+            this.messageId = messageId;
+            this.deadline = deadline;
+        }
+
+        int getMessageId()
+        {
+            return messageId;
+        }
+
+        /**
+         * @return Amount of responses received and not yet read.
+         */
+        int size()
+        {
+            return queue.size();
+        }
+
+        private void add(LDAPMessage response)
+        {
+            queue.add(response);
+            if (!warned && queue.size() > channel.queuedResponsesWarning)
+            {
+                warned = true;
+                channel.logger.warn("More than " + channel.queuedResponsesWarning + " responses to message " + messageId + " from " + channel.address + " are waiting to be read and kept in memory. Enable paging to bound them.");
+            }
+        }
+
+        private void fail(LDAPException failure)
+        {
+            queue.add(failure);
+        }
+
+        /**
+         * Waits for the next response. Responses already received are returned even if the deadline of the
+         * request passed, as it only bounds the time waiting for the server.
+         *
+         * @return The next response to the request.
+         * @throws LDAPException If the socket failed or was closed before the response was received.
+         * @throws CommunicationException If the server didn't respond in time, in which case the request is abandoned.
+         */
+        LDAPMessage take() throws LDAPException
+        {
+            Object response;
+            try
+            {
+                response = queue.poll();
+                if (response == null)
+                {
+                    long timeout = getTimeout();
+                    response = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : (timeout == 0 ? queue.take() : null);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new LDAPException("Interrupted while waiting for the response to message " + messageId, ex);
+            }
+            if (response == null)
+            {
+                channel.abandon(messageId);
+                CommunicationException timeout = new CommunicationException("The LDAP server at " + channel.address + " did not respond to message " + messageId + " in time. The request was abandoned.");
+                queue.add(timeout);
+                throw timeout;
+            }
+            if (response instanceof LDAPException)
+            {
+                // Kept, so that waiting again fails again
+                queue.add(response);
+                throw (LDAPException) response;
+            }
+            return (LDAPMessage) response;
+        }
+
+        /*
+         * Milliseconds to wait for the next response, 0 to wait indefinitely or a negative value if the deadline passed.
+         */
+        private long getTimeout()
+        {
+            long timeout = channel.readTimeout;
+            if (deadline > 0)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return -1L;
+                }
+                timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+            }
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,1051 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.mule.module.ldap.api.CompactLDAPEntry;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPMetrics;
+import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPParallelSearch;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.NameNotFoundException;
+
+/**
+ * Implementation of {@link LDAPConnection} that speaks LDAPv3 (RFC 4511) directly over a socket, without JNDI.
+ * <p/>
+ * All the operations share a single socket (see {@link LDAPMessageChannel}): each request is sent with its own
+ * message ID and its responses are dispatched to the thread that sent it, so operations don't wait for each
+ * other and no pool of connections is needed. The pool size only limits the amount of operations that the
+ * connector runs at the same time on this connection (see {@link #getMaxConcurrentOperations()}).
+ * <p/>
+ * Differences with the JNDI implementation:
+ * <ul>
+ * <li>Only <i>ldap://</i> URLs and the <i>none</i> and <i>simple</i> authentication mechanisms are supported.</li>
+ * <li>Referrals are ignored.</li>
+ * <li>Sorted searches are always sorted in the connector and virtual list view is not used, so the entries before the
+ * offset are read and skipped.</li>
+ * <li>Attributes returned with range retrieval (<i>member;range=0-1499</i>) are returned as they are, and lazy entries
+ * are returned as compact entries, since values are already decoded when the entry is read.</li>
+ * <li>The lookup, negative and search caches are not supported.</li>
+ * </ul>
+ * As with JNDI, the values of the attributes listed in <i>java.naming.ldap.attributes.binary</i> (extended configuration)
+ * and of the standard binary attributes are returned as byte[] and the rest as {@link String}, and if no connect timeout
+ * is set then it is read from <i>com.sun.jndi.ldap.connect.timeout</i>.
+ * <p/>
+ * Unlike JNDI, which closes the connection of an operation that exceeds the operation timeout, requests that exceed
+ * the read or operation timeout are abandoned with an LDAP abandon request, and the socket is still used by the rest
+ * of the operations.
+ */
+public class LDAPNIOConnection extends LDAPConnection
+{
+    public static final int DEFAULT_PORT = 389;
+    public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 5;
+    public static final int DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES = 10000;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 0;
+    public static final long DEFAULT_READ_TIMEOUT = 0L;
+    public static final long DEFAULT_OPERATION_TIMEOUT = 0L;
+
+    public static final String BINARY_ATTRIBUTES_ATTR = "java.naming.ldap.attributes.binary";
+    public static final String JNDI_CONNECT_TIMEOUT_ATTR = "com.sun.jndi.ldap.connect.timeout";
+
+    static final String PAGED_RESULTS_OID = "1.2.840.113556.1.4.319";
+
+    private static final int DEREF_ALWAYS = 3;
+    private static final int MODIFY_ADD = 0;
+    private static final int MODIFY_DELETE = 1;
+    private static final int MODIFY_REPLACE = 2;
+    private static final int SIMPLE_AUTHENTICATION_TAG = 0x80;
+    private static final int NEW_SUPERIOR_TAG = 0x80;
+    private static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+
+    /*
+     * Attributes that JNDI returns as byte[] by default.
+     */
+    private static final String[] DEFAULT_BINARY_ATTRIBUTES = new String[] {"photo", "personalSignature", "audio", "jpegPhoto", "javaSerializedData",
+        "thumbnailPhoto", "thumbnailLogo", "userPassword", "userCertificate", "cACertificate", "authorityRevocationList",
+        "certificateRevocationList", "crossCertificatePair", "x500UniqueIdentifier"};
+
+    private String providerUrl = null;
+    private String host = null;
+    private int port = DEFAULT_PORT;
+    private String urlBaseDn = "";
+    private String authentication = NO_AUTHENTICATION;
+    private int maxConcurrentOperations = DEFAULT_MAX_CONCURRENT_OPERATIONS;
+    private int sortMaxInMemoryEntries = DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long readTimeout = DEFAULT_READ_TIMEOUT;
+    private long operationTimeout = DEFAULT_OPERATION_TIMEOUT;
+    private final Set<String> binaryAttributes = new HashSet<String>();
+
+    private volatile LDAPMessageChannel channel = null;
+    private String bindedDn = null;
+    private String bindedPassword = null;
+
+    public LDAPNIOConnection()
+    {
+        super();
+        for (String attribute : DEFAULT_BINARY_ATTRIBUTES)
+        {
+            binaryAttributes.add(attribute.toLowerCase());
+        }
+    }
+
+    /**
+     * @param conf
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#initialize(java.util.Map)
+     */
+    @Override
+    protected void initialize(Map<String, String> conf) throws LDAPException
+    {
+        if (conf != null)
+        {
+            setAuthentication(getConfValue(conf, AUTHENTICATION_ATTR, NO_AUTHENTICATION));
+            setMaxConcurrentOperations(getConfValue(conf, MAX_POOL_CONNECTIONS_ATTR, DEFAULT_MAX_CONCURRENT_OPERATIONS));
+            setSortMaxInMemoryEntries(getConfValue(conf, SORT_MAX_IN_MEMORY_ENTRIES_ATTR, DEFAULT_SORT_MAX_IN_MEMORY_ENTRIES));
+            setAsyncMaxQueuedOperations(getConfValue(conf, ASYNC_MAX_QUEUED_OPERATIONS_ATTR, DEFAULT_ASYNC_MAX_QUEUED_OPERATIONS));
+            setConnectTimeout(getConfValue(conf, CONNECT_TIMEOUT_ATTR, 0) > 0 ? getConfValue(conf, CONNECT_TIMEOUT_ATTR, 0) : getConfValue(conf, JNDI_CONNECT_TIMEOUT_ATTR, DEFAULT_CONNECT_TIMEOUT));
+            setReadTimeout(getConfValue(conf, READ_TIMEOUT_ATTR, DEFAULT_READ_TIMEOUT));
+            setOperationTimeout(getConfValue(conf, OPERATION_TIMEOUT_ATTR, DEFAULT_OPERATION_TIMEOUT));
+            setProviderUrl(getConfValue(conf, LDAP_URL_ATTR, null));
+            if (Boolean.parseBoolean(getConfValue(conf, METRICS_ENABLED_ATTR, "false")))
+            {
+                enableMetrics(getConfValue(conf, METRICS_REPORTER_ATTR, null), getConfValue(conf, METRICS_REPORT_INTERVAL_ATTR, DEFAULT_METRICS_REPORT_INTERVAL));
+            }
+
+            String binary = getConfValue(conf, BINARY_ATTRIBUTES_ATTR, null);
+            if (binary != null)
+            {
+                for (String attribute : binary.trim().split("\\s+"))
+                {
+                    binaryAttributes.add(attribute.toLowerCase());
+                }
+            }
+
+            String referral = conf.get(REFERRAL_ATTR);
+            if (StringUtils.isNotEmpty(referral) && !"ignore".equalsIgnoreCase(referral))
+            {
+                logger.warn("Referral {} is not supported by {}. Referrals will be ignored.", referral, getClass().getName());
+            }
+        }
+    }
+
+    private static String getConfValue(Map<String, String> conf, String key, String defaultValue)
+    {
+        String value = conf.get(key);
+
+        return StringUtils.isNotEmpty(value) ? value : defaultValue;
+    }
+
+    private static int getConfValue(Map<String, String> conf, String key, int defaultValue)
+    {
+        String value = conf.get(key);
+
+        return StringUtils.isNotEmpty(value) ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static long getConfValue(Map<String, String> conf, String key, long defaultValue)
+    {
+        String value = conf.get(key);
+
+        return StringUtils.isNotEmpty(value) ? Long.parseLong(value) : defaultValue;
+    }
+
+    /**
+     * @param dn
+     * @param password
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#bind(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void bind(String dn, String password) throws LDAPException
+    {
+        if (!isClosed())
+        {
+            logger.info("Already binded to {} as {}. Closing connection first.", getProviderUrl(), bindedDn != null ? bindedDn : "anonymous");
+            close();
+        }
+        if (!NO_AUTHENTICATION.equalsIgnoreCase(getAuthentication()) && !SIMPLE_AUTHENTICATION.equalsIgnoreCase(getAuthentication()))
+        {
+            throw new LDAPException("Authentication " + getAuthentication() + " is not supported by " + getClass().getName());
+        }
+        boolean anonymous = isNoAuthentication() || dn == null;
+
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.BIND);
+        LDAPMessageChannel newChannel;
+        try
+        {
+            newChannel = LDAPMessageChannel.open(host, port, getConnectTimeout(), getReadTimeout(), getOperationTimeout());
+        }
+        catch (LDAPException ex)
+        {
+            sample.failed(ex);
+            sample.stop();
+            throw ex;
+        }
+        try
+        {
+            int messageId = newChannel.nextMessageId();
+            BERWriter out = startMessage(messageId);
+            out.startSequence(LDAPMessage.BIND_REQUEST);
+            out.writeInteger(3);
+            out.writeString(anonymous ? "" : toServerDn(dn));
+            out.writeString(SIMPLE_AUTHENTICATION_TAG, anonymous ? "" : password);
+            out.endSequence();
+            out.endSequence();
+
+            LDAPResult result = readResult(newChannel.send(messageId, out.toByteArray()).take());
+            if (!result.isSuccess())
+            {
+                throw result.toException();
+            }
+        }
+        catch (LDAPException ex)
+        {
+            newChannel.close();
+            logger.error("Bind failed.", ex);
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            sample.stop();
+        }
+
+        this.bindedDn = anonymous ? null : dn;
+        this.bindedPassword = anonymous ? null : password;
+        this.channel = newChannel;
+        getMetrics().register();
+        logger.info("Binded to {} with {} authentication as {}", getProviderUrl(), getAuthentication(), bindedDn != null ? bindedDn : "anonymous");
+    }
+
+    /**
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#rebind()
+     */
+    @Override
+    public void rebind() throws LDAPException
+    {
+        // The channel is kept if the socket fails, so the connection can bind again with the same credentials
+        if (this.channel == null)
+        {
+            throw new LDAPException("Cannot rebind a close connection. You must first bind.");
+        }
+        bind(bindedDn, bindedPassword);
+    }
+
+    @Override
+    public String getBindedUserDn() throws LDAPException
+    {
+        return !isClosed() ? bindedDn : null;
+    }
+
+    /**
+     * All the operations share the same socket, so any amount of them can run at the same time. This limits
+     * the threads used by asynchronous operations and parallel searches to the configured pool size.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#getMaxConcurrentOperations()
+     */
+    @Override
+    public int getMaxConcurrentOperations()
+    {
+        return Math.max(maxConcurrentOperations, 1);
+    }
+
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        return search(baseDn, filter, null, controls);
+    }
+
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        if (controls.isParallel())
+        {
+            // Runs a search per child of the base DN, each of them coming back here with parallelism disabled
+            return new LDAPParallelSearch(this, controls.getParallelism(), getSortMaxInMemoryEntries()).search(baseDn, filter, filterArgs, controls);
+        }
+        if (controls.isVirtualListView() && logger.isDebugEnabled())
+        {
+            logger.debug("Virtual list view is not supported by {}. Skipping {} entries instead.", getClass().getName(), controls.getOffset());
+        }
+
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.SEARCH);
+        LDAPNIOResultSet result = new LDAPNIOResultSet(this, baseDn, filter, filterArgs, controls, getSortMaxInMemoryEntries());
+        try
+        {
+            result.open();
+            int skipped = 0;
+            while (skipped < controls.getOffset() && result.hasNext())
+            {
+                skipped++;
+                result.next(); // skip
+            }
+            return sample.countEntries(result);
+        }
+        catch (LDAPException ex)
+        {
+            result.close();
+            logger.error("Search failed.", ex);
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            // The latency of a search is the time until the request is sent (and, with an offset, the skipped entries are read)
+            sample.stop();
+        }
+    }
+
+    @Override
+    public LDAPEntry lookup(String dn) throws LDAPException
+    {
+        return lookup(dn, null);
+    }
+
+    @Override
+    public LDAPEntry lookup(String dn, String[] attributes) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.LOOKUP);
+        try
+        {
+            return lookupEntry(dn, attributes);
+        }
+        catch (LDAPException ex)
+        {
+            logger.error("Lookup failed.", ex);
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            sample.stop();
+        }
+    }
+
+    /**
+     * Requests no attributes and, as missing entries are an expected result, doesn't log the exception
+     * returned by the LDAP server for them.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#exists(java.lang.String)
+     */
+    @Override
+    public boolean exists(String dn) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(LDAPMetrics.EXISTS);
+        try
+        {
+            lookupEntry(dn, NO_ATTRIBUTES);
+            return true;
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            return false;
+        }
+        catch (LDAPException ex)
+        {
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            sample.stop();
+        }
+    }
+
+    /*
+     * Base object search of the entry. The DN of the returned entry is the requested one.
+     */
+    private LDAPEntry lookupEntry(String dn, String[] attributes) throws LDAPException
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.OBJECT_SCOPE);
+        controls.setAttributesToReturn(attributes);
+        LDAPNIOResultSet result = new LDAPNIOResultSet(this, dn, null, null, controls, getSortMaxInMemoryEntries());
+        try
+        {
+            result.open();
+            if (!result.hasNext())
+            {
+                throw new NameNotFoundException("[LDAP: error code 32 - " + dn + " not found]");
+            }
+            LDAPEntry entry = result.next();
+            entry.setDn(dn);
+            // Reads the end of the search, so that closing the result set doesn't abandon it
+            result.hasNext();
+            return entry;
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
+    @Override
+    public void addEntry(LDAPEntry entry) throws LDAPException
+    {
+        LDAPMessageChannel current = getChannel();
+        int messageId = current.nextMessageId();
+        BERWriter out = startMessage(messageId);
+        out.startSequence(LDAPMessage.ADD_REQUEST);
+        out.writeString(toServerDn(entry.getDn()));
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            writeAttribute(out, it.next());
+        }
+        out.endSequence();
+        out.endSequence();
+        out.endSequence();
+
+        execute(current, messageId, out, LDAPMetrics.ADD, "Add entry failed.");
+    }
+
+    @Override
+    public void updateEntry(LDAPEntry entry) throws LDAPException
+    {
+        List<LDAPEntryAttribute> attributes = new ArrayList<LDAPEntryAttribute>(entry.getAttributeCount());
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            attributes.add(it.next());
+        }
+        modify(entry.getDn(), MODIFY_REPLACE, attributes, LDAPMetrics.UPDATE, "Update entry failed.");
+    }
+
+    @Override
+    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    {
+        deleteEntry(entry.getDn());
+    }
+
+    @Override
+    public void deleteEntry(String dn) throws LDAPException
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("About to delete entry {}", dn);
+        }
+
+        LDAPMessageChannel current = getChannel();
+        int messageId = current.nextMessageId();
+        BERWriter out = startMessage(messageId);
+        out.writeString(LDAPMessage.DELETE_REQUEST, toServerDn(dn));
+        out.endSequence();
+
+        execute(current, messageId, out, LDAPMetrics.DELETE, "Delete entry failed.");
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Deleted entry {}", dn);
+        }
+    }
+
+    /**
+     * The old RDN values are removed from the entry. If the parent of the new DN is not the one of the old
+     * DN, then the entry is moved.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#renameEntry(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void renameEntry(String oldDn, String newDn) throws LDAPException
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("About to rename entry {} to {}", oldDn, newDn);
+        }
+
+        String oldEntry = toServerDn(oldDn);
+        String newEntry = toServerDn(newDn);
+        int rdnEnd = rdnEnd(newEntry);
+        String newRdn = newEntry.substring(0, rdnEnd).trim();
+        String newParent = rdnEnd < newEntry.length() ? newEntry.substring(rdnEnd + 1).trim() : "";
+        String oldParent = rdnEnd(oldEntry) < oldEntry.length() ? oldEntry.substring(rdnEnd(oldEntry) + 1).trim() : "";
+
+        LDAPMessageChannel current = getChannel();
+        int messageId = current.nextMessageId();
+        BERWriter out = startMessage(messageId);
+        out.startSequence(LDAPMessage.MODIFY_DN_REQUEST);
+        out.writeString(oldEntry);
+        out.writeString(newRdn);
+        out.writeBoolean(true);
+        if (!newParent.equalsIgnoreCase(oldParent))
+        {
+            out.writeString(NEW_SUPERIOR_TAG, newParent);
+        }
+        out.endSequence();
+        out.endSequence();
+
+        execute(current, messageId, out, LDAPMetrics.RENAME, "Rename entry failed.");
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Renamed entry {} to {}", oldDn, newDn);
+        }
+    }
+
+    @Override
+    public void addAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        modify(dn, MODIFY_ADD, Collections.singletonList(attribute), LDAPMetrics.ADD_ATTRIBUTE, "Add attribute failed.");
+    }
+
+    @Override
+    public void updateAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        modify(dn, MODIFY_REPLACE, Collections.singletonList(attribute), LDAPMetrics.UPDATE_ATTRIBUTE, "Update attribute failed.");
+    }
+
+    /**
+     * If the attribute has no values, then the whole attribute is deleted.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteAttribute(java.lang.String, org.mule.module.ldap.api.LDAPEntryAttribute)
+     */
+    @Override
+    public void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        modify(dn, MODIFY_DELETE, Collections.singletonList(attribute), LDAPMetrics.DELETE_ATTRIBUTE, "Delete attribute failed.");
+    }
+
+    private void modify(String dn, int operation, List<LDAPEntryAttribute> attributes, String metricsOperation, String logMessage) throws LDAPException
+    {
+        LDAPMessageChannel current = getChannel();
+        int messageId = current.nextMessageId();
+        BERWriter out = startMessage(messageId);
+        out.startSequence(LDAPMessage.MODIFY_REQUEST);
+        out.writeString(toServerDn(dn));
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        for (LDAPEntryAttribute attribute : attributes)
+        {
+            out.startSequence(BERWriter.SEQUENCE_TAG);
+            out.writeEnumerated(operation);
+            writeAttribute(out, attribute);
+            out.endSequence();
+        }
+        out.endSequence();
+        out.endSequence();
+        out.endSequence();
+
+        execute(current, messageId, out, metricsOperation, logMessage);
+    }
+
+    /**
+     * Sends the unbind request and closes the socket. Outstanding operations fail.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#close()
+     */
+    @Override
+    public void close() throws LDAPException
+    {
+        shutdownAsyncExecutor();
+        getMetrics().unregister();
+
+        LDAPMessageChannel current = this.channel;
+        this.channel = null;
+        if (current != null)
+        {
+            try
+            {
+                BERWriter out = startMessage(current.nextMessageId());
+                out.writeNull(LDAPMessage.UNBIND_REQUEST);
+                out.endSequence();
+                current.sendWithoutResponse(out.toByteArray());
+            }
+            catch (LDAPException ex)
+            {
+                logger.debug("Unbind failed. Closing the connection anyway.", ex);
+            }
+            finally
+            {
+                current.close();
+            }
+            logger.info("Connection closed.");
+        }
+    }
+
+    /**
+     * @return true if the connection was not binded or was closed, or if the socket failed.
+     * @see org.mule.module.ldap.api.LDAPConnection#isClosed()
+     */
+    @Override
+    public boolean isClosed()
+    {
+        LDAPMessageChannel current = this.channel;
+        return current == null || !current.isOpen();
+    }
+
+    /**
+     * All the operations share the socket, so the requests waiting for their responses are reported as borrowed.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#getBorrowedConnections()
+     */
+    @Override
+    public int getBorrowedConnections()
+    {
+        return getPendingRequests();
+    }
+
+    /**
+     * @return Amount of requests sent to the LDAP server whose responses were not completely received.
+     */
+    public int getPendingRequests()
+    {
+        LDAPMessageChannel current = this.channel;
+        return current != null ? current.getPendingRequests() : 0;
+    }
+
+    /**
+     * Sends a search request.
+     *
+     * @param sizeLimit Maximum amount of entries the server returns or 0 for no limit.
+     * @param cookie Cookie of the next page or null for the first one.
+     * @return The queue of the responses to the request.
+     */
+    LDAPMessageChannel.Responses sendSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, long sizeLimit, byte[] cookie) throws LDAPException
+    {
+        LDAPMessageChannel current = getChannel();
+        int messageId = current.nextMessageId();
+        BERWriter out = startMessage(messageId);
+        out.startSequence(LDAPMessage.SEARCH_REQUEST);
+        out.writeString(toServerDn(baseDn));
+        out.writeEnumerated(transformScope(controls.getScope()));
+        out.writeEnumerated(DEREF_ALWAYS);
+        out.writeInteger((int) Math.min(sizeLimit, Integer.MAX_VALUE));
+        // Time limit is in seconds
+        out.writeInteger(controls.getTimeout() > 0 ? (controls.getTimeout() + 999) / 1000 : 0);
+        out.writeBoolean(false);
+        LDAPFilterEncoder.encode(out, filter, filterArgs);
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        if (controls.getAttributesToReturn() != null)
+        {
+            for (String attribute : controls.getAttributesToReturn())
+            {
+                out.writeString(attribute);
+            }
+        }
+        out.endSequence();
+        out.endSequence();
+        if (controls.isPagingEnabled())
+        {
+            writePagedResultsControl(out, controls.getPageSize(), cookie);
+        }
+        out.endSequence();
+
+        return current.send(messageId, out.toByteArray());
+    }
+
+    /**
+     * Abandons an outstanding search. Entries already sent by the server are ignored.
+     */
+    void abandon(int searchMessageId)
+    {
+        LDAPMessageChannel current = this.channel;
+        if (current == null)
+        {
+            return;
+        }
+        current.abandon(searchMessageId);
+    }
+
+    /**
+     * Decodes a SearchResultEntry in the format requested by the controls.
+     */
+    LDAPEntry readEntry(LDAPMessage message, LDAPSearchControls controls) throws IOException
+    {
+        getMetrics().recordBytesDecoded(message.getLength());
+        BERReader reader = message.getReader();
+        String dn = toConnectionDn(reader.readString());
+        boolean compact = controls != null && controls.getEntryFormat() != LDAPSearchControls.STANDARD_ENTRIES;
+
+        List<String> names = compact ? new ArrayList<String>() : null;
+        List<Object> values = compact ? new ArrayList<Object>() : null;
+        LDAPEntry entry = compact ? null : new LDAPEntry(dn);
+
+        int attributesEnd = reader.enter(BERWriter.SEQUENCE_TAG);
+        while (reader.hasMore(attributesEnd))
+        {
+            int attributeEnd = reader.enter(BERWriter.SEQUENCE_TAG);
+            String name = reader.readString();
+            boolean binary = isBinary(name);
+            int valuesEnd = reader.enter(BERWriter.SET_TAG);
+            if (reader.hasMore(valuesEnd))
+            {
+                Object first = readValue(reader, binary);
+                if (!reader.hasMore(valuesEnd))
+                {
+                    if (compact)
+                    {
+                        names.add(name);
+                        values.add(first);
+                    }
+                    else
+                    {
+                        entry.addAttribute(new LDAPSingleValueEntryAttribute(name, first));
+                    }
+                }
+                else
+                {
+                    List<Object> attributeValues = new ArrayList<Object>();
+                    attributeValues.add(first);
+                    while (reader.hasMore(valuesEnd))
+                    {
+                        attributeValues.add(readValue(reader, binary));
+                    }
+                    if (compact)
+                    {
+                        names.add(name);
+                        values.add(attributeValues.toArray());
+                    }
+                    else
+                    {
+                        entry.addAttribute(new LDAPMultiValueEntryAttribute(name, attributeValues));
+                    }
+                }
+            }
+            reader.skipTo(attributeEnd);
+        }
+
+        if (compact)
+        {
+            return new CompactLDAPEntry(dn, names.toArray(new String[names.size()]), values.toArray());
+        }
+        return entry;
+    }
+
+    /**
+     * @return The cookie of the paged results response control of a SearchResultDone or null if it doesn't have it.
+     */
+    static byte[] readPagedResultsCookie(LDAPMessage message) throws IOException
+    {
+        byte[] value = message.readControlValue(PAGED_RESULTS_OID);
+        if (value == null)
+        {
+            return null;
+        }
+        BERReader reader = new BERReader(value);
+        reader.enter(BERWriter.SEQUENCE_TAG);
+        reader.readInteger();
+        return reader.readOctetString();
+    }
+
+    private Object readValue(BERReader reader, boolean binary) throws IOException
+    {
+        return binary ? reader.readOctetString() : reader.readString();
+    }
+
+    private boolean isBinary(String name)
+    {
+        String lowerCaseName = name.toLowerCase();
+        if (binaryAttributes.contains(lowerCaseName) || lowerCaseName.endsWith(";binary"))
+        {
+            return true;
+        }
+        int options = lowerCaseName.indexOf(';');
+        return options > 0 && binaryAttributes.contains(lowerCaseName.substring(0, options));
+    }
+
+    private static void writeAttribute(BERWriter out, LDAPEntryAttribute attribute)
+    {
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        out.writeString(attribute.getName());
+        out.startSequence(BERWriter.SET_TAG);
+        List<Object> values = attribute.getValues();
+        if (values != null)
+        {
+            for (Object value : values)
+            {
+                if (value != null)
+                {
+                    writeValue(out, value);
+                }
+            }
+        }
+        out.endSequence();
+        out.endSequence();
+    }
+
+    private static void writeValue(BERWriter out, Object value)
+    {
+        if (value instanceof byte[])
+        {
+            out.writeOctetString((byte[]) value);
+        }
+        else
+        {
+            out.writeString(value.toString());
+        }
+    }
+
+    private static void writePagedResultsControl(BERWriter out, int pageSize, byte[] cookie)
+    {
+        BERWriter value = new BERWriter(32 + (cookie != null ? cookie.length : 0));
+        value.startSequence(BERWriter.SEQUENCE_TAG);
+        value.writeInteger(pageSize);
+        value.writeOctetString(cookie != null ? cookie : new byte[0]);
+        value.endSequence();
+
+        out.startSequence(LDAPMessage.CONTROLS_TAG);
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        out.writeString(PAGED_RESULTS_OID);
+        out.writeBoolean(true);
+        out.writeOctetString(value.toByteArray());
+        out.endSequence();
+        out.endSequence();
+    }
+
+    private static BERWriter startMessage(int messageId)
+    {
+        BERWriter out = new BERWriter();
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        out.writeInteger(messageId);
+        return out;
+    }
+
+    /*
+     * Sends the request and fails if the operation failed.
+     */
+    private void execute(LDAPMessageChannel current, int messageId, BERWriter out, String metricsOperation, String logMessage) throws LDAPException
+    {
+        LDAPMetrics.Sample sample = getMetrics().start(metricsOperation);
+        try
+        {
+            LDAPResult result = readResult(current.send(messageId, out.toByteArray()).take());
+            if (!result.isSuccess())
+            {
+                throw result.toException();
+            }
+        }
+        catch (LDAPException ex)
+        {
+            logger.error(logMessage, ex);
+            throw sample.failed(ex);
+        }
+        finally
+        {
+            sample.stop();
+        }
+    }
+
+    private static LDAPResult readResult(LDAPMessage response) throws LDAPException
+    {
+        try
+        {
+            return response.readResult();
+        }
+        catch (IOException ex)
+        {
+            throw new LDAPException("Invalid response from the LDAP server: " + ex.getMessage(), ex);
+        }
+    }
+
+    private LDAPMessageChannel getChannel() throws LDAPException
+    {
+        LDAPMessageChannel current = this.channel;
+        if (current == null)
+        {
+            throw new LDAPException("Connection is closed. You must first bind.");
+        }
+        return current;
+    }
+
+    private static int transformScope(int scope)
+    {
+        switch (scope)
+        {
+            case LDAPSearchControls.OBJECT_SCOPE :
+            case LDAPSearchControls.ONELEVEL_SCOPE :
+            case LDAPSearchControls.SUBTREE_SCOPE :
+                return scope;
+            default :
+                return LDAPSearchControls.ONELEVEL_SCOPE;
+        }
+    }
+
+    /*
+     * As with JNDI, DNs are relative to the base DN of the URL, if it has one.
+     */
+    private String toServerDn(String dn)
+    {
+        if (urlBaseDn.length() == 0)
+        {
+            return dn != null ? dn : "";
+        }
+        return StringUtils.isEmpty(dn) ? urlBaseDn : dn + "," + urlBaseDn;
+    }
+
+    private String toConnectionDn(String dn)
+    {
+        if (urlBaseDn.length() == 0)
+        {
+            return dn;
+        }
+        if (dn.equalsIgnoreCase(urlBaseDn))
+        {
+            return "";
+        }
+        if (dn.length() > urlBaseDn.length() && dn.regionMatches(true, dn.length() - urlBaseDn.length(), urlBaseDn, 0, urlBaseDn.length())
+            && dn.charAt(dn.length() - urlBaseDn.length() - 1) == ',')
+        {
+            return dn.substring(0, dn.length() - urlBaseDn.length() - 1);
+        }
+        return dn;
+    }
+
+    /**
+     * @return The position of the first comma that separates RDNs or the length of the DN if it has a single RDN.
+     */
+    static int rdnEnd(String dn)
+    {
+        boolean quoted = false;
+        for (int i = 0; i < dn.length(); i++)
+        {
+            char c = dn.charAt(i);
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if ((c == ',' || c == ';') && !quoted)
+            {
+                return i;
+            }
+        }
+        return dn.length();
+    }
+
+    public boolean isNoAuthentication()
+    {
+        return NO_AUTHENTICATION.equalsIgnoreCase(getAuthentication());
+    }
+
+    public String getAuthentication()
+    {
+        return authentication;
+    }
+
+    public void setAuthentication(String authentication)
+    {
+        this.authentication = authentication;
+    }
+
+    public String getProviderUrl()
+    {
+        return providerUrl;
+    }
+
+    /**
+     * @param providerUrl URL with the syntax <i>ldap://host[:port][/base_dn]</i>. If several space separated URLs are
+     *            given, only the first one is used.
+     * @throws LDAPException If the URL is invalid.
+     */
+    public void setProviderUrl(String providerUrl) throws LDAPException
+    {
+        this.providerUrl = providerUrl;
+        if (providerUrl == null)
+        {
+            return;
+        }
+        try
+        {
+            URI uri = new URI(providerUrl.trim().split("\\s+")[0]);
+            if (!"ldap".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null)
+            {
+                throw new LDAPException("URL " + providerUrl + " is not supported by " + getClass().getName() + ". Only ldap://host[:port][/base_dn] URLs are.");
+            }
+            this.host = uri.getHost();
+            this.port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+            String path = uri.getPath();
+            this.urlBaseDn = path != null && path.startsWith("/") ? path.substring(1).trim() : "";
+        }
+        catch (URISyntaxException ex)
+        {
+            throw new LDAPException("Invalid URL " + providerUrl, ex);
+        }
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public void setMaxConcurrentOperations(int maxConcurrentOperations)
+    {
+        this.maxConcurrentOperations = maxConcurrentOperations;
+    }
+
+    public int getSortMaxInMemoryEntries()
+    {
+        return sortMaxInMemoryEntries;
+    }
+
+    public void setSortMaxInMemoryEntries(int sortMaxInMemoryEntries)
+    {
+        this.sortMaxInMemoryEntries = sortMaxInMemoryEntries;
+    }
+
+    /**
+     * @return Milliseconds to wait for the socket to connect or 0 to wait indefinitely.
+     */
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return Milliseconds to wait for each response or 0 to wait indefinitely.
+     */
+    public long getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return Milliseconds to wait for all the responses to a request or 0 to wait indefinitely.
+     */
+    public long getOperationTimeout()
+    {
+        return operationTimeout;
+    }
+
+    public void setOperationTimeout(long operationTimeout)
+    {
+        this.operationTimeout = operationTimeout;
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryComparator;
+import org.mule.module.ldap.api.LDAPEntrySorter;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+/**
+ * Result set of a search executed by {@link LDAPNIOConnection}. Entries are decoded as they are read, while
+ * the LDAP server keeps sending the rest of them. If paging is enabled, the next page is requested once
+ * the previous one is read, so at most one page of entries waits in memory for a slow reader. Otherwise,
+ * the entries the server sends faster than they are read are kept in memory.
+ * <p/>
+ * Sorted searches are sorted in the connector with {@link LDAPEntrySorter}, holding at most
+ * <i>sortMaxInMemoryEntries</i> entries in memory, so all the entries are read from the server before
+ * the first one is returned. <i>maxResults</i> then applies to the sorted entries.
+ * <p/>
+ * Closing the result set before reading all the entries abandons the search.
+ */
+final class LDAPNIOResultSet implements LDAPResultSet
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final LDAPNIOConnection connection;
+    private final String baseDn;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final LDAPSearchControls controls;
+    private final int sortMaxInMemoryEntries;
+
+    private LDAPMessageChannel.Responses responses = null;
+    private LDAPEntry nextEntry = null;
+    private LDAPResultSet sortedEntries = null;
+    private long count = 0;
+    private int pages = 1;
+    private boolean done = false;
+    private boolean pagesRecorded = false;
+
+    LDAPNIOResultSet(LDAPNIOConnection connection, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int sortMaxInMemoryEntries)
+    {
+        this.connection = connection;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.controls = controls;
+        this.sortMaxInMemoryEntries = sortMaxInMemoryEntries;
+    }
+
+    /**
+     * Sends the search request.
+     */
+    void open() throws LDAPException
+    {
+        this.responses = connection.sendSearch(baseDn, filter, filterArgs, controls, getSizeLimit(), null);
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        if (nextEntry != null)
+        {
+            return true;
+        }
+        if (controls.getMaxResults() > 0 && count >= controls.getMaxResults())
+        {
+            close();
+            return false;
+        }
+
+        if (controls.isOrderBySet())
+        {
+            if (sortedEntries == null)
+            {
+                sortedEntries = sort();
+            }
+            if (sortedEntries.hasNext())
+            {
+                nextEntry = sortedEntries.next();
+            }
+        }
+        else
+        {
+            nextEntry = read();
+        }
+
+        if (nextEntry != null)
+        {
+            count++;
+            return true;
+        }
+        recordPages();
+        return false;
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        LDAPEntry entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+        while (hasNext())
+        {
+            allEntries.add(next());
+        }
+        return allEntries;
+    }
+
+    @Override
+    public void close() throws LDAPException
+    {
+        nextEntry = null;
+        recordPages();
+        if (!done)
+        {
+            done = true;
+            if (responses != null)
+            {
+                connection.abandon(responses.getMessageId());
+            }
+        }
+        if (sortedEntries != null)
+        {
+            sortedEntries.close();
+        }
+    }
+
+    private void recordPages()
+    {
+        if (!pagesRecorded)
+        {
+            pagesRecorded = true;
+            if (controls.isPagingEnabled())
+            {
+                connection.getMetrics().recordPages(pages);
+            }
+        }
+    }
+
+    /*
+     * Entries the server may still return. The size limit of a sorted search applies to the sorted entries, so
+     * the server must return all of them.
+     */
+    private long getSizeLimit()
+    {
+        return controls.getMaxResults() > 0 && !controls.isOrderBySet() ? controls.getMaxResults() - count : 0;
+    }
+
+    private LDAPResultSet sort() throws LDAPException
+    {
+        LDAPEntrySorter sorter = new LDAPEntrySorter(new LDAPEntryComparator(controls.getSortKeys()), sortMaxInMemoryEntries);
+        try
+        {
+            LDAPEntry entry;
+            while ((entry = read()) != null)
+            {
+                sorter.add(entry);
+            }
+            return sorter.sort();
+        }
+        catch (LDAPException ex)
+        {
+            sorter.discard();
+            throw ex;
+        }
+    }
+
+    /*
+     * Returns null once the search is done.
+     */
+    private LDAPEntry read() throws LDAPException
+    {
+        while (!done)
+        {
+            LDAPMessage message;
+            try
+            {
+                message = responses.take();
+            }
+            catch (LDAPException ex)
+            {
+                done = true;
+                throw ex;
+            }
+
+            try
+            {
+                switch (message.getOperation())
+                {
+                    case LDAPMessage.SEARCH_RESULT_ENTRY :
+                        return connection.readEntry(message, controls);
+                    case LDAPMessage.SEARCH_RESULT_DONE :
+                        readDone(message);
+                        break;
+                    default :
+                        if (logger.isDebugEnabled())
+                        {
+                            logger.debug("Ignoring search response 0x" + Integer.toHexString(message.getOperation()) + " of search under " + baseDn);
+                        }
+                }
+            }
+            catch (IOException ex)
+            {
+                close();
+                throw new LDAPException("Invalid search response from the LDAP server: " + ex.getMessage(), ex);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Requests the next page if there is one. Otherwise, the search is done.
+     */
+    private void readDone(LDAPMessage message) throws IOException, LDAPException
+    {
+        done = true;
+        LDAPResult result = message.readResult();
+        if (result.isSuccess())
+        {
+            byte[] cookie = controls.isPagingEnabled() ? LDAPNIOConnection.readPagedResultsCookie(message) : null;
+            if (cookie != null && cookie.length > 0)
+            {
+                responses = connection.sendSearch(baseDn, filter, filterArgs, controls, getSizeLimit(), cookie);
+                pages++;
+                done = false;
+            }
+        }
+        else if (result.getResultCode() == LDAPResult.SIZE_LIMIT_EXCEEDED)
+        {
+            logger.warn("Size limit exceeded. Max results is: " + controls.getMaxResults());
+        }
+        else
+        {
+            throw result.toException();
+        }
+    }
+}
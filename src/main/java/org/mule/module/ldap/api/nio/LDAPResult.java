@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.ContextNotEmptyException;
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.InvalidEntryException;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.NameAlreadyBoundException;
+import org.mule.module.ldap.api.NameNotFoundException;
+import org.mule.module.ldap.api.NoPermissionException;
+
+/**
+ * Result of an operation returned by the LDAP server (RFC 4511, section 4.1.9). Failures are converted to
+ * the same {@link LDAPException} subclasses that the JNDI implementation throws for them.
+ */
+final class LDAPResult
+{
+    static final int SUCCESS = 0;
+    static final int SIZE_LIMIT_EXCEEDED = 4;
+    static final int UNDEFINED_ATTRIBUTE_TYPE = 17;
+    static final int CONSTRAINT_VIOLATION = 19;
+    static final int ATTRIBUTE_OR_VALUE_EXISTS = 20;
+    static final int INVALID_ATTRIBUTE_SYNTAX = 21;
+    static final int NO_SUCH_OBJECT = 32;
+    static final int INVALID_DN_SYNTAX = 34;
+    static final int INAPPROPRIATE_AUTHENTICATION = 48;
+    static final int INVALID_CREDENTIALS = 49;
+    static final int INSUFFICIENT_ACCESS_RIGHTS = 50;
+    static final int NAMING_VIOLATION = 64;
+    static final int OBJECT_CLASS_VIOLATION = 65;
+    static final int NOT_ALLOWED_ON_NON_LEAF = 66;
+    static final int NOT_ALLOWED_ON_RDN = 67;
+    static final int ENTRY_ALREADY_EXISTS = 68;
+    static final int OBJECT_CLASS_MODS_PROHIBITED = 69;
+
+    private final int resultCode;
+    private final String matchedDn;
+    private final String diagnosticMessage;
+
+    LDAPResult(int resultCode, String matchedDn, String diagnosticMessage)
+    {
+        this.resultCode = resultCode;
+        this.matchedDn = matchedDn;
+        this.diagnosticMessage = diagnosticMessage;
+    }
+
+    int getResultCode()
+    {
+        return resultCode;
+    }
+
+    String getMatchedDn()
+    {
+        return matchedDn;
+    }
+
+    String getDiagnosticMessage()
+    {
+        return diagnosticMessage;
+    }
+
+    boolean isSuccess()
+    {
+        return resultCode == SUCCESS;
+    }
+
+    /**
+     * @return The exception for a failed operation, with the same message format as JNDI.
+     */
+    LDAPException toException()
+    {
+        String message = "[LDAP: error code " + resultCode + (diagnosticMessage != null && diagnosticMessage.length() > 0 ? " - " + diagnosticMessage : "") + "]";
+        switch (resultCode)
+        {
+            case NO_SUCH_OBJECT :
+                return new NameNotFoundException(message);
+            case INAPPROPRIATE_AUTHENTICATION :
+            case INVALID_CREDENTIALS :
+                return new AuthenticationException(message);
+            case INSUFFICIENT_ACCESS_RIGHTS :
+                return new NoPermissionException(message);
+            case ENTRY_ALREADY_EXISTS :
+                return new NameAlreadyBoundException(message);
+            case NOT_ALLOWED_ON_NON_LEAF :
+                return new ContextNotEmptyException(message);
+            case UNDEFINED_ATTRIBUTE_TYPE :
+            case CONSTRAINT_VIOLATION :
+            case ATTRIBUTE_OR_VALUE_EXISTS :
+            case INVALID_ATTRIBUTE_SYNTAX :
+            case INVALID_DN_SYNTAX :
+            case NAMING_VIOLATION :
+                return new InvalidAttributeException(message);
+            case OBJECT_CLASS_VIOLATION :
+            case NOT_ALLOWED_ON_RDN :
+            case OBJECT_CLASS_MODS_PROHIBITED :
+                return new InvalidEntryException(message);
+            default :
+                return new LDAPException(message);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{resultCode: " + resultCode + ", matchedDn: " + matchedDn + ", diagnosticMessage: " + diagnosticMessage + "}";
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPBatchResult;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.NameAlreadyBoundException;
+import org.mule.module.ldap.api.NameNotFoundException;
+
+public class LDAPBatchTest extends AbstractLDAPConnectorTest
+{
+
+    /**
+     * 
+     */
+    public LDAPBatchTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "batch-mule-config.xml";
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchAddAndDelete() throws Exception
+    {
+        List<Object> entries = new ArrayList<Object>();
+        entries.add(buildEntry("batchuser1", "Batch User One"));
+        entries.add(buildEntry("user1", "User One")); // Already exists
+        entries.add(buildEntry("batchuser2", "Batch User Two").toMap());
+        entries.add(Integer.valueOf(3)); // Not an entry
+        
+        List<LDAPBatchResult> results = (List<LDAPBatchResult>) runFlow("testBatchAddFlow", entries);
+        
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).getException() instanceof NameAlreadyBoundException);
+        assertTrue(results.get(2).isSuccess());
+        assertEquals("uid=batchuser2,ou=people,dc=mulesoft,dc=org", results.get(2).getDn());
+        assertTrue(results.get(3).getException() instanceof LDAPException);
+        
+        LDAPEntry added = (LDAPEntry) runFlow("testLookupEntryFlow", "uid=batchuser2,ou=people,dc=mulesoft,dc=org");
+        assertEquals("Batch User Two", added.getAttribute("cn").getValue());
+        
+        List<Object> dns = new ArrayList<Object>();
+        dns.add("uid=batchuser1,ou=people,dc=mulesoft,dc=org");
+        dns.add("uid=batchuser2,ou=people,dc=mulesoft,dc=org");
+        
+        results = (List<LDAPBatchResult>) runFlow("testBatchDeleteFlow", dns);
+        
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).isSuccess());
+        runFlowWithPayloadAndExpectException("testLookupEntryFlow", NameNotFoundException.class, "uid=batchuser1,ou=people,dc=mulesoft,dc=org");
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchKeepsOrder() throws Exception
+    {
+        List<Object> entries = new ArrayList<Object>();
+        for(int i = 0; i < 20; i++)
+        {
+            entries.add(buildEntry("orderuser" + i, "Order User " + i));
+        }
+        
+        List<LDAPBatchResult> results = (List<LDAPBatchResult>) runFlow("testBatchAddFlow", entries);
+        
+        assertEquals(entries.size(), results.size());
+        for(int i = 0; i < results.size(); i++)
+        {
+            assertEquals(i, results.get(i).getIndex());
+            assertEquals(((LDAPEntry) entries.get(i)).getDn(), results.get(i).getDn());
+            assertTrue(results.get(i).isSuccess());
+        }
+        
+        results = (List<LDAPBatchResult>) runFlow("testBatchAddFlow", entries);
+        for(LDAPBatchResult result : results)
+        {
+            assertFalse(result.isSuccess());
+        }
+    }
+    
+    private LDAPEntry buildEntry(String uid, String cn)
+    {
+        LDAPEntry entry = new LDAPEntry("uid=" + uid + ",ou=people,dc=mulesoft,dc=org");
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("cn", cn);
+        entry.addAttribute("sn", "User");
+        entry.addAttribute("userPassword", uid);
+        entry.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+        return entry;
+    }
+}
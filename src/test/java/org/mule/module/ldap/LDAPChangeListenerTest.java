@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPEntry;
+
+public class LDAPChangeListenerTest extends AbstractLDAPConnectorTest
+{
+    private static final BlockingQueue<LDAPChangeEvent> CHANGES = new LinkedBlockingQueue<LDAPChangeEvent>();
+    
+    /**
+     * 
+     */
+    public LDAPChangeListenerTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "change-listener-mule-config.xml";
+    }
+    
+    @Before
+    public void waitForListener() throws Exception
+    {
+        // The source registers the persistent search in its own thread once the flow is started
+        Thread.sleep(1000);
+        CHANGES.clear();
+    }
+    
+    @Test
+    public void testAddAndDelete() throws Exception
+    {
+        String dn = "uid=changeduser1,ou=people,dc=mulesoft,dc=org";
+        
+        runFlow("testAddEntryFlow", buildEntry(dn, "changeduser1"));
+        
+        LDAPChangeEvent event = CHANGES.poll(10, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(LDAPChangeEvent.ADD, event.getChangeType());
+        assertEquals(dn, event.getDn());
+        assertEquals("Changed User", event.getEntry().getAttribute("cn").getValue());
+        
+        runFlow("testDeleteEntryFlow", dn);
+        
+        event = CHANGES.poll(10, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(LDAPChangeEvent.DELETE, event.getChangeType());
+        assertEquals(dn, event.getDn());
+    }
+    
+    @Test
+    public void testOutOfScopeChangesAreIgnored() throws Exception
+    {
+        runFlow("testAddEntryFlow", buildEntry("uid=changeduser2,uid=user1,ou=people,dc=mulesoft,dc=org", "changeduser2"));
+        
+        assertNull(CHANGES.poll(2, TimeUnit.SECONDS));
+    }
+    
+    private LDAPEntry buildEntry(String dn, String uid)
+    {
+        LDAPEntry entry = new LDAPEntry(dn);
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("cn", "Changed User");
+        entry.addAttribute("sn", "User");
+        entry.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+        return entry;
+    }
+    
+    public static class ChangeCollector
+    {
+        public LDAPChangeEvent collect(LDAPChangeEvent event)
+        {
+            CHANGES.add(event);
+            return event;
+        }
+    }
+}
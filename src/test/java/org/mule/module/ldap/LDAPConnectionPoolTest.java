@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public class LDAPConnectionPoolTest extends AbstractLDAPConnectorTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String PEOPLE_DN = "ou=people,dc=mulesoft,dc=org";
+    
+    private LDAPConnection connection;
+    
+    /**
+     * @return
+     * @see org.mule.tck.junit4.FunctionalTestCase#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "config-mule-config.xml";
+    }
+
+    @Before
+    public void openConnection() throws Exception
+    {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.POOL_BORROW_TIMEOUT_ATTR, "500");
+        conf.put(LDAPConnection.POOL_VALIDATE_ON_BORROW_ATTR, "true");
+        
+        connection = LDAPConnection.getConnection("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 2, 60000L, "ignore", conf);
+        connection.bind(ADMIN_DN, "admin");
+    }
+    
+    @After
+    public void closeConnection() throws Exception
+    {
+        if (connection != null)
+        {
+            connection.close();
+        }
+    }
+    
+    @Test
+    public void testOpenResultSetsHoldPooledConnections() throws Exception
+    {
+        LDAPResultSet first = connection.search(PEOPLE_DN, "(objectClass=*)", buildControls());
+        LDAPResultSet second = connection.search(PEOPLE_DN, "(objectClass=*)", buildControls());
+        
+        try
+        {
+            connection.search(PEOPLE_DN, "(objectClass=*)", buildControls());
+            fail("All pooled connections are in use, search should have timed out");
+        }
+        catch (LDAPException ex)
+        {
+            assertTrue(ex.getMessage().startsWith("Timed out"));
+        }
+        
+        first.close();
+        
+        LDAPResultSet third = connection.search(PEOPLE_DN, "(objectClass=*)", buildControls());
+        assertTrue(third.hasNext());
+        third.close();
+        second.close();
+    }
+    
+    @Test
+    public void testConcurrentLookups() throws Exception
+    {
+        final int threads = 8;
+        final Throwable[] errors = new Throwable[threads];
+        Thread[] workers = new Thread[threads];
+        
+        for (int i = 0; i < threads; i++)
+        {
+            final int index = i;
+            workers[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 20; j++)
+                        {
+                            assertNotNull(connection.lookup(ADMIN_DN));
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        errors[index] = ex;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i].join();
+            assertEquals(null, errors[i]);
+        }
+    }
+    
+    private LDAPSearchControls buildControls()
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+        return controls;
+    }
+}
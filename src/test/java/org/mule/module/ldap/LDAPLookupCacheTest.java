@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+
+public class LDAPLookupCacheTest extends AbstractLDAPConnectorTest
+{
+
+    /**
+     * 
+     */
+    public LDAPLookupCacheTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "lookup-cache-mule-config.xml";
+    }
+    
+    @Test
+    public void testWriteInvalidatesCachedEntry() throws Exception
+    {
+        LDAPEntry entry = (LDAPEntry) runFlow("testCachedLookupFlow", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        assertEquals("User Two", entry.getAttribute("cn").getValue());
+        
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("dn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("attributeName", "cn");
+        params.put("attributeValue", "User Two Modified");
+        
+        entry = (LDAPEntry) runFlow("testCachedModifySingleAttributeFlow", params);
+        assertEquals("User Two Modified", entry.getAttribute("cn").getValue());
+    }
+    
+    @Test
+    public void testCachedEntryIgnoresOtherConnectors() throws Exception
+    {
+        LDAPEntry entry = (LDAPEntry) runFlow("testCachedLookupFlow", "uid=user4,ou=people,dc=mulesoft,dc=org");
+        assertEquals("User Four", entry.getAttribute("cn").getValue());
+        
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("dn", "uid=user4,ou=people,dc=mulesoft,dc=org");
+        params.put("attributeName", "cn");
+        params.put("attributeValue", "User Four Modified");
+        
+        runFlow("testModifySingleAttributeFlow", params);
+        
+        // Changed through a different connector, so it is only seen once the cached entry expires
+        entry = (LDAPEntry) runFlow("testCachedLookupFlow", "uid=user4,ou=people,dc=mulesoft,dc=org");
+        assertEquals("User Four", entry.getAttribute("cn").getValue());
+    }
+    
+    @Test
+    public void testAddInvalidatesMissingEntry() throws Exception
+    {
+        String dn = "uid=cacheduser1,ou=people,dc=mulesoft,dc=org";
+        
+        assertFalse((Boolean) runFlow("testCachedExistsFlow", dn));
+        assertFalse((Boolean) runFlow("testCachedExistsFlow", dn));
+        
+        runFlow("testCachedAddEntryFlow", buildEntry(dn, "cacheduser1"));
+        
+        assertTrue((Boolean) runFlow("testCachedExistsFlow", dn));
+    }
+    
+    @Test
+    public void testMissingEntryIgnoresOtherConnectors() throws Exception
+    {
+        String dn = "uid=cacheduser2,ou=people,dc=mulesoft,dc=org";
+        
+        assertFalse((Boolean) runFlow("testCachedExistsFlow", dn));
+        
+        runFlow("testAddEntryFlow", buildEntry(dn, "cacheduser2"));
+        
+        // Added through a different connector, so it is only seen once the missing DN expires
+        assertFalse((Boolean) runFlow("testCachedExistsFlow", dn));
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteInvalidatesCachedSearch() throws Exception
+    {
+        List<LDAPEntry> entries = (List<LDAPEntry>) runFlow("testCachedSearchFlow", "(uid=user5)");
+        assertEquals(1, entries.size());
+        assertEquals("User Five", entries.get(0).getAttribute("cn").getValue());
+        
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("dn", "uid=user5,ou=people,dc=mulesoft,dc=org");
+        params.put("attributeName", "cn");
+        params.put("attributeValue", "User Five Modified");
+        
+        runFlow("testModifySingleAttributeFlow", params);
+        
+        // Changed through a different connector
+        entries = (List<LDAPEntry>) runFlow("testCachedSearchFlow", "(uid=user5)");
+        assertEquals("User Five", entries.get(0).getAttribute("cn").getValue());
+        
+        params.put("attributeValue", "User Five Modified Again");
+        runFlow("testCachedModifySingleAttributeFlow", params);
+        
+        entries = (List<LDAPEntry>) runFlow("testCachedSearchFlow", "(uid=user5)");
+        assertEquals("User Five Modified Again", entries.get(0).getAttribute("cn").getValue());
+    }
+    
+    private LDAPEntry buildEntry(String dn, String uid)
+    {
+        LDAPEntry entry = new LDAPEntry(dn);
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("cn", "Cached User");
+        entry.addAttribute("sn", "User");
+        entry.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+        return entry;
+    }
+}
@@ -9,6 +9,7 @@
 package org.mule.module.ldap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -17,7 +18,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Test;
+import org.mule.module.ldap.api.LDAPAttributeValueIterator;
 import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPResultSetIterator;
 
 public class LDAPSearchLookupTest extends AbstractLDAPConnectorTest
 {
@@ -90,6 +93,129 @@ public class LDAPSearchLookupTest extends AbstractLDAPConnectorTest
         }
     }
     
+    @Test
+    public void testSortedSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testSortedSearchFlow", "-cn");
+        String[] expected = {"User Two", "User Three", "User One", "User Four", "User Five"};
+
+        assertEquals(expected.length, result.size());
+        for(int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], result.get(i).getAttribute("cn").getValue());
+        }
+    }
+
+    @Test
+    public void testParallelSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testParallelSearchFlow", "(|(uid=user*)(ou=groups)(dc=mulesoft))");
+        List<String> dns = new ArrayList<String>();
+        for(LDAPEntry entry : result)
+        {
+            dns.add(entry.getDn());
+        }
+
+        // The base entry, the entries right under it and the entries further down
+        assertEquals(7, dns.size());
+        assertTrue(dns.contains("dc=mulesoft,dc=org"));
+        assertTrue(dns.contains("ou=groups,dc=mulesoft,dc=org"));
+        assertTrue(dns.contains("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertTrue(dns.contains("uid=user5,ou=people,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testSortedParallelSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testSortedParallelSearchFlow", "3");
+        String[] expected = {"User Two", "User Three", "User One"};
+
+        assertEquals(expected.length, result.size());
+        for(int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], result.get(i).getAttribute("cn").getValue());
+        }
+    }
+
+    @Test
+    public void testSortedPagedResultSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testSortedPagedResultSearchFlow", "sn");
+        String[] expected = {"User Five", "User Four", "User One", "User Three", "User Two"};
+
+        assertEquals(expected.length, result.size());
+        for(int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], result.get(i));
+        }
+    }
+
+    @Test
+    public void testVirtualListViewPagedResultSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testVirtualListViewPagedResultSearchFlow", "sn");
+        String[] expected = {"User One", "User Three"};
+
+        assertEquals(expected.length, result.size());
+        for(int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], result.get(i));
+        }
+    }
+
+    @Test
+    public void testStreamingSearch() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchFlow", "(uid=user*)");
+        List<String> cns = new ArrayList<String>();
+
+        assertFalse(result.isClosed());
+        while(result.hasNext())
+        {
+            cns.add((String) result.next().getAttribute("cn").getValue());
+        }
+
+        assertEquals(5, cns.size());
+        assertTrue(cns.contains("User One"));
+        assertTrue(cns.contains("User Five"));
+        assertTrue(result.isClosed());
+    }
+
+    @Test
+    public void testStreamingLookupAttribute() throws Exception
+    {
+        LDAPAttributeValueIterator result = (LDAPAttributeValueIterator) runFlow("testStreamingLookupAttributeFlow", "member");
+        List<Object> members = new ArrayList<Object>();
+
+        while(result.hasNext())
+        {
+            List<Object> chunk = result.next();
+            assertEquals(1, chunk.size());
+            members.addAll(chunk);
+        }
+
+        assertEquals(2, members.size());
+        assertTrue(members.contains("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertTrue(members.contains("uid=user2,ou=people,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testStreamingSearchClose() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchFlow", "(uid=user*)");
+
+        assertNotNull(result.next());
+        result.close();
+
+        assertTrue(result.isClosed());
+        assertFalse(result.hasNext());
+    }
+
     @Test
     public void testPagedResultSearchAsync() throws Exception
     {
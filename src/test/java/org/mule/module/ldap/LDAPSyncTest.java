@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPSyncResult;
+
+public class LDAPSyncTest extends AbstractLDAPConnectorTest
+{
+
+    /**
+     * 
+     */
+    public LDAPSyncTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "sync-mule-config.xml";
+    }
+    
+    @Test
+    public void testHighWaterMarkSync() throws Exception
+    {
+        String dn1 = "uid=syncuser1,ou=people,dc=mulesoft,dc=org";
+        String dn2 = "uid=syncuser2,ou=people,dc=mulesoft,dc=org";
+        
+        LDAPSyncResult result = (LDAPSyncResult) runFlow("testSyncFlow", "");
+        assertTrue(result.isFullSync());
+        assertTrue(getDns(result).contains("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        
+        // Timestamps have a granularity of one second
+        Thread.sleep(1100);
+        runFlow("testAddEntryFlow", buildEntry(dn1, "syncuser1"));
+        
+        result = (LDAPSyncResult) runFlow("testSyncFlow", "");
+        assertFalse(result.isFullSync());
+        // Deleted entries are not reported by the high-water mark
+        assertFalse(result.isDeletedDnsComplete());
+        assertTrue(getDns(result).contains(dn1));
+        
+        Thread.sleep(1100);
+        runFlow("testAddEntryFlow", buildEntry(dn2, "syncuser2"));
+        
+        // Entries changed at the previous high-water mark are returned again
+        result = (LDAPSyncResult) runFlow("testSyncFlow", "");
+        List<String> dns = getDns(result);
+        assertTrue(dns.contains(dn2));
+        assertFalse(dns.contains("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        dns.remove(dn1);
+        dns.remove(dn2);
+        assertTrue(dns.isEmpty());
+    }
+    
+    @Test
+    public void testUncommittedSyncIsRepeated() throws Exception
+    {
+        LDAPSyncResult result = (LDAPSyncResult) runFlow("testUncommittedSyncFlow", "");
+        assertTrue(result.isFullSync());
+        
+        // The state is not stored until it is committed
+        result = (LDAPSyncResult) runFlow("testUncommittedSyncFlow", "");
+        assertTrue(result.isFullSync());
+        
+        runFlow("testCommitSyncFlow", result.getCookie());
+        result = (LDAPSyncResult) runFlow("testUncommittedSyncFlow", "");
+        assertFalse(result.isFullSync());
+    }
+    
+    private List<String> getDns(LDAPSyncResult result)
+    {
+        List<String> dns = new ArrayList<String>();
+        for (LDAPEntry entry : result.getEntries())
+        {
+            dns.add(entry.getDn());
+        }
+        return dns;
+    }
+    
+    private LDAPEntry buildEntry(String dn, String uid)
+    {
+        LDAPEntry entry = new LDAPEntry(dn);
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("cn", "Sync User");
+        entry.addAttribute("sn", "User");
+        entry.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+        return entry;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestCompactLDAPEntry
+{
+
+    @Test
+    public void testRead()
+    {
+        CompactLDAPEntry entry = buildEntry("uid=user1,ou=people,dc=org");
+
+        assertTrue(entry.isCompact());
+        assertEquals("uid=user1,ou=people,dc=org", entry.getDn());
+        assertEquals(3, entry.getAttributeCount());
+        assertEquals("User 1", entry.getAttribute("CN").getValue());
+        assertFalse(entry.getAttribute("cn").isMultiValued());
+        assertTrue(entry.getAttribute("objectclass").isMultiValued());
+        assertEquals(Arrays.<Object> asList("top", "person"), entry.getAttribute("objectClass").getValues());
+        assertNull(entry.getAttribute("mail"));
+        assertNull(entry.getAttribute(null));
+
+        Map<String, Object> map = entry.toMap();
+        assertEquals("uid=user1,ou=people,dc=org", map.get(LDAPEntry.MAP_DN_KEY));
+        assertEquals("User 1", map.get("cn"));
+        assertEquals(Arrays.<Object> asList("top", "person"), map.get("objectClass"));
+        assertTrue(entry.toLDIFString().contains("sn: One"));
+        assertTrue(entry.isCompact());
+    }
+
+    @Test
+    public void testReturnedAttributesAreCopies()
+    {
+        CompactLDAPEntry entry = buildEntry("uid=user1,ou=people,dc=org");
+
+        ((LDAPMultiValueEntryAttribute) entry.getAttribute("objectClass")).addValue("inetOrgPerson");
+        assertEquals(2, entry.getAttribute("objectClass").getValues().size());
+        assertTrue(entry.isCompact());
+    }
+
+    @Test
+    public void testExpandedOnWrite()
+    {
+        CompactLDAPEntry entry = buildEntry("uid=user1,ou=people,dc=org");
+
+        entry.addAttribute("mail", "user1@mulesoft.org");
+        assertFalse(entry.isCompact());
+        assertEquals(4, entry.getAttributeCount());
+        assertEquals("user1@mulesoft.org", entry.getAttribute("mail").getValue());
+        assertEquals("User 1", entry.getAttribute("cn").getValue());
+
+        // It is now a regular entry, so changes to its attributes are kept
+        ((LDAPMultiValueEntryAttribute) entry.getAttribute("objectClass")).addValue("inetOrgPerson");
+        assertEquals(3, entry.getAttribute("objectClass").getValues().size());
+
+        entry.resetAttributes();
+        assertEquals(0, entry.getAttributeCount());
+    }
+
+    @Test
+    public void testExpandedByGetAttributes()
+    {
+        CompactLDAPEntry entry = buildEntry("uid=user1,ou=people,dc=org");
+
+        entry.getAttributes().addAttribute(new LDAPSingleValueEntryAttribute("mail", "user1@mulesoft.org"));
+        assertFalse(entry.isCompact());
+        assertEquals("user1@mulesoft.org", entry.getAttribute("mail").getValue());
+    }
+
+    @Test
+    public void testCompact()
+    {
+        LDAPEntry entry = new LDAPEntry("uid=user1,ou=people,dc=org");
+        entry.addAttribute("cn", "User 1");
+        entry.addAttribute(new LDAPMultiValueEntryAttribute("description", new Object[] {"single"}));
+
+        CompactLDAPEntry compact = CompactLDAPEntry.compact(entry);
+        assertEquals(2, compact.getAttributeCount());
+        assertEquals("User 1", compact.getAttribute("cn").getValue());
+        assertTrue(compact.getAttribute("description").isMultiValued());
+
+        // Compact entries share their attributes with the entries they are built from
+        CompactLDAPEntry shared = CompactLDAPEntry.compact(compact);
+        shared.addAttribute("mail", "user1@mulesoft.org");
+        assertTrue(compact.isCompact());
+        assertNull(compact.getAttribute("mail"));
+    }
+
+    @Test
+    public void testNamesAreShared()
+    {
+        CompactLDAPEntry entry1 = buildEntry("uid=user1,ou=people,dc=org");
+        CompactLDAPEntry entry2 = buildEntry("uid=user2,ou=people,dc=org");
+
+        Iterator<LDAPEntryAttribute> attributes1 = entry1.attributes();
+        Iterator<LDAPEntryAttribute> attributes2 = entry2.attributes();
+        while (attributes1.hasNext())
+        {
+            assertSame(attributes1.next().getName(), attributes2.next().getName());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingValues()
+    {
+        new CompactLDAPEntry("uid=user1,ou=people,dc=org", new String[] {"cn", "sn"}, new Object[] {"User 1"});
+    }
+
+    private CompactLDAPEntry buildEntry(String dn)
+    {
+        // New instances of the names, as returned by the LDAP server for every entry
+        return new CompactLDAPEntry(dn, new String[] {new String("objectClass"), new String("cn"), new String("sn")}, new Object[] {new Object[] {"top", "person"}, "User 1", "One"});
+    }
+}
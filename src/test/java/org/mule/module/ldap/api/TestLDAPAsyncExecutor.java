@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestLDAPAsyncExecutor
+{
+
+    @Test
+    public void testLookup() throws Exception
+    {
+        LDAPAsyncExecutor executor = new LDAPAsyncExecutor(new StubLDAPConnection(null), 10);
+        RecordingCallback<LDAPEntry> callback = new RecordingCallback<LDAPEntry>();
+        try
+        {
+            Future<LDAPEntry> future = executor.lookup("uid=user1,dc=org", null, callback);
+
+            assertEquals("uid=user1,dc=org", future.get(5, TimeUnit.SECONDS).getDn());
+            assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+            assertEquals("uid=user1,dc=org", callback.result.get().getDn());
+            assertNull(callback.failure.get());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception
+    {
+        LDAPAsyncExecutor executor = new LDAPAsyncExecutor(new StubLDAPConnection(null), 10);
+        RecordingCallback<LDAPEntry> callback = new RecordingCallback<LDAPEntry>();
+        try
+        {
+            Future<LDAPEntry> future = executor.lookup("uid=missing,dc=org", null, callback);
+            try
+            {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Lookup should fail");
+            }
+            catch (ExecutionException ex)
+            {
+                assertTrue(ex.getCause() instanceof NameNotFoundException);
+            }
+            assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+            assertTrue(callback.failure.get() instanceof NameNotFoundException);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueFull() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        // The stub runs a single operation at a time
+        LDAPAsyncExecutor executor = new LDAPAsyncExecutor(new StubLDAPConnection(release), 1);
+        try
+        {
+            Future<LDAPEntry> running = executor.lookup("uid=user1,dc=org", null, null);
+            Future<LDAPEntry> queued = executor.lookup("uid=user2,dc=org", null, null);
+            RecordingCallback<LDAPEntry> callback = new RecordingCallback<LDAPEntry>();
+            Future<LDAPEntry> rejected = executor.lookup("uid=user3,dc=org", null, callback);
+
+            // Rejected without blocking the caller
+            assertTrue(rejected.isDone());
+            assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+            assertTrue(callback.failure.get().getMessage().contains("Too many pending"));
+
+            release.countDown();
+            assertEquals("uid=user1,dc=org", running.get(5, TimeUnit.SECONDS).getDn());
+            assertEquals("uid=user2,dc=org", queued.get(5, TimeUnit.SECONDS).getDn());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        LDAPAsyncExecutor executor = new LDAPAsyncExecutor(new StubLDAPConnection(release), 10);
+        executor.lookup("uid=user1,dc=org", null, null);
+        RecordingCallback<LDAPEntry> callback = new RecordingCallback<LDAPEntry>();
+        Future<LDAPEntry> queued = executor.lookup("uid=user2,dc=org", null, callback);
+
+        executor.shutdown();
+        release.countDown();
+
+        assertTrue(queued.isCancelled());
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.failure.get() != null);
+
+        RecordingCallback<Void> afterShutdown = new RecordingCallback<Void>();
+        executor.deleteEntry("uid=user3,dc=org", afterShutdown);
+        assertTrue(afterShutdown.done.await(5, TimeUnit.SECONDS));
+        assertTrue(afterShutdown.failure.get().getMessage().contains("closed"));
+    }
+
+    private static class RecordingCallback<T> implements LDAPCallback<T>
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<T> result = new AtomicReference<T>();
+        final AtomicReference<LDAPException> failure = new AtomicReference<LDAPException>();
+
+        @Override
+        public void onSuccess(T value)
+        {
+            result.set(value);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(LDAPException ex)
+        {
+            failure.set(ex);
+            done.countDown();
+        }
+    }
+
+    /**
+     * Connection whose lookups return an entry with the requested DN, unless it contains "missing", after
+     * waiting for the latch, if any.
+     */
+    private static class StubLDAPConnection extends LDAPConnection
+    {
+        private final CountDownLatch release;
+
+        StubLDAPConnection(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public LDAPEntry lookup(String dn) throws LDAPException
+        {
+            if (release != null)
+            {
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new LDAPException("Interrupted", ex);
+                }
+            }
+            if (dn.contains("missing"))
+            {
+                throw new NameNotFoundException("No such entry: " + dn);
+            }
+            return new LDAPEntry(dn);
+        }
+
+        @Override
+        public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+        {
+            return null;
+        }
+
+        @Override
+        public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+        {
+            return null;
+        }
+
+        @Override
+        protected void initialize(Map<String, String> conf) throws LDAPException
+        {
+        }
+
+        @Override
+        public void bind(String dn, String password) throws LDAPException
+        {
+        }
+
+        @Override
+        public void rebind() throws LDAPException
+        {
+        }
+
+        @Override
+        public String getBindedUserDn() throws LDAPException
+        {
+            return null;
+        }
+
+        @Override
+        public void renameEntry(String oldDn, String newDn) throws LDAPException
+        {
+        }
+
+        @Override
+        public LDAPEntry lookup(String dn, String attributes[]) throws LDAPException
+        {
+            return null;
+        }
+
+        @Override
+        public void addEntry(LDAPEntry entry) throws LDAPException
+        {
+        }
+
+        @Override
+        public void updateEntry(LDAPEntry entry) throws LDAPException
+        {
+        }
+
+        @Override
+        public void deleteEntry(LDAPEntry entry) throws LDAPException
+        {
+        }
+
+        @Override
+        public void deleteEntry(String dn) throws LDAPException
+        {
+        }
+
+        @Override
+        public void addAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+        {
+        }
+
+        @Override
+        public void updateAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+        {
+        }
+
+        @Override
+        public void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+        {
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+        }
+
+        @Override
+        public boolean isClosed() throws LDAPException
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLDAPAttributeValueIterator
+{
+
+    @Test
+    public void testChunks()
+    {
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < 5; i++)
+        {
+            values.add("value" + i);
+        }
+        LDAPAttributeValueIterator it = LDAPAttributeValueIterator.of("cn=group1,dc=org", "member", values, 2);
+
+        assertTrue(it.hasNext());
+        assertEquals(Arrays.<Object> asList("value0", "value1"), it.next());
+        assertEquals(Arrays.<Object> asList("value2", "value3"), it.next());
+        assertEquals(Arrays.<Object> asList("value4"), it.next());
+        assertFalse(it.hasNext());
+        assertFalse(LDAPAttributeValueIterator.of("cn=group1,dc=org", "member", new ArrayList<Object>(), 2).hasNext());
+    }
+
+    @Test
+    public void testReadError()
+    {
+        LDAPAttributeValueIterator it = new LDAPAttributeValueIterator("cn=group1,dc=org", "member")
+        {
+            @Override
+            protected List<Object> readNextChunk() throws LDAPException
+            {
+                throw new LDAPException("Connection lost");
+            }
+        };
+
+        try
+        {
+            it.hasNext();
+            fail("Read error should be thrown");
+        }
+        catch (IllegalStateException ex)
+        {
+            assertTrue(ex.getCause() instanceof LDAPException);
+            assertTrue(ex.getMessage().contains("cn=group1,dc=org"));
+        }
+        assertFalse(it.hasNext());
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLDAPCredentialsCache
+{
+
+    @Test
+    public void testVerified()
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(10, 60000);
+        assertFalse(cache.isVerified("uid=userX,dc=org", "secret"));
+
+        cache.put("uid=userX,dc=org", "secret");
+        assertTrue(cache.isVerified("uid=userX,dc=org", "secret"));
+        assertTrue(cache.isVerified("UID=userX, dc=org", "secret"));
+        assertFalse(cache.isVerified("uid=userX,dc=org", "Secret"));
+        assertFalse(cache.isVerified("uid=userY,dc=org", "secret"));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testDnAndPasswordAreNotConcatenated()
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(10, 60000);
+        cache.put("uid=user,dc=org", "xsecret");
+        assertFalse(cache.isVerified("uid=user,dc=orgx", "secret"));
+    }
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(10, 50);
+        cache.put("uid=userX,dc=org", "secret");
+        assertTrue(cache.isVerified("uid=userX,dc=org", "secret"));
+
+        Thread.sleep(100);
+
+        assertFalse(cache.isVerified("uid=userX,dc=org", "secret"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(2, 60000);
+        cache.put("uid=userX,dc=org", "secret");
+        cache.put("uid=userY,dc=org", "secret");
+        cache.put("uid=userX,dc=org", "secret");
+        cache.put("uid=userZ,dc=org", "secret");
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.isVerified("uid=userX,dc=org", "secret"));
+        assertFalse(cache.isVerified("uid=userY,dc=org", "secret"));
+        assertTrue(cache.isVerified("uid=userZ,dc=org", "secret"));
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(10, 60000);
+        cache.put("uid=userX,ou=people,dc=org", "secret");
+        cache.put("uid=userX,ou=people,dc=org", "oldSecret");
+        cache.put("uid=userY,ou=people,dc=org", "secret");
+        cache.put("uid=userZ,ou=admins,dc=org", "secret");
+
+        cache.invalidate("UID=userX,ou=people,dc=org");
+        assertFalse(cache.isVerified("uid=userX,ou=people,dc=org", "secret"));
+        assertFalse(cache.isVerified("uid=userX,ou=people,dc=org", "oldSecret"));
+        assertTrue(cache.isVerified("uid=userY,ou=people,dc=org", "secret"));
+
+        cache.invalidateSubtree("ou=people,dc=org");
+        assertFalse(cache.isVerified("uid=userY,ou=people,dc=org", "secret"));
+        assertTrue(cache.isVerified("uid=userZ,ou=admins,dc=org", "secret"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCredentialsVerifiedWhileModifyingAreNotCached()
+    {
+        LDAPCredentialsCache cache = new LDAPCredentialsCache(10, 60000);
+        long generation = cache.getGeneration();
+        // The password is changed after the LDAP server accepted the old one
+        cache.invalidate("uid=userX,dc=org");
+        cache.put("uid=userX,dc=org", "oldSecret", generation);
+        assertFalse(cache.isVerified("uid=userX,dc=org", "oldSecret"));
+
+        cache.put("uid=userY,dc=org", "secret", cache.getGeneration());
+        assertTrue(cache.isVerified("uid=userY,dc=org", "secret"));
+    }
+}
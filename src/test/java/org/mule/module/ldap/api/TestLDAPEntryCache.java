@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLDAPEntryCache
+{
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+
+        assertNull(cache.get("uid=user1,ou=people,dc=mulesoft,dc=org", null));
+        cache.put("uid=user1,ou=people,dc=mulesoft,dc=org", null, buildEntry("uid=user1,ou=people,dc=mulesoft,dc=org", "User One"));
+
+        LDAPEntry cached = cache.get("UID=user1, ou=People,dc=mulesoft,dc=org", null);
+        assertNotNull(cached);
+        assertEquals("UID=user1, ou=People,dc=mulesoft,dc=org", cached.getDn());
+        assertEquals("User One", cached.getAttribute("cn").getValue());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testReturnsCopies()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+        LDAPEntry entry = buildEntry("uid=user1,dc=org", "User One");
+        cache.put("uid=user1,dc=org", null, entry);
+        entry.addAttribute(new LDAPSingleValueEntryAttribute("sn", "One"));
+
+        LDAPEntry cached = cache.get("uid=user1,dc=org", null);
+        assertNotSame(entry, cached);
+        assertNull(cached.getAttribute("sn"));
+
+        cached.addAttribute(new LDAPSingleValueEntryAttribute("sn", "One"));
+        assertNull(cache.get("uid=user1,dc=org", null).getAttribute("sn"));
+    }
+
+    @Test
+    public void testKeyedByRequestedAttributes()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+        cache.put("uid=user1,dc=org", new String[] {"cn", "mail"}, buildEntry("uid=user1,dc=org", "User One"));
+
+        assertNull(cache.get("uid=user1,dc=org", null));
+        assertNull(cache.get("uid=user1,dc=org", new String[] {"cn"}));
+        assertNotNull(cache.get("uid=user1,dc=org", new String[] {"MAIL", "cn"}));
+    }
+
+    @Test
+    public void testContains() throws Exception
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 50);
+        assertFalse(cache.contains("uid=user1,dc=org"));
+        cache.put("uid=user1,dc=org", new String[] {"cn"}, buildEntry("uid=user1,dc=org", "User One"));
+        assertTrue(cache.contains("UID=user1, dc=org"));
+
+        Thread.sleep(100);
+
+        assertFalse(cache.contains("uid=user1,dc=org"));
+    }
+
+    @Test
+    public void testEntriesReadWhileWritingAreNotCached()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+        long generation = cache.getGeneration();
+        // A modify of the entry completes while it is being looked up
+        cache.invalidate("uid=user1,dc=org");
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "Old Name"), generation);
+        assertNull(cache.get("uid=user1,dc=org", null));
+
+        generation = cache.getGeneration();
+        cache.invalidateSubtree("dc=org");
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "Old Name"), generation);
+        assertNull(cache.get("uid=user1,dc=org", null));
+
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "New Name"), cache.getGeneration());
+        assertEquals("New Name", cache.get("uid=user1,dc=org", null).getAttribute("cn").getValue());
+    }
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 50);
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        assertNotNull(cache.get("uid=user1,dc=org", null));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("uid=user1,dc=org", null));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(2, 0, 0);
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        cache.put("uid=user2,dc=org", null, buildEntry("uid=user2,dc=org", "User Two"));
+        cache.get("uid=user1,dc=org", null);
+        cache.put("uid=user3,dc=org", null, buildEntry("uid=user3,dc=org", "User Three"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("uid=user1,dc=org", null));
+        assertNull(cache.get("uid=user2,dc=org", null));
+        assertNotNull(cache.get("uid=user3,dc=org", null));
+    }
+
+    @Test
+    public void testMaxBytesEviction()
+    {
+        LDAPEntryCache unbounded = new LDAPEntryCache(10, 0, 0);
+        unbounded.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        long entrySize = unbounded.getBytes();
+        assertTrue(entrySize > 0);
+
+        LDAPEntryCache cache = new LDAPEntryCache(10, entrySize * 2 + entrySize / 2, 0);
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        cache.put("uid=user2,dc=org", null, buildEntry("uid=user2,dc=org", "User Two"));
+        cache.put("uid=user3,dc=org", null, buildEntry("uid=user3,dc=org", "User Six"));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() <= entrySize * 2 + entrySize / 2);
+        assertNull(cache.get("uid=user1,dc=org", null));
+
+        // Bigger than the whole cache
+        LDAPEntryCache small = new LDAPEntryCache(10, entrySize / 2, 0);
+        small.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        assertEquals(0, small.size());
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+        cache.put("uid=user1,dc=org", null, buildEntry("uid=user1,dc=org", "User One"));
+        cache.put("uid=user1,dc=org", new String[] {"cn"}, buildEntry("uid=user1,dc=org", "User One"));
+        cache.put("uid=user2,dc=org", null, buildEntry("uid=user2,dc=org", "User Two"));
+
+        cache.invalidate("UID=User1,DC=org");
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get("uid=user1,dc=org", null));
+        assertNull(cache.get("uid=user1,dc=org", new String[] {"cn"}));
+        assertNotNull(cache.get("uid=user2,dc=org", null));
+    }
+
+    @Test
+    public void testInvalidateSubtree()
+    {
+        LDAPEntryCache cache = new LDAPEntryCache(10, 0, 0);
+        cache.put("ou=people,dc=org", null, buildEntry("ou=people,dc=org", "People"));
+        cache.put("uid=user1,ou=people,dc=org", null, buildEntry("uid=user1,ou=people,dc=org", "User One"));
+        cache.put("uid=user2,ou=otherpeople,dc=org", null, buildEntry("uid=user2,ou=otherpeople,dc=org", "User Two"));
+
+        cache.invalidateSubtree("ou=People, dc=org");
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("uid=user2,ou=otherpeople,dc=org", null));
+    }
+
+    @Test
+    public void testNormalizeDn()
+    {
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", LDAPEntryCache.normalizeDn("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", LDAPEntryCache.normalizeDn(" UID=User1 , OU=People,DC=mulesoft, DC=org"));
+        assertEquals("cn=user one+uid=user1,dc=org", LDAPEntryCache.normalizeDn("uid=user1+cn=User One,dc=org"));
+        assertEquals("", LDAPEntryCache.normalizeDn(null));
+    }
+
+    private LDAPEntry buildEntry(String dn, String cn)
+    {
+        LDAPEntry entry = new LDAPEntry(dn);
+        entry.addAttribute(new LDAPSingleValueEntryAttribute("cn", cn));
+        entry.addAttribute(new LDAPMultiValueEntryAttribute("objectClass", new Object[] {"top", "person"}));
+        return entry;
+    }
+}
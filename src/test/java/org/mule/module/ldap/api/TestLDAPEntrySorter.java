@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLDAPEntrySorter
+{
+
+    @Test
+    public void testParseSortKeys()
+    {
+        List<LDAPSortKey> keys = LDAPSortKey.parse(" sn, -createTimestamp ,+cn:2.5.13.3,");
+        
+        assertEquals(3, keys.size());
+        assertEquals("sn", keys.get(0).getAttributeName());
+        assertTrue(keys.get(0).isAscending());
+        assertNull(keys.get(0).getMatchingRule());
+        assertEquals("createTimestamp", keys.get(1).getAttributeName());
+        assertFalse(keys.get(1).isAscending());
+        assertEquals("cn", keys.get(2).getAttributeName());
+        assertTrue(keys.get(2).isAscending());
+        assertEquals("2.5.13.3", keys.get(2).getMatchingRule());
+        
+        assertTrue(LDAPSortKey.parse(null).isEmpty());
+        assertTrue(LDAPSortKey.parse("  ").isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidSortKey()
+    {
+        LDAPSortKey.parse("sn, -");
+    }
+    
+    @Test
+    public void testSortInMemory() throws Exception
+    {
+        assertSorted(1000, "sn, -uid");
+    }
+    
+    @Test
+    public void testSortSpillingRuns() throws Exception
+    {
+        assertSorted(3, "sn, -uid");
+    }
+    
+    @Test
+    public void testMissingAttributesSortLast() throws Exception
+    {
+        LDAPEntrySorter sorter = new LDAPEntrySorter(new LDAPEntryComparator(LDAPSortKey.parse("mail")), 2);
+        sorter.add(buildEntry("1", "b", null));
+        sorter.add(buildEntry("2", "a", "z@mulesoft.org"));
+        sorter.add(buildEntry("3", "c", "a@mulesoft.org"));
+        
+        LDAPResultSet result = sorter.sort();
+        assertEquals("uid=3", result.next().getDn());
+        assertEquals("uid=2", result.next().getDn());
+        assertEquals("uid=1", result.next().getDn());
+        assertFalse(result.hasNext());
+        result.close();
+    }
+    
+    private void assertSorted(int maxInMemoryEntries, String orderBy) throws Exception
+    {
+        LDAPEntryComparator comparator = new LDAPEntryComparator(LDAPSortKey.parse(orderBy));
+        LDAPEntrySorter sorter = new LDAPEntrySorter(comparator, maxInMemoryEntries);
+        
+        for (int i = 0; i < 20; i++)
+        {
+            sorter.add(buildEntry(String.valueOf(i), "Surname" + (i % 4), null));
+        }
+        
+        LDAPResultSet result = sorter.sort();
+        List<LDAPEntry> sorted = result.getAllEntries();
+        result.close();
+        
+        assertEquals(20, sorted.size());
+        for (int i = 1; i < sorted.size(); i++)
+        {
+            assertTrue(comparator.compare(sorted.get(i - 1), sorted.get(i)) <= 0);
+        }
+        assertEquals("Surname0", sorted.get(0).getAttribute("sn").getValue());
+        assertEquals("8", sorted.get(0).getAttribute("uid").getValue());
+    }
+    
+    private LDAPEntry buildEntry(String uid, String sn, String mail)
+    {
+        LDAPEntry entry = new LDAPEntry("uid=" + uid);
+        entry.addAttribute("uid", uid);
+        entry.addAttribute("sn", sn);
+        if (mail != null)
+        {
+            List<Object> mails = new ArrayList<Object>();
+            mails.add(mail);
+            entry.addAttribute("mail", mails);
+        }
+        return entry;
+    }
+}
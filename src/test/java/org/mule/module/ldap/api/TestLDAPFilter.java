@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestLDAPFilter
+{
+    @Test
+    public void testArgumentsAreEscaped() throws Exception
+    {
+        LDAPFilter filter = LDAPFilter.compile("(&(objectClass=person)(cn={0}))");
+        assertEquals(1, filter.getArgumentCount());
+        assertEquals("(&(objectClass=person)(cn=John Doe))", filter.format("John Doe"));
+        assertEquals("(&(objectClass=person)(cn=\\2a\\29\\28uid=\\2a))", filter.format("*)(uid=*"));
+        assertEquals("(&(objectClass=person)(cn=a\\5cb\\00))", filter.format("a\\b\u0000"));
+        assertEquals("(&(objectClass=person)(cn=Jos\u00e9))", filter.format("Jos\u00e9"));
+    }
+
+    @Test
+    public void testBinaryArguments() throws Exception
+    {
+        LDAPFilter filter = LDAPFilter.compile("(objectGUID={0})");
+        assertEquals("(objectGUID=\\00\\7f\\80\\ff)", filter.format(new Object[] {new byte[] {0, 0x7F, (byte) 0x80, (byte) 0xFF}}));
+    }
+
+    @Test
+    public void testArgumentsWithWildcardsAndLiterals() throws Exception
+    {
+        LDAPFilter filter = LDAPFilter.compile("(|(sn={0}*)(mail=*@{1})(description=*{1}*{0}*)(cn=\\2a{0}))");
+        assertEquals(2, filter.getArgumentCount());
+        assertEquals("(|(sn=sm\\2a*)(mail=*@mulesoft.org)(description=*mulesoft.org*sm\\2a*)(cn=\\2asm\\2a))", filter.format("sm*", "mulesoft.org"));
+    }
+
+    @Test
+    public void testTemplateIsNormalized() throws Exception
+    {
+        assertEquals("(objectClass=*)", LDAPFilter.compile("").format());
+        assertEquals("(cn=John)", LDAPFilter.compile("cn={0}").format("John"));
+        assertEquals("(&(cn=John)(!(sn=Doe)))", LDAPFilter.compile(" ( & (cn={0}) (!(sn=Doe)) ) ").format("John"));
+        assertEquals("(cn:caseExactMatch:=John)", LDAPFilter.compile("(cn:caseExactMatch:={0})").format("John"));
+        assertEquals("(createTimestamp>=20260101000000Z)", LDAPFilter.compile("(createTimestamp>={0})").format("20260101000000Z"));
+        // RFC 1960 escapes, accepted by JNDI, are rewritten as RFC 4515 escapes
+        assertEquals("(cn=a\\2ab)", LDAPFilter.compile("(cn=a\\*b)").format());
+        // Braces that are not argument references are part of the value
+        assertEquals("(userPassword={SSHA}x)", LDAPFilter.compile("(userPassword={SSHA}{0})").format("x"));
+    }
+
+    @Test
+    public void testTemplatesAreCached() throws Exception
+    {
+        LDAPFilter filter = LDAPFilter.compile("(&(objectClass=person)(uid={0}))");
+        assertSame(filter, LDAPFilter.compile("(&(objectClass=person)(uid={0}))"));
+        assertEquals("(&(objectClass=person)(uid={0}))", filter.getTemplate());
+    }
+
+    @Test
+    public void testInvalidTemplates()
+    {
+        assertInvalid("(cn=John");
+        assertInvalid("(&(cn=John)(sn=Doe)");
+        assertInvalid("(cn=John))");
+        assertInvalid("(cn)");
+        assertInvalid("(=John)");
+        assertInvalid("(cn=Jo(hn)");
+        assertInvalid("(cn>John)");
+        assertInvalid("(cn>=Jo*)");
+        assertInvalid("(!(cn=John)(sn=Doe))");
+        assertInvalid("({0}=John)");
+        assertInvalid("(cn=John\\)");
+    }
+
+    @Test
+    public void testMissingArguments() throws Exception
+    {
+        LDAPFilter filter = LDAPFilter.compile("(&(cn={0})(sn={1}))");
+        try
+        {
+            filter.format("John");
+            fail("Argument 1 is missing");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+        try
+        {
+            filter.format("John", null);
+            fail("Argument 1 is null");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testEscape()
+    {
+        assertEquals("\\28cn=\\2a\\29", LDAPFilter.escape("(cn=*)"));
+        assertEquals("John Doe", LDAPFilter.escape("John Doe"));
+    }
+
+    private static void assertInvalid(String template)
+    {
+        try
+        {
+            LDAPFilter.compile(template);
+            fail("Filter " + template + " is invalid");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestLDAPHistogram
+{
+    @Test
+    public void testEmpty()
+    {
+        LDAPHistogram histogram = new LDAPHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0d, histogram.getMean(), 0d);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LDAPHistogram histogram = new LDAPHistogram();
+        for (int i = 1; i <= 100; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getTotal());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5d, histogram.getMean(), 0d);
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(95, histogram.getValueAtPercentile(95));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testBigValuesKeepRelativeError()
+    {
+        LDAPHistogram histogram = new LDAPHistogram();
+        for (long i = 1; i <= 100000; i++)
+        {
+            histogram.record(i * 37);
+        }
+        for (double percentile : new double[] {50, 90, 95, 99, 99.9})
+        {
+            double expected = Math.ceil(percentile * 1000) * 37;
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected && actual <= expected * 1.016);
+        }
+        assertEquals(37, histogram.getMin());
+        assertEquals(3700000, histogram.getMax());
+    }
+
+    @Test
+    public void testLimits()
+    {
+        LDAPHistogram histogram = new LDAPHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LDAPHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(LDAPHistogram.MAX_VALUE, histogram.getValueAtPercentile(50));
+        try
+        {
+            histogram.record(-1);
+            fail("Negative values are not valid");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testReset()
+    {
+        LDAPHistogram histogram = new LDAPHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        histogram.record(7);
+        assertEquals(7, histogram.getMin());
+        assertEquals(7, histogram.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.junit.Test;
+
+public class TestLDAPLogger
+{
+    @Test
+    public void testPlaceholders()
+    {
+        RecordingLog log = new RecordingLog(true);
+        LDAPLogger logger = new LDAPLogger(log);
+
+        logger.info("Binded to {} as {}", "ldap://localhost:389/", "uid=user1");
+        logger.debug("{} entries", 3);
+        logger.debug("Page {} / Entry {} -> {}", 1, 2, "uid=user2");
+        logger.debug("Attributes {}", (Object) new String[] {"cn", "sn"});
+        logger.warn("No placeholders", "ignored");
+        logger.info("Missing {} and {}", "one");
+        logger.debug("{}{}{}{}", "a", "b", "c", "d");
+
+        assertEquals(7, log.messages.size());
+        assertEquals("Binded to ldap://localhost:389/ as uid=user1", log.messages.get(0));
+        assertEquals("3 entries", log.messages.get(1));
+        assertEquals("Page 1 / Entry 2 -> uid=user2", log.messages.get(2));
+        assertEquals("Attributes [cn, sn]", log.messages.get(3));
+        assertEquals("No placeholders", log.messages.get(4));
+        assertEquals("Missing one and {}", log.messages.get(5));
+        assertEquals("abcd", log.messages.get(6));
+    }
+
+    @Test
+    public void testDisabledLevelsDoNotFormat()
+    {
+        RecordingLog log = new RecordingLog(false);
+        LDAPLogger logger = new LDAPLogger(log);
+
+        logger.debug("Entry {}", new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new AssertionError("Message built with DEBUG disabled");
+            }
+        });
+        logger.trace("{} {}", "a", "b");
+
+        assertTrue(log.messages.isEmpty());
+    }
+
+    @Test
+    public void testSampler()
+    {
+        LDAPLogger.Sampler sampler = new LDAPLogger(new RecordingLog(true)).sampler(10);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++)
+        {
+            if (sampler.isDebugEnabled())
+            {
+                assertEquals(0, i % 10);
+                sampled++;
+            }
+        }
+        assertEquals(10, sampled);
+
+        LDAPLogger.Sampler all = new LDAPLogger(new RecordingLog(true)).sampler(0);
+        assertEquals(1, all.getRate());
+        assertTrue(all.isDebugEnabled());
+        assertTrue(all.isDebugEnabled());
+    }
+
+    @Test
+    public void testSamplerOfDisabledLogger()
+    {
+        LDAPLogger.Sampler sampler = new LDAPLogger(new RecordingLog(false)).sampler(1);
+        assertSame(LDAPLogger.Sampler.DISABLED, sampler);
+        assertFalse(sampler.isDebugEnabled());
+    }
+
+    /**
+     * Keeps the messages it is given. Every level is enabled, or only INFO and above.
+     */
+    private static class RecordingLog implements Log
+    {
+        final List<String> messages = new ArrayList<String>();
+        private final boolean debug;
+
+        RecordingLog(boolean debug)
+        {
+            this.debug = debug;
+        }
+
+        private void record(Object message)
+        {
+            messages.add(String.valueOf(message));
+        }
+
+        public boolean isTraceEnabled()
+        {
+            return debug;
+        }
+
+        public boolean isDebugEnabled()
+        {
+            return debug;
+        }
+
+        public boolean isInfoEnabled()
+        {
+            return true;
+        }
+
+        public boolean isWarnEnabled()
+        {
+            return true;
+        }
+
+        public boolean isErrorEnabled()
+        {
+            return true;
+        }
+
+        public boolean isFatalEnabled()
+        {
+            return true;
+        }
+
+        public void trace(Object message)
+        {
+            if (debug)
+            {
+                record(message);
+            }
+        }
+
+        public void trace(Object message, Throwable t)
+        {
+            trace(message);
+        }
+
+        public void debug(Object message)
+        {
+            if (debug)
+            {
+                record(message);
+            }
+        }
+
+        public void debug(Object message, Throwable t)
+        {
+            debug(message);
+        }
+
+        public void info(Object message)
+        {
+            record(message);
+        }
+
+        public void info(Object message, Throwable t)
+        {
+            record(message);
+        }
+
+        public void warn(Object message)
+        {
+            record(message);
+        }
+
+        public void warn(Object message, Throwable t)
+        {
+            record(message);
+        }
+
+        public void error(Object message)
+        {
+            record(message);
+        }
+
+        public void error(Object message, Throwable t)
+        {
+            record(message);
+        }
+
+        public void fatal(Object message)
+        {
+            record(message);
+        }
+
+        public void fatal(Object message, Throwable t)
+        {
+            record(message);
+        }
+    }
+}
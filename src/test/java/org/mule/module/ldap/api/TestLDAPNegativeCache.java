@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestLDAPNegativeCache
+{
+
+    @Test
+    public void testMissing()
+    {
+        assertMissing(new LDAPNegativeCache(10, 60000, false));
+        assertMissing(new LDAPNegativeCache(10, 60000, true));
+    }
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(10, 50, true);
+        cache.put("uid=userX,dc=org");
+        assertTrue(cache.isMissing("uid=userX,dc=org"));
+
+        Thread.sleep(100);
+
+        assertFalse(cache.isMissing("uid=userX,dc=org"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(2, 60000, true);
+        cache.put("uid=userX,dc=org");
+        cache.put("uid=userY,dc=org");
+        cache.put("uid=userX,dc=org");
+        cache.put("uid=userZ,dc=org");
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.isMissing("uid=userX,dc=org"));
+        assertFalse(cache.isMissing("uid=userY,dc=org"));
+        assertTrue(cache.isMissing("uid=userZ,dc=org"));
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(10, 60000, true);
+        cache.put("uid=userX,dc=org");
+        cache.put("uid=userY,dc=org");
+
+        cache.invalidate("UID=userX, DC=org");
+
+        assertFalse(cache.isMissing("uid=userX,dc=org"));
+        assertTrue(cache.isMissing("uid=userY,dc=org"));
+    }
+
+    @Test
+    public void testDnsCheckedWhileAddingAreNotCached()
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(10, 60000, true);
+        long generation = cache.getGeneration();
+        // The entry is added after the LDAP server answered that it doesn't exist
+        cache.invalidate("uid=userX,dc=org");
+        cache.put("uid=userX,dc=org", generation);
+        assertFalse(cache.isMissing("uid=userX,dc=org"));
+
+        cache.put("uid=userY,dc=org", cache.getGeneration());
+        assertTrue(cache.isMissing("uid=userY,dc=org"));
+    }
+
+    @Test
+    public void testInvalidateSubtree()
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(10, 60000, false);
+        cache.put("ou=newpeople,dc=org");
+        cache.put("uid=userX,ou=newpeople,dc=org");
+        cache.put("uid=userX,ou=people,dc=org");
+
+        cache.invalidateSubtree("ou=NewPeople,dc=org");
+
+        assertFalse(cache.isMissing("ou=newpeople,dc=org"));
+        assertFalse(cache.isMissing("uid=userX,ou=newpeople,dc=org"));
+        assertTrue(cache.isMissing("uid=userX,ou=people,dc=org"));
+    }
+
+    @Test
+    public void testBloomFilterRebuild()
+    {
+        LDAPNegativeCache cache = new LDAPNegativeCache(5, 60000, true);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("uid=user" + i + ",dc=org");
+        }
+
+        assertEquals(5, cache.size());
+        for (int i = 95; i < 100; i++)
+        {
+            assertTrue(cache.isMissing("uid=user" + i + ",dc=org"));
+        }
+        for (int i = 0; i < 95; i++)
+        {
+            assertFalse(cache.isMissing("uid=user" + i + ",dc=org"));
+        }
+    }
+
+    private void assertMissing(LDAPNegativeCache cache)
+    {
+        assertFalse(cache.isMissing("uid=userX,ou=people,dc=org"));
+        cache.put("uid=userX,ou=people,dc=org");
+        assertTrue(cache.isMissing("uid=userX,ou=people,dc=org"));
+        assertTrue(cache.isMissing("UID=userX, OU=People, DC=org"));
+        assertFalse(cache.isMissing("uid=userY,ou=people,dc=org"));
+        assertEquals(2, cache.getHits());
+    }
+}
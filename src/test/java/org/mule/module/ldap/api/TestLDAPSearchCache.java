@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLDAPSearchCache
+{
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 0);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn", "member");
+
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", controls));
+        cache.put("ou=groups,dc=org", "(objectClass=groupOfNames)", controls, buildEntries("ou=groups,dc=org", 3), cache.getGeneration());
+
+        List<LDAPEntry> cached = cache.get("OU=Groups, DC=org", " ( objectclass=groupOfNames) ", buildControls(LDAPSearchControls.SUBTREE_SCOPE, "MEMBER", "cn"));
+        assertNotNull(cached);
+        assertEquals(3, cached.size());
+        assertEquals("cn=entry0,ou=groups,dc=org", cached.get(0).getDn());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Returned entries are copies
+        cached.get(0).addAttribute(new LDAPSingleValueEntryAttribute("description", "changed"));
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", controls).get(0).getAttribute("description"));
+    }
+
+    @Test
+    public void testCompactEntries()
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 0);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn");
+        cache.put("ou=groups,dc=org", "(objectClass=groupOfNames)", controls, buildEntries("ou=groups,dc=org", 2), cache.getGeneration());
+
+        LDAPSearchControls compact = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn");
+        compact.setEntryFormat(LDAPSearchControls.COMPACT_ENTRIES);
+        List<LDAPEntry> cached = cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", compact);
+        assertNotNull(cached);
+        assertTrue(cached.get(0) instanceof CompactLDAPEntry);
+        assertEquals("entry0", cached.get(0).getAttribute("cn").getValue());
+
+        // Changing a compact entry doesn't change the cached one
+        cached.get(0).addAttribute(new LDAPSingleValueEntryAttribute("description", "changed"));
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", compact).get(0).getAttribute("description"));
+        assertTrue(((CompactLDAPEntry) cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", compact).get(0)).isCompact());
+        assertFalse(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", controls).get(0) instanceof CompactLDAPEntry);
+    }
+
+    @Test
+    public void testKeyedBySearch()
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 0);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn");
+        cache.put("ou=groups,dc=org", "(objectClass=groupOfNames)", controls, buildEntries("ou=groups,dc=org", 1), cache.getGeneration());
+
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=GroupOfNames)", controls));
+        assertNull(cache.get("ou=people,dc=org", "(objectClass=groupOfNames)", controls));
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", buildControls(LDAPSearchControls.ONELEVEL_SCOPE, "cn")));
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", buildControls(LDAPSearchControls.SUBTREE_SCOPE)));
+
+        LDAPSearchControls limited = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn");
+        limited.setMaxResults(10);
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", limited));
+
+        LDAPSearchControls sorted = buildControls(LDAPSearchControls.SUBTREE_SCOPE, "cn");
+        sorted.setOrderBy("cn");
+        assertNull(cache.get("ou=groups,dc=org", "(objectClass=groupOfNames)", sorted));
+
+        assertNotNull(cache.get("ou=groups,dc=org", "objectClass=groupOfNames", controls));
+    }
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 50);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE);
+        cache.put("ou=groups,dc=org", "(cn=*)", controls, buildEntries("ou=groups,dc=org", 2), cache.getGeneration());
+        assertNotNull(cache.get("ou=groups,dc=org", "(cn=*)", controls));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("ou=groups,dc=org", "(cn=*)", controls));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testMaxBytesEviction()
+    {
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE);
+        LDAPSearchCache unbounded = new LDAPSearchCache(Long.MAX_VALUE, 0);
+        unbounded.put("ou=groups,dc=org", "(cn=*)", controls, buildEntries("ou=groups,dc=org", 10), unbounded.getGeneration());
+        long resultSize = unbounded.getBytes();
+
+        LDAPSearchCache cache = new LDAPSearchCache(resultSize * 2 + resultSize / 2, 0);
+        cache.put("ou=groups1,dc=org", "(cn=*)", controls, buildEntries("ou=groups1,dc=org", 10), cache.getGeneration());
+        cache.put("ou=groups2,dc=org", "(cn=*)", controls, buildEntries("ou=groups2,dc=org", 10), cache.getGeneration());
+        cache.get("ou=groups1,dc=org", "(cn=*)", controls);
+        cache.put("ou=groups3,dc=org", "(cn=*)", controls, buildEntries("ou=groups3,dc=org", 10), cache.getGeneration());
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("ou=groups1,dc=org", "(cn=*)", controls));
+        assertNull(cache.get("ou=groups2,dc=org", "(cn=*)", controls));
+
+        // Bigger than the whole cache
+        cache.put("ou=groups4,dc=org", "(cn=*)", controls, buildEntries("ou=groups4,dc=org", 100), cache.getGeneration());
+        assertNull(cache.get("ou=groups4,dc=org", "(cn=*)", controls));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testInvalidateAncestorsAndDescendants()
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 0);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE);
+        cache.put("", "(cn=*)", controls, buildEntries("dc=org", 1), cache.getGeneration());
+        cache.put("dc=org", "(cn=*)", controls, buildEntries("dc=org", 1), cache.getGeneration());
+        cache.put("ou=groups,dc=org", "(cn=*)", controls, buildEntries("ou=groups,dc=org", 1), cache.getGeneration());
+        cache.put("cn=entry0,ou=groups,dc=org", "(cn=*)", controls, buildEntries("cn=entry0,ou=groups,dc=org", 1), cache.getGeneration());
+        cache.put("ou=people,dc=org", "(cn=*)", controls, buildEntries("ou=people,dc=org", 1), cache.getGeneration());
+
+        cache.invalidate("OU=Groups,DC=org");
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("ou=people,dc=org", "(cn=*)", controls));
+    }
+
+    @Test
+    public void testNotCachedIfWrittenWhileSearching()
+    {
+        LDAPSearchCache cache = new LDAPSearchCache(100000, 0);
+        LDAPSearchControls controls = buildControls(LDAPSearchControls.SUBTREE_SCOPE);
+
+        long generation = cache.getGeneration();
+        cache.invalidate("cn=entry0,ou=groups,dc=org");
+        cache.put("ou=groups,dc=org", "(cn=*)", controls, buildEntries("ou=groups,dc=org", 1), generation);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNormalizeFilter()
+    {
+        assertEquals("(objectclass=groupOfNames)", LDAPSearchCache.normalizeFilter("objectClass=groupOfNames"));
+        assertEquals("(&(objectclass=person)(|(cn=John Doe)(mail>=A b)))", LDAPSearchCache.normalizeFilter(" ( & (objectClass=person) ( | (CN=John Doe) (Mail>=A b) ) ) "));
+        assertEquals("(!(cn=a\\29 b))", LDAPSearchCache.normalizeFilter("(!(cn=a\\29 b))"));
+        assertEquals("", LDAPSearchCache.normalizeFilter(null));
+    }
+
+    private LDAPSearchControls buildControls(int scope, String... attributes)
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(scope);
+        controls.setAttributesToReturn(attributes.length > 0 ? attributes : null);
+        return controls;
+    }
+
+    private List<LDAPEntry> buildEntries(String baseDn, int count)
+    {
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        for (int i = 0; i < count; i++)
+        {
+            LDAPEntry entry = new LDAPEntry("cn=entry" + i + "," + baseDn);
+            entry.addAttribute(new LDAPSingleValueEntryAttribute("cn", "entry" + i));
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLDAPSlowQueryLog
+{
+    private LDAPConnection connection;
+    private LDAPSearchControls controls;
+
+    @Before
+    public void createConnection() throws Exception
+    {
+        connection = LDAPConnection.getConnection("nio", "ldap://localhost:389/dc=mulesoft,dc=org", LDAPConnection.NO_AUTHENTICATION);
+        controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+        controls.setAttributesToReturn(new String[] {"cn", "mail"});
+    }
+
+    @Test
+    public void testFingerprint()
+    {
+        assertEquals("(&(objectclass=?)(|(cn=?*)(mail=*?)))", LDAPSlowQueryLog.fingerprint("(&(objectClass=person)(|(cn=John*)(mail=*@example.com)))"));
+        assertEquals("(&(objectclass=?)(|(cn=?*)(mail=*?)))", LDAPSlowQueryLog.fingerprint(" (& (objectClass=group) (| (CN=A*) (mail=*x) ) ) "));
+        assertEquals("(description=*?*)", LDAPSlowQueryLog.fingerprint("(description=*admin*)"));
+        assertEquals("(description=?*?*?)", LDAPSlowQueryLog.fingerprint("(description=a*b*c*d)"));
+        assertEquals("(mail=*)", LDAPSlowQueryLog.fingerprint("(mail=*)"));
+        assertEquals("(!(uid=?))", LDAPSlowQueryLog.fingerprint("(!(uid={0}))"));
+        assertEquals("(&(age>=?)(age<=?)(cn~=?))", LDAPSlowQueryLog.fingerprint("(&(age>=18)(age<=65)(cn~=Jon))"));
+        assertEquals("(cn:dn:caseexactmatch:=?)", LDAPSlowQueryLog.fingerprint("(cn:dn:caseExactMatch:=John*)"));
+        assertEquals("(cn=?)", LDAPSlowQueryLog.fingerprint("(cn=John \\28Jr\\29 Smith)"));
+        assertEquals("uid=?", LDAPSlowQueryLog.fingerprint("uid=jsmith"));
+        assertNull(LDAPSlowQueryLog.fingerprint(null));
+    }
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        assertFalse(connection.getSlowQueryLog().isEnabled());
+        LDAPSlowQueryLog.Search search = connection.getSlowQueryLog().start("ou=people", "(uid=*)", controls);
+        assertSame(LDAPSlowQueryLog.Search.NONE, search);
+        LDAPResultSet result = new SlowResultSet(1, 0L);
+        assertSame(result, search.track(result));
+    }
+
+    @Test
+    public void testSlowSearchesAreAggregated() throws Exception
+    {
+        LDAPSlowQueryLog log = new LDAPSlowQueryLog(connection, 50L, 2);
+
+        // Reading the entries of the next pages is slow
+        LDAPSlowQueryLog.Search search = log.start("ou=people", "(&(objectClass=person)(uid=jsmith))", controls);
+        LDAPResultSet result = search.track(new SlowResultSet(3, 30L));
+        search.setPages(3);
+        assertEquals(3, result.getAllEntries().size());
+
+        // Fast search, but the caller takes its time processing the entries
+        search = log.start("ou=people", "(&(objectClass=person)(uid=other))", controls);
+        result = search.track(new SlowResultSet(2, 0L));
+        while (result.hasNext())
+        {
+            result.next();
+            Thread.sleep(60L);
+        }
+        result.close();
+
+        search = log.start("ou=groups", "(&(objectClass=group)(uid=jdoe))", controls);
+        assertEquals(1, search.track(new SlowResultSet(1, 60L)).getAllEntries().size());
+
+        // Recorded when closed, before reading all the entries
+        search = log.start("ou=groups", "(cn=*admin*)", controls);
+        result = search.track(new SlowResultSet(2, 100L));
+        result.next();
+        result.close();
+
+        assertEquals(3, log.getSlowSearches());
+        List<LDAPSlowQueryLog.Fingerprint> top = log.getFingerprints();
+        assertEquals(2, top.size());
+        assertEquals("(&(objectclass=?)(uid=?))", top.get(0).getFingerprint());
+        assertEquals(2, top.get(0).getCount());
+        assertEquals(4, top.get(0).getEntriesReturned());
+        assertEquals(4, top.get(0).getPages());
+        assertTrue(String.valueOf(top.get(0).getTotalTime()), top.get(0).getTotalTime() >= 150d);
+        assertEquals("ou=groups", top.get(0).getLastBaseDn());
+        assertEquals("subtree", top.get(0).getLastScope());
+        assertEquals("(cn=*?*)", top.get(1).getFingerprint());
+        assertEquals(2, log.getTopFingerprints().length);
+
+        log.reset();
+        assertEquals(0, log.getSlowSearches());
+        assertTrue(log.getFingerprints().isEmpty());
+    }
+
+    @Test
+    public void testFailedSearches() throws Exception
+    {
+        LDAPSlowQueryLog log = new LDAPSlowQueryLog(connection, 20L, 10);
+
+        LDAPSlowQueryLog.Search search = log.start("ou=people", "(uid=jsmith)", controls);
+        Thread.sleep(30L);
+        LDAPException ex = new LDAPException("Time limit exceeded");
+        assertSame(ex, search.failed(ex));
+        // Only recorded once
+        search.failed(ex);
+
+        assertEquals(1, log.getSlowSearches());
+        assertEquals("(uid=?)", log.getFingerprints().get(0).getFingerprint());
+    }
+
+    @Test
+    public void testJmx() throws Exception
+    {
+        LDAPSlowQueryLog log = new LDAPSlowQueryLog(connection, 1000L, 10);
+        log.register();
+        try
+        {
+            assertTrue(log.isRegistered());
+            ObjectName name = new ObjectName(LDAPMetrics.JMX_DOMAIN + ":type=SlowQueryLog,connection=" + ObjectName.quote(LDAPMetrics.getConnectionName(connection)));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(Long.valueOf(1000L), server.getAttribute(name, "Threshold"));
+
+            log.unregister();
+            assertFalse(log.isRegistered());
+            assertFalse(server.isRegistered(name));
+        }
+        finally
+        {
+            log.unregister();
+        }
+    }
+
+    @Test
+    public void testInvalidThreshold()
+    {
+        try
+        {
+            new LDAPSlowQueryLog(connection, 0L, 10);
+            fail("Threshold must be greater than 0");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Result set that waits the given milliseconds before returning each entry, as if the server took that long to
+     * send them.
+     */
+    private static class SlowResultSet implements LDAPResultSet
+    {
+        private final List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        private final long delay;
+
+        SlowResultSet(int size, long delay)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                entries.add(new LDAPEntry("uid=user" + i + ",ou=people"));
+            }
+            this.delay = delay;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            return !entries.isEmpty();
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return entries.remove(0);
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> all = new ArrayList<LDAPEntry>();
+            while (hasNext())
+            {
+                all.add(next());
+            }
+            return all;
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            entries.clear();
+        }
+    }
+}
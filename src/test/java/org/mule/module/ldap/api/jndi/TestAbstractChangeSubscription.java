@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Hashtable;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.NoPermissionException;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public class TestAbstractChangeSubscription
+{
+
+    @Test
+    public void testParentDn()
+    {
+        assertEquals("ou=people,dc=mulesoft,dc=org", AbstractChangeSubscription.getParentDn("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertEquals("ou=people,dc=mulesoft,dc=org", AbstractChangeSubscription.getParentDn("cn=Doe\\, John,ou=people,dc=mulesoft,dc=org"));
+        assertEquals("", AbstractChangeSubscription.getParentDn("dc=org"));
+        assertEquals("", AbstractChangeSubscription.getParentDn(""));
+    }
+
+    @Test
+    public void testSubTreeScope()
+    {
+        FakeSubscription subscription = new FakeSubscription("ou=people, dc=mulesoft, dc=org", LDAPSearchControls.SUBTREE_SCOPE);
+        assertTrue(subscription.isInScope("ou=people,dc=mulesoft,dc=org"));
+        assertTrue(subscription.isInScope("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertTrue(subscription.isInScope("cn=x,UID=User1,OU=People,dc=mulesoft,dc=org"));
+        assertFalse(subscription.isInScope("uid=user1,ou=groups,dc=mulesoft,dc=org"));
+        assertFalse(subscription.isInScope("dc=mulesoft,dc=org"));
+        assertFalse(subscription.isInScope("ou=otherpeople,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testOneLevelScope()
+    {
+        FakeSubscription subscription = new FakeSubscription("ou=people,dc=mulesoft,dc=org", LDAPSearchControls.ONELEVEL_SCOPE);
+        assertTrue(subscription.isInScope("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertFalse(subscription.isInScope("ou=people,dc=mulesoft,dc=org"));
+        assertFalse(subscription.isInScope("cn=x,uid=user1,ou=people,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testObjectScope()
+    {
+        FakeSubscription subscription = new FakeSubscription("uid=user1,ou=people,dc=mulesoft,dc=org", LDAPSearchControls.OBJECT_SCOPE);
+        assertTrue(subscription.isInScope("UID=user1, ou=people, dc=mulesoft, dc=org"));
+        assertFalse(subscription.isInScope("cn=x,uid=user1,ou=people,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testReconnectAfterRetryDelay() throws Exception
+    {
+        FakeSubscription subscription = new FakeSubscription("dc=org", LDAPSearchControls.SUBTREE_SCOPE);
+        subscription.failure = new CommunicationException("Connection refused");
+        subscription.start();
+        assertFalse(subscription.isConnected());
+
+        subscription.failure = null;
+        // Retry delay (100 ms) not elapsed yet
+        assertFalse(subscription.ensureConnected(10));
+        assertFalse(subscription.isConnected());
+
+        assertTrue(subscription.ensureConnected(200));
+        assertTrue(subscription.isConnected());
+        assertEquals(2, subscription.connections);
+
+        subscription.close();
+        assertFalse(subscription.isConnected());
+        assertFalse(subscription.ensureConnected(200));
+    }
+
+    @Test
+    public void testOtherFailure() throws Exception
+    {
+        FakeSubscription subscription = new FakeSubscription("dc=org", LDAPSearchControls.SUBTREE_SCOPE);
+        subscription.failure = new NoPermissionException("Insufficient access rights");
+        try
+        {
+            subscription.start();
+            fail("Subscription should not start");
+        }
+        catch (org.mule.module.ldap.api.NoPermissionException ex)
+        {
+            assertFalse(subscription.isConnected());
+        }
+    }
+
+    private static class FakeSubscription extends AbstractChangeSubscription
+    {
+        private NamingException failure = null;
+        private boolean connected = false;
+        private int connections = 0;
+
+        FakeSubscription(String baseDn, int scope)
+        {
+            super(new Hashtable<String, Object>(), baseDn, null, scope, 10, 100);
+        }
+
+        @Override
+        public LDAPChangeEvent poll(long timeout) throws LDAPException, InterruptedException
+        {
+            return null;
+        }
+
+        @Override
+        protected void connect() throws NamingException
+        {
+            connections++;
+            if (failure != null)
+            {
+                throw failure;
+            }
+            connected = true;
+        }
+
+        @Override
+        protected void disconnect()
+        {
+            connected = false;
+        }
+
+        @Override
+        protected boolean isConnected()
+        {
+            return connected;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.junit.Test;
+
+public class TestContentSyncControl
+{
+    @Test
+    public void testEncodeRequest() throws Exception
+    {
+        ContentSyncControl control = new ContentSyncControl(null);
+
+        assertEquals(ContentSyncControl.OID, control.getID());
+        assertTrue(control.isCritical());
+        assertArrayEquals(new byte[] {0x30, 0x03, 0x0A, 0x01, 0x01}, control.getEncodedValue());
+    }
+
+    @Test
+    public void testEncodeRequestWithCookie() throws Exception
+    {
+        ContentSyncControl control = new ContentSyncControl(new byte[] {0x61, 0x62});
+
+        assertArrayEquals(new byte[] {0x30, 0x07, 0x0A, 0x01, 0x01, 0x04, 0x02, 0x61, 0x62}, control.getEncodedValue());
+    }
+
+    @Test
+    public void testDecodeState() throws Exception
+    {
+        byte[] value = {0x30, 0x0C, 0x0A, 0x01, 0x03, 0x04, 0x03, 0x01, 0x02, 0x03, 0x04, 0x02, 0x61, 0x62};
+        Control[] controls = {new BasicControl(ContentSyncControl.STATE_OID, false, value)};
+
+        ContentSyncControl.State state = ContentSyncControl.getState(controls);
+
+        assertEquals(ContentSyncControl.DELETE, state.getState());
+        assertArrayEquals(new byte[] {0x01, 0x02, 0x03}, state.getEntryUuid());
+        assertArrayEquals(new byte[] {0x61, 0x62}, state.getCookie());
+    }
+
+    @Test
+    public void testDecodeStateWithoutCookie() throws Exception
+    {
+        byte[] value = {0x30, 0x08, 0x0A, 0x01, 0x01, 0x04, 0x03, 0x01, 0x02, 0x03};
+
+        ContentSyncControl.State state = ContentSyncControl.getState(new Control[] {new BasicControl(ContentSyncControl.STATE_OID, false, value)});
+
+        assertEquals(ContentSyncControl.ADD, state.getState());
+        assertNull(state.getCookie());
+    }
+
+    @Test
+    public void testDecodeDone() throws Exception
+    {
+        byte[] value = {0x30, 0x07, 0x04, 0x02, 0x61, 0x62, 0x01, 0x01, (byte) 0xFF};
+        Control[] controls = {new BasicControl("1.2.840.113556.1.4.319"), new BasicControl(ContentSyncControl.DONE_OID, false, value)};
+
+        ContentSyncControl.Done done = ContentSyncControl.getDone(controls);
+
+        assertArrayEquals(new byte[] {0x61, 0x62}, done.getCookie());
+        assertTrue(done.isRefreshDeletes());
+    }
+
+    @Test
+    public void testDecodeEmptyDone() throws Exception
+    {
+        ContentSyncControl.Done done = ContentSyncControl.getDone(new Control[] {new BasicControl(ContentSyncControl.DONE_OID, false, new byte[] {0x30, 0x00})});
+
+        assertNull(done.getCookie());
+        assertFalse(done.isRefreshDeletes());
+    }
+
+    @Test
+    public void testNoControls() throws Exception
+    {
+        assertNull(ContentSyncControl.getState(null));
+        assertNull(ContentSyncControl.getDone(new Control[] {new BasicControl("1.2.840.113556.1.4.319")}));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeTruncatedState() throws Exception
+    {
+        byte[] value = {0x30, 0x0C, 0x0A, 0x01, 0x03, 0x04, 0x03, 0x01};
+        ContentSyncControl.getState(new Control[] {new BasicControl(ContentSyncControl.STATE_OID, false, value)});
+    }
+}
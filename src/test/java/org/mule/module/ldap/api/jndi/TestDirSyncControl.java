@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.junit.Test;
+
+public class TestDirSyncControl
+{
+    @Test
+    public void testEncodeRequest() throws Exception
+    {
+        DirSyncControl control = new DirSyncControl(0, 0, null);
+
+        assertEquals(DirSyncControl.OID, control.getID());
+        assertTrue(control.isCritical());
+        assertArrayEquals(new byte[] {0x30, 0x08, 0x02, 0x01, 0x00, 0x02, 0x01, 0x00, 0x04, 0x00}, control.getEncodedValue());
+    }
+
+    @Test
+    public void testEncodeRequestWithCookie() throws Exception
+    {
+        DirSyncControl control = new DirSyncControl(0x80000000, 1048576, new byte[] {0x61, 0x62});
+        byte[] expected = {0x30, 0x0F, 0x02, 0x04, (byte) 0x80, 0x00, 0x00, 0x00, 0x02, 0x03, 0x10, 0x00, 0x00, 0x04, 0x02, 0x61, 0x62};
+
+        assertArrayEquals(expected, control.getEncodedValue());
+    }
+
+    @Test
+    public void testDecodeResponse() throws Exception
+    {
+        byte[] value = {0x30, 0x0A, 0x02, 0x01, 0x01, 0x02, 0x01, 0x00, 0x04, 0x02, 0x61, 0x62};
+        Control[] controls = {new BasicControl("1.2.840.113556.1.4.319"), new BasicControl(DirSyncControl.OID, false, value)};
+
+        DirSyncControl.Response response = DirSyncControl.getResponse(controls);
+
+        assertTrue(response.isMoreResults());
+        assertArrayEquals(new byte[] {0x61, 0x62}, response.getCookie());
+    }
+
+    @Test
+    public void testDecodeLastResponse() throws Exception
+    {
+        byte[] value = {0x30, 0x08, 0x02, 0x01, 0x00, 0x02, 0x01, 0x00, 0x04, 0x00};
+
+        DirSyncControl.Response response = DirSyncControl.getResponse(new Control[] {new BasicControl(DirSyncControl.OID, false, value)});
+
+        assertFalse(response.isMoreResults());
+        assertEquals(0, response.getCookie().length);
+    }
+
+    @Test
+    public void testNoResponse() throws Exception
+    {
+        assertNull(DirSyncControl.getResponse(null));
+    }
+}
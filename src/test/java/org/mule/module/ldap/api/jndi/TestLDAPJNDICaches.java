@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+
+public class TestLDAPJNDICaches
+{
+    private static final String DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+    private static final String MISSING_DN = "uid=missing,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPJNDIConnection connection;
+
+    @Before
+    public void resetServer()
+    {
+        CountingContextFactory.READS.set(0);
+        CountingContextFactory.ADDED = false;
+    }
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        if (connection != null)
+        {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testExistsUsesLookupCache() throws Exception
+    {
+        connection = connect();
+        connection.lookup(DN, new String[] {"cn"});
+        assertEquals(1, CountingContextFactory.READS.get());
+
+        assertTrue(connection.exists(DN));
+        assertEquals(1, CountingContextFactory.READS.get());
+
+        // Deleting the entry removes it from the lookup cache
+        connection.deleteEntry(DN);
+        assertTrue(connection.exists(DN));
+        assertEquals(2, CountingContextFactory.READS.get());
+    }
+
+    @Test
+    public void testAddedEntryIsNoLongerMissing() throws Exception
+    {
+        connection = connect();
+        assertFalse(connection.exists(MISSING_DN));
+        assertFalse(connection.exists(MISSING_DN));
+        assertEquals(1, CountingContextFactory.READS.get());
+
+        LDAPEntry entry = new LDAPEntry(MISSING_DN);
+        entry.addAttribute(new LDAPSingleValueEntryAttribute("cn", "Missing"));
+        connection.addEntry(entry);
+
+        assertTrue(connection.exists(MISSING_DN));
+        assertEquals(2, CountingContextFactory.READS.get());
+    }
+
+    private LDAPJNDIConnection connect() throws Exception
+    {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.CONNECTION_TYPE_ATTR, "jndi");
+        conf.put(LDAPConnection.LDAP_URL_ATTR, "ldap://localhost:389/");
+        conf.put(LDAPConnection.AUTHENTICATION_ATTR, LDAPConnection.NO_AUTHENTICATION);
+        conf.put(LDAPConnection.MAX_POOL_CONNECTIONS_ATTR, "0");
+        conf.put(LDAPConnection.LOOKUP_CACHE_MAX_ENTRIES_ATTR, "10");
+        conf.put(LDAPConnection.NEGATIVE_CACHE_MAX_ENTRIES_ATTR, "10");
+        conf.put(LDAPConnection.NEGATIVE_CACHE_TTL_ATTR, "60000");
+        conf.put("initialContextFactory", CountingContextFactory.class.getName());
+
+        LDAPJNDIConnection newConnection = (LDAPJNDIConnection) LDAPConnection.getConnection(conf);
+        newConnection.bind(null, null);
+        return newConnection;
+    }
+
+    /**
+     * Creates contexts that count the reads of entries. Every entry exists but the ones under <i>uid=missing</i>,
+     * until one is added.
+     */
+    public static class CountingContextFactory implements InitialContextFactory
+    {
+        static final AtomicInteger READS = new AtomicInteger();
+        static volatile boolean ADDED = false;
+
+        @Override
+        public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException
+        {
+            return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LdapContext.class}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws NamingException
+                {
+                    if ("getEnvironment".equals(method.getName()))
+                    {
+                        return environment;
+                    }
+                    else if ("bind".equals(method.getName()))
+                    {
+                        ADDED = true;
+                    }
+                    else if ("getAttributes".equals(method.getName()))
+                    {
+                        READS.incrementAndGet();
+                        if (((String) args[0]).startsWith("uid=missing") && !ADDED)
+                        {
+                            throw new javax.naming.NameNotFoundException((String) args[0]);
+                        }
+                        return new BasicAttributes("cn", "User One", true);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public class TestLDAPJNDIOperationWatchdog
+{
+    private static final String HELD_DN = "uid=slow,ou=held,dc=mulesoft,dc=org";
+    private static final String DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+    private static final String HELD_BASE_DN = "ou=held,dc=mulesoft,dc=org";
+
+    private LDAPJNDIConnection connection;
+
+    @Before
+    public void resetContexts()
+    {
+        HangingContextFactory.CONTEXTS.set(0);
+        HangingContextFactory.CLOSED.set(0);
+    }
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        if (connection != null)
+        {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testPooledContextIsDiscarded() throws Exception
+    {
+        connection = connect(1);
+        int contexts = HangingContextFactory.CONTEXTS.get();
+
+        assertAbandoned();
+        assertEquals(1, HangingContextFactory.CLOSED.get());
+
+        // The pool opens a new context instead of reusing the closed one
+        assertTrue(connection.exists(DN));
+        assertEquals(contexts + 1, HangingContextFactory.CONTEXTS.get());
+        assertFalse(connection.isClosed());
+    }
+
+    @Test
+    public void testBindedContextIsClosed() throws Exception
+    {
+        connection = connect(0);
+
+        assertAbandoned();
+        // So that the connector binds again
+        assertTrue(connection.isClosed());
+    }
+
+    @Test
+    public void testPagedSearchIsAbandoned() throws Exception
+    {
+        connection = connect(1);
+        int contexts = HangingContextFactory.CONTEXTS.get();
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setPageSize(10);
+        long start = System.currentTimeMillis();
+        try
+        {
+            // Runs on a copy of the pooled context, which shares its connection
+            connection.search(HELD_BASE_DN, "(objectClass=*)", controls);
+            fail("The server did not respond");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(String.valueOf(elapsed), elapsed >= 100 && elapsed < 5000);
+        assertEquals(2, HangingContextFactory.CLOSED.get());
+
+        assertTrue(connection.exists(DN));
+        assertEquals(contexts + 1, HangingContextFactory.CONTEXTS.get());
+    }
+
+    @Test
+    public void testOperationsInTimeAreNotAbandoned() throws Exception
+    {
+        connection = connect(1);
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(connection.exists(DN));
+        }
+
+        Thread.sleep(300L);
+        assertEquals(0, HangingContextFactory.CLOSED.get());
+        assertTrue(connection.exists(DN));
+    }
+
+    private void assertAbandoned() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            connection.exists(HELD_DN);
+            fail("The server did not respond");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(String.valueOf(elapsed), elapsed >= 100 && elapsed < 5000);
+    }
+
+    private LDAPJNDIConnection connect(int initialPoolSize) throws Exception
+    {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.CONNECTION_TYPE_ATTR, "jndi");
+        conf.put(LDAPConnection.LDAP_URL_ATTR, "ldap://localhost:389/");
+        conf.put(LDAPConnection.AUTHENTICATION_ATTR, LDAPConnection.NO_AUTHENTICATION);
+        conf.put(LDAPConnection.INITIAL_POOL_CONNECTIONS_ATTR, String.valueOf(initialPoolSize));
+        conf.put(LDAPConnection.MAX_POOL_CONNECTIONS_ATTR, String.valueOf(initialPoolSize));
+        conf.put(LDAPConnection.OPERATION_TIMEOUT_ATTR, "100");
+        conf.put("initialContextFactory", HangingContextFactory.class.getName());
+
+        LDAPJNDIConnection newConnection = (LDAPJNDIConnection) LDAPConnection.getConnection(conf);
+        newConnection.bind(null, null);
+        return newConnection;
+    }
+
+    /**
+     * Creates contexts whose reads and searches of entries under <i>ou=held</i> never return until the connection
+     * is closed, as if the server stopped responding. As with the LDAP provider, copies of a context share its
+     * connection, which is only closed once all of them are.
+     */
+    public static class HangingContextFactory implements InitialContextFactory
+    {
+        static final AtomicInteger CONTEXTS = new AtomicInteger();
+        static final AtomicInteger CLOSED = new AtomicInteger();
+
+        @Override
+        public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException
+        {
+            CONTEXTS.incrementAndGet();
+            return newContext(environment, new AtomicInteger());
+        }
+
+        private static LdapContext newContext(final Hashtable<?, ?> environment, final AtomicInteger references)
+        {
+            references.incrementAndGet();
+            return (LdapContext) Proxy.newProxyInstance(HangingContextFactory.class.getClassLoader(), new Class<?>[] {LdapContext.class}, new InvocationHandler()
+            {
+                private boolean closed = false;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws NamingException, InterruptedException
+                {
+                    if ("getEnvironment".equals(method.getName()))
+                    {
+                        return environment;
+                    }
+                    else if ("newInstance".equals(method.getName()))
+                    {
+                        return newContext(environment, references);
+                    }
+                    else if ("close".equals(method.getName()))
+                    {
+                        synchronized (references)
+                        {
+                            if (!closed)
+                            {
+                                closed = true;
+                                CLOSED.incrementAndGet();
+                                references.decrementAndGet();
+                                references.notifyAll();
+                            }
+                        }
+                    }
+                    else if ("getAttributes".equals(method.getName()) || "search".equals(method.getName()))
+                    {
+                        synchronized (references)
+                        {
+                            if (((String) args[0]).contains("ou=held"))
+                            {
+                                while (references.get() > 0)
+                                {
+                                    references.wait();
+                                }
+                            }
+                            if (closed || references.get() == 0)
+                            {
+                                throw new javax.naming.CommunicationException("Connection closed");
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.CommunicationException;
+
+public class TestLDAPJNDIServerPool
+{
+    private static final String PRIMARY = "ldap://primary:389/";
+    private static final String REPLICA = "ldap://replica:389/";
+    private static final List<String> URLS = Arrays.asList(PRIMARY, REPLICA);
+
+    private LDAPJNDIServerPool servers;
+
+    @Before
+    public void serversUp()
+    {
+        FakeContextFactory.DOWN.clear();
+    }
+
+    @After
+    public void closeServers()
+    {
+        if (servers != null)
+        {
+            servers.close();
+        }
+    }
+
+    @Test
+    public void testRoundRobinReadsAndPrimaryWrites() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.ROUND_ROBIN_POLICY, 0, 3, 30000L, 0L);
+
+        Set<String> readServers = new HashSet<String>();
+        for (int i = 0; i < 4; i++)
+        {
+            readServers.add(borrowAndReturn(false));
+        }
+        assertEquals(new HashSet<String>(URLS), readServers);
+
+        for (int i = 0; i < 4; i++)
+        {
+            assertEquals(PRIMARY, borrowAndReturn(true));
+        }
+    }
+
+    @Test
+    public void testLeastOutstandingRequests() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.LEAST_OUTSTANDING_REQUESTS_POLICY, 0, 3, 30000L, 0L);
+
+        LdapContext busy = servers.borrowContext(false);
+        LdapContext next = servers.borrowContext(false);
+        assertNotSame(urlOf(busy), urlOf(next));
+        servers.returnContext(next);
+
+        // The server of the busy context still has one in use
+        for (int i = 0; i < 4; i++)
+        {
+            assertEquals(urlOf(next), borrowAndReturn(false));
+        }
+        servers.returnContext(busy);
+    }
+
+    @Test
+    public void testFailoverAndCircuitBreaker() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.FAILOVER_POLICY, 0, 2, 200L, 0L);
+
+        FakeContextFactory.DOWN.add(PRIMARY);
+        // Creating a context of the primary fails, so the operation moves to the replica
+        assertEquals(REPLICA, borrowAndReturn(true));
+        assertEquals(URLS, servers.getAvailableUrls());
+        assertEquals(REPLICA, borrowAndReturn(true));
+        assertEquals(Collections.singletonList(REPLICA), servers.getAvailableUrls());
+
+        FakeContextFactory.DOWN.remove(PRIMARY);
+        assertEquals(REPLICA, borrowAndReturn(true));
+
+        Thread.sleep(300L);
+        assertEquals(PRIMARY, borrowAndReturn(true));
+        assertEquals(URLS, servers.getAvailableUrls());
+    }
+
+    @Test
+    public void testLostConnectionsAndFewestFailures() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.FEWEST_FAILURES_POLICY, 0, 3, 30000L, 0L);
+
+        LdapContext ctx = servers.borrowContext(true);
+        assertEquals(PRIMARY, urlOf(ctx));
+        servers.invalidateContext(ctx);
+
+        for (int i = 0; i < 4; i++)
+        {
+            assertEquals(REPLICA, borrowAndReturn(false));
+        }
+        // A single failure doesn't open the circuit
+        assertEquals(URLS, servers.getAvailableUrls());
+    }
+
+    @Test
+    public void testSlowOperations() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.ROUND_ROBIN_POLICY, 0, 1, 30000L, 20L);
+
+        LdapContext ctx = servers.borrowContext(true);
+        Thread.sleep(50L);
+        servers.returnContext(ctx);
+
+        assertEquals(Collections.singletonList(REPLICA), servers.getAvailableUrls());
+        assertEquals(REPLICA, borrowAndReturn(true));
+    }
+
+    @Test
+    public void testServersDownOnStart() throws Exception
+    {
+        FakeContextFactory.DOWN.addAll(URLS);
+        try
+        {
+            start(LDAPJNDIServerPool.ROUND_ROBIN_POLICY, 1, 3, 30000L, 0L);
+            fail("No server can be reached");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+
+        FakeContextFactory.DOWN.remove(REPLICA);
+        servers = start(LDAPJNDIServerPool.ROUND_ROBIN_POLICY, 1, 3, 30000L, 0L);
+        assertEquals(Collections.singletonList(REPLICA), servers.getAvailableUrls());
+        assertEquals(REPLICA, borrowAndReturn(true));
+    }
+
+    @Test
+    public void testAllServersDown() throws Exception
+    {
+        servers = start(LDAPJNDIServerPool.ROUND_ROBIN_POLICY, 0, 1, 30000L, 0L);
+
+        FakeContextFactory.DOWN.addAll(URLS);
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                servers.borrowContext(false);
+                fail("No server can be reached");
+            }
+            catch (CommunicationException ex)
+            {
+                // Expected
+            }
+        }
+        assertEquals(Collections.<String> emptyList(), servers.getAvailableUrls());
+    }
+
+    private LDAPJNDIServerPool start(String policy, int minSize, int failureThreshold, long openTime, long slowOperationThreshold) throws Exception
+    {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, FakeContextFactory.class.getName());
+        LDAPJNDIServerPool newServers = new LDAPJNDIServerPool(URLS, env, policy, minSize, 2, 0L, 0L, false, failureThreshold, openTime, slowOperationThreshold);
+        newServers.start();
+        return newServers;
+    }
+
+    private String borrowAndReturn(boolean write) throws Exception
+    {
+        LdapContext ctx = servers.borrowContext(write);
+        try
+        {
+            return urlOf(ctx);
+        }
+        finally
+        {
+            servers.returnContext(ctx);
+        }
+    }
+
+    private static String urlOf(LdapContext ctx) throws NamingException
+    {
+        return (String) ctx.getEnvironment().get(Context.PROVIDER_URL);
+    }
+
+    /**
+     * Creates contexts that only return their environment, unless the server of the provider URL is down.
+     */
+    public static class FakeContextFactory implements InitialContextFactory
+    {
+        static final Set<String> DOWN = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        @Override
+        public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException
+        {
+            if (DOWN.contains(environment.get(Context.PROVIDER_URL)))
+            {
+                throw new javax.naming.CommunicationException(environment.get(Context.PROVIDER_URL) + " is down");
+            }
+            return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LdapContext.class}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return "getEnvironment".equals(method.getName()) ? environment : null;
+                }
+            });
+        }
+    }
+}
@@ -8,13 +8,29 @@
 
 package org.mule.module.ldap.api.jndi;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotNull;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+
 import org.junit.Test;
+import org.mule.module.ldap.api.CompactLDAPEntry;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPSearchControls;
 
 public class TestLDAPJNDIUtils
 {
@@ -47,6 +63,133 @@ public class TestLDAPJNDIUtils
         assertFalse(LDAPJNDIUtils.containsDnValue("not-a-dn", dns));
         
     }
-}
 
+    @Test
+    public void testBuildEntry() throws Exception
+    {
+        BasicAttributes attributes = new BasicAttributes(true);
+        BasicAttribute objectClass = new BasicAttribute("objectClass");
+        objectClass.add("top");
+        objectClass.add("person");
+        objectClass.add("inetOrgPerson");
+        attributes.put(objectClass);
+        attributes.put("cn", "User 1");
+        attributes.put("telephoneNumber", "555-1234");
+
+        LDAPEntry entry = LDAPJNDIUtils.buildEntry("uid=user1,ou=people,dc=mulesoft,dc=org", attributes);
+
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", entry.getDn());
+        assertEquals(3, entry.getAttributeCount());
+        assertTrue(entry.getAttribute("objectclass").isMultiValued());
+        assertEquals(Arrays.<Object> asList("top", "person", "inetOrgPerson"), entry.getAttribute("objectClass").getValues());
+        assertFalse(entry.getAttribute("CN").isMultiValued());
+        assertEquals("User 1", entry.getAttribute("cn").getValue());
+        assertEquals("telephoneNumber", entry.getAttribute("TelephoneNumber").getName());
+        assertNull(entry.getAttribute("mail"));
+    }
+
+    @Test
+    public void testBuildEntryWithoutAttributes() throws Exception
+    {
+        LDAPEntry entry = LDAPJNDIUtils.buildEntry("dc=mulesoft,dc=org", null);
+
+        assertEquals("dc=mulesoft,dc=org", entry.getDn());
+        assertEquals(0, entry.getAttributeCount());
+    }
+
+    @Test
+    public void testBuildCompactEntry() throws Exception
+    {
+        BasicAttributes attributes = new BasicAttributes(true);
+        BasicAttribute member = new BasicAttribute("member");
+        member.add("uid=user1,ou=people,dc=mulesoft,dc=org");
+        member.add("uid=user2,ou=people,dc=mulesoft,dc=org");
+        attributes.put(member);
+        attributes.put("cn", "Group 1");
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setEntryFormat(LDAPSearchControls.COMPACT_ENTRIES);
+        LDAPEntry entry = LDAPJNDIUtils.buildEntry("cn=group1,ou=groups,dc=mulesoft,dc=org", attributes, controls);
+
+        assertTrue(entry instanceof CompactLDAPEntry);
+        assertEquals(2, entry.getAttributeCount());
+        assertEquals(Arrays.<Object> asList("uid=user1,ou=people,dc=mulesoft,dc=org", "uid=user2,ou=people,dc=mulesoft,dc=org"), entry.getAttribute("member").getValues());
+        assertEquals("Group 1", entry.getAttribute("CN").getValue());
+
+        assertFalse(LDAPJNDIUtils.buildEntry("cn=group1,ou=groups,dc=mulesoft,dc=org", attributes, new LDAPSearchControls()) instanceof CompactLDAPEntry);
+    }
+
+    @Test
+    public void testAttributeRange()
+    {
+        AttributeRange range = AttributeRange.parse("member;Range=0-1499");
+        assertNotNull(range);
+        assertEquals("member", range.getName());
+        assertEquals(0, range.getLow());
+        assertEquals(1499, range.getHigh());
+        assertFalse(range.isLast());
+
+        assertTrue(AttributeRange.parse("member;range=1500-*").isLast());
+        assertNull(AttributeRange.parse("member"));
+        assertNull(AttributeRange.parse("member;range=a-b"));
+        assertEquals("member;range=1500-2999", AttributeRange.request("member", 1500, 1500));
+        assertEquals("member;range=1500-*", AttributeRange.request("member", 1500, 0));
+    }
+
+    @Test
+    public void testReadAllRanges() throws Exception
+    {
+        final List<Object> members = new ArrayList<Object>();
+        for (int i = 0; i < 3200; i++)
+        {
+            members.add("uid=user" + i + ",ou=people,dc=mulesoft,dc=org");
+        }
+        final List<String> requests = new ArrayList<String>();
+        // Returns at most 1500 values, as Active Directory does
+        DirContext ctx = (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {DirContext.class}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                String id = ((String[]) args[1])[0];
+                requests.add(id);
+                return buildRange(members, AttributeRange.parse(id).getLow());
+            }
+        });
 
+        Attributes attributes = buildRange(members, 0);
+        attributes.put("cn", "Group 1");
+        LDAPEntry entry = LDAPJNDIUtils.buildEntry(ctx, "cn=group1,ou=groups,dc=mulesoft,dc=org", attributes, null);
+
+        assertEquals(Arrays.asList("member;range=1500-*", "member;range=3000-*"), requests);
+        assertEquals(2, entry.getAttributeCount());
+        assertEquals("member", entry.getAttribute("member").getName());
+        assertEquals(members, entry.getAttribute("member").getValues());
+        assertEquals("Group 1", entry.getAttribute("cn").getValue());
+    }
+
+    private static Attributes buildRange(List<Object> values, int low)
+    {
+        int high = Math.min(low + 1500, values.size()) - 1;
+        BasicAttribute range = new BasicAttribute("member;range=" + low + "-" + (high == values.size() - 1 ? "*" : String.valueOf(high)));
+        for (Object value : values.subList(low, high + 1))
+        {
+            range.add(value);
+        }
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(range);
+        return attributes;
+    }
+
+    @Test
+    public void testConnectionFailures()
+    {
+        assertTrue(LDAPJNDIUtils.isConnectionFailure(new javax.naming.CommunicationException("Connection reset")));
+        assertTrue(LDAPJNDIUtils.isConnectionFailure(new javax.naming.ServiceUnavailableException()));
+        assertTrue(LDAPJNDIUtils.isConnectionFailure(new NamingException("LDAP response read timed out, timeout used: 100 ms.")));
+        assertTrue(LDAPJNDIUtils.isReadTimeout(new NamingException("LDAP response read timed out, timeout used: 100 ms.")));
+
+        assertFalse(LDAPJNDIUtils.isConnectionFailure(new NamingException("[LDAP: error code 32 - No Such Object]")));
+        assertFalse(LDAPJNDIUtils.isConnectionFailure(new javax.naming.NameNotFoundException("LDAP response read timed out")));
+    }
+}
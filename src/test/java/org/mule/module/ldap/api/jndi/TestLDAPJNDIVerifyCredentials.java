@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+
+public class TestLDAPJNDIVerifyCredentials
+{
+    private static final String ADMIN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPJNDIConnection connection;
+
+    @Before
+    public void serverUp()
+    {
+        FakeContextFactory.DOWN = false;
+        FakeContextFactory.CONTEXTS.set(0);
+        FakeContextFactory.BINDS.set(0);
+    }
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        if (connection != null)
+        {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testVerifyOverPooledConnections() throws Exception
+    {
+        connection = connect(0);
+        int contexts = FakeContextFactory.CONTEXTS.get();
+
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertFalse(connection.verifyCredentials(USER, "wrong"));
+        assertFalse(connection.verifyCredentials("uid=nobody,ou=people,dc=mulesoft,dc=org", "secret1"));
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertEquals(4, FakeContextFactory.BINDS.get());
+
+        // Empty passwords would be anonymous binds, so they never reach the server
+        assertFalse(connection.verifyCredentials(USER, ""));
+        assertFalse(connection.verifyCredentials(USER, null));
+        assertEquals(4, FakeContextFactory.BINDS.get());
+
+        // A single connection was opened for all the verifications and the connection is still binded as the admin
+        assertEquals(contexts + 1, FakeContextFactory.CONTEXTS.get());
+        assertEquals(ADMIN, connection.getBindedUserDn());
+        assertNull(connection.getCredentialsCache());
+    }
+
+    @Test
+    public void testCachedVerifications() throws Exception
+    {
+        connection = connect(10);
+
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertEquals(1, FakeContextFactory.BINDS.get());
+
+        // Failures are not cached
+        assertFalse(connection.verifyCredentials(USER, "wrong"));
+        assertFalse(connection.verifyCredentials(USER, "wrong"));
+        assertEquals(3, FakeContextFactory.BINDS.get());
+
+        // The password may have changed
+        connection.updateAttribute(USER, new LDAPSingleValueEntryAttribute("userPassword", "secret2"));
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertEquals(4, FakeContextFactory.BINDS.get());
+        assertEquals(1, connection.getCredentialsCache().getHits());
+    }
+
+    @Test
+    public void testLostConnection() throws Exception
+    {
+        connection = connect(0);
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        int contexts = FakeContextFactory.CONTEXTS.get();
+
+        FakeContextFactory.DOWN = true;
+        try
+        {
+            connection.verifyCredentials(USER, "secret1");
+            fail("Connection was lost");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+
+        FakeContextFactory.DOWN = false;
+        assertTrue(connection.verifyCredentials(USER, "secret1"));
+        assertEquals(contexts + 1, FakeContextFactory.CONTEXTS.get());
+    }
+
+    private LDAPJNDIConnection connect(int cacheMaxEntries) throws Exception
+    {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.CONNECTION_TYPE_ATTR, "jndi");
+        conf.put(LDAPConnection.LDAP_URL_ATTR, "ldap://localhost:389/");
+        conf.put(LDAPConnection.AUTHENTICATION_ATTR, LDAPConnection.SIMPLE_AUTHENTICATION);
+        conf.put("initialContextFactory", FakeContextFactory.class.getName());
+        conf.put(LDAPConnection.VERIFY_CACHE_MAX_ENTRIES_ATTR, String.valueOf(cacheMaxEntries));
+
+        LDAPJNDIConnection newConnection = (LDAPJNDIConnection) LDAPConnection.getConnection(conf);
+        newConnection.bind(ADMIN, "adminSecret");
+        return newConnection;
+    }
+
+    /**
+     * Creates contexts that authenticate against a fixed set of users when they are created or reconnected.
+     */
+    public static class FakeContextFactory implements InitialContextFactory
+    {
+        static final AtomicInteger CONTEXTS = new AtomicInteger();
+        static final AtomicInteger BINDS = new AtomicInteger();
+        static volatile boolean DOWN = false;
+
+        private static final Map<String, String> USERS = new HashMap<String, String>();
+
+        static
+        {
+            USERS.put(ADMIN, "adminSecret");
+            USERS.put(USER, "secret1");
+        }
+
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+        {
+            final Hashtable<Object, Object> env = new Hashtable<Object, Object>(environment);
+            authenticate(env);
+            CONTEXTS.incrementAndGet();
+            return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LdapContext.class}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws NamingException
+                {
+                    if ("getEnvironment".equals(method.getName()))
+                    {
+                        return env;
+                    }
+                    else if ("addToEnvironment".equals(method.getName()))
+                    {
+                        return env.put(args[0], args[1]);
+                    }
+                    else if ("reconnect".equals(method.getName()))
+                    {
+                        BINDS.incrementAndGet();
+                        authenticate(env);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        private static void authenticate(Hashtable<Object, Object> env) throws NamingException
+        {
+            if (DOWN)
+            {
+                throw new javax.naming.CommunicationException("Server is down");
+            }
+            if (!LDAPConnection.NO_AUTHENTICATION.equals(env.get(Context.SECURITY_AUTHENTICATION)))
+            {
+                String password = USERS.get(env.get(Context.SECURITY_PRINCIPAL));
+                if (password == null || !password.equals(env.get(Context.SECURITY_CREDENTIALS)))
+                {
+                    throw new javax.naming.AuthenticationException("Invalid credentials");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+
+public class TestLazyLDAPEntry
+{
+
+    @Test
+    public void testConvertsReadAttributes()
+    {
+        BasicAttributes attributes = buildAttributes();
+        LazyLDAPEntry entry = new LazyLDAPEntry("uid=user1,ou=people,dc=org", attributes);
+
+        assertTrue(entry.isLazy());
+        assertEquals(3, entry.getAttributeCount());
+
+        LDAPEntryAttribute mail = entry.getAttribute("MAIL");
+        assertEquals("user1@mulesoft.org", mail.getValue());
+        assertSame(mail, entry.getAttribute("mail"));
+        assertEquals(2, attributes.size());
+        assertEquals(3, entry.getAttributeCount());
+
+        assertTrue(entry.getAttribute("memberOf").isMultiValued());
+        assertEquals(Arrays.<Object> asList("cn=group1,dc=org", "cn=group2,dc=org"), entry.getAttribute("memberof").getValues());
+        assertNull(entry.getAttribute("telephoneNumber"));
+        assertTrue(entry.isLazy());
+
+        assertEquals("User 1", entry.getAttribute("cn").getValue());
+        assertFalse(entry.isLazy());
+        assertEquals(3, entry.getAttributeCount());
+    }
+
+    @Test
+    public void testToMapConvertsAll()
+    {
+        LazyLDAPEntry entry = new LazyLDAPEntry("uid=user1,ou=people,dc=org", buildAttributes());
+        entry.getAttribute("cn");
+
+        Map<String, Object> map = entry.toMap();
+        assertFalse(entry.isLazy());
+        assertEquals(4, map.size());
+        assertEquals("User 1", map.get("cn"));
+        assertEquals("user1@mulesoft.org", map.get("mail"));
+        assertEquals(Arrays.<Object> asList("cn=group1,dc=org", "cn=group2,dc=org"), map.get("memberOf"));
+    }
+
+    @Test
+    public void testAddedAttributesReplacePending()
+    {
+        LazyLDAPEntry entry = new LazyLDAPEntry("uid=user1,ou=people,dc=org", buildAttributes());
+
+        entry.addAttribute(new LDAPSingleValueEntryAttribute("Mail", "changed@mulesoft.org"));
+        assertEquals(3, entry.getAttributeCount());
+        assertEquals("changed@mulesoft.org", entry.getAttribute("mail").getValue());
+        assertEquals("changed@mulesoft.org", entry.toMap().get("Mail"));
+
+        entry.resetAttributes();
+        assertFalse(entry.isLazy());
+        assertEquals(0, entry.getAttributeCount());
+    }
+
+    @Test
+    public void testCaseSensitiveAttributes()
+    {
+        BasicAttributes attributes = new BasicAttributes(false);
+        attributes.put("givenName", "User");
+        LazyLDAPEntry entry = new LazyLDAPEntry("uid=user1,ou=people,dc=org", attributes);
+
+        assertEquals("User", entry.getAttribute("GIVENNAME").getValue());
+        assertFalse(entry.isLazy());
+    }
+
+    @Test
+    public void testSerializedConverted() throws Exception
+    {
+        LazyLDAPEntry entry = new LazyLDAPEntry("uid=user1,ou=people,dc=org", buildAttributes());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(entry);
+        out.close();
+        LDAPEntry copy = (LDAPEntry) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(3, copy.getAttributeCount());
+        assertEquals("User 1", copy.getAttribute("cn").getValue());
+    }
+
+    @Test
+    public void testWithoutAttributes()
+    {
+        LazyLDAPEntry entry = new LazyLDAPEntry("dc=org", null);
+
+        assertFalse(entry.isLazy());
+        assertEquals(0, entry.getAttributeCount());
+        assertNull(entry.getAttribute("cn"));
+    }
+
+    private BasicAttributes buildAttributes()
+    {
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put("cn", "User 1");
+        attributes.put("mail", "user1@mulesoft.org");
+        BasicAttribute memberOf = new BasicAttribute("memberOf");
+        memberOf.add("cn=group1,dc=org");
+        memberOf.add("cn=group2,dc=org");
+        attributes.put(memberOf);
+        return attributes;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.event.EventDirContext;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPChangeEvent;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public class TestPersistentSearchSubscription
+{
+    private static final String BASE_DN = "ou=people,dc=mulesoft,dc=org";
+
+    private PersistentSearchSubscription subscription;
+
+    @Before
+    public void resetServer()
+    {
+        FakeContextFactory.LISTENER = null;
+        FakeContextFactory.FILTERS.clear();
+        FakeContextFactory.RESULTS.clear();
+    }
+
+    @After
+    public void closeSubscription()
+    {
+        if (subscription != null)
+        {
+            subscription.close();
+        }
+    }
+
+    @Test
+    public void testChangesMadeWhileDisconnectedAreNotified() throws Exception
+    {
+        subscription = subscribe();
+        assertNull(subscription.poll(10));
+        // Nothing to catch up with the first time
+        assertTrue(FakeContextFactory.FILTERS.isEmpty());
+
+        FakeContextFactory.RESULTS.add(new SearchResult("uid=new", null, new BasicAttributes("createTimestamp", "29991231235959Z", true)));
+        FakeContextFactory.RESULTS.add(new SearchResult("uid=old", null, new BasicAttributes("createTimestamp", "20000101000000Z", true)));
+        loseConnection();
+
+        LDAPChangeEvent added = subscription.poll(100);
+        assertNotNull(added);
+        assertEquals(LDAPChangeEvent.ADD, added.getChangeType());
+        assertEquals("uid=new," + BASE_DN, added.getDn());
+        assertNull(added.getEntry().getAttribute("createTimestamp"));
+
+        String from = subscription.getResyncFrom();
+        assertNotNull(from);
+        assertEquals(1, FakeContextFactory.FILTERS.size());
+        assertEquals("(&(objectClass=person)(|(modifyTimestamp>=" + from + ")(createTimestamp>=" + from + ")))", FakeContextFactory.FILTERS.get(0));
+
+        LDAPChangeEvent modified = subscription.poll(100);
+        assertNotNull(modified);
+        assertEquals(LDAPChangeEvent.MODIFY, modified.getChangeType());
+        assertEquals("uid=old," + BASE_DN, modified.getDn());
+
+        assertNull(subscription.poll(10));
+        assertNull(subscription.getResyncFrom());
+    }
+
+    @Test
+    public void testResyncStartsAgainIfConnectionIsLost() throws Exception
+    {
+        subscription = subscribe();
+        assertNull(subscription.poll(10));
+
+        FakeContextFactory.RESULTS.add(new SearchResult("uid=user1", null, new BasicAttributes("cn", "User One", true)));
+        FakeContextFactory.RESULTS.add(new SearchResult("uid=user2", null, new BasicAttributes("cn", "User Two", true)));
+        loseConnection();
+        assertEquals("uid=user1," + BASE_DN, subscription.poll(100).getDn());
+
+        // Lost again before reading the whole resync
+        loseConnection();
+        assertEquals("uid=user1," + BASE_DN, subscription.poll(100).getDn());
+        assertEquals(2, FakeContextFactory.FILTERS.size());
+        assertEquals(FakeContextFactory.FILTERS.get(0), FakeContextFactory.FILTERS.get(1));
+    }
+
+    private PersistentSearchSubscription subscribe() throws Exception
+    {
+        Hashtable<String, Object> env = new Hashtable<String, Object>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, FakeContextFactory.class.getName());
+        PersistentSearchSubscription newSubscription = new PersistentSearchSubscription(env, BASE_DN, "objectClass=person", LDAPSearchControls.SUBTREE_SCOPE, 10, 0);
+        newSubscription.start();
+        assertNotNull(FakeContextFactory.LISTENER);
+        return newSubscription;
+    }
+
+    private static void loseConnection()
+    {
+        FakeContextFactory.LISTENER.namingExceptionThrown(new NamingExceptionEvent(FakeContextFactory.SOURCE, new CommunicationException("Connection reset")));
+    }
+
+    /**
+     * Creates contexts that keep the registered naming listener and return the entries in <i>RESULTS</i> to any search.
+     */
+    public static class FakeContextFactory implements InitialContextFactory
+    {
+        static volatile NamingListener LISTENER = null;
+        static volatile EventDirContext SOURCE = null;
+        static final List<String> FILTERS = Collections.synchronizedList(new ArrayList<String>());
+        static final List<SearchResult> RESULTS = Collections.synchronizedList(new ArrayList<SearchResult>());
+
+        @Override
+        public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException
+        {
+            SOURCE = (EventDirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {EventDirContext.class}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws NamingException
+                {
+                    if ("lookup".equals(method.getName()))
+                    {
+                        return proxy;
+                    }
+                    else if ("addNamingListener".equals(method.getName()))
+                    {
+                        LISTENER = (NamingListener) args[args.length - 1];
+                    }
+                    else if ("search".equals(method.getName()))
+                    {
+                        FILTERS.add((String) args[1]);
+                        List<SearchResult> results = new ArrayList<SearchResult>();
+                        for (SearchResult result : RESULTS)
+                        {
+                            // Each search gets its own copy of the attributes
+                            results.add(new SearchResult(result.getName(), null, (BasicAttributes) result.getAttributes().clone()));
+                        }
+                        return new ListEnumeration(results);
+                    }
+                    return null;
+                }
+            });
+            return SOURCE;
+        }
+    }
+
+    private static class ListEnumeration implements NamingEnumeration<SearchResult>
+    {
+        private final Iterator<SearchResult> iterator;
+
+        ListEnumeration(List<SearchResult> results)
+        {
+            this.iterator = results.iterator();
+        }
+
+        @Override
+        public SearchResult next()
+        {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore()
+        {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public boolean hasMoreElements()
+        {
+            return hasMore();
+        }
+
+        @Override
+        public SearchResult nextElement()
+        {
+            return next();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
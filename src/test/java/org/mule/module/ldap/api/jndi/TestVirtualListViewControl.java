@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.junit.Test;
+
+public class TestVirtualListViewControl
+{
+    @Test
+    public void testEncodeRequest() throws Exception
+    {
+        VirtualListViewControl control = new VirtualListViewControl(5, 9, 0, null, Control.CRITICAL);
+        byte[] expected = {0x30, 0x0E, 0x02, 0x01, 0x00, 0x02, 0x01, 0x09, (byte) 0xA0, 0x06, 0x02, 0x01, 0x05, 0x02, 0x01, 0x00};
+
+        assertEquals(VirtualListViewControl.OID, control.getID());
+        assertTrue(control.isCritical());
+        assertArrayEquals(expected, control.getEncodedValue());
+    }
+
+    @Test
+    public void testEncodeRequestWithContextId() throws Exception
+    {
+        VirtualListViewControl control = new VirtualListViewControl(200, 99, 0, new byte[] {0x61, 0x62}, Control.CRITICAL);
+        byte[] expected = {0x30, 0x13, 0x02, 0x01, 0x00, 0x02, 0x01, 0x63, (byte) 0xA0, 0x07, 0x02, 0x02, 0x00, (byte) 0xC8, 0x02, 0x01, 0x00, 0x04, 0x02, 0x61, 0x62};
+
+        assertArrayEquals(expected, control.getEncodedValue());
+    }
+
+    @Test
+    public void testDecodeResponse() throws Exception
+    {
+        byte[] value = {0x30, 0x0E, 0x02, 0x01, 0x05, 0x02, 0x02, 0x01, 0x2C, 0x0A, 0x01, 0x00, 0x04, 0x02, 0x61, 0x62};
+        Control[] controls = {new BasicControl("1.2.840.113556.1.4.474"), new BasicControl(VirtualListViewControl.RESPONSE_OID, false, value)};
+
+        VirtualListViewControl.Response response = VirtualListViewControl.getResponse(controls);
+
+        assertEquals(5, response.getTargetPosition());
+        assertEquals(300, response.getContentCount());
+        assertEquals(0, response.getResultCode());
+        assertArrayEquals(new byte[] {0x61, 0x62}, response.getContextId());
+    }
+
+    @Test
+    public void testNoResponse() throws Exception
+    {
+        assertNull(VirtualListViewControl.getResponse(null));
+        assertNull(VirtualListViewControl.getResponse(new Control[] {new BasicControl("1.2.840.113556.1.4.474")}));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeTruncatedResponse() throws Exception
+    {
+        byte[] value = {0x30, 0x0E, 0x02, 0x01, 0x05, 0x02, 0x02, 0x01};
+        VirtualListViewControl.getResponse(new Control[] {new BasicControl(VirtualListViewControl.RESPONSE_OID, false, value)});
+    }
+}
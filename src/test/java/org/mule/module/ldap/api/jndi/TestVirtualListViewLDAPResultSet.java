@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+public class TestVirtualListViewLDAPResultSet
+{
+    private static final int ENTRIES = 50;
+
+    @Test
+    public void testMaxResultsAppliesToAllWindows() throws Exception
+    {
+        FakeServer server = new FakeServer();
+        List<LDAPEntry> entries = search(server, 10, 25, 0);
+
+        assertEquals(25, entries.size());
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", entries.get(0).getDn());
+        assertEquals("uid=user25,ou=people,dc=mulesoft,dc=org", entries.get(24).getDn());
+        // The last window is shrunk to the remaining entries
+        assertEquals(3, server.windows.size());
+        assertEquals(Integer.valueOf(5), server.windows.get(2));
+    }
+
+    @Test
+    public void testMaxResultsFromOffset() throws Exception
+    {
+        FakeServer server = new FakeServer();
+        List<LDAPEntry> entries = search(server, 10, 20, 40);
+
+        // Only 10 entries after the offset
+        assertEquals(10, entries.size());
+        assertEquals("uid=user41,ou=people,dc=mulesoft,dc=org", entries.get(0).getDn());
+    }
+
+    @Test
+    public void testWithoutMaxResults() throws Exception
+    {
+        FakeServer server = new FakeServer();
+        assertEquals(ENTRIES, search(server, 10, 0, 0).size());
+        assertEquals(5, server.windows.size());
+    }
+
+    private static List<LDAPEntry> search(FakeServer server, int pageSize, long maxResults, int offset) throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setPageSize(pageSize);
+        controls.setMaxResults(maxResults);
+        controls.setOffset(offset);
+        controls.setOrderBy("uid");
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+
+        LdapContext ctx = server.newContext();
+        VirtualListViewLDAPResultSet result = new VirtualListViewLDAPResultSet("ou=people,dc=mulesoft,dc=org", "(uid=*)", null, ctx, controls, null, ctx);
+        result.open();
+        try
+        {
+            return result.getAllEntries();
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
+    /**
+     * Answers virtual list view searches with the requested window of ENTRIES sorted entries, ignoring the size limit.
+     */
+    private static class FakeServer
+    {
+        final List<Integer> windows = new ArrayList<Integer>();
+
+        LdapContext newContext()
+        {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LdapContext.class}, new InvocationHandler()
+            {
+                private int offset;
+                private int afterCount;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Exception
+                {
+                    if ("setRequestControls".equals(method.getName()))
+                    {
+                        for (Control control : (Control[]) args[0])
+                        {
+                            if (VirtualListViewControl.OID.equals(control.getID()))
+                            {
+                                BERCodec.Reader reader = new BERCodec.Reader(control.getEncodedValue());
+                                reader.enter(BERCodec.SEQUENCE_TAG);
+                                reader.readInteger(BERCodec.INTEGER_TAG);
+                                afterCount = reader.readInteger(BERCodec.INTEGER_TAG);
+                                reader.enter(0xA0);
+                                offset = reader.readInteger(BERCodec.INTEGER_TAG);
+                            }
+                        }
+                    }
+                    else if ("search".equals(method.getName()))
+                    {
+                        windows.add(afterCount + 1);
+                        List<SearchResult> results = new ArrayList<SearchResult>();
+                        for (int i = offset; i <= Math.min(offset + afterCount, ENTRIES); i++)
+                        {
+                            results.add(new SearchResult("uid=user" + i, null, new BasicAttributes("uid", "user" + i, true)));
+                        }
+                        return new ListEnumeration(results);
+                    }
+                    else if ("getResponseControls".equals(method.getName()))
+                    {
+                        ByteArrayOutputStream response = new ByteArrayOutputStream();
+                        BERCodec.writeInteger(response, BERCodec.INTEGER_TAG, offset);
+                        BERCodec.writeInteger(response, BERCodec.INTEGER_TAG, ENTRIES);
+                        BERCodec.writeInteger(response, BERCodec.ENUMERATED_TAG, 0);
+                        return new Control[] {new BasicControl(VirtualListViewControl.RESPONSE_OID, false, BERCodec.sequence(response))};
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static class ListEnumeration implements NamingEnumeration<SearchResult>
+    {
+        private final Iterator<SearchResult> iterator;
+
+        ListEnumeration(List<SearchResult> results)
+        {
+            this.iterator = results.iterator();
+        }
+
+        @Override
+        public SearchResult next()
+        {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore()
+        {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public boolean hasMoreElements()
+        {
+            return hasMore();
+        }
+
+        @Override
+        public SearchResult nextElement()
+        {
+            return next();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestBERWriter
+{
+
+    @Test
+    public void testIntegers() throws Exception
+    {
+        int[] values = new int[] {0, 1, 127, 128, 255, 256, 32767, 32768, -1, -128, -129, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        int[] lengths = new int[] {1, 1, 1, 2, 2, 2, 2, 3, 1, 1, 2, 4, 4};
+
+        for (int i = 0; i < values.length; i++)
+        {
+            byte[] encoded = new BERWriter().writeInteger(values[i]).toByteArray();
+            assertEquals("Length of " + values[i], lengths[i], encoded[1]);
+            assertEquals(values[i], new BERReader(encoded).readInteger());
+        }
+    }
+
+    @Test
+    public void testNestedSequences() throws Exception
+    {
+        byte[] large = new byte[70000];
+        Arrays.fill(large, (byte) 'x');
+
+        BERWriter out = new BERWriter(16);
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        out.writeInteger(7);
+        out.startSequence(0x63);
+        out.writeString("dc=mulesoft,dc=org");
+        out.writeOctetString(large);
+        out.writeBoolean(true);
+        out.endSequence();
+        out.startSequence(BERWriter.SET_TAG);
+        out.endSequence();
+        out.writeNull(0x42);
+        out.endSequence();
+        byte[] encoded = out.toByteArray();
+
+        assertEquals(encoded.length, BERReader.elementLength(encoded, 0, encoded.length));
+        assertEquals(-1, BERReader.elementLength(encoded, 0, 3));
+
+        BERReader reader = new BERReader(encoded);
+        int end = reader.enter(BERWriter.SEQUENCE_TAG);
+        assertEquals(encoded.length, end);
+        assertEquals(7, reader.readInteger());
+        int requestEnd = reader.enter(0x63);
+        assertEquals("dc=mulesoft,dc=org", reader.readString());
+        assertArrayEquals(large, reader.readOctetString());
+        assertTrue(reader.readBoolean(BERWriter.BOOLEAN_TAG));
+        assertFalse(reader.hasMore(requestEnd));
+        int setEnd = reader.enter(BERWriter.SET_TAG);
+        assertFalse(reader.hasMore(setEnd));
+        assertEquals(0x42, reader.peekTag());
+        reader.skip();
+        assertFalse(reader.hasMore(end));
+    }
+
+    @Test
+    public void testUnexpectedTag() throws Exception
+    {
+        byte[] encoded = new BERWriter().writeString("uid=user1").toByteArray();
+        try
+        {
+            new BERReader(encoded).readInteger();
+            fail("The element is not an integer");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSequenceNotEnded()
+    {
+        new BERWriter().startSequence(BERWriter.SEQUENCE_TAG).toByteArray();
+    }
+}
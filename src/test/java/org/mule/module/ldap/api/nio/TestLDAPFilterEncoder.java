@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPException;
+
+public class TestLDAPFilterEncoder
+{
+
+    @Test
+    public void testEquality() throws Exception
+    {
+        BERReader reader = encode("(cn=John Doe)", null);
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "cn", "John Doe");
+
+        // Enclosing parentheses are optional
+        assertArrayEquals(encodeBytes("(cn=John Doe)", null), encodeBytes("cn=John Doe", null));
+    }
+
+    @Test
+    public void testEmptyFilterMatchesEverything() throws Exception
+    {
+        assertArrayEquals(encodeBytes("(objectClass=*)", null), encodeBytes("", null));
+        assertArrayEquals(encodeBytes("(objectClass=*)", null), encodeBytes(null, null));
+    }
+
+    @Test
+    public void testPresentAndSubstrings() throws Exception
+    {
+        BERReader reader = encode("(mail=*)", null);
+        assertEquals("mail", reader.readString(LDAPFilterEncoder.PRESENT_TAG));
+
+        reader = encode("(cn=Jo*h*n*)", null);
+        reader.enter(LDAPFilterEncoder.SUBSTRINGS_TAG);
+        assertEquals("cn", reader.readString());
+        int end = reader.enter(BERWriter.SEQUENCE_TAG);
+        assertEquals("Jo", reader.readString(LDAPFilterEncoder.SUBSTRING_INITIAL_TAG));
+        assertEquals("h", reader.readString(LDAPFilterEncoder.SUBSTRING_ANY_TAG));
+        assertEquals("n", reader.readString(LDAPFilterEncoder.SUBSTRING_ANY_TAG));
+        assertFalse(reader.hasMore(end));
+
+        reader = encode("(cn=*Doe)", null);
+        reader.enter(LDAPFilterEncoder.SUBSTRINGS_TAG);
+        assertEquals("cn", reader.readString());
+        reader.enter(BERWriter.SEQUENCE_TAG);
+        assertEquals("Doe", reader.readString(LDAPFilterEncoder.SUBSTRING_FINAL_TAG));
+    }
+
+    @Test
+    public void testComposedFilter() throws Exception
+    {
+        BERReader reader = encode("(&(objectClass=person)(|(uid=user1)(!(uid>=user5)))(sn<=Z)(cn~=Jon))", null);
+        int andEnd = reader.enter(LDAPFilterEncoder.AND_TAG);
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "objectClass", "person");
+        int orEnd = reader.enter(LDAPFilterEncoder.OR_TAG);
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "uid", "user1");
+        reader.enter(LDAPFilterEncoder.NOT_TAG);
+        assertAssertion(reader, LDAPFilterEncoder.GREATER_OR_EQUAL_TAG, "uid", "user5");
+        assertFalse(reader.hasMore(orEnd));
+        assertAssertion(reader, LDAPFilterEncoder.LESS_OR_EQUAL_TAG, "sn", "Z");
+        assertAssertion(reader, LDAPFilterEncoder.APPROX_MATCH_TAG, "cn", "Jon");
+        assertFalse(reader.hasMore(andEnd));
+    }
+
+    @Test
+    public void testEscapesAndArguments() throws Exception
+    {
+        BERReader reader = encode("(cn=a\\2ab\\28c\\29\\5c)", null);
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "cn", "a*b(c)\\");
+
+        // Arguments are never wildcards or escape sequences
+        reader = encode("(&(uid={0})(jpegPhoto={1}))", new Object[] {"a*b\\2a)", new byte[] {0, (byte) 0xFF}});
+        reader.enter(LDAPFilterEncoder.AND_TAG);
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "uid", "a*b\\2a)");
+        reader.enter(LDAPFilterEncoder.EQUALITY_MATCH_TAG);
+        assertEquals("jpegPhoto", reader.readString());
+        assertArrayEquals(new byte[] {0, (byte) 0xFF}, reader.readOctetString());
+
+        // Non ASCII values are UTF-8
+        reader = encode("(cn=J\u00fcrgen {0})", new Object[] {42});
+        assertAssertion(reader, LDAPFilterEncoder.EQUALITY_MATCH_TAG, "cn", "J\u00fcrgen 42");
+    }
+
+    @Test
+    public void testExtensibleMatch() throws Exception
+    {
+        BERReader reader = encode("(cn:dn:2.5.13.5:=John)", null);
+        int end = reader.enter(LDAPFilterEncoder.EXTENSIBLE_MATCH_TAG);
+        assertEquals("2.5.13.5", reader.readString(LDAPFilterEncoder.MATCHING_RULE_TAG));
+        assertEquals("cn", reader.readString(LDAPFilterEncoder.MATCHING_TYPE_TAG));
+        assertEquals("John", reader.readString(LDAPFilterEncoder.MATCH_VALUE_TAG));
+        assertTrue(reader.readBoolean(LDAPFilterEncoder.DN_ATTRIBUTES_TAG));
+        assertFalse(reader.hasMore(end));
+
+        reader = encode("(:caseExactMatch:=John)", null);
+        reader.enter(LDAPFilterEncoder.EXTENSIBLE_MATCH_TAG);
+        assertEquals("caseExactMatch", reader.readString(LDAPFilterEncoder.MATCHING_RULE_TAG));
+        assertEquals("John", reader.readString(LDAPFilterEncoder.MATCH_VALUE_TAG));
+    }
+
+    @Test
+    public void testInvalidFilters() throws Exception
+    {
+        String[] invalid = new String[] {"(cn=John", "(cn>John)", "(cn)", "(=John)", "(cn>=J*n)", "(cn=John))", "(cn=a(b)", "(cn={1})", "(cn={x})", "(:=John)"};
+        for (String filter : invalid)
+        {
+            try
+            {
+                encode(filter, new Object[] {"value"});
+                fail(filter + " should be invalid");
+            }
+            catch (LDAPException ex)
+            {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid search filter"));
+            }
+        }
+    }
+
+    private static void assertAssertion(BERReader reader, int tag, String description, String value) throws Exception
+    {
+        int end = reader.enter(tag);
+        assertEquals(description, reader.readString());
+        assertEquals(value, reader.readString());
+        assertFalse(reader.hasMore(end));
+    }
+
+    private static BERReader encode(String filter, Object[] args) throws Exception
+    {
+        return new BERReader(encodeBytes(filter, args));
+    }
+
+    private static byte[] encodeBytes(String filter, Object[] args) throws LDAPException
+    {
+        BERWriter out = new BERWriter();
+        LDAPFilterEncoder.encode(out, filter, args);
+        return out.toByteArray();
+    }
+}
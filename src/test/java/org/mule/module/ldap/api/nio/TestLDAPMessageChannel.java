@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLDAPMessageChannel
+{
+    private static final int ENTRIES = 200;
+    private static final int QUEUED_RESPONSES_WARNING = 5;
+
+    private ServerSocket serverSocket;
+    private final Semaphore served = new Semaphore(0);
+    private LDAPMessageChannel channel;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                serve();
+            }
+        }, "fake-ldap-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception
+    {
+        if (channel != null)
+        {
+            channel.close();
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void testSlowConsumerDoesNotBlockOtherRequests() throws Exception
+    {
+        channel = LDAPMessageChannel.open("localhost", serverSocket.getLocalPort(), 5000, 0, 0, QUEUED_RESPONSES_WARNING);
+        int slowMessageId = channel.nextMessageId();
+        LDAPMessageChannel.Responses slow = channel.send(slowMessageId, searchRequest(slowMessageId));
+        assertTrue(served.tryAcquire(5, TimeUnit.SECONDS));
+
+        // The responses to the first request are kept while the second one completes
+        int messageId = channel.nextMessageId();
+        assertEquals(ENTRIES, readAll(channel.send(messageId, searchRequest(messageId))));
+        assertEquals(ENTRIES + 1, slow.size());
+        // Both requests received their last response
+        assertEquals(0, channel.getPendingRequests());
+
+        assertEquals(ENTRIES, readAll(slow));
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void testDiscardedResponsesAreIgnored() throws Exception
+    {
+        channel = LDAPMessageChannel.open("localhost", serverSocket.getLocalPort(), 5000, 0, 0, QUEUED_RESPONSES_WARNING);
+        int messageId = channel.nextMessageId();
+        channel.send(messageId, searchRequest(messageId));
+        channel.discard(messageId);
+        assertTrue(served.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(0, channel.getPendingRequests());
+
+        messageId = channel.nextMessageId();
+        assertEquals(ENTRIES, readAll(channel.send(messageId, searchRequest(messageId))));
+        assertTrue(channel.isOpen());
+    }
+
+    private static int readAll(LDAPMessageChannel.Responses responses) throws Exception
+    {
+        int entries = 0;
+        LDAPMessage message;
+        do
+        {
+            message = responses.take();
+            assertEquals(responses.getMessageId(), message.getMessageId());
+            if (message.getOperation() == LDAPMessage.SEARCH_RESULT_ENTRY)
+            {
+                entries++;
+            }
+        }
+        while (!message.isFinal());
+        return entries;
+    }
+
+    private static byte[] searchRequest(int messageId)
+    {
+        BERWriter out = new BERWriter();
+        out.startSequence(BERWriter.SEQUENCE_TAG);
+        out.writeInteger(messageId);
+        out.startSequence(LDAPMessage.SEARCH_REQUEST);
+        out.writeString("dc=mulesoft,dc=org");
+        out.endSequence();
+        out.endSequence();
+        return out.toByteArray();
+    }
+
+    /*
+     * Answers each request with ENTRIES entries followed by the search result done.
+     */
+    private void serve()
+    {
+        try
+        {
+            Socket socket = serverSocket.accept();
+            try
+            {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                byte[] request = new byte[1024];
+                int read;
+                while ((read = in.read(request)) > 0)
+                {
+                    respond(out, LDAPMessage.decode(Arrays.copyOf(request, read)).getMessageId());
+                }
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        catch (Exception ex)
+        {
+            // Server stopped
+        }
+    }
+
+    private void respond(OutputStream out, int messageId) throws Exception
+    {
+        for (int i = 0; i < ENTRIES; i++)
+        {
+            BERWriter entry = new BERWriter();
+            entry.startSequence(BERWriter.SEQUENCE_TAG);
+            entry.writeInteger(messageId);
+            entry.startSequence(LDAPMessage.SEARCH_RESULT_ENTRY);
+            entry.writeString("uid=user" + i + ",dc=mulesoft,dc=org");
+            entry.startSequence(BERWriter.SEQUENCE_TAG);
+            entry.endSequence();
+            entry.endSequence();
+            entry.endSequence();
+            out.write(entry.toByteArray());
+        }
+
+        BERWriter done = new BERWriter();
+        done.startSequence(BERWriter.SEQUENCE_TAG);
+        done.writeInteger(messageId);
+        done.startSequence(LDAPMessage.SEARCH_RESULT_DONE);
+        done.writeEnumerated(0);
+        done.writeString("");
+        done.writeString("");
+        done.endSequence();
+        done.endSequence();
+        out.write(done.toByteArray());
+        out.flush();
+        served.release();
+    }
+}
@@ -0,0 +1,694 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPMetrics;
+import org.mule.module.ldap.api.LDAPMetricsReporter;
+import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.NameAlreadyBoundException;
+import org.mule.module.ldap.api.NameNotFoundException;
+
+public class TestLDAPNIOConnection
+{
+    private static final String BASE_DN = "dc=mulesoft,dc=org";
+
+    private FakeLDAPServer server;
+    private LDAPConnection connection;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        server = new FakeLDAPServer();
+        server.addEntry("ou=people," + BASE_DN, "ou", "people");
+        for (int i = 1; i <= 5; i++)
+        {
+            server.addEntry("uid=user" + i + ",ou=people," + BASE_DN, "cn", "User " + i, "mail", "user" + i + "@mulesoft.org", "mail", "user" + i + "@mulesoft.com",
+                "userPassword", new byte[] {(byte) i, (byte) 0xFF});
+        }
+        server.addEntry("uid=slow,ou=held," + BASE_DN, "cn", "Slow");
+        server.start();
+
+        connection = LDAPConnection.getConnection("nio", "ldap://localhost:" + server.getPort() + "/" + BASE_DN, LDAPConnection.SIMPLE_AUTHENTICATION);
+    }
+
+    @After
+    public void stopServer() throws Exception
+    {
+        connection.close();
+        server.stop();
+    }
+
+    @Test
+    public void testBindAndLookup() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+        assertEquals("cn=admin", connection.getBindedUserDn());
+
+        LDAPEntry entry = connection.lookup("uid=user1,ou=people");
+        assertEquals("uid=user1,ou=people", entry.getDn());
+        assertEquals("User 1", entry.getAttribute("cn").getValue());
+        assertTrue(entry.getAttribute("mail") instanceof LDAPMultiValueEntryAttribute);
+        assertEquals(Arrays.asList("user1@mulesoft.org", "user1@mulesoft.com"), entry.getAttribute("mail").getValues());
+        assertArrayEquals(new byte[] {1, (byte) 0xFF}, (byte[]) entry.getAttribute("userPassword").getValue());
+
+        assertTrue(connection.exists("uid=user2,ou=people"));
+        assertFalse(connection.exists("uid=missing,ou=people"));
+        try
+        {
+            connection.lookup("uid=missing,ou=people");
+            fail("Entry doesn't exist");
+        }
+        catch (NameNotFoundException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testInvalidCredentials() throws Exception
+    {
+        try
+        {
+            connection.bind("cn=admin", "wrong");
+            fail("Credentials are invalid");
+        }
+        catch (AuthenticationException ex)
+        {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("[LDAP: error code 49"));
+        }
+        assertTrue(connection.isClosed());
+        assertNull(connection.getBindedUserDn());
+    }
+
+    @Test
+    public void testConcurrentOperationsShareSocket() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            // The server doesn't answer this lookup until it receives the next request
+            Future<LDAPEntry> slow = executor.submit(new Callable<LDAPEntry>()
+            {
+                @Override
+                public LDAPEntry call() throws Exception
+                {
+                    return connection.lookup("uid=slow,ou=held");
+                }
+            });
+            assertTrue(server.held.await(5, TimeUnit.SECONDS));
+            assertFalse(slow.isDone());
+
+            assertEquals("User 3", connection.lookup("uid=user3,ou=people").getAttribute("cn").getValue());
+            assertEquals("Slow", slow.get(5, TimeUnit.SECONDS).getAttribute("cn").getValue());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        assertEquals(1, server.connections.get());
+        assertEquals(0, ((LDAPNIOConnection) connection).getPendingRequests());
+    }
+
+    @Test
+    public void testPagedSearch() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        controls.setPageSize(2);
+        List<LDAPEntry> entries = connection.search("ou=people", "(uid=*)", controls).getAllEntries();
+
+        assertEquals(5, entries.size());
+        assertEquals("uid=user5,ou=people", entries.get(4).getDn());
+        assertEquals(3, server.searches.get());
+    }
+
+    @Test
+    public void testNextPageIsRequestedOnceThePreviousOneIsRead() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        controls.setPageSize(2);
+        LDAPResultSet result = connection.search("ou=people", "(uid=*)", controls);
+        try
+        {
+            assertEquals("uid=user1,ou=people", result.next().getDn());
+            assertEquals("uid=user2,ou=people", result.next().getDn());
+            // Entries that are not read don't pile up in memory
+            Thread.sleep(200);
+            assertEquals(1, server.searches.get());
+
+            assertEquals("uid=user3,ou=people", result.next().getDn());
+            assertEquals(2, server.searches.get());
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.METRICS_ENABLED_ATTR, "true");
+        conf.put(LDAPConnection.METRICS_REPORTER_ATTR, CountingReporter.class.getName());
+        connection = LDAPConnection.getConnection("nio", "ldap://localhost:" + server.getPort() + "/" + BASE_DN, LDAPConnection.SIMPLE_AUTHENTICATION, conf);
+        connection.bind("cn=admin", "secret");
+
+        LDAPMetrics metrics = connection.getMetrics();
+        assertTrue(metrics.isRegistered());
+        ObjectName name = new ObjectName(LDAPMetrics.JMX_DOMAIN + ":type=Metrics,connection=" + ObjectName.quote(metrics.getConnectionName()));
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(mbeanServer.isRegistered(name));
+
+        connection.lookup("uid=user1,ou=people");
+        try
+        {
+            connection.lookup("uid=missing,ou=people");
+            fail("Entry doesn't exist");
+        }
+        catch (NameNotFoundException ex)
+        {
+            // Expected
+        }
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        controls.setPageSize(2);
+        assertEquals(5, connection.search("ou=people", "(uid=*)", controls).getAllEntries().size());
+
+        assertEquals(1, metrics.getOperationMetrics(LDAPMetrics.BIND, null).getCount());
+        assertEquals(2, metrics.getOperationMetrics(LDAPMetrics.LOOKUP, null).getCount());
+        assertEquals(1, metrics.getOperationMetrics(LDAPMetrics.LOOKUP, null).getErrors());
+        assertEquals(Long.valueOf(1), metrics.getErrors().get("NameNotFoundException"));
+        assertEquals(1, metrics.getOperationMetrics(LDAPMetrics.SEARCH, null).getCount());
+        assertEquals(5, metrics.getOperationMetrics(LDAPMetrics.SEARCH, null).getEntriesReturned());
+        assertEquals(1, metrics.getPagedSearches());
+        assertEquals(3, metrics.getMaxPagesPerSearch());
+        assertTrue(metrics.getBytesDecoded() > 0);
+        assertEquals(1, metrics.getOpenConnections());
+        ObjectName lookups = new ObjectName(LDAPMetrics.JMX_DOMAIN + ":type=OperationMetrics,connection=" + ObjectName.quote(metrics.getConnectionName()) + ",operation=lookup");
+        assertEquals(Long.valueOf(2), mbeanServer.getAttribute(lookups, "Count"));
+
+        connection.close();
+        assertFalse(metrics.isRegistered());
+        assertFalse(mbeanServer.isRegistered(name));
+        assertFalse(mbeanServer.isRegistered(lookups));
+        assertEquals(1, CountingReporter.REPORTS.get());
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        controls.setMaxResults(3);
+        controls.setEntryFormat(LDAPSearchControls.COMPACT_ENTRIES);
+        List<LDAPEntry> entries = connection.search("ou=people", "(uid=*)", controls).getAllEntries();
+
+        assertEquals(3, entries.size());
+        assertEquals(Arrays.asList("user1@mulesoft.org", "user1@mulesoft.com"), entries.get(0).getAttribute("mail").getValues());
+    }
+
+    @Test
+    public void testAddAndDelete() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+
+        LDAPEntry entry = new LDAPEntry("uid=user6,ou=people");
+        entry.addAttribute("cn", "User 6");
+        connection.addEntry(entry);
+        assertEquals("User 6", connection.lookup("uid=user6,ou=people").getAttribute("cn").getValue());
+
+        try
+        {
+            connection.addEntry(entry);
+            fail("Entry already exists");
+        }
+        catch (NameAlreadyBoundException ex)
+        {
+            // Expected
+        }
+
+        connection.deleteEntry("uid=user6,ou=people");
+        assertFalse(connection.exists("uid=user6,ou=people"));
+        try
+        {
+            connection.deleteEntry("uid=user6,ou=people");
+            fail("Entry doesn't exist");
+        }
+        catch (NameNotFoundException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testServerDisconnection() throws Exception
+    {
+        connection.bind("cn=admin", "secret");
+        server.dropConnections();
+        try
+        {
+            connection.lookup("uid=user1,ou=people");
+            fail("Server closed the connection");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+
+        connection.rebind();
+        assertEquals("User 1", connection.lookup("uid=user1,ou=people").getAttribute("cn").getValue());
+        assertEquals(2, server.connections.get());
+    }
+
+    @Test
+    public void testOperationTimeout() throws Exception
+    {
+        connection.close();
+        Map<String, String> conf = new HashMap<String, String>();
+        conf.put(LDAPConnection.OPERATION_TIMEOUT_ATTR, "200");
+        connection = LDAPConnection.getConnection("nio", "ldap://localhost:" + server.getPort() + "/" + BASE_DN, LDAPConnection.SIMPLE_AUTHENTICATION, conf);
+        connection.bind("cn=admin", "secret");
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            // The server doesn't answer this lookup until it receives the next request
+            connection.lookup("uid=slow,ou=held");
+            fail("The server did not respond");
+        }
+        catch (CommunicationException ex)
+        {
+            // Expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(String.valueOf(elapsed), elapsed >= 200 && elapsed < 5000);
+
+        // The request was abandoned and the socket is still used by other operations
+        assertEquals("User 3", connection.lookup("uid=user3,ou=people").getAttribute("cn").getValue());
+        assertEquals(1, server.abandons.get());
+        assertEquals(1, server.connections.get());
+        assertEquals(0, ((LDAPNIOConnection) connection).getPendingRequests());
+    }
+
+    /**
+     * Counts the reports of the metrics.
+     */
+    public static class CountingReporter implements LDAPMetricsReporter
+    {
+        static final AtomicInteger REPORTS = new AtomicInteger();
+
+        @Override
+        public void report(LDAPMetrics metrics)
+        {
+            REPORTS.incrementAndGet();
+        }
+    }
+
+    /**
+     * Minimal LDAP server holding its entries in memory. Lookups of entries under <i>ou=held</i> are not
+     * answered until the connection sends another request.
+     */
+    private static class FakeLDAPServer implements Runnable
+    {
+        private final Map<String, Map<String, List<Object>>> entries = Collections.synchronizedMap(new LinkedHashMap<String, Map<String, List<Object>>>());
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger searches = new AtomicInteger();
+        private final AtomicInteger abandons = new AtomicInteger();
+        private final CountDownLatch held = new CountDownLatch(1);
+        private ServerSocket serverSocket;
+
+        void addEntry(String dn, Object... attributes)
+        {
+            Map<String, List<Object>> entry = new LinkedHashMap<String, List<Object>>();
+            for (int i = 0; i < attributes.length; i += 2)
+            {
+                String name = (String) attributes[i];
+                if (!entry.containsKey(name))
+                {
+                    entry.put(name, new ArrayList<Object>());
+                }
+                entry.get(name).add(attributes[i + 1]);
+            }
+            entries.put(dn.toLowerCase(), entry);
+        }
+
+        void start() throws IOException
+        {
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "fake-ldap-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort()
+        {
+            return serverSocket.getLocalPort();
+        }
+
+        void dropConnections() throws IOException
+        {
+            synchronized (sockets)
+            {
+                for (Socket socket : sockets)
+                {
+                    socket.close();
+                }
+                sockets.clear();
+            }
+        }
+
+        void stop() throws IOException
+        {
+            serverSocket.close();
+            dropConnections();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    sockets.add(socket);
+                    Thread thread = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            serve(socket);
+                        }
+                    }, "fake-ldap-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+            catch (IOException ex)
+            {
+                // Server stopped
+            }
+        }
+
+        private void serve(Socket socket)
+        {
+            List<byte[]> heldResponses = new ArrayList<byte[]>();
+            try
+            {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true)
+                {
+                    byte[] data = readMessage(in);
+                    LDAPMessage request = LDAPMessage.decode(data);
+                    if (request.getOperation() == LDAPMessage.UNBIND_REQUEST)
+                    {
+                        break;
+                    }
+
+                    boolean hold = request.getOperation() == LDAPMessage.SEARCH_REQUEST && heldResponses.isEmpty() && isHeld(LDAPMessage.decode(data));
+                    byte[] response = respond(request, data);
+                    if (hold)
+                    {
+                        heldResponses.add(response);
+                        held.countDown();
+                        continue;
+                    }
+                    if (response != null)
+                    {
+                        out.write(response);
+                    }
+                    for (byte[] heldResponse : heldResponses)
+                    {
+                        out.write(heldResponse);
+                    }
+                    heldResponses.clear();
+                }
+            }
+            catch (IOException ex)
+            {
+                // Connection closed
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore
+                }
+            }
+        }
+
+        private static byte[] readMessage(DataInputStream in) throws IOException
+        {
+            int tag = in.readUnsignedByte();
+            int first = in.readUnsignedByte();
+            int lengthBytes = first > 0x80 ? first & 0x7F : 0;
+            byte[] header = new byte[2 + lengthBytes];
+            header[0] = (byte) tag;
+            header[1] = (byte) first;
+            in.readFully(header, 2, lengthBytes);
+            int length = first;
+            if (lengthBytes > 0)
+            {
+                length = 0;
+                for (int i = 0; i < lengthBytes; i++)
+                {
+                    length = (length << 8) | (header[2 + i] & 0xFF);
+                }
+            }
+            byte[] message = Arrays.copyOf(header, header.length + length);
+            in.readFully(message, header.length, length);
+            return message;
+        }
+
+        private static boolean isHeld(LDAPMessage request) throws IOException
+        {
+            return request.getReader().readString().toLowerCase().contains(",ou=held,");
+        }
+
+        private byte[] respond(LDAPMessage request, byte[] data) throws IOException
+        {
+            BERReader reader = request.getReader();
+            switch (request.getOperation())
+            {
+                case LDAPMessage.BIND_REQUEST :
+                    reader.readInteger();
+                    String name = reader.readString();
+                    String password = reader.readString(0x80);
+                    return result(request, LDAPMessage.BIND_RESPONSE, name.length() == 0 || "secret".equals(password) ? 0 : 49, null);
+                case LDAPMessage.SEARCH_REQUEST :
+                    searches.incrementAndGet();
+                    return search(request);
+                case LDAPMessage.ADD_REQUEST :
+                    String dn = reader.readString();
+                    if (entries.containsKey(dn.toLowerCase()))
+                    {
+                        return result(request, LDAPMessage.ADD_RESPONSE, 68, null);
+                    }
+                    List<Object> attributes = new ArrayList<Object>();
+                    int attributesEnd = reader.enter(BERWriter.SEQUENCE_TAG);
+                    while (reader.hasMore(attributesEnd))
+                    {
+                        reader.enter(BERWriter.SEQUENCE_TAG);
+                        String attribute = reader.readString();
+                        int valuesEnd = reader.enter(BERWriter.SET_TAG);
+                        while (reader.hasMore(valuesEnd))
+                        {
+                            attributes.add(attribute);
+                            attributes.add(reader.readString());
+                        }
+                    }
+                    addEntry(dn, attributes.toArray());
+                    return result(request, LDAPMessage.ADD_RESPONSE, 0, null);
+                case LDAPMessage.DELETE_REQUEST :
+                    // The DN is the content of the operation itself
+                    BERReader message = new BERReader(data);
+                    message.enter(BERWriter.SEQUENCE_TAG);
+                    message.readInteger();
+                    String deleted = message.readString(LDAPMessage.DELETE_REQUEST);
+                    return result(request, LDAPMessage.DELETE_RESPONSE, entries.remove(deleted.toLowerCase()) != null ? 0 : 32, null);
+                case LDAPMessage.ABANDON_REQUEST :
+                    abandons.incrementAndGet();
+                    return null;
+                default :
+                    return result(request, request.getOperation() + 1, 53, null);
+            }
+        }
+
+        private byte[] search(LDAPMessage request) throws IOException
+        {
+            BERReader reader = request.getReader();
+            String baseDn = reader.readString().toLowerCase();
+            int scope = reader.readEnumerated();
+            reader.readEnumerated();
+            int sizeLimit = reader.readInteger();
+            reader.readInteger();
+            reader.readBoolean(BERWriter.BOOLEAN_TAG);
+
+            byte[] pageControl = request.readControlValue(LDAPNIOConnection.PAGED_RESULTS_OID);
+            int pageSize = 0;
+            int offset = 0;
+            if (pageControl != null)
+            {
+                BERReader control = new BERReader(pageControl);
+                control.enter(BERWriter.SEQUENCE_TAG);
+                pageSize = control.readInteger();
+                byte[] cookie = control.readOctetString();
+                offset = cookie.length > 0 ? Integer.parseInt(new String(cookie, BERWriter.UTF_8)) : 0;
+            }
+
+            List<String> matches = new ArrayList<String>();
+            synchronized (entries)
+            {
+                for (String dn : entries.keySet())
+                {
+                    if (scope == LDAPSearchControls.OBJECT_SCOPE ? dn.equals(baseDn) : dn.endsWith("," + baseDn) && dn.indexOf(',') == dn.length() - baseDn.length() - 1)
+                    {
+                        matches.add(dn);
+                    }
+                }
+            }
+            if (scope == LDAPSearchControls.OBJECT_SCOPE && matches.isEmpty())
+            {
+                return result(request, LDAPMessage.SEARCH_RESULT_DONE, 32, null);
+            }
+
+            int end = pageSize > 0 ? Math.min(offset + pageSize, matches.size()) : matches.size();
+            int resultCode = 0;
+            if (sizeLimit > 0 && end - offset > sizeLimit)
+            {
+                end = offset + sizeLimit;
+                resultCode = 4;
+            }
+
+            BERWriter out = new BERWriter();
+            for (String dn : matches.subList(offset, end))
+            {
+                out.startSequence(BERWriter.SEQUENCE_TAG);
+                out.writeInteger(request.getMessageId());
+                out.startSequence(LDAPMessage.SEARCH_RESULT_ENTRY);
+                out.writeString(dn);
+                out.startSequence(BERWriter.SEQUENCE_TAG);
+                for (Map.Entry<String, List<Object>> attribute : entries.get(dn).entrySet())
+                {
+                    out.startSequence(BERWriter.SEQUENCE_TAG);
+                    out.writeString(attribute.getKey());
+                    out.startSequence(BERWriter.SET_TAG);
+                    for (Object value : attribute.getValue())
+                    {
+                        if (value instanceof byte[])
+                        {
+                            out.writeOctetString((byte[]) value);
+                        }
+                        else
+                        {
+                            out.writeString((String) value);
+                        }
+                    }
+                    out.endSequence();
+                    out.endSequence();
+                }
+                out.endSequence();
+                out.endSequence();
+                out.endSequence();
+            }
+            byte[] entriesBytes = out.toByteArray();
+            byte[] done = result(request, LDAPMessage.SEARCH_RESULT_DONE, resultCode, pageSize > 0 && end < matches.size() ? String.valueOf(end) : (pageSize > 0 ? "" : null));
+
+            byte[] response = Arrays.copyOf(entriesBytes, entriesBytes.length + done.length);
+            System.arraycopy(done, 0, response, entriesBytes.length, done.length);
+            return response;
+        }
+
+        private static byte[] result(LDAPMessage request, int operation, int resultCode, String cookie)
+        {
+            BERWriter out = new BERWriter();
+            out.startSequence(BERWriter.SEQUENCE_TAG);
+            out.writeInteger(request.getMessageId());
+            out.startSequence(operation);
+            out.writeEnumerated(resultCode);
+            out.writeString("");
+            out.writeString("");
+            out.endSequence();
+            if (cookie != null)
+            {
+                BERWriter value = new BERWriter();
+                value.startSequence(BERWriter.SEQUENCE_TAG);
+                value.writeInteger(0);
+                value.writeString(cookie);
+                value.endSequence();
+
+                out.startSequence(LDAPMessage.CONTROLS_TAG);
+                out.startSequence(BERWriter.SEQUENCE_TAG);
+                out.writeString(LDAPNIOConnection.PAGED_RESULTS_OID);
+                out.writeOctetString(value.toByteArray());
+                out.endSequence();
+                out.endSequence();
+            }
+            out.endSequence();
+            return out.toByteArray();
+        }
+    }
+}